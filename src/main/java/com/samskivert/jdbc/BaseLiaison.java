@@ -296,6 +296,19 @@ public abstract class BaseLiaison implements DatabaseLiaison
         return true;
     }
 
+    /**
+     * Returns true if the specified column is one of the supplied key columns.
+     */
+    protected static boolean isKeyColumn (String column, String[] keyColumns)
+    {
+        for (String key : keyColumns) {
+            if (key.equalsIgnoreCase(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     // from DatabaseLiaison
     public abstract String tableSQL (String table);
 
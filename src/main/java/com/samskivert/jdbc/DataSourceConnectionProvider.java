@@ -47,6 +47,9 @@ public class DataSourceConnectionProvider implements ConnectionProvider
     // from ConnectionProvider
     public void releaseConnection (String ident, boolean readOnly, Connection conn)
     {
+        // the connection is returned to the data source's pool by closing it, so let anything
+        // keeping state for it (like cached statements) know that it won't be used again
+        JDBCUtil.connectionClosed(conn);
         try {
             conn.close();
         } catch (Exception e) {
@@ -59,6 +62,7 @@ public class DataSourceConnectionProvider implements ConnectionProvider
     public void connectionFailed (String ident, boolean readOnly, Connection conn,
                                   SQLException error)
     {
+        JDBCUtil.connectionClosed(conn);
         try {
             conn.close();
         } catch (Exception e) {
@@ -203,6 +203,40 @@ public interface DatabaseLiaison
     public boolean dropTable (Connection conn, String name)
         throws SQLException;
 
+    /**
+     * Configures the supplied (forward-only, read-only) statement so that the results of queries
+     * it executes are streamed from the database rather than read into memory all at once.
+     *
+     * @param fetchSize the number of rows to fetch from the database at a time (where the
+     * database supports fetching in batches).
+     */
+    public default void configureStreaming (Connection conn, Statement stmt, int fetchSize)
+        throws SQLException
+    {
+        stmt.setFetchSize(fetchSize);
+    }
+
+    /**
+     * Returns the maximum number of parameters that may be bound to a single prepared statement.
+     * This is used to size multi-row inserts. The default is a conservative limit that most
+     * databases and drivers can handle.
+     */
+    public default int getMaxStatementParameters ()
+    {
+        return 2000;
+    }
+
+    /**
+     * Returns the SQL clause that, when appended to an insert of the supplied columns, causes a
+     * row that collides with an existing row on the supplied key columns to update the existing
+     * row's other columns instead. Returns null (the default) if the database supports no such
+     * clause.
+     */
+    public default String getUpsertClause (String[] columns, String[] keyColumns)
+    {
+        return null;
+    }
+
     /**
      * Returns the proper SQL to identify a table. Some databases require table names to be quoted.
      */
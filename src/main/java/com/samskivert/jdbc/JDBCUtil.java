@@ -10,6 +10,7 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
@@ -41,6 +42,16 @@ public class JDBCUtil
             throws SQLException;
     }
 
+    /** Used for {@link #addCloseListener}. */
+    public interface CloseListener
+    {
+        /**
+         * Called when a connection provider closes one of its connections (or returns it to an
+         * underlying pool), after which the connection will not be handed out again.
+         */
+        public void connectionClosed (Connection conn);
+    }
+
     /**
      * Closes the supplied JDBC statement and gracefully handles being passed null (by doing
      * nothing).
@@ -65,6 +76,31 @@ public class JDBCUtil
         }
     }
 
+    /**
+     * Registers a listener to be notified when connection providers close their connections, so
+     * that state kept for those connections (like cached statements) can be released.
+     */
+    public static void addCloseListener (CloseListener listener)
+    {
+        _closeListeners.add(listener);
+    }
+
+    /**
+     * Notifies the registered close listeners that the supplied connection has been closed (or
+     * returned to an underlying pool). Custom connection providers should call this whenever they
+     * close a connection.
+     */
+    public static void connectionClosed (Connection conn)
+    {
+        for (CloseListener listener : _closeListeners) {
+            try {
+                listener.connectionClosed(conn);
+            } catch (Exception e) {
+                log.warning("Close listener choked", "listener", listener, "conn", conn, e);
+            }
+        }
+    }
+
     /**
      * Wraps the given connection in a proxied instance that will add all statements returned by
      * methods called on the proxy (such as {@link Connection#createStatement}) to the supplied
@@ -185,6 +221,92 @@ public class JDBCUtil
         }
     }
 
+    /**
+     * Like {@link #batchQuery} but uses a prepared statement, with the keys bound as parameters.
+     * The keys are issued in batches of at most {@link #MAX_BATCH_KEYS}, and each batch uses one of
+     * a small number of fixed sizes (see {@link #getBatchSize}), padded by repeating its last key,
+     * so that only a handful of distinct statements are ever issued and the database can reuse
+     * their query plans. For example:
+     * <pre>{@code
+     *    String query = "select NAME from USERS where USER_ID in (#KEYS#)";
+     *    JDBCUtil.batchQueryParams(conn, query, keys, proc);
+     * }</pre>
+     *
+     * @param query the SQL query to run for each batch with the string <code>#KEYS#</code> in the
+     * place where the batch of key placeholders should be substituted.
+     */
+    public static void batchQueryParams (Connection conn, String query, List<?> keys,
+                                         BatchProcessor processor)
+        throws SQLException
+    {
+        PreparedStatement[] stmts = new PreparedStatement[BATCH_SIZES.length];
+        try {
+            for (int offset = 0, size = keys.size(); offset < size; offset += MAX_BATCH_KEYS) {
+                int count = Math.min(MAX_BATCH_KEYS, size - offset);
+                int bidx = getBatchSizeIndex(count), bsize = BATCH_SIZES[bidx];
+                if (stmts[bidx] == null) {
+                    stmts[bidx] = conn.prepareStatement(
+                        query.replace("#KEYS#", getPlaceholders(bsize)));
+                }
+                PreparedStatement stmt = stmts[bidx];
+                Object[] params = padBatch(keys, offset, count);
+                for (int ii = 0; ii < params.length; ii++) {
+                    stmt.setObject(ii+1, params[ii]);
+                }
+                ResultSet rs = stmt.executeQuery();
+                try {
+                    while (rs.next()) {
+                        processor.process(rs);
+                    }
+                } finally {
+                    rs.close();
+                }
+            }
+
+        } finally {
+            for (PreparedStatement stmt : stmts) {
+                close(stmt);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of placeholders that should be used for a batch of the specified number
+     * of keys (which must be no more than {@link #MAX_BATCH_KEYS}): the smallest of {@link
+     * #BATCH_SIZES} that will hold them all.
+     */
+    public static int getBatchSize (int keys)
+    {
+        return BATCH_SIZES[getBatchSizeIndex(keys)];
+    }
+
+    /**
+     * Returns a string containing the specified number of comma separated <code>?</code>
+     * placeholders, suitable for use in an SQL <code>in</code> clause.
+     */
+    public static String getPlaceholders (int count)
+    {
+        for (int ii = 0; ii < BATCH_SIZES.length; ii++) {
+            if (BATCH_SIZES[ii] == count) {
+                return BATCH_PLACEHOLDERS[ii];
+            }
+        }
+        return makePlaceholders(count);
+    }
+
+    /**
+     * Returns an array containing the specified range of the supplied keys, padded to the length
+     * returned by {@link #getBatchSize} by repeating the last key in the range.
+     */
+    public static Object[] padBatch (List<?> keys, int offset, int count)
+    {
+        Object[] params = new Object[getBatchSize(count)];
+        for (int ii = 0; ii < params.length; ii++) {
+            params[ii] = keys.get(offset + Math.min(ii, count-1));
+        }
+        return params;
+    }
+
     /**
      * Calls <code>stmt.executeUpdate()</code> on the supplied statement with the supplied query,
      * checking to see that it returns the expected update count and logging a warning if it does
@@ -643,6 +765,48 @@ public class JDBCUtil
                                ", col=" + column + "].");
     }
 
+    protected static int getBatchSizeIndex (int keys)
+    {
+        for (int ii = 0; ii < BATCH_SIZES.length; ii++) {
+            if (keys <= BATCH_SIZES[ii]) {
+                return ii;
+            }
+        }
+        throw new IllegalArgumentException(
+            "Batch of " + keys + " keys exceeds maximum of " + MAX_BATCH_KEYS);
+    }
+
+    protected static String makePlaceholders (int count)
+    {
+        StringBuilder buf = new StringBuilder(count * 2);
+        for (int ii = 0; ii < count; ii++) {
+            buf.append((ii == 0) ? "?" : ",?");
+        }
+        return buf.toString();
+    }
+
+    protected static String[] makeBatchPlaceholders ()
+    {
+        String[] placeholders = new String[BATCH_SIZES.length];
+        for (int ii = 0; ii < placeholders.length; ii++) {
+            placeholders[ii] = makePlaceholders(BATCH_SIZES[ii]);
+        }
+        return placeholders;
+    }
+
+    /** The number of keys bound to the statements issued by {@link #batchQueryParams}. */
+    protected static final int[] BATCH_SIZES = { 1, 8, 64, 256 };
+
+    /** The maximum number of keys in a single batch issued by {@link #batchQueryParams}. */
+    public static final int MAX_BATCH_KEYS = BATCH_SIZES[BATCH_SIZES.length-1];
+
+    /** The placeholder strings for each of our batch sizes. */
+    protected static final String[] BATCH_PLACEHOLDERS = makeBatchPlaceholders();
+
+    /** Notified when connection providers close their connections. */
+    protected static final List<CloseListener> _closeListeners =
+        new CopyOnWriteArrayList<CloseListener>();
+
     /** Used by {@link #makeCollector}. */
     protected static final Class<?>[] PROXY_IFACES = { Connection.class };
 }
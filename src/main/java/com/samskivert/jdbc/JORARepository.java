@@ -7,6 +7,8 @@ package com.samskivert.jdbc;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.samskivert.io.PersistenceException;
 import com.samskivert.jdbc.jora.*;
@@ -45,14 +47,18 @@ public abstract class JORARepository extends SimpleRepository
     protected <T> int insert (final Table<T> table, final T object)
         throws PersistenceException
     {
-        return executeUpdate(new Operation<Integer>() {
-            public Integer invoke (Connection conn, DatabaseLiaison liaison)
-                throws SQLException, PersistenceException
-            {
-                table.insert(conn, object);
-                return liaison.lastInsertedId(conn, null, table.getName(), "TODO");
-            }
-        });
+        try {
+            return executeUpdate(new Operation<Integer>() {
+                public Integer invoke (Connection conn, DatabaseLiaison liaison)
+                    throws SQLException, PersistenceException
+                {
+                    table.insert(conn, object);
+                    return liaison.lastInsertedId(conn, null, table.getName(), "TODO");
+                }
+            });
+        } finally {
+            tableModified(table);
+        }
     }
 
     /**
@@ -63,13 +69,17 @@ public abstract class JORARepository extends SimpleRepository
     protected <T> int update (final Table<T> table, final T object)
         throws PersistenceException
     {
-        return executeUpdate(new Operation<Integer>() {
-            public Integer invoke (Connection conn, DatabaseLiaison liaison)
-                throws SQLException, PersistenceException
-            {
-                return table.update(conn, object);
-            }
-        });
+        try {
+            return executeUpdate(new Operation<Integer>() {
+                public Integer invoke (Connection conn, DatabaseLiaison liaison)
+                    throws SQLException, PersistenceException
+                {
+                    return table.update(conn, object);
+                }
+            });
+        } finally {
+            tableModified(table);
+        }
     }
 
     /**
@@ -81,13 +91,17 @@ public abstract class JORARepository extends SimpleRepository
     protected <T> int update (final Table<T> table, final T object, final FieldMask mask)
         throws PersistenceException
     {
-        return executeUpdate(new Operation<Integer>() {
-            public Integer invoke (Connection conn, DatabaseLiaison liaison)
-                throws SQLException, PersistenceException
-            {
-                return table.update(conn, object, mask);
-            }
-        });
+        try {
+            return executeUpdate(new Operation<Integer>() {
+                public Integer invoke (Connection conn, DatabaseLiaison liaison)
+                    throws SQLException, PersistenceException
+                {
+                    return table.update(conn, object, mask);
+                }
+            });
+        } finally {
+            tableModified(table);
+        }
     }
 
     /**
@@ -96,7 +110,7 @@ public abstract class JORARepository extends SimpleRepository
     protected <T> ArrayList<T> loadAll (final Table<T> table, final String query)
         throws PersistenceException
     {
-        return execute(new Operation<ArrayList<T>>() {
+        return cachedList(table, query, null, new Operation<ArrayList<T>>() {
             public ArrayList<T> invoke (Connection conn, DatabaseLiaison liaison)
                 throws SQLException, PersistenceException
             {
@@ -115,7 +129,7 @@ public abstract class JORARepository extends SimpleRepository
                                               final Object... params)
         throws PersistenceException
     {
-        return execute(new Operation<ArrayList<T>>() {
+        return cachedList(table, query, params, new Operation<ArrayList<T>>() {
             public ArrayList<T> invoke (Connection conn, DatabaseLiaison liaison)
                 throws SQLException, PersistenceException
             {
@@ -124,6 +138,30 @@ public abstract class JORARepository extends SimpleRepository
         });
     }
 
+    /**
+     * Streams all objects from the specified table that match the supplied parameterized query
+     * to the supplied visitor, without loading them all into memory. See {@link Table#stream}.
+     *
+     * @param query a WHERE clause using ? placeholders for parameters.
+     * @param fetchSize the number of rows to fetch from the database at a time.
+     * @param params parameter values to bind to the ? placeholders.
+     *
+     * @return the number of objects visited.
+     */
+    protected <T> int streamAllParams (final Table<T> table, final String query,
+                                       final int fetchSize, final Cursor.Visitor<? super T> visitor,
+                                       final Object... params)
+        throws PersistenceException
+    {
+        return execute(new Operation<Integer>() {
+            public Integer invoke (Connection conn, DatabaseLiaison liaison)
+                throws SQLException, PersistenceException
+            {
+                return table.stream(conn, liaison, query, fetchSize, params).forEach(visitor);
+            }
+        });
+    }
+
     /**
      * Loads all objects from the specified table that match the supplied query, joining with the
      * supplied auxiliary table(s).
@@ -179,7 +217,7 @@ public abstract class JORARepository extends SimpleRepository
     protected <T> T load (final Table<T> table, final String query)
         throws PersistenceException
     {
-        return execute(new Operation<T>() {
+        return cachedObject(table, query, null, new Operation<T>() {
             public T invoke (Connection conn, DatabaseLiaison liaison)
                 throws SQLException, PersistenceException
             {
@@ -198,7 +236,7 @@ public abstract class JORARepository extends SimpleRepository
     protected <T> T loadParams (final Table<T> table, final String query, final Object... params)
         throws PersistenceException
     {
-        return execute(new Operation<T>() {
+        return cachedObject(table, query, params, new Operation<T>() {
             public T invoke (Connection conn, DatabaseLiaison liaison)
                 throws SQLException, PersistenceException
             {
@@ -288,17 +326,64 @@ public abstract class JORARepository extends SimpleRepository
     protected <T> int store (final Table<T> table, final T object)
         throws PersistenceException
     {
-        return executeUpdate(new Operation<Integer>() {
-            public Integer invoke (Connection conn, DatabaseLiaison liaison)
-                throws SQLException, PersistenceException
-            {
-                if (table.update(conn, object) == 0) {
-                    table.insert(conn, object);
-                    return liaison.lastInsertedId(conn, null, table.getName(), "TODO");
+        try {
+            return executeUpdate(new Operation<Integer>() {
+                public Integer invoke (Connection conn, DatabaseLiaison liaison)
+                    throws SQLException, PersistenceException
+                {
+                    if (table.update(conn, object) == 0) {
+                        table.insert(conn, object);
+                        return liaison.lastInsertedId(conn, null, table.getName(), "TODO");
+                    }
+                    return -1;
                 }
-                return -1;
-            }
-        });
+            });
+        } finally {
+            tableModified(table);
+        }
+    }
+
+    /**
+     * Inserts the supplied objects into the specified table using multi-row inserts. See {@link
+     * Table#insert(Connection,DatabaseLiaison,Object[])}.
+     */
+    protected <T> void insert (final Table<T> table, final T[] objects)
+        throws PersistenceException
+    {
+        try {
+            executeUpdate(new Operation<Object>() {
+                public Object invoke (Connection conn, DatabaseLiaison liaison)
+                    throws SQLException, PersistenceException
+                {
+                    table.insert(conn, liaison, objects);
+                    return null;
+                }
+            });
+        } finally {
+            tableModified(table);
+        }
+    }
+
+    /**
+     * Inserts the supplied objects into the specified table, updating any that already exist.
+     * Where the database supports it, this is done with multi-row upserts. See {@link
+     * Table#store(Connection,DatabaseLiaison,Object[])}.
+     */
+    protected <T> void store (final Table<T> table, final T[] objects)
+        throws PersistenceException
+    {
+        try {
+            executeUpdate(new Operation<Object>() {
+                public Object invoke (Connection conn, DatabaseLiaison liaison)
+                    throws SQLException, PersistenceException
+                {
+                    table.store(conn, liaison, objects);
+                    return null;
+                }
+            });
+        } finally {
+            tableModified(table);
+        }
     }
 
     /**
@@ -312,13 +397,17 @@ public abstract class JORARepository extends SimpleRepository
     {
         final FieldMask mask = table.getFieldMask();
         mask.setModified(field);
-        return executeUpdate(new Operation<Integer>() {
-            public Integer invoke (Connection conn, DatabaseLiaison liaison)
-                throws SQLException, PersistenceException
-            {
-                return table.update(conn, object, mask);
-            }
-        });
+        try {
+            return executeUpdate(new Operation<Integer>() {
+                public Integer invoke (Connection conn, DatabaseLiaison liaison)
+                    throws SQLException, PersistenceException
+                {
+                    return table.update(conn, object, mask);
+                }
+            });
+        } finally {
+            tableModified(table);
+        }
     }
 
     /**
@@ -334,13 +423,17 @@ public abstract class JORARepository extends SimpleRepository
         for (int ii = 0; ii < fields.length; ii++) {
             mask.setModified(fields[ii]);
         }
-        return executeUpdate(new Operation<Integer>() {
-            public Integer invoke (Connection conn, DatabaseLiaison liaison)
-                throws SQLException, PersistenceException
-            {
-                return table.update(conn, object, mask);
-            }
-        });
+        try {
+            return executeUpdate(new Operation<Integer>() {
+                public Integer invoke (Connection conn, DatabaseLiaison liaison)
+                    throws SQLException, PersistenceException
+                {
+                    return table.update(conn, object, mask);
+                }
+            });
+        } finally {
+            tableModified(table);
+        }
     }
 
     /**
@@ -351,13 +444,119 @@ public abstract class JORARepository extends SimpleRepository
     protected <T> int delete (final Table<T> table, final T object)
         throws PersistenceException
     {
-        return executeUpdate(new Operation<Integer>() {
-            public Integer invoke (Connection conn, DatabaseLiaison liaison)
-                throws SQLException, PersistenceException
-            {
-                return table.delete(conn, object);
-            }
-        });
+        try {
+            return executeUpdate(new Operation<Integer>() {
+                public Integer invoke (Connection conn, DatabaseLiaison liaison)
+                    throws SQLException, PersistenceException
+                {
+                    return table.delete(conn, object);
+                }
+            });
+        } finally {
+            tableModified(table);
+        }
+    }
+
+    /**
+     * Enables caching of the results of {@link #loadAll(Table,String)}, {@link #loadAllParams},
+     * {@link #load(Table,String)} and {@link #loadParams(Table,String,Object...)} queries on the
+     * specified table, which is best suited to small tables that are read often and rarely
+     * modified. Cached results are discarded whenever the table is modified via this repository,
+     * but changes made by other repositories or processes are not noticed.
+     *
+     * <p> Callers are given copies of the cached objects (see {@link Table#copy}), so they may
+     * modify the objects they load, for example prior to updating them, without affecting the
+     * cache or other callers. The copies are shallow, other than for compound, byte array and date
+     * fields, so the row class must not otherwise have mutable fields.
+     *
+     * @param maxEntries the maximum number of query results to cache.
+     * @param maxRows the maximum total number of rows (objects) in the cached results.
+     */
+    protected void enableQueryCache (Table<?> table, int maxEntries, int maxRows)
+    {
+        _queryCaches.put(table, new QueryCache(maxEntries, maxRows));
+    }
+
+    /**
+     * Returns statistics for the query cache enabled for the specified table, or null if no query
+     * cache is enabled for the table.
+     */
+    public QueryCache.Stats getQueryCacheStats (Table<?> table)
+    {
+        QueryCache cache = _queryCaches.get(table);
+        return (cache == null) ? null : cache.getStats();
+    }
+
+    /**
+     * Called after the specified table has been (or may have been) modified, to discard any
+     * cached query results for the table.
+     */
+    protected void tableModified (Table<?> table)
+    {
+        QueryCache cache = _queryCaches.get(table);
+        if (cache != null) {
+            cache.invalidate();
+        }
+    }
+
+    /**
+     * Returns a copy of the cached result of the specified list query (containing copies of the
+     * cached objects), executing the supplied operation to obtain (and cache) the result if
+     * necessary.
+     */
+    protected <T> ArrayList<T> cachedList (Table<T> table, String query, Object[] params,
+                                           Operation<ArrayList<T>> op)
+        throws PersistenceException
+    {
+        QueryCache cache = _queryCaches.get(table);
+        if (cache == null) {
+            return execute(op);
+        }
+        QueryCache.Key key = new QueryCache.Key("list", query, params);
+        @SuppressWarnings("unchecked") ArrayList<T> result = (ArrayList<T>)cache.get(key);
+        if (result == null) {
+            long generation = cache.getGeneration();
+            result = execute(op);
+            cache.put(key, generation, result);
+        }
+        ArrayList<T> copy = new ArrayList<T>(result.size());
+        for (T object : result) {
+            copy.add(table.copy(object));
+        }
+        return copy;
+    }
+
+    /**
+     * Returns a copy of the cached result of the specified single object query, executing the
+     * supplied operation to obtain (and cache) the result if necessary.
+     */
+    protected <T> T cachedObject (Table<T> table, String query, Object[] params, Operation<T> op)
+        throws PersistenceException
+    {
+        QueryCache cache = _queryCaches.get(table);
+        if (cache == null) {
+            return execute(op);
+        }
+        QueryCache.Key key = new QueryCache.Key("object", query, params);
+        Object result = cache.get(key);
+        if (result == null) {
+            long generation = cache.getGeneration();
+            result = execute(op);
+            cache.put(key, generation, (result == null) ? QueryCache.NULL_RESULT : result);
+        }
+        if (result == QueryCache.NULL_RESULT) {
+            return null;
+        }
+        @SuppressWarnings("unchecked") T object = (T)result;
+        return table.copy(object);
+    }
+
+    @Override
+    protected void connectionFailed (Connection conn, SQLException error)
+    {
+        super.connectionFailed(conn, error);
+        // don't reuse any statements prepared on the failed connection
+        StatementCache.invalidate(conn);
     }
 
     /**
@@ -365,4 +564,7 @@ public abstract class JORARepository extends SimpleRepository
      * implementation the opportunity to create its table objects.
      */
     protected abstract void createTables ();
+
+    /** The query caches for those of our tables that have them enabled. */
+    protected Map<Table<?>,QueryCache> _queryCaches = new ConcurrentHashMap<Table<?>,QueryCache>();
 }
@@ -8,8 +8,8 @@ package com.samskivert.jdbc;
 import java.sql.*;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.samskivert.jdbc.Log.log;
 
@@ -43,7 +43,8 @@ public class LiaisonRegistry
                 liaison = new DefaultLiaison();
             }
 
-            // map this URL to this liaison
+            // map this URL to this liaison (if another thread beat us to it, we'll have found the
+            // same liaison, so it doesn't matter whose mapping wins)
             _mappings.put(url, liaison);
         }
 
@@ -70,7 +71,8 @@ public class LiaisonRegistry
     }
 
     protected static ArrayList<DatabaseLiaison> _liaisons = new ArrayList<DatabaseLiaison>();
-    protected static Map<String,DatabaseLiaison> _mappings = new HashMap<String,DatabaseLiaison>();
+    protected static Map<String,DatabaseLiaison> _mappings =
+        new ConcurrentHashMap<String,DatabaseLiaison>();
 
     // register our liaison classes
     static {
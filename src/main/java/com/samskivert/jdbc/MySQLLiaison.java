@@ -50,6 +50,47 @@ public class MySQLLiaison extends BaseLiaison
         // AUTO_INCREMENT does not create any database entities that we need to delete
     }
 
+    @Override // from DatabaseLiaison
+    public void configureStreaming (Connection conn, Statement stmt, int fetchSize)
+        throws SQLException
+    {
+        // Connector/J only streams results (one row at a time) when the fetch size is exactly
+        // MIN_VALUE; any other fetch size reads the entire result into memory. Note that no other
+        // statements may be executed on the connection until the streamed result set is closed.
+        stmt.setFetchSize(Integer.MIN_VALUE);
+    }
+
+    @Override // from DatabaseLiaison
+    public int getMaxStatementParameters ()
+    {
+        // the MySQL protocol uses a two byte parameter count
+        return 65535;
+    }
+
+    @Override // from DatabaseLiaison
+    public String getUpsertClause (String[] columns, String[] keyColumns)
+    {
+        StringBuilder buf = new StringBuilder(" on duplicate key update ");
+        String keyColumn = null;
+        boolean first = true;
+        for (String column : columns) {
+            if (isKeyColumn(column, keyColumns)) {
+                keyColumn = column;
+                continue;
+            }
+            if (!first) {
+                buf.append(",");
+            }
+            buf.append(column).append("=values(").append(column).append(")");
+            first = false;
+        }
+        // if every column is a key column, we have nothing to update, but need a no-op assignment
+        if (first && keyColumn != null) {
+            buf.append(keyColumn).append("=").append(keyColumn);
+        }
+        return buf.toString();
+    }
+
     @Override // from BaseLiaison
     public int lastInsertedId (Connection conn, Statement istmt, String table, String column)
         throws SQLException
@@ -7,6 +7,8 @@ package com.samskivert.jdbc;
 
 import java.sql.*;
 
+import static com.samskivert.jdbc.Log.log;
+
 /**
  * A database liaison for the MySQL database.
  */
@@ -34,6 +36,50 @@ public class PostgreSQLLiaison extends BaseLiaison
                 msg.indexOf("An I/O error occured while sending to the backend") != -1);
     }
 
+    @Override // from DatabaseLiaison
+    public void configureStreaming (Connection conn, Statement stmt, int fetchSize)
+        throws SQLException
+    {
+        // the PostgreSQL driver only fetches results using a server-side cursor (in batches of
+        // fetch size rows) when auto-commit is disabled; otherwise it reads the entire result
+        if (!_warnedAutoCommit && conn.getAutoCommit()) {
+            _warnedAutoCommit = true;
+            log.warning("Streaming query on auto-commit connection will read all results. " +
+                        "(Further such queries will not be reported.)");
+        }
+        stmt.setFetchSize(fetchSize);
+    }
+
+    @Override // from DatabaseLiaison
+    public int getMaxStatementParameters ()
+    {
+        // the PostgreSQL protocol uses a signed two byte parameter count
+        return Short.MAX_VALUE;
+    }
+
+    @Override // from DatabaseLiaison
+    public String getUpsertClause (String[] columns, String[] keyColumns)
+    {
+        StringBuilder buf = new StringBuilder(" on conflict (");
+        for (int ii = 0; ii < keyColumns.length; ii++) {
+            buf.append(ii > 0 ? "," : "").append(keyColumns[ii]);
+        }
+        buf.append(") do ");
+        boolean first = true;
+        for (String column : columns) {
+            if (isKeyColumn(column, keyColumns)) {
+                continue;
+            }
+            buf.append(first ? "update set " : ",");
+            buf.append(column).append("=excluded.").append(column);
+            first = false;
+        }
+        if (first) {
+            buf.append("nothing");
+        }
+        return buf.toString();
+    }
+
     @Override
     protected int fetchLastInsertedId (Connection conn, String table, String column)
         throws SQLException
@@ -136,4 +182,7 @@ public class PostgreSQLLiaison extends BaseLiaison
     {
         return "\"" + index + "\"";
     }
+
+    /** Whether we've already warned about streaming on an auto-commit connection. */
+    protected volatile boolean _warnedAutoCommit;
 }
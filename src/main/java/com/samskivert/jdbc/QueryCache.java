@@ -0,0 +1,189 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.jdbc;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import com.samskivert.util.LRUHashMap;
+
+/**
+ * Caches the results of queries on a single table, see {@link JORARepository#enableQueryCache}.
+ * The cache is bounded both by the number of query results it holds and by the total number of
+ * rows in those results, evicting the least recently used results to stay within those bounds.
+ *
+ * <p> A result is only cached if the table was not modified while it was being queried, so a
+ * query that races with a write cannot repopulate the cache with stale data.
+ */
+public class QueryCache
+{
+    /** Identifies a cached query: its type, text and parameters. */
+    public static class Key
+    {
+        public Key (String type, String query, Object[] params) {
+            _type = type;
+            _query = query;
+            _params = (params == null) ? NO_PARAMS : params.clone();
+            _hash = (type.hashCode() * 31 + query.hashCode()) * 31 + Arrays.deepHashCode(_params);
+        }
+
+        @Override public int hashCode () {
+            return _hash;
+        }
+
+        @Override public boolean equals (Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key okey = (Key)other;
+            return _hash == okey._hash && _type.equals(okey._type) &&
+                _query.equals(okey._query) && Arrays.deepEquals(_params, okey._params);
+        }
+
+        @Override public String toString () {
+            return _type + ":" + _query + Arrays.deepToString(_params);
+        }
+
+        protected final String _type, _query;
+        protected final Object[] _params;
+        protected final int _hash;
+    }
+
+    /**
+     * A snapshot of a query cache's statistics.
+     */
+    public static class Stats
+    {
+        /** The number of query results currently cached. */
+        public final int entries;
+
+        /** The number of lookups that found a cached result. */
+        public final long hits;
+
+        /** The number of lookups that found no cached result. */
+        public final long misses;
+
+        /** The number of times the cache was cleared because its table was modified. */
+        public final long invalidations;
+
+        public Stats (int entries, long hits, long misses, long invalidations) {
+            this.entries = entries;
+            this.hits = hits;
+            this.misses = misses;
+            this.invalidations = invalidations;
+        }
+
+        @Override public String toString () {
+            return "[entries=" + entries + ", hits=" + hits + ", misses=" + misses +
+                ", invalidations=" + invalidations + "]";
+        }
+    }
+
+    /**
+     * Creates a cache that holds at most <code>maxEntries</code> query results, containing at
+     * most <code>maxRows</code> rows in total.
+     */
+    public QueryCache (int maxEntries, int maxRows)
+    {
+        _maxEntries = maxEntries;
+        _maxRows = maxRows;
+        _results = new LRUHashMap<Key,Object>(maxRows, new LRUHashMap.ItemSizer<Object>() {
+            public int computeSize (Object result) {
+                return getRows(result);
+            }
+        });
+    }
+
+    /**
+     * Returns the cached result for the supplied query, {@link #NULL_RESULT} if the query is
+     * cached as matching no row, or null if the query is not cached.
+     */
+    public synchronized Object get (Key key)
+    {
+        Object result = _results.get(key);
+        if (result == null) {
+            _misses++;
+        } else {
+            _hits++;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the current generation of the cache. This must be obtained before querying the
+     * database and supplied to {@link #put} with the result.
+     */
+    public synchronized long getGeneration ()
+    {
+        return _generation;
+    }
+
+    /**
+     * Caches the supplied result for the specified query, unless the cache has been invalidated
+     * since the supplied generation was obtained.
+     *
+     * @param result the query result, which must not be null (use {@link #NULL_RESULT}).
+     */
+    public synchronized void put (Key key, long generation, Object result)
+    {
+        // don't let a result that can never fit flush everything else
+        if (generation != _generation || getRows(result) > _maxRows) {
+            return;
+        }
+        _results.put(key, result);
+        // the map bounds our total rows, we must also stay within our maximum entry count (keys
+        // are iterated least recently used first)
+        while (_results.size() > _maxEntries) {
+            _results.remove(_results.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * Clears the cache. This is called whenever the cached table is modified.
+     */
+    public synchronized void invalidate ()
+    {
+        _generation++;
+        _results.clear();
+        _invalidations++;
+    }
+
+    /**
+     * Returns a snapshot of this cache's statistics.
+     */
+    public synchronized Stats getStats ()
+    {
+        return new Stats(_results.size(), _hits, _misses, _invalidations);
+    }
+
+    /**
+     * Returns the number of rows in the supplied result for the purposes of bounding the cache.
+     */
+    protected static int getRows (Object result)
+    {
+        // every result costs at least one row, even an empty one
+        return (result instanceof Collection<?>) ? Math.max(1, ((Collection<?>)result).size()) : 1;
+    }
+
+    /** Cached in place of a null query result. */
+    public static final Object NULL_RESULT = new Object();
+
+    /** Our cached query results. */
+    protected LRUHashMap<Key,Object> _results;
+
+    /** The maximum number of results we cache. */
+    protected int _maxEntries;
+
+    /** The maximum total number of rows in the results we cache. */
+    protected int _maxRows;
+
+    /** Incremented every time we are invalidated. */
+    protected long _generation;
+
+    protected long _hits, _misses, _invalidations;
+
+    protected static final Object[] NO_PARAMS = {};
+}
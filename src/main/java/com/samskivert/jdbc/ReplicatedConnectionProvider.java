@@ -0,0 +1,382 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.jdbc;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.samskivert.io.PersistenceException;
+import com.samskivert.util.ConfigUtil;
+import com.samskivert.util.PropertiesUtil;
+import com.samskivert.util.StringUtil;
+
+import static com.samskivert.jdbc.Log.log;
+
+/**
+ * A {@link StaticConnectionProvider} that sends read-only operations to a set of read replicas.
+ * Each read-only connection request is given to the (non-ejected) replica with the fewest
+ * connections currently checked out. A replica that cannot be connected to, or whose connection
+ * fails with a connection-level error, is ejected for a while, after which it is tried again. A
+ * replica whose pool is merely busy (such that we time out waiting for one of its connections) is
+ * not ejected, but the next replica is tried. If no replica is available, read-only connections
+ * are made to the primary database, exactly as they would be by a plain static connection
+ * provider. Writes and transactions always go to the primary database.
+ *
+ * <p> Replicas are configured (in addition to the standard static connection provider properties)
+ * as follows:
+ *
+ * <pre>
+ * IDENT.read_urls=[jdbc url],[jdbc url],...   # the replica URLs
+ * IDENT.read_username=[jdbc username]         # defaults to IDENT.username
+ * IDENT.read_password=[jdbc password]         # defaults to IDENT.password
+ * IDENT.replica_eject_millis=30000            # how long a failed replica is ejected
+ * </pre>
+ *
+ * Each replica has its own connection pool, configured by the same pool properties as the
+ * primary database. As with other properties, these may be supplied via the <code>default</code>
+ * identifier.
+ */
+public class ReplicatedConnectionProvider extends StaticConnectionProvider
+{
+    /**
+     * Constructs a replicated connection provider which will load its configuration from a
+     * properties file accessible via the classpath of the running application and identified by
+     * the specified path.
+     */
+    public ReplicatedConnectionProvider (String propPath)
+        throws IOException
+    {
+        this(ConfigUtil.loadProperties(propPath));
+    }
+
+    /**
+     * Constructs a replicated connection provider which will fetch its configuration information
+     * from the specified properties object.
+     */
+    public ReplicatedConnectionProvider (Properties props)
+    {
+        super(props);
+    }
+
+    @Override // from ConnectionProvider
+    public Connection getConnection (String ident, boolean readOnly)
+        throws PersistenceException
+    {
+        if (readOnly) {
+            Connection conn = getReplicas(ident).getConnection(ident);
+            if (conn != null) {
+                return conn;
+            }
+        }
+        return super.getConnection(ident, readOnly);
+    }
+
+    @Override // from ConnectionProvider
+    public void releaseConnection (String ident, boolean readOnly, Connection conn)
+    {
+        Replica replica = readOnly ? _owners.get(conn) : null;
+        if (replica != null) {
+            replica.releaseConnection(ident, conn);
+            forgetOwner(ident, replica, conn);
+        } else {
+            super.releaseConnection(ident, readOnly, conn);
+        }
+    }
+
+    @Override // from ConnectionProvider
+    public void connectionFailed (
+        String ident, boolean readOnly, Connection conn, SQLException error)
+    {
+        Replica replica = readOnly ? _owners.get(conn) : null;
+        if (replica != null) {
+            replica.connectionFailed(ident, conn, error);
+            forgetOwner(ident, replica, conn);
+        } else {
+            super.connectionFailed(ident, readOnly, conn, error);
+        }
+    }
+
+    @Override // from ConnectionProvider
+    public void shutdown ()
+    {
+        super.shutdown();
+        _replicas.clear();
+    }
+
+    /**
+     * Returns the status of each replica, mapped by the username and url of its database.
+     */
+    public Map<String,ReplicaStats> getReplicaStats ()
+    {
+        Map<String,ReplicaStats> stats = new TreeMap<String,ReplicaStats>();
+        long now = System.currentTimeMillis();
+        for (Replicas replicas : _replicas.values()) {
+            for (Replica replica : replicas.replicas) {
+                stats.put(replica.mapping.key, replica.getStats(now));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * A snapshot of the state of a read replica.
+     */
+    public static class ReplicaStats
+    {
+        /** The number of connections to this replica currently checked out. */
+        public final int outstanding;
+
+        /** The number of connections handed out for this replica. */
+        public final long borrows;
+
+        /** The number of times this replica has been ejected. */
+        public final long ejections;
+
+        /** Whether or not this replica is currently ejected. */
+        public final boolean ejected;
+
+        public ReplicaStats (int outstanding, long borrows, long ejections, boolean ejected) {
+            this.outstanding = outstanding;
+            this.borrows = borrows;
+            this.ejections = ejections;
+            this.ejected = ejected;
+        }
+
+        @Override public String toString () {
+            return "[outstanding=" + outstanding + ", borrows=" + borrows +
+                ", ejections=" + ejections + ", ejected=" + ejected + "]";
+        }
+    }
+
+    /**
+     * Returns true if the supplied error, reported for a replica connection, indicates that the
+     * replica itself is unhealthy (rather than, say, that a query was malformed). Only connection
+     * errors qualify; a failure reported without an error does not.
+     */
+    protected boolean isReplicaFailure (SQLException error)
+    {
+        if (error == null) {
+            return false;
+        }
+        if (error instanceof SQLTransientConnectionException ||
+            error instanceof SQLNonTransientConnectionException) {
+            return true;
+        }
+        // SQL state class 08 is "connection exception"
+        String state = error.getSQLState();
+        return state != null && state.startsWith("08");
+    }
+
+    /**
+     * Stops tracking the owner of the supplied replica connection, unless it is still held by an
+     * outer operation on this thread (via any identifier).
+     */
+    protected void forgetOwner (String ident, Replica replica, Connection conn)
+    {
+        if (!replica.mapping.isHeld(conn)) {
+            _owners.remove(conn);
+        }
+    }
+
+    protected Replicas getReplicas (String ident)
+        throws PersistenceException
+    {
+        Replicas replicas = _replicas.get(ident);
+        return (replicas != null) ? replicas : createReplicas(ident);
+    }
+
+    protected synchronized Replicas createReplicas (String ident)
+        throws PersistenceException
+    {
+        Replicas replicas = _replicas.get(ident);
+        if (replicas != null) {
+            return replicas;
+        }
+
+        Properties props = PropertiesUtil.getSubProperties(_props, ident, DEFAULTS_KEY);
+        String[] urls = StringUtil.parseStringArray(props.getProperty("read_urls", ""));
+        long ejectMillis = Long.parseLong(props.getProperty("replica_eject_millis", "30000"));
+        List<Replica> list = new ArrayList<Replica>();
+        for (String url : urls) {
+            Properties rprops = new Properties(props);
+            rprops.setProperty("url", url);
+            rprops.setProperty("username", props.getProperty(
+                                   "read_username", props.getProperty("username", "")));
+            rprops.setProperty("password", props.getProperty(
+                                   "read_password", props.getProperty("password", "")));
+            Info info = new Info(ident, rprops);
+
+            // share replica pools among identifiers just as the primary pools are shared
+            String key = info.username + "@" + info.url + ":true";
+            Mapping conmap = _keys.get(key);
+            if (conmap == null) {
+                log.debug("Creating replica " + key + " for " + ident + ".");
+                _keys.put(key, conmap = new Mapping(key, info, true, _maxIdleMillis));
+            }
+            list.add(new Replica(conmap, ejectMillis));
+        }
+
+        _replicas.put(ident, replicas = new Replicas(list.toArray(new Replica[list.size()])));
+        return replicas;
+    }
+
+    /** The read replicas for a particular database identifier. */
+    protected class Replicas
+    {
+        /** Our replicas, in configuration order. */
+        public final Replica[] replicas;
+
+        public Replicas (Replica[] replicas) {
+            this.replicas = replicas;
+        }
+
+        /**
+         * Returns a connection to the least loaded available replica, or null if no replica is
+         * available.
+         */
+        public Connection getConnection (String ident) {
+            // a nested operation shares the replica connection held by the outer operation
+            for (Replica replica : replicas) {
+                if (replica.mapping.isHeld()) {
+                    Connection conn = replica.getConnection(ident);
+                    if (conn != null) {
+                        _owners.put(conn, replica);
+                        return conn;
+                    }
+                }
+            }
+
+            // try each replica at most once, skipping those that are ejected or busy
+            boolean[] tried = new boolean[replicas.length];
+            for (int attempts = 0; attempts < replicas.length; attempts++) {
+                int index = selectReplica(System.currentTimeMillis(), tried);
+                if (index < 0) {
+                    break;
+                }
+                tried[index] = true;
+                Replica replica = replicas[index];
+                Connection conn = replica.getConnection(ident);
+                if (conn != null) {
+                    _owners.put(conn, replica);
+                    return conn;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Returns the index of the untried, non-ejected replica with the fewest outstanding
+         * connections, or -1.
+         */
+        protected int selectReplica (long now, boolean[] tried) {
+            // start from a rotating replica so that ties are spread evenly
+            int start = (_next.getAndIncrement() & Integer.MAX_VALUE), count = replicas.length;
+            int best = -1, bestOutstanding = Integer.MAX_VALUE;
+            for (int ii = 0; ii < count; ii++) {
+                int index = (start + ii) % count;
+                Replica replica = replicas[index];
+                if (tried[index] || replica.isEjected(now)) {
+                    continue;
+                }
+                int outstanding = replica.outstanding.get();
+                if (outstanding < bestOutstanding) {
+                    best = index;
+                    bestOutstanding = outstanding;
+                }
+            }
+            return best;
+        }
+
+        /** Used to rotate the starting replica. */
+        protected final AtomicInteger _next = new AtomicInteger();
+    }
+
+    /** Tracks the load and health of a single read replica. */
+    protected class Replica
+    {
+        /** The pool of connections to this replica. */
+        public final Mapping mapping;
+
+        /** The number of connections to this replica currently checked out. */
+        public final AtomicInteger outstanding = new AtomicInteger();
+
+        public Replica (Mapping mapping, long ejectMillis) {
+            this.mapping = mapping;
+            _ejectMillis = ejectMillis;
+        }
+
+        public boolean isEjected (long now) {
+            return now < _ejectedUntil;
+        }
+
+        /**
+         * Returns a connection to this replica, or null if one could not be obtained. If we
+         * failed to connect to the replica, it is ejected. If we merely timed out waiting for a
+         * connection from its (busy) pool, it is not.
+         */
+        public Connection getConnection (String ident) {
+            outstanding.incrementAndGet();
+            try {
+                Connection conn = mapping.getConnection(ident);
+                synchronized (this) {
+                    _borrows++;
+                }
+                return conn;
+            } catch (PersistenceException pe) {
+                outstanding.decrementAndGet();
+                // failures to open or configure a connection are caused by an SQLException,
+                // whereas pool wait timeouts (and interrupts) are not
+                if (pe.getCause() instanceof SQLException) {
+                    eject(ident, pe);
+                } else {
+                    log.debug("Read replica busy", "key", mapping.key, "ident", ident,
+                              "cause", pe.getMessage());
+                }
+                return null;
+            }
+        }
+
+        public void releaseConnection (String ident, Connection conn) {
+            outstanding.decrementAndGet();
+            mapping.releaseConnection(ident, conn);
+        }
+
+        public void connectionFailed (String ident, Connection conn, SQLException error) {
+            outstanding.decrementAndGet();
+            mapping.connectionFailed(ident, conn);
+            if (isReplicaFailure(error)) {
+                eject(ident, error);
+            }
+        }
+
+        public synchronized ReplicaStats getStats (long now) {
+            return new ReplicaStats(outstanding.get(), _borrows, _ejections, isEjected(now));
+        }
+
+        protected void eject (String ident, Exception cause) {
+            synchronized (this) {
+                _ejections++;
+            }
+            _ejectedUntil = System.currentTimeMillis() + _ejectMillis;
+            log.warning("Ejecting read replica", "key", mapping.key, "ident", ident,
+                        "millis", _ejectMillis, "cause", cause);
+        }
+
+        protected final long _ejectMillis;
+        protected volatile long _ejectedUntil;
+        protected long _borrows, _ejections;
+    }
+
+    /** The read replicas for each database identifier (which may be empty). */
+    protected Map<String,Replicas> _replicas = new ConcurrentHashMap<String,Replicas>();
+
+    /** The replica from which each outstanding replica connection was obtained. */
+    protected Map<Connection,Replica> _owners =
+        Collections.synchronizedMap(new IdentityHashMap<Connection,Replica>());
+}
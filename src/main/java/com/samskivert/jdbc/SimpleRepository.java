@@ -7,6 +7,16 @@ package com.samskivert.jdbc;
 
 import java.sql.*;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
 import com.samskivert.io.PersistenceException;
 import com.samskivert.util.StringUtil;
 
@@ -109,6 +119,12 @@ public class SimpleRepository extends Repository
      * connection unless a <code>PersistenceException</code> or runtime error occurs, in which case
      * a call to <code>rollback()</code> is executed on the connection.
      *
+     * <p> Auto-commit is disabled for the duration of the operation if it is enabled, and then
+     * restored (which also commits the operation's transaction). Each change costs a round trip to
+     * the database with most drivers, which providers that supply connections with auto-commit
+     * already disabled (see the {@code autocommit} property of {@link StaticConnectionProvider})
+     * avoid.
+     *
      * @param retryOnTransientFailure if true and the operation fails due to a transient failure
      * (like losing the connection to the database or deadlock detection), the connection to the
      * database will be reestablished (if necessary) and the operation attempted once more.
@@ -124,7 +140,7 @@ public class SimpleRepository extends Repository
         V rv = null;
         boolean supportsTransactions = false;
         boolean attemptedOperation = false;
-        Boolean oldAutoCommit = null;
+        boolean restoreAutoCommit = false;
 
         // check our pre-condition
         if (_precond != null && !_precond.validate(_dbident, op)) {
@@ -139,18 +155,15 @@ public class SimpleRepository extends Repository
         // we're done
         synchronized (conn) {
             try {
-                liaison = LiaisonRegistry.getLiaison(conn);
+                ConnectionInfo info = getConnectionInfo(conn);
+                liaison = info.liaison;
+                supportsTransactions = info.supportsTransactions;
 
-                // find out if we support transactions
-                DatabaseMetaData dmd = conn.getMetaData();
-                if (dmd != null) {
-                    supportsTransactions = dmd.supportsTransactions();
-                }
-
-                // turn off auto-commit
+                // turn off auto-commit (getAutoCommit() reports the driver's local state, so this
+                // only talks to the database if the connection has auto-commit enabled)
                 if (supportsTransactions && conn.getAutoCommit()) {
-                    oldAutoCommit = conn.getAutoCommit();
                     conn.setAutoCommit(false);
+                    restoreAutoCommit = true;
                 }
 
                 // let derived classes do any got-connection processing
@@ -160,8 +173,12 @@ public class SimpleRepository extends Repository
                 attemptedOperation = true;
                 rv = op.invoke(conn, liaison);
 
-                // commit the transaction
-                if (supportsTransactions) {
+                // commit the transaction; re-enabling auto-commit commits it for us, so we need
+                // not also call commit() in that case
+                if (restoreAutoCommit) {
+                    conn.setAutoCommit(true);
+                    restoreAutoCommit = false;
+                } else if (supportsTransactions) {
                     conn.commit();
                 }
 
@@ -182,7 +199,9 @@ public class SimpleRepository extends Repository
                 }
 
                 if (conn != null) {
-                    // let the provider know that the connection failed
+                    // let derived classes and the provider know that the connection failed
+                    _connInfo.remove(new ConnectionKey(conn, null));
+                    connectionFailed(conn, sqe);
                     _provider.connectionFailed(_dbident, readOnly, conn, sqe);
                     // clear out the reference so that we don't release it later
                     conn = null;
@@ -225,9 +244,9 @@ public class SimpleRepository extends Repository
             } finally {
                 if (conn != null) {
                     try {
-                        // restore our auto-commit settings
-                        if (oldAutoCommit != null && !conn.isClosed()) {
-                            conn.setAutoCommit(oldAutoCommit);
+                        // restore our auto-commit settings if we failed before doing so
+                        if (restoreAutoCommit && !conn.isClosed()) {
+                            conn.setAutoCommit(true);
                         }
                     } catch (SQLException sace) {
                         log.warning("Unable to restore auto-commit", "err", sace);
@@ -294,6 +313,115 @@ public class SimpleRepository extends Repository
         });
     }
 
+    /**
+     * Executes the supplied parameterized update query once for each of the supplied sets of
+     * parameters, as a single JDBC batch in a single transaction (if the database supports
+     * transactions).
+     *
+     * @return the modification counts for each set of parameters, as returned by {@link
+     * java.sql.Statement#executeBatch}.
+     */
+    protected int[] batchUpdateParams (final String query, final List<Object[]> params)
+        throws PersistenceException
+    {
+        return executeUpdate(new Operation<int[]>() {
+            public int[] invoke (Connection conn, DatabaseLiaison liaison)
+                throws SQLException, PersistenceException
+            {
+                PreparedStatement stmt = null;
+                try {
+                    stmt = conn.prepareStatement(query);
+                    for (Object[] pset : params) {
+                        for (int ii = 0; ii < pset.length; ii++) {
+                            stmt.setObject(ii + 1, pset[ii]);
+                        }
+                        stmt.addBatch();
+                    }
+                    return stmt.executeBatch();
+                } finally {
+                    JDBCUtil.close(stmt);
+                }
+            }
+        });
+    }
+
+    /**
+     * Issues a query for a potentially large number of keys using {@link
+     * JDBCUtil#batchQueryParams}, spreading the batches over as many as <code>parallelism</code>
+     * connections, which query in parallel on the supplied executor (and the calling thread). The
+     * processor is called for one row at a time (calls are synchronized on the processor), but
+     * may be called from any of the querying threads and the order of rows is undefined.
+     *
+     * @param query the SQL query to run for each batch with the string <code>#KEYS#</code> in the
+     * place where the batch of key placeholders should be substituted.
+     * @param executor the executor on which to run additional queries, or null to issue all
+     * batches on the calling thread.
+     * @param parallelism the maximum number of connections to query in parallel.
+     */
+    protected void batchQueryParams (final String query, List<?> keys, Executor executor,
+                                     int parallelism, final JDBCUtil.BatchProcessor processor)
+        throws PersistenceException
+    {
+        final JDBCUtil.BatchProcessor sproc = new JDBCUtil.BatchProcessor() {
+            public void process (ResultSet row) throws SQLException {
+                synchronized (processor) {
+                    processor.process(row);
+                }
+            }
+        };
+
+        // divide the keys into groups of whole batches, one group per connection
+        int batches = (keys.size() + JDBCUtil.MAX_BATCH_KEYS - 1) / JDBCUtil.MAX_BATCH_KEYS;
+        int groups = (executor == null) ? 1 : Math.max(1, Math.min(parallelism, batches));
+        int perGroup = (batches + groups - 1) / groups * JDBCUtil.MAX_BATCH_KEYS;
+
+        List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>();
+        for (int offset = 0; offset < keys.size(); offset += perGroup) {
+            final List<?> gkeys = keys.subList(offset, Math.min(keys.size(), offset + perGroup));
+            tasks.add(new FutureTask<Void>(new Callable<Void>() {
+                public Void call () throws PersistenceException {
+                    return execute(new Operation<Void>() {
+                        public Void invoke (Connection conn, DatabaseLiaison liaison)
+                            throws SQLException, PersistenceException
+                        {
+                            JDBCUtil.batchQueryParams(conn, query, gkeys, sproc);
+                            return null;
+                        }
+                    });
+                }
+            }));
+        }
+
+        // run all but the first group on the executor, and the first on this thread
+        for (int ii = 1; ii < tasks.size(); ii++) {
+            executor.execute(tasks.get(ii));
+        }
+        PersistenceException failure = null;
+        for (FutureTask<Void> task : tasks) {
+            task.run(); // no-op if the executor already ran (or is running) the task
+            try {
+                task.get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new PersistenceException("Interrupted waiting for batch query", ie);
+            } catch (ExecutionException ee) {
+                if (failure == null) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof PersistenceException) {
+                        failure = (PersistenceException)cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException)cause;
+                    } else {
+                        throw (Error)cause; // call() only throws persistence exceptions
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
     /**
      * Executes the supplied update query in this repository, throwing an exception if the
      * modification count is not equal to the specified count.
@@ -395,6 +523,74 @@ public class SimpleRepository extends Repository
     {
     }
 
+    /**
+     * Called when an operation fails with an SQL exception, before the connection is reported to
+     * the provider as failed. This gives derived classes an opportunity to clean up any state they
+     * associated with the connection.
+     */
+    protected void connectionFailed (Connection conn, SQLException error)
+    {
+    }
+
+    /**
+     * Returns the liaison and transaction support of the supplied connection, looking them up
+     * the first time we see the connection and reusing them while the connection lives. Looking
+     * these up requires fetching the database metadata, which costs a round trip to the database
+     * with some drivers.
+     */
+    protected ConnectionInfo getConnectionInfo (Connection conn)
+        throws SQLException
+    {
+        ConnectionInfo info = _connInfo.get(new ConnectionKey(conn, null));
+        if (info == null) {
+            // flush the info for any connections that have since been collected
+            for (Object key; (key = _collectedConns.poll()) != null; ) {
+                _connInfo.remove(key);
+            }
+            DatabaseMetaData dmd = conn.getMetaData();
+            info = new ConnectionInfo(LiaisonRegistry.getLiaison(dmd.getURL()),
+                                      dmd.supportsTransactions());
+            _connInfo.put(new ConnectionKey(conn, _collectedConns), info);
+        }
+        return info;
+    }
+
+    /** Weakly references a connection, comparing connections by identity. */
+    protected static class ConnectionKey extends WeakReference<Connection>
+    {
+        public ConnectionKey (Connection conn, ReferenceQueue<Connection> queue) {
+            super(conn, queue);
+            _hash = System.identityHashCode(conn);
+        }
+
+        @Override public int hashCode () {
+            return _hash;
+        }
+
+        @Override public boolean equals (Object other) {
+            if (other == this) {
+                return true;
+            }
+            Connection conn = get();
+            return (conn != null) && (other instanceof ConnectionKey) &&
+                ((ConnectionKey)other).get() == conn;
+        }
+
+        protected final int _hash;
+    }
+
+    /** Information about a connection that does not change while the connection lives. */
+    protected static class ConnectionInfo
+    {
+        public final DatabaseLiaison liaison;
+        public final boolean supportsTransactions;
+
+        public ConnectionInfo (DatabaseLiaison liaison, boolean supportsTransactions) {
+            this.liaison = liaison;
+            this.supportsTransactions = supportsTransactions;
+        }
+    }
+
     /**
      * Converts a row of a result set to a string, prepending each column with the column name from
      * the result set metadata.
@@ -418,4 +614,11 @@ public class SimpleRepository extends Repository
     protected String _dbident;
 
     protected static PreCondition _precond;
+
+    /** Cached information on the connections we've used, see {@link #getConnectionInfo}. */
+    protected final ConcurrentHashMap<ConnectionKey,ConnectionInfo> _connInfo =
+        new ConcurrentHashMap<ConnectionKey,ConnectionInfo>();
+
+    /** Notified when a connection in {@link #_connInfo} has been garbage collected. */
+    protected final ReferenceQueue<Connection> _collectedConns = new ReferenceQueue<Connection>();
 }
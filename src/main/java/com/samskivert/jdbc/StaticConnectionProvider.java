@@ -8,6 +8,9 @@ package com.samskivert.jdbc;
 import java.io.IOException;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import com.samskivert.io.PersistenceException;
 import com.samskivert.util.ConfigUtil;
@@ -18,9 +21,17 @@ import static com.samskivert.jdbc.Log.log;
 
 /**
  * The static connection provider generates JDBC connections based on configuration information
- * provided via a properties file. It does no connection pooling and always returns the same
- * connection for a particular identifier (unless that connection need be closed because of a
- * connection failure, in which case it opens a new one the next time the connection is requested).
+ * provided via a properties file. It maintains a bounded pool of connections for each distinct
+ * database (username and url) to which its identifiers map. A connection is handed out to one
+ * caller at a time and returned to the pool when released; callers wait (in the order in which
+ * they arrived) for a connection to become available if the pool is at its maximum size. Failed
+ * connections are closed and replaced by a fresh connection the next time one is needed.
+ *
+ * <p> A thread that requests a connection to a database while it already holds one (as when one
+ * repository operation is invoked from within another, even via a different identifier that maps
+ * to the same database) is handed the connection it holds, which is returned to the pool when the
+ * outermost holder releases it. Nested operations thus share the enclosing operation's
+ * transaction and cannot deadlock waiting for a second place in the pool.
  *
  * <p> The configuration properties file should contain the following information:
  *
@@ -32,9 +43,22 @@ import static com.samskivert.jdbc.Log.log;
  * [...]
  * </pre>
  *
- * Where <code>IDENT</code> is the database identifier for a particular database connection. When a
- * particular database identifier is requested, the configuration information will be fetched from
- * the properties.
+ * The connection pool for an identifier may also be configured with the following optional
+ * properties (the values shown are the defaults):
+ *
+ * <pre>
+ * IDENT.pool_min_size=1              # idle connections are not closed below this size
+ * IDENT.pool_max_size=8              # the maximum number of open connections
+ * IDENT.pool_max_wait_millis=30000   # how long to wait for a connection before failing
+ * IDENT.pool_validate_idle_millis=5000 # connections idle longer than this are validated
+ * </pre>
+ *
+ * Connections that remain idle for longer than the top-level {@code max_idle_minutes} property
+ * (default 60) are closed, as long as the pool retains its minimum size.
+ *
+ * <p> Where <code>IDENT</code> is the database identifier for a particular database connection.
+ * When a particular database identifier is requested, the configuration information will be
+ * fetched from the properties.
  *
  * <p> Additionally, a default set of properties can be provided using the identifier
  * <code>default</code>. Values not provided for a specific identifier will be sought from the
@@ -112,7 +136,7 @@ public class StaticConnectionProvider implements ConnectionProvider
         String mapkey = ident + ":" + readOnly;
         Mapping conmap = _idents.get(mapkey);
         if (conmap != null) {
-            conmap.markLastUsed();
+            conmap.releaseConnection(ident, conn);
         } else {
             log.warning("Unknown connection released?", "key", mapkey);
         }
@@ -127,7 +151,7 @@ public class StaticConnectionProvider implements ConnectionProvider
         if (conmap == null) {
             log.warning("Unknown connection failed!?", "key", mapkey);
         } else {
-            conmap.closeConnection(ident);
+            conmap.connectionFailed(ident, conn);
         }
     }
 
@@ -154,7 +178,7 @@ public class StaticConnectionProvider implements ConnectionProvider
     {
         // close all of the connections
         for (Map.Entry<String, Mapping> entry : _keys.entrySet()) {
-            entry.getValue().closeConnection(entry.getKey());
+            entry.getValue().shutdown(entry.getKey());
         }
 
         // clear out our mapping tables
@@ -162,7 +186,63 @@ public class StaticConnectionProvider implements ConnectionProvider
         _idents.clear();
     }
 
+    /**
+     * Returns statistics on the connection pools maintained by this provider, mapped by the
+     * username, url and read-only-ness of their database.
+     */
+    public Map<String,PoolStats> getPoolStats ()
+    {
+        Map<String,PoolStats> stats = new TreeMap<String,PoolStats>();
+        for (Mapping conmap : _keys.values()) {
+            stats.put(conmap.key, conmap.getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * A snapshot of the state of a connection pool.
+     */
+    public static class PoolStats
+    {
+        /** The number of connections currently in use. */
+        public final int active;
+
+        /** The number of open connections waiting in the pool to be used. */
+        public final int idle;
+
+        /** The number of connections handed out by the pool. */
+        public final long borrows;
+
+        /** The total and maximum time, in milliseconds, callers spent waiting for a connection. */
+        public final long totalWaitMillis, maxWaitMillis;
+
+        /** The number of callers that gave up waiting for a connection. */
+        public final long timeouts;
+
+        public PoolStats (int active, int idle, long borrows, long totalWaitMillis,
+                          long maxWaitMillis, long timeouts) {
+            this.active = active;
+            this.idle = idle;
+            this.borrows = borrows;
+            this.totalWaitMillis = totalWaitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+            this.timeouts = timeouts;
+        }
+
+        @Override public String toString () {
+            return "[active=" + active + ", idle=" + idle + ", borrows=" + borrows +
+                ", totalWait=" + totalWaitMillis + "ms, maxWait=" + maxWaitMillis +
+                "ms, timeouts=" + timeouts + "]";
+        }
+    }
+
     protected Mapping getMapping (String ident, boolean readOnly) throws PersistenceException {
+        Mapping conmap = _idents.get(ident + ":" + readOnly);
+        return (conmap != null) ? conmap : createMapping(ident, readOnly);
+    }
+
+    protected synchronized Mapping createMapping (String ident, boolean readOnly)
+        throws PersistenceException {
         String mapkey = ident + ":" + readOnly;
         Mapping conmap = _idents.get(mapkey);
         if (conmap != null) return conmap;
@@ -189,6 +269,8 @@ public class StaticConnectionProvider implements ConnectionProvider
     }
 
     protected static void close (Connection conn, String ident) {
+        // let anything keeping state for the connection know that it's going away
+        JDBCUtil.connectionClosed(conn);
         try {
             conn.close();
         } catch (SQLException sqe) {
@@ -199,6 +281,8 @@ public class StaticConnectionProvider implements ConnectionProvider
     protected static class Info {
         public final String ident, url, username, password;
         public final Boolean autoCommit;
+        public final int minSize, maxSize;
+        public final long maxWaitMillis, validateIdleMillis;
 
         public Info (String ident, Properties props) throws PersistenceException {
             this.ident = ident;
@@ -207,6 +291,12 @@ public class StaticConnectionProvider implements ConnectionProvider
             this.password = props.getProperty("password", "");
             String ac = props.getProperty("autocommit");
             this.autoCommit = (ac == null) ? null : Boolean.valueOf(ac);
+            this.maxSize = Math.max(1, Integer.parseInt(props.getProperty("pool_max_size", "8")));
+            this.minSize = Math.min(
+                maxSize, Math.max(0, Integer.parseInt(props.getProperty("pool_min_size", "1"))));
+            this.maxWaitMillis = Long.parseLong(props.getProperty("pool_max_wait_millis", "30000"));
+            this.validateIdleMillis =
+                Long.parseLong(props.getProperty("pool_validate_idle_millis", "5000"));
         }
 
         protected String requireProp (Properties props, String name,
@@ -220,12 +310,11 @@ public class StaticConnectionProvider implements ConnectionProvider
         }
     }
 
-    /** Contains information on a particular connection to which any number of database identifiers
-      * can be mapped. */
+    /** Contains the pool of connections to a particular database to which any number of database
+      * identifiers can be mapped. */
     protected static class Mapping
     {
-        /** The combination of username and JDBC url that uniquely identifies our database
-         * connection. */
+        /** The combination of username and JDBC url that uniquely identifies our database. */
         public final String key;
 
         public Mapping (String key, Info info, boolean readOnly, long maxIdleMillis) {
@@ -233,26 +322,135 @@ public class StaticConnectionProvider implements ConnectionProvider
             _info = info;
             _readOnly = readOnly;
             _maxIdleMillis = maxIdleMillis;
+            _permits = new Semaphore(info.maxSize, true);
         }
 
-        /** Returns the main connection for this mapping, (re)opening it if necessary. */
+        /**
+         * Returns a connection from this mapping's pool, waiting for one to be released if the
+         * pool is at its maximum size, and opening a new one if no idle connection is available.
+         */
         public Connection getConnection (String ident) throws PersistenceException {
-            long idleMillis = _lastUsed > 0 ? System.currentTimeMillis() - _lastUsed : 0L;
-            if (_conn != null && _maxIdleMillis > 0 && idleMillis > _maxIdleMillis) {
-                log.debug("Closing idle connection", "key", key, "ident", ident,
-                          "idleMillis", idleMillis);
-                closeConnection(ident);
+            // a thread that already holds a connection to this database (via any ident) shares it
+            // with nested operations
+            Pooled held = _held.get();
+            if (held != null && held.owner == Thread.currentThread()) {
+                held.holds++;
+                return held.conn;
+            }
+
+            long start = System.currentTimeMillis();
+            try {
+                if (!_permits.tryAcquire(_info.maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                    synchronized (this) {
+                        _timeouts++;
+                    }
+                    throw new PersistenceException(
+                        "Timed out waiting for database connection [key=" + key + ", ident=" +
+                        ident + ", waited=" + _info.maxWaitMillis + "ms].");
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new PersistenceException(
+                    "Interrupted waiting for database connection [key=" + key + "].", ie);
+            }
+
+            // we have a permit, so we either take an idle connection or open a new one
+            try {
+                long now = System.currentTimeMillis();
+                noteBorrowed(now - start);
+                Pooled pooled;
+                while ((pooled = takeIdle(ident, now)) != null) {
+                    if (validate(ident, pooled, now)) {
+                        return hold(pooled);
+                    }
+                }
+                pooled = new Pooled(openConnection(ident, _info.autoCommit));
+                synchronized (this) {
+                    _active.put(pooled.conn, pooled);
+                }
+                return hold(pooled);
+
+            } catch (PersistenceException pe) {
+                _permits.release();
+                throw pe;
+            } catch (RuntimeException re) {
+                _permits.release();
+                throw re;
+            }
+        }
+
+        /** Returns the supplied connection to the pool (unless an outer operation on this thread
+         * still holds it). */
+        public void releaseConnection (String ident, Connection conn) {
+            if (!dropHold(conn)) {
+                return;
+            }
+            Pooled pooled;
+            boolean discard = false;
+            synchronized (this) {
+                pooled = _active.remove(conn);
+                if (pooled != null) {
+                    pooled.owner = null;
+                    discard = _shutdown || pooled.failed;
+                    if (!discard) {
+                        pooled.lastUsed = System.currentTimeMillis();
+                        _idle.push(pooled);
+                    }
+                }
+            }
+            if (pooled == null) {
+                log.warning("Released connection not owned by pool?", "key", key, "ident", ident);
+                return;
+            }
+            if (discard) {
+                close(conn, ident);
+            }
+            _permits.release();
+        }
+
+        /** Closes the supplied (failed) connection and frees up its place in the pool once it is
+         * no longer held. */
+        public void connectionFailed (String ident, Connection conn) {
+            Pooled held = _held.get();
+            if (!dropHold(conn)) {
+                // an outer operation still holds the connection, so we close it now, but it keeps
+                // its place in the pool until the outer operation releases it
+                held.failed = true;
+                close(conn, ident);
+                return;
+            }
+            Pooled pooled;
+            synchronized (this) {
+                pooled = _active.remove(conn);
+                if (pooled != null) {
+                    pooled.owner = null;
+                }
+            }
+            close(conn, ident);
+            if (pooled != null) {
+                _permits.release();
+            }
+        }
+
+        /** Closes all idle connections and causes active connections to be closed when they are
+         * released. */
+        public void shutdown (String ident) {
+            List<Pooled> idle;
+            synchronized (this) {
+                _shutdown = true;
+                idle = new ArrayList<Pooled>(_idle);
+                _idle.clear();
             }
-            if (_conn == null) {
-                _conn = openConnection(ident, _info.autoCommit);
-                markLastUsed();
+            // close the connections outside our monitor, as closing may block
+            for (Pooled pooled : idle) {
+                close(pooled.conn, ident);
             }
-            return _conn;
         }
 
-        /** Marks the connection as having just been used. */
-        public void markLastUsed () {
-            _lastUsed = System.currentTimeMillis();
+        /** Returns a snapshot of our pool statistics. */
+        public synchronized PoolStats getStats () {
+            return new PoolStats(_active.size(), _idle.size(), _borrows, _totalWaitMillis,
+                                 _maxWaitMillis, _timeouts);
         }
 
         /** Opens and returns a new connection to this mapping's database. */
@@ -296,22 +494,143 @@ public class StaticConnectionProvider implements ConnectionProvider
         }
 
         /**
-         * Closes the main connection for this mapping, causing it to be reopened on the next call
-         * to {@link #getConnection}.
-         * @param ident the ident on behalf of which we are operating.
+         * Removes and returns the most recently used idle connection, first closing any idle
+         * connections that have exceeded the maximum idle time (while retaining our minimum pool
+         * size). The returned connection is marked as active.
+         */
+        protected Pooled takeIdle (String ident, long now) {
+            List<Pooled> stale = null;
+            Pooled pooled;
+            synchronized (this) {
+                while (_maxIdleMillis > 0 && !_idle.isEmpty() &&
+                       _idle.size() + _active.size() > _info.minSize &&
+                       now - _idle.peekLast().lastUsed > _maxIdleMillis) {
+                    if (stale == null) {
+                        stale = new ArrayList<Pooled>();
+                    }
+                    stale.add(_idle.removeLast());
+                }
+                pooled = _idle.poll();
+                if (pooled != null) {
+                    _active.put(pooled.conn, pooled);
+                }
+            }
+            // close the stale connections outside our monitor, as closing may block
+            if (stale != null) {
+                for (Pooled spooled : stale) {
+                    log.debug("Closing idle connection", "key", key, "ident", ident,
+                              "idleMillis", now - spooled.lastUsed);
+                    close(spooled.conn, ident);
+                }
+            }
+            return pooled;
+        }
+
+        /** Returns true if the current thread holds one of our connections. */
+        protected boolean isHeld () {
+            Pooled held = _held.get();
+            return held != null && held.owner == Thread.currentThread();
+        }
+
+        /** Returns true if the current thread holds the supplied connection. */
+        protected boolean isHeld (Connection conn) {
+            return isHeld() && _held.get().conn == conn;
+        }
+
+        /** Marks the supplied connection as held by the current thread and returns it. */
+        protected Connection hold (Pooled pooled) {
+            pooled.owner = Thread.currentThread();
+            pooled.holds = 1;
+            _held.set(pooled);
+            return pooled.conn;
+        }
+
+        /**
+         * Drops one of the current thread's holds on the supplied connection.
+         *
+         * @return false if the thread still holds the connection (in an outer operation), true if
+         * it should now be returned to the pool.
+         */
+        protected boolean dropHold (Connection conn) {
+            Pooled held = _held.get();
+            if (held == null || held.conn != conn || held.owner != Thread.currentThread()) {
+                return true;
+            }
+            if (--held.holds > 0) {
+                return false;
+            }
+            held.owner = null;
+            _held.remove();
+            return true;
+        }
+
+        /**
+         * Checks that a connection that has been idle for a while is still usable, closing and
+         * discarding it if not.
          */
-        public void closeConnection (String ident) {
-            if (_conn != null) {
-                close(_conn, ident);
-                _conn = null;
+        protected boolean validate (String ident, Pooled pooled, long now) {
+            if (now - pooled.lastUsed <= _info.validateIdleMillis) {
+                return true;
+            }
+            boolean valid;
+            try {
+                valid = pooled.conn.isValid(VALIDATE_TIMEOUT_SECS);
+            } catch (SQLException sqe) {
+                valid = false;
+            }
+            if (!valid) {
+                log.info("Discarding invalid pooled connection", "key", key, "ident", ident);
+                synchronized (this) {
+                    _active.remove(pooled.conn);
+                }
+                close(pooled.conn, ident);
             }
+            return valid;
+        }
+
+        protected synchronized void noteBorrowed (long waitMillis) {
+            _borrows++;
+            _totalWaitMillis += waitMillis;
+            _maxWaitMillis = Math.max(_maxWaitMillis, waitMillis);
         }
 
         protected final Info _info;
         protected final boolean _readOnly;
         protected final long _maxIdleMillis;
-        protected Connection _conn;
-        protected long _lastUsed;
+
+        /** Limits the number of open connections and queues waiters fairly. */
+        protected final Semaphore _permits;
+
+        /** Our idle connections, most recently used first. */
+        protected final ArrayDeque<Pooled> _idle = new ArrayDeque<Pooled>();
+
+        /** Our connections that are currently in use. */
+        protected final IdentityHashMap<Connection,Pooled> _active =
+            new IdentityHashMap<Connection,Pooled>();
+
+        /** The connection held by the current thread (for whichever of our idents). */
+        protected final ThreadLocal<Pooled> _held = new ThreadLocal<Pooled>();
+
+        protected boolean _shutdown;
+        protected long _borrows, _totalWaitMillis, _maxWaitMillis, _timeouts;
+    }
+
+    /** Tracks a pooled connection and when it was last used. */
+    protected static class Pooled {
+        public final Connection conn;
+        public long lastUsed;
+
+        /** The thread holding this connection, and the number of (nested) holds it has on it. */
+        public volatile Thread owner;
+        public int holds;
+
+        /** Set if this connection failed while an outer operation still held it. */
+        public boolean failed;
+
+        public Pooled (Connection conn) {
+            this.conn = conn;
+            this.lastUsed = System.currentTimeMillis();
+        }
     }
 
     /** Our configuration in the form of a properties object. */
@@ -321,10 +640,13 @@ public class StaticConnectionProvider implements ConnectionProvider
     protected long _maxIdleMillis;
 
     /** A mapping from database identifier to connection records. */
-    protected HashMap<String,Mapping> _idents = new HashMap<String,Mapping>();
+    protected Map<String,Mapping> _idents = new ConcurrentHashMap<String,Mapping>();
 
     /** A mapping from connection key to connection records. */
-    protected HashMap<String,Mapping> _keys = new HashMap<String,Mapping>();
+    protected Map<String,Mapping> _keys = new ConcurrentHashMap<String,Mapping>();
+
+    /** The number of seconds to wait when validating an idle connection. */
+    protected static final int VALIDATE_TIMEOUT_SECS = 5;
 
     /** The key used as defaults for the database definitions. */
     protected static final String DEFAULTS_KEY = "default";
@@ -8,6 +8,9 @@ package com.samskivert.jdbc.jora;
 import java.util.*;
 import java.sql.*;
 
+import com.samskivert.jdbc.DatabaseLiaison;
+import com.samskivert.jdbc.LiaisonRegistry;
+
 import static com.samskivert.jdbc.Log.log;
 
 /**
@@ -18,6 +21,15 @@ import static com.samskivert.jdbc.Log.log;
  */
 public class Cursor<V>
 {
+    /**
+     * Used to process the records of a cursor one at a time. See {@link Cursor#forEach}.
+     */
+    public static interface Visitor<V>
+    {
+        /** Called with each record fetched by the cursor. */
+        public void visit (V record) throws SQLException;
+    }
+
     /**
      * A cursor is initially positioned before its first row; the first call to
      * next makes the first row the current row; the second call makes the
@@ -39,7 +51,19 @@ public class Cursor<V>
         }
 
         if (_result == null) {
-            if (_qbeObject != null) {
+            if (_fetchSize > 0) {
+                PreparedStatement pstmt = _conn.prepareStatement(
+                    _query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                _stmt = pstmt;
+                if (_liaison == null) {
+                    _liaison = LiaisonRegistry.getLiaison(_conn);
+                }
+                _liaison.configureStreaming(_conn, pstmt, _fetchSize);
+                for (int ii = 0; ii < _params.length; ii++) {
+                    pstmt.setObject(ii + 1, _params[ii]);
+                }
+                _result = pstmt.executeQuery();
+            } else if (_qbeObject != null) {
                 PreparedStatement qbeStmt = _conn.prepareStatement(_query);
                 _table.bindQueryVariables(qbeStmt, _qbeObject, _qbeMask);
                 _result = qbeStmt.executeQuery();
@@ -95,6 +119,27 @@ public class Cursor<V>
         return result;
     }
 
+    /**
+     * Passes each remaining record matched by this cursor to the supplied visitor and then closes
+     * the cursor. Records are not retained by the cursor, so if it was created by {@link
+     * Table#stream}, any number of records can be processed in constant memory.
+     *
+     * @return the number of records visited.
+     */
+    public int forEach (Visitor<? super V> visitor)
+        throws SQLException
+    {
+        int count = 0;
+        try {
+            for (V record; (record = next()) != null; count++) {
+                visitor.visit(record);
+            }
+        } finally {
+            close();
+        }
+        return count;
+    }
+
     /**
      * Update current record pointed by cursor. This method can be called only
      * after next() method, which returns non-null object. This objects is used
@@ -209,6 +254,14 @@ public class Cursor<V>
         _params = params;
     }
 
+    protected Cursor (Table<V> table, Connection conn, DatabaseLiaison liaison, String query,
+                      Object[] params, int fetchSize)
+    {
+        this(table, conn, query, params);
+        _liaison = liaison;
+        _fetchSize = fetchSize;
+    }
+
     protected Cursor (Table<V> table, Connection conn, V obj, FieldMask mask, boolean like)
     {
         _table = table;
@@ -229,5 +282,11 @@ public class Cursor<V>
     protected FieldMask _qbeMask;
     protected Object[] _params;
     protected boolean _like;
+
+    /** If positive, the results are streamed from the database this many rows at a time. */
+    protected int _fetchSize;
+
+    /** The liaison used to configure streaming, when {@link #_fetchSize} is positive. */
+    protected DatabaseLiaison _liaison;
 }
 
@@ -6,6 +6,7 @@
 package com.samskivert.jdbc.jora;
 
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -107,6 +108,7 @@ public class FieldMask
             throw new IllegalArgumentException("Field not in mask: " + fieldName);
         }
         _modified[index.intValue()] = true;
+        _modifiedSet = null;
     }
 
     /**
@@ -115,6 +117,26 @@ public class FieldMask
     public void clear ()
     {
         Arrays.fill(_modified, false);
+        _modifiedSet = null;
+    }
+
+    /**
+     * Returns the indices of the modified fields in this mask. The set is computed once per change
+     * to the mask and must not be modified by the caller.
+     */
+    protected BitSet getModifiedSet ()
+    {
+        BitSet modified = _modifiedSet;
+        if (modified == null) {
+            modified = new BitSet(_modified.length);
+            for (int ii = 0; ii < _modified.length; ii++) {
+                if (_modified[ii]) {
+                    modified.set(ii);
+                }
+            }
+            _modifiedSet = modified;
+        }
+        return modified;
     }
 
     /**
@@ -127,6 +149,7 @@ public class FieldMask
         try {
             FieldMask mask = (FieldMask)super.clone();
             mask._modified = new boolean[_modified.length];
+            mask._modifiedSet = null;
             return mask;
         } catch (CloneNotSupportedException cnse) {
             throw new AssertionError(cnse); // won't happen; we're Cloneable
@@ -168,6 +191,9 @@ public class FieldMask
     /** Modified flags for each field of an object in this table. */
     protected boolean[] _modified;
 
+    /** The indices of our modified fields, see {@link #getModifiedSet}. */
+    protected BitSet _modifiedSet;
+
     /** A mapping from field names to field descriptor index. */
     protected Map<String, Integer> _descripMap = new HashMap<String, Integer>();
 }
@@ -0,0 +1,322 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.jdbc.jora;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.Objects;
+
+import static com.samskivert.jdbc.Log.log;
+
+/**
+ * Loads rows into, and binds statement parameters from, instances of a particular row class
+ * using a pair of method handles composed when the {@link Table} is created. Each handle does
+ * the work for an entire row, so the JVM compiles it down to straight-line code that reads and
+ * writes the fields directly, avoiding the per-column reflection and type dispatch done by {@link
+ * FieldDescriptor}.
+ *
+ * <p> Binders can only be created for row classes with a no-argument constructor whose fields
+ * are all primitives, boxed primitives, strings, decimals, byte arrays or SQL date/time values.
+ * Other tables use the reflective code in {@link Table} and {@link FieldDescriptor}.
+ */
+class RowBinder
+{
+    /**
+     * Creates a binder for the supplied row class and fields, or returns null if the fields
+     * cannot be handled by a binder.
+     */
+    public static RowBinder create (Constructor<?> ctor, FieldDescriptor[] fields)
+    {
+        if (ctor == null) {
+            return null;
+        }
+        for (FieldDescriptor fd : fields) {
+            if (fd.inType > FieldDescriptor.tTimestamp) {
+                return null;
+            }
+        }
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+            // the loader creates the row object and then loads each column in turn; folding
+            // runs each combiner before its target, so we build the chain from the last column
+            MethodHandle load = MethodHandles.dropArguments(
+                MethodHandles.identity(Object.class), 1, ResultSet.class);
+            for (int ii = fields.length-1; ii >= 0; ii--) {
+                load = MethodHandles.foldArguments(load, columnLoader(lookup, fields[ii], ii+1));
+            }
+            MethodHandle create = lookup.unreflectConstructor(ctor).asType(
+                MethodType.methodType(Object.class));
+            load = MethodHandles.foldArguments(
+                load, MethodHandles.dropArguments(create, 0, ResultSet.class));
+
+            // the binder binds each column in turn
+            MethodHandle bind = MethodHandles.empty(MethodType.methodType(
+                void.class, PreparedStatement.class, int.class, Object.class));
+            for (int ii = fields.length-1; ii >= 0; ii--) {
+                bind = MethodHandles.foldArguments(bind, columnBinder(lookup, fields[ii], ii+1));
+            }
+
+            return new RowBinder(load, bind, fields.length);
+
+        } catch (Exception e) {
+            log.info("Unable to create row binder, using reflection",
+                     "class", ctor.getDeclaringClass().getName(), "error", e);
+            return null;
+        }
+    }
+
+    /**
+     * Creates and loads an object from the current row of the supplied result set.
+     */
+    public Object load (ResultSet result)
+        throws SQLException
+    {
+        try {
+            return (Object)_load.invokeExact(result);
+        } catch (SQLException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new DataTransferError((Exception)t);
+        }
+    }
+
+    /**
+     * Binds all of the fields of the supplied object to the supplied statement, starting with
+     * the first parameter.
+     *
+     * @return the number of parameters bound.
+     */
+    public int bind (PreparedStatement pstmt, Object obj)
+        throws SQLException
+    {
+        return bind(pstmt, 0, obj);
+    }
+
+    /**
+     * Binds all of the fields of the supplied object to the supplied statement, starting with
+     * the parameter following <code>offset</code>. This is used to bind several rows to a single
+     * statement.
+     *
+     * @return the number of parameters bound.
+     */
+    public int bind (PreparedStatement pstmt, int offset, Object obj)
+        throws SQLException
+    {
+        try {
+            _bind.invokeExact(pstmt, offset, obj);
+            return _columns;
+        } catch (SQLException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new DataTransferError((Exception)t);
+        }
+    }
+
+    protected RowBinder (MethodHandle load, MethodHandle bind, int columns)
+    {
+        _load = load;
+        _bind = bind;
+        _columns = columns;
+    }
+
+    /**
+     * Returns a {@code (Object,ResultSet)void} handle that loads the supplied field from the
+     * specified column.
+     */
+    protected static MethodHandle columnLoader (
+        MethodHandles.Lookup lookup, FieldDescriptor fd, int column)
+        throws NoSuchMethodException, IllegalAccessException
+    {
+        Class<?> ftype = fd.field.getType();
+        MethodHandle getter = MethodHandles.insertArguments(getResultGetter(lookup, fd), 1, column);
+        MethodHandle setter = lookup.unreflectSetter(fd.field).asType(
+            MethodType.methodType(void.class, Object.class, ftype));
+        return MethodHandles.filterArguments(setter, 1, getter.asType(
+                                                 MethodType.methodType(ftype, ResultSet.class)));
+    }
+
+    /**
+     * Returns a {@code (PreparedStatement,int,Object)void} handle that binds the supplied field to
+     * the specified parameter (plus the supplied offset), binding null values via {@link
+     * PreparedStatement#setNull}.
+     */
+    protected static MethodHandle columnBinder (
+        MethodHandles.Lookup lookup, FieldDescriptor fd, int column)
+        throws NoSuchMethodException, IllegalAccessException
+    {
+        Class<?> ftype = fd.field.getType();
+        // maps the offset argument to the parameter index
+        MethodHandle index = MethodHandles.insertArguments(
+            lookup.findStatic(RowBinder.class, "add",
+                              MethodType.methodType(int.class, int.class, int.class)), 1, column);
+        MethodHandle setter = MethodHandles.filterArguments(
+            getStatementSetter(lookup, fd), 1, index).asType(
+                MethodType.methodType(void.class, PreparedStatement.class, int.class, ftype));
+        if (!ftype.isPrimitive()) {
+            MethodHandle setNull = MethodHandles.dropArguments(
+                MethodHandles.filterArguments(
+                    MethodHandles.insertArguments(
+                        lookup.findVirtual(PreparedStatement.class, "setNull",
+                                           MethodType.methodType(void.class, int.class, int.class)),
+                        2, FieldDescriptor.sqlTypeMapping[fd.outType]), 1, index), 2, ftype);
+            MethodHandle isNull = MethodHandles.dropArguments(
+                lookup.findStatic(Objects.class, "isNull",
+                                  MethodType.methodType(boolean.class, Object.class)).asType(
+                                      MethodType.methodType(boolean.class, ftype)),
+                0, PreparedStatement.class, int.class);
+            setter = MethodHandles.guardWithTest(isNull, setNull, setter);
+        }
+        MethodHandle getter = lookup.unreflectGetter(fd.field).asType(
+            MethodType.methodType(ftype, Object.class));
+        return MethodHandles.filterArguments(setter, 2, getter);
+    }
+
+    /**
+     * Returns a {@code (ResultSet,int)V} handle that reads a column value of the type of the
+     * supplied field, with null column values read as null for boxed primitives.
+     */
+    protected static MethodHandle getResultGetter (MethodHandles.Lookup lookup, FieldDescriptor fd)
+        throws NoSuchMethodException, IllegalAccessException
+    {
+        switch (fd.inType) {
+        case FieldDescriptor.t_byte: return rsGetter(lookup, "getByte", byte.class);
+        case FieldDescriptor.t_short: return rsGetter(lookup, "getShort", short.class);
+        case FieldDescriptor.t_int: return rsGetter(lookup, "getInt", int.class);
+        case FieldDescriptor.t_long: return rsGetter(lookup, "getLong", long.class);
+        case FieldDescriptor.t_float: return rsGetter(lookup, "getFloat", float.class);
+        case FieldDescriptor.t_double: return rsGetter(lookup, "getDouble", double.class);
+        case FieldDescriptor.t_boolean: return rsGetter(lookup, "getBoolean", boolean.class);
+        case FieldDescriptor.tByte: return boxedGetter(lookup, "getByteObject", Byte.class);
+        case FieldDescriptor.tShort: return boxedGetter(lookup, "getShortObject", Short.class);
+        case FieldDescriptor.tInteger:
+            return boxedGetter(lookup, "getIntegerObject", Integer.class);
+        case FieldDescriptor.tLong: return boxedGetter(lookup, "getLongObject", Long.class);
+        case FieldDescriptor.tFloat: return boxedGetter(lookup, "getFloatObject", Float.class);
+        case FieldDescriptor.tDouble: return boxedGetter(lookup, "getDoubleObject", Double.class);
+        case FieldDescriptor.tBoolean:
+            return boxedGetter(lookup, "getBooleanObject", Boolean.class);
+        case FieldDescriptor.tDecimal: return rsGetter(lookup, "getBigDecimal", BigDecimal.class);
+        case FieldDescriptor.tString: return rsGetter(lookup, "getString", String.class);
+        case FieldDescriptor.tBytes: return rsGetter(lookup, "getBytes", byte[].class);
+        case FieldDescriptor.tDate: return rsGetter(lookup, "getDate", java.sql.Date.class);
+        case FieldDescriptor.tTime: return rsGetter(lookup, "getTime", Time.class);
+        case FieldDescriptor.tTimestamp: return rsGetter(lookup, "getTimestamp", Timestamp.class);
+        default: throw new IllegalArgumentException("Unsupported field type " + fd.inType);
+        }
+    }
+
+    /**
+     * Returns a {@code (PreparedStatement,int,V)void} handle that binds a non-null value of the
+     * type of the supplied field. Boxed values are unboxed by the caller's type adaptation.
+     */
+    protected static MethodHandle getStatementSetter (
+        MethodHandles.Lookup lookup, FieldDescriptor fd)
+        throws NoSuchMethodException, IllegalAccessException
+    {
+        switch (fd.outType) {
+        case FieldDescriptor.t_byte:
+        case FieldDescriptor.tByte: return psSetter(lookup, "setByte", byte.class);
+        case FieldDescriptor.t_short:
+        case FieldDescriptor.tShort: return psSetter(lookup, "setShort", short.class);
+        case FieldDescriptor.t_int:
+        case FieldDescriptor.tInteger: return psSetter(lookup, "setInt", int.class);
+        case FieldDescriptor.t_long:
+        case FieldDescriptor.tLong: return psSetter(lookup, "setLong", long.class);
+        case FieldDescriptor.t_float:
+        case FieldDescriptor.tFloat: return psSetter(lookup, "setFloat", float.class);
+        case FieldDescriptor.t_double:
+        case FieldDescriptor.tDouble: return psSetter(lookup, "setDouble", double.class);
+        case FieldDescriptor.t_boolean:
+        case FieldDescriptor.tBoolean: return psSetter(lookup, "setBoolean", boolean.class);
+        case FieldDescriptor.tDecimal: return psSetter(lookup, "setBigDecimal", BigDecimal.class);
+        case FieldDescriptor.tString: return psSetter(lookup, "setString", String.class);
+        case FieldDescriptor.tBytes: return psSetter(lookup, "setBytes", byte[].class);
+        case FieldDescriptor.tDate: return psSetter(lookup, "setDate", java.sql.Date.class);
+        case FieldDescriptor.tTime: return psSetter(lookup, "setTime", Time.class);
+        case FieldDescriptor.tTimestamp: return psSetter(lookup, "setTimestamp", Timestamp.class);
+        default: throw new IllegalArgumentException("Unsupported field type " + fd.outType);
+        }
+    }
+
+    protected static MethodHandle rsGetter (MethodHandles.Lookup lookup, String name,
+                                            Class<?> type)
+        throws NoSuchMethodException, IllegalAccessException
+    {
+        return lookup.findVirtual(ResultSet.class, name, MethodType.methodType(type, int.class));
+    }
+
+    protected static MethodHandle boxedGetter (MethodHandles.Lookup lookup, String name,
+                                               Class<?> type)
+        throws NoSuchMethodException, IllegalAccessException
+    {
+        return lookup.findStatic(RowBinder.class, name,
+                                 MethodType.methodType(type, ResultSet.class, int.class));
+    }
+
+    protected static MethodHandle psSetter (MethodHandles.Lookup lookup, String name,
+                                            Class<?> type)
+        throws NoSuchMethodException, IllegalAccessException
+    {
+        return lookup.findVirtual(PreparedStatement.class, name,
+                                  MethodType.methodType(void.class, int.class, type));
+    }
+
+    /** Used by {@link #columnBinder} to compute parameter indices. */
+    protected static int add (int offset, int column) {
+        return offset + column;
+    }
+
+    protected static Byte getByteObject (ResultSet rs, int column) throws SQLException {
+        byte value = rs.getByte(column);
+        return rs.wasNull() ? null : Byte.valueOf(value);
+    }
+
+    protected static Short getShortObject (ResultSet rs, int column) throws SQLException {
+        short value = rs.getShort(column);
+        return rs.wasNull() ? null : Short.valueOf(value);
+    }
+
+    protected static Integer getIntegerObject (ResultSet rs, int column) throws SQLException {
+        int value = rs.getInt(column);
+        return rs.wasNull() ? null : Integer.valueOf(value);
+    }
+
+    protected static Long getLongObject (ResultSet rs, int column) throws SQLException {
+        long value = rs.getLong(column);
+        return rs.wasNull() ? null : Long.valueOf(value);
+    }
+
+    protected static Float getFloatObject (ResultSet rs, int column) throws SQLException {
+        float value = rs.getFloat(column);
+        return rs.wasNull() ? null : Float.valueOf(value);
+    }
+
+    protected static Double getDoubleObject (ResultSet rs, int column) throws SQLException {
+        double value = rs.getDouble(column);
+        return rs.wasNull() ? null : Double.valueOf(value);
+    }
+
+    protected static Boolean getBooleanObject (ResultSet rs, int column) throws SQLException {
+        boolean value = rs.getBoolean(column);
+        return rs.wasNull() ? null : Boolean.valueOf(value);
+    }
+
+    /** A {@code (ResultSet)Object} handle that creates and loads a row object. */
+    protected final MethodHandle _load;
+
+    /** A {@code (PreparedStatement,int,Object)void} handle that binds all fields of a row object
+     * after the supplied parameter offset. */
+    protected final MethodHandle _bind;
+
+    /** The number of parameters bound by {@link #_bind}. */
+    protected final int _columns;
+}
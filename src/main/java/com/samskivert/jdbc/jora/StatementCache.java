@@ -0,0 +1,217 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.jdbc.jora;
+
+import java.sql.*;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.samskivert.jdbc.JDBCUtil;
+
+import static com.samskivert.jdbc.Log.log;
+
+/**
+ * Caches the prepared statements used by {@link Table} for inserts, updates and deletes, so that
+ * repeated writes to a table on the same connection do not re-prepare their SQL. Each connection
+ * has its own least-recently-used cache of statements. A connection (and its statements) must
+ * only be used by one thread at a time, which is already the case for connections obtained from
+ * a {@link com.samskivert.jdbc.ConnectionProvider}.
+ *
+ * <p> Statements cached for a connection are closed and forgotten when {@link #invalidate} is
+ * called for that connection, which {@link com.samskivert.jdbc.JORARepository} does when a
+ * connection fails and which happens automatically when a provider reports (via {@link
+ * JDBCUtil#connectionClosed}) that it has closed a connection. As a safety net, caches for
+ * connections that have been closed are purged whenever the number of cached connections doubles.
+ */
+public class StatementCache
+{
+    /**
+     * Configures the maximum number of statements cached for each connection. Zero disables
+     * caching. This only affects connections seen after the call.
+     */
+    public static void setMaxStatements (int maxStatements)
+    {
+        _maxStatements = maxStatements;
+    }
+
+    /**
+     * Closes and forgets all statements cached for the supplied connection.
+     */
+    public static void invalidate (Connection conn)
+    {
+        Statements stmts = _caches.remove(conn);
+        if (stmts != null) {
+            stmts.closeAll();
+        }
+    }
+
+    /**
+     * Returns a prepared statement for the supplied SQL on the supplied connection, reusing a
+     * previously prepared statement if possible. The caller must not close the statement, but
+     * should pass it to {@link #discard} if its use fails.
+     *
+     * @param genKeys whether the statement should return generated keys.
+     */
+    public static PreparedStatement prepare (Connection conn, String sql, boolean genKeys)
+        throws SQLException
+    {
+        if (_maxStatements <= 0) {
+            return doPrepare(conn, sql, genKeys);
+        }
+
+        Statements stmts = _caches.get(conn);
+        if (stmts == null) {
+            if (_caches.size() >= _purgeSize) {
+                purgeClosed();
+                _purgeSize = Math.max(MIN_PURGE_SIZE, 2 * _caches.size());
+            }
+            Statements nstmts = new Statements(_maxStatements);
+            stmts = _caches.putIfAbsent(conn, nstmts);
+            if (stmts == null) {
+                stmts = nstmts;
+            }
+        }
+
+        String key = genKeys ? GEN_KEYS_PREFIX + sql : sql;
+        PreparedStatement stmt = stmts.get(key);
+        if (stmt == null) {
+            stmt = doPrepare(conn, sql, genKeys);
+            stmts.put(key, stmt);
+        }
+        return stmt;
+    }
+
+    /**
+     * Called when a statement obtained from {@link #prepare} fails. The statement is removed from
+     * the cache and closed so that it will be prepared anew on its next use.
+     */
+    public static void discard (Connection conn, String sql, boolean genKeys,
+                                PreparedStatement stmt)
+    {
+        Statements stmts = _caches.get(conn);
+        if (stmts != null) {
+            stmts.remove(genKeys ? GEN_KEYS_PREFIX + sql : sql);
+        }
+        close(stmt);
+    }
+
+    /**
+     * Called when a statement obtained from {@link #prepare} is no longer needed. If statement
+     * caching is disabled the statement is closed, otherwise it is left open for reuse.
+     */
+    public static void release (PreparedStatement stmt)
+    {
+        if (_maxStatements <= 0) {
+            close(stmt);
+        }
+    }
+
+    protected static PreparedStatement doPrepare (Connection conn, String sql, boolean genKeys)
+        throws SQLException
+    {
+        return genKeys ? conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) :
+            conn.prepareStatement(sql);
+    }
+
+    /**
+     * Removes the caches of any connections that have been closed.
+     */
+    protected static void purgeClosed ()
+    {
+        for (Iterator<Map.Entry<Connection,Statements>> iter = _caches.entrySet().iterator();
+             iter.hasNext(); ) {
+            Map.Entry<Connection,Statements> entry = iter.next();
+            boolean closed;
+            try {
+                closed = entry.getKey().isClosed();
+            } catch (SQLException sqe) {
+                closed = true;
+            }
+            if (closed) {
+                iter.remove();
+                entry.getValue().closeAll();
+            }
+        }
+    }
+
+    protected static void close (Statement stmt)
+    {
+        try {
+            stmt.close();
+        } catch (SQLException sqe) {
+            log.info("Failed to close cached statement", "error", sqe);
+        }
+    }
+
+    /** The statements cached for a single connection, in least-recently-used order. */
+    protected static class Statements extends LinkedHashMap<String,PreparedStatement>
+    {
+        public Statements (int maxSize) {
+            super(16, 0.75f, true);
+            _maxSize = maxSize;
+        }
+
+        @Override public synchronized PreparedStatement get (Object key) {
+            return super.get(key);
+        }
+
+        @Override public synchronized PreparedStatement put (String key, PreparedStatement stmt) {
+            PreparedStatement ostmt = super.put(key, stmt);
+            if (ostmt != null && ostmt != stmt) {
+                close(ostmt);
+            }
+            return ostmt;
+        }
+
+        @Override public synchronized PreparedStatement remove (Object key) {
+            return super.remove(key);
+        }
+
+        public synchronized void closeAll () {
+            for (PreparedStatement stmt : values()) {
+                close(stmt);
+            }
+            clear();
+        }
+
+        @Override protected boolean removeEldestEntry (Map.Entry<String,PreparedStatement> eldest) {
+            if (size() <= _maxSize) {
+                return false;
+            }
+            close(eldest.getValue());
+            return true;
+        }
+
+        protected int _maxSize;
+    }
+
+    /** Our per-connection statement caches. */
+    protected static final ConcurrentHashMap<Connection,Statements> _caches =
+        new ConcurrentHashMap<Connection,Statements>();
+
+    /** The fewest cached connections at which we purge closed connections. */
+    protected static final int MIN_PURGE_SIZE = 64;
+
+    /** The number of cached connections at which we next purge closed connections. */
+    protected static volatile int _purgeSize = MIN_PURGE_SIZE;
+
+    /** The maximum number of statements cached per connection. */
+    protected static volatile int _maxStatements = 64;
+
+    /** Distinguishes statements that return generated keys from those that don't. */
+    protected static final String GEN_KEYS_PREFIX = "\u0000keys:";
+
+    static {
+        // forget the statements of the connections that the providers close
+        JDBCUtil.addCloseListener(new JDBCUtil.CloseListener() {
+            public void connectionClosed (Connection conn) {
+                invalidate(conn);
+            }
+        });
+    }
+}
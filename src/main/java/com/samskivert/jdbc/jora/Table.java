@@ -7,9 +7,12 @@ package com.samskivert.jdbc.jora;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.sql.*;
 import java.lang.reflect.*;
+import java.lang.reflect.Array;
 
+import com.samskivert.jdbc.DatabaseLiaison;
 import com.samskivert.util.StringUtil;
 
 /**
@@ -76,6 +79,16 @@ public class Table<T>
         init(clazz, tableName, keys, mixedCaseConvert);
     }
 
+    /**
+     * Configures whether tables created after this call load and bind their rows using generated
+     * method handles (the default) or reflection. Tables whose row classes cannot be handled by
+     * generated code always use reflection.
+     */
+    public static void setGenerateBinders (boolean generate)
+    {
+        generateBinders = generate;
+    }
+
     /**
      * Returns the SQL name of the table on which we operate.
      */
@@ -109,6 +122,42 @@ public class Table<T>
         return new Cursor<T>(this, conn, query, params);
     }
 
+    /**
+     * Select records from database table according to search condition, streaming the results
+     * from the database rather than reading them all into memory. The cursor uses a forward-only,
+     * read-only result set configured for streaming by the connection's {@link
+     * com.samskivert.jdbc.DatabaseLiaison}, and should be consumed (or closed) before the
+     * connection is used for anything else (MySQL does not allow other statements to be executed
+     * on a connection while a result is being streamed). Use {@link Cursor#next} or {@link
+     * Cursor#forEach} to process the records; {@link Cursor#toArrayList} would defeat the
+     * purpose.
+     *
+     * @param condition valid SQL condition expression started with WHERE (or the empty string),
+     * using ? placeholders for parameters.
+     * @param fetchSize the number of rows to fetch from the database at a time.
+     * @param params parameter values to bind to the ? placeholders.
+     */
+    public final Cursor<T> stream (Connection conn, String condition, int fetchSize,
+                                   Object... params)
+    {
+        return stream(conn, null, condition, fetchSize, params);
+    }
+
+    /**
+     * Like {@link #stream(Connection,String,int,Object...)} but uses the supplied liaison to
+     * configure streaming rather than looking one up for the connection (which is done if the
+     * supplied liaison is null).
+     */
+    public final Cursor<T> stream (Connection conn, DatabaseLiaison liaison, String condition,
+                                   int fetchSize, Object... params)
+    {
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("Fetch size must be positive: " + fetchSize);
+        }
+        String query = "select " + listOfFields + " from " + name + " " + condition;
+        return new Cursor<T>(this, conn, liaison, query, params, fetchSize);
+    }
+
     /**
      * Select records from database table according to search condition including the specified
      * (comma separated) extra tables into the SELECT clause to facilitate a join in determining the
@@ -213,19 +262,18 @@ public class Table<T>
      *
      * @param obj object specifying values of inserted record fields
      */
-    public synchronized void insert (Connection conn, T obj)
+    public void insert (Connection conn, T obj)
         throws SQLException
     {
-        StringBuilder sql = new StringBuilder(
-            "insert into " + name + " (" + listOfFields + ") values (?");
-        for (int i = 1; i < nColumns; i++) {
-            sql.append(",?");
+        PreparedStatement insertStmt = StatementCache.prepare(conn, insertSQL, false);
+        boolean ok = false;
+        try {
+            bindUpdateVariables(insertStmt, obj, null);
+            insertStmt.executeUpdate();
+            ok = true;
+        } finally {
+            finished(conn, insertSQL, false, insertStmt, ok);
         }
-        sql.append(")");
-        PreparedStatement insertStmt = conn.prepareStatement(sql.toString());
-        bindUpdateVariables(insertStmt, obj, null);
-        insertStmt.executeUpdate();
-        insertStmt.close();
     }
 
     /**
@@ -237,28 +285,30 @@ public class Table<T>
      * @param obj object specifying values of inserted record fields
      * @return the auto-generated key created by the database.
      */
-    public synchronized <K> K insertGetKey (Connection conn, T obj) throws SQLException
+    public <K> K insertGetKey (Connection conn, T obj) throws SQLException
     {
         if (primaryKeys.length > 1) throw new UnsupportedOperationException(
             "Table must have exactly one primary-key column. This table has " + primaryKeys.length);
-        StringBuilder sql = new StringBuilder(
-            "insert into " + name + " (" + listOfFields + ") values (?");
-        for (int i = 1; i < nColumns; i++) {
-            sql.append(",?");
-        }
-        sql.append(")");
-        PreparedStatement insertStmt = conn.prepareStatement(
-            sql.toString(), Statement.RETURN_GENERATED_KEYS);
-        bindUpdateVariables(insertStmt, obj, null);
-        insertStmt.executeUpdate();
-        ResultSet rs = insertStmt.getGeneratedKeys();
+        PreparedStatement insertStmt = StatementCache.prepare(conn, insertSQL, true);
+        boolean ok = false;
         Object rawKey = null;
-        if (rs.next()) {
-            rawKey = rs.getObject(1);
+        try {
+            bindUpdateVariables(insertStmt, obj, null);
+            insertStmt.executeUpdate();
+            ResultSet rs = insertStmt.getGeneratedKeys();
+            try {
+                if (rs.next()) {
+                    rawKey = rs.getObject(1);
+                }
+            } finally {
+                rs.close();
+            }
+            ok = true;
+        } finally {
+            finished(conn, insertSQL, true, insertStmt, ok);
         }
         @SuppressWarnings("unchecked")
         K key = (K)rawKey;
-        insertStmt.close();
         return key;
     }
 
@@ -268,22 +318,94 @@ public class Table<T>
      *
      * @param objects array with objects specifying values of inserted record fields
      */
-    public synchronized void insert (Connection conn, T[] objects)
+    public void insert (Connection conn, T[] objects)
         throws SQLException
     {
-        StringBuilder sql = new StringBuilder(
-            "insert into " + name + " (" + listOfFields + ") values (?");
-        for (int i = 1; i < nColumns; i++) {
-            sql.append(",?");
+        PreparedStatement insertStmt = StatementCache.prepare(conn, insertSQL, false);
+        boolean ok = false;
+        try {
+            for (int i = 0; i < objects.length; i++) {
+                bindUpdateVariables(insertStmt, objects[i], null);
+                insertStmt.addBatch();
+            }
+            insertStmt.executeBatch();
+            ok = true;
+        } finally {
+            finished(conn, insertSQL, false, insertStmt, ok);
         }
-        sql.append(")");
-        PreparedStatement insertStmt = conn.prepareStatement(sql.toString());
-        for (int i = 0; i < objects.length; i++) {
-            bindUpdateVariables(insertStmt, objects[i], null);
-            insertStmt.addBatch();
+    }
+
+    /**
+     * Inserts several new records in the table using multi-row inserts, each of which inserts as
+     * many rows as the supplied liaison allows parameters for. This requires far fewer round
+     * trips to the database than {@link #insert(Connection,Object[])} with most drivers.
+     *
+     * @param objects array with objects specifying values of inserted record fields
+     */
+    public void insert (Connection conn, DatabaseLiaison liaison, T[] objects)
+        throws SQLException
+    {
+        insertRows(conn, liaison, objects, null);
+    }
+
+    /**
+     * Inserts several records in the table, updating (in place of inserting) those that collide
+     * with existing records on the table's primary key. If the supplied liaison supports an upsert
+     * clause, this is done with multi-row upserts, otherwise the objects are first updated in a
+     * batch and those that matched no existing record are then inserted.
+     *
+     * @param objects array with objects specifying values of stored record fields
+     */
+    public void store (Connection conn, DatabaseLiaison liaison, T[] objects)
+        throws SQLException
+    {
+        if (primaryKeys == null) {
+            throw new IllegalStateException("No primary key for table " + name + ".");
+        }
+
+        String upsert = liaison.getUpsertClause(columnNames, primaryKeys);
+        if (upsert != null) {
+            insertRows(conn, liaison, objects, upsert);
+            return;
+        }
+
+        // update everything in a batch and note which objects have yet to be inserted; drivers
+        // that don't report per-row counts leave us to update those objects again one by one
+        List<T> inserts = new ArrayList<T>(), unknown = new ArrayList<T>();
+        PreparedStatement updateStmt = StatementCache.prepare(conn, updateSQL, false);
+        boolean ok = false;
+        try {
+            for (int i = 0; i < objects.length; i++) {
+                int column = bindUpdateVariables(updateStmt, objects[i], null);
+                for (int j = 0; j < primaryKeys.length; j++) {
+                    fields[primaryKeyIndices[j]].bindVariable(
+                        updateStmt, objects[i], column+1+j);
+                }
+                updateStmt.addBatch();
+            }
+            int rc[] = updateStmt.executeBatch();
+            for (int k = 0; k < rc.length; k++) {
+                if (rc[k] == 0) {
+                    inserts.add(objects[k]);
+                } else if (rc[k] == Statement.SUCCESS_NO_INFO) {
+                    unknown.add(objects[k]);
+                }
+            }
+            ok = true;
+        } finally {
+            finished(conn, updateSQL, false, updateStmt, ok);
+        }
+        for (T object : unknown) {
+            if (update(conn, object) == 0) {
+                inserts.add(object);
+            }
+        }
+
+        if (!inserts.isEmpty()) {
+            @SuppressWarnings("unchecked") T[] iobjects = inserts.toArray(
+                (T[])Array.newInstance(objects.getClass().getComponentType(), inserts.size()));
+            insertRows(conn, liaison, iobjects, null);
         }
-        insertStmt.executeBatch();
-        insertStmt.close();
     }
 
     /**
@@ -320,22 +442,24 @@ public class Table<T>
      *
      * @return number of objects actually updated
      */
-    public synchronized int update (Connection conn, T obj, FieldMask mask)
+    public int update (Connection conn, T obj, FieldMask mask)
         throws SQLException
     {
-        int nUpdated = 0;
-        String sql = "update " + name + " set " +
-            (mask != null ? buildListOfAssignments(mask) : listOfAssignments) +
-            buildUpdateWhere();
-        PreparedStatement ustmt = conn.prepareStatement(sql);
-        int column = bindUpdateVariables(ustmt, obj, mask);
-        for (int i = 0; i < primaryKeys.length; i++) {
-            int fidx = primaryKeyIndices[i];
-            fields[fidx].bindVariable(ustmt, obj, column+i+1);
-        }
-        nUpdated = ustmt.executeUpdate();
-        ustmt.close();
-        return nUpdated;
+        String sql = (mask != null) ? getUpdateSQL(mask) : updateSQL;
+        PreparedStatement ustmt = StatementCache.prepare(conn, sql, false);
+        boolean ok = false;
+        try {
+            int column = bindUpdateVariables(ustmt, obj, mask);
+            for (int i = 0; i < primaryKeys.length; i++) {
+                int fidx = primaryKeyIndices[i];
+                fields[fidx].bindVariable(ustmt, obj, column+i+1);
+            }
+            int nUpdated = ustmt.executeUpdate();
+            ok = true;
+            return nUpdated;
+        } finally {
+            finished(conn, sql, false, ustmt, ok);
+        }
     }
 
     /**
@@ -347,7 +471,7 @@ public class Table<T>
      *
      * @return number of objects actually updated
      */
-    public synchronized int update (Connection conn, T[] objects)
+    public int update (Connection conn, T[] objects)
         throws SQLException
     {
         if (primaryKeys == null) {
@@ -356,21 +480,25 @@ public class Table<T>
         }
 
         int nUpdated = 0;
-        String sql = "update " + name + " set " + listOfAssignments + buildUpdateWhere();
-        PreparedStatement updateStmt = conn.prepareStatement(sql);
-        for (int i = 0; i < objects.length; i++) {
-            int column = bindUpdateVariables(updateStmt, objects[i], null);
-            for (int j = 0; j < primaryKeys.length; j++) {
-                int fidx = primaryKeyIndices[j];
-                fields[fidx].bindVariable(updateStmt, objects[i], column+1+j);
+        PreparedStatement updateStmt = StatementCache.prepare(conn, updateSQL, false);
+        boolean ok = false;
+        try {
+            for (int i = 0; i < objects.length; i++) {
+                int column = bindUpdateVariables(updateStmt, objects[i], null);
+                for (int j = 0; j < primaryKeys.length; j++) {
+                    int fidx = primaryKeyIndices[j];
+                    fields[fidx].bindVariable(updateStmt, objects[i], column+1+j);
+                }
+                updateStmt.addBatch();
             }
-            updateStmt.addBatch();
-        }
-        int rc[] = updateStmt.executeBatch();
-        for (int k = 0; k < rc.length; k++) {
-            nUpdated += rc[k];
+            int rc[] = updateStmt.executeBatch();
+            for (int k = 0; k < rc.length; k++) {
+                nUpdated += rc[k];
+            }
+            ok = true;
+        } finally {
+            finished(conn, updateSQL, false, updateStmt, ok);
         }
-        updateStmt.close();
         return nUpdated;
     }
 
@@ -379,25 +507,24 @@ public class Table<T>
      *
      * @param obj object containing value of primary key.
      */
-    public synchronized int delete (Connection conn, T obj)
+    public int delete (Connection conn, T obj)
         throws SQLException
     {
         if (primaryKeys == null) {
             throw new IllegalStateException("No primary key for table " + name + ".");
         }
-        int nDeleted = 0;
-        StringBuilder sql = new StringBuilder(
-            "delete from " + name + " where " + primaryKeys[0] + " = ?");
-        for (int i = 1; i < primaryKeys.length; i++) {
-            sql.append(" and ").append(primaryKeys[i]).append(" = ?");
-        }
-        PreparedStatement deleteStmt = conn.prepareStatement(sql.toString());
-        for (int i = 0; i < primaryKeys.length; i++) {
-            fields[primaryKeyIndices[i]].bindVariable(deleteStmt, obj,i+1);
+        PreparedStatement deleteStmt = StatementCache.prepare(conn, deleteSQL, false);
+        boolean ok = false;
+        try {
+            for (int i = 0; i < primaryKeys.length; i++) {
+                fields[primaryKeyIndices[i]].bindVariable(deleteStmt, obj,i+1);
+            }
+            int nDeleted = deleteStmt.executeUpdate();
+            ok = true;
+            return nDeleted;
+        } finally {
+            finished(conn, deleteSQL, false, deleteStmt, ok);
         }
-        nDeleted = deleteStmt.executeUpdate();
-        deleteStmt.close();
-        return nDeleted;
     }
 
     /**
@@ -407,30 +534,30 @@ public class Table<T>
      *
      * @return number of objects actually deleted
      */
-    public synchronized int delete (Connection conn, T[] objects)
+    public int delete (Connection conn, T[] objects)
         throws SQLException
     {
         if (primaryKeys == null) {
             throw new IllegalStateException("No primary key for table " + name + ".");
         }
         int nDeleted = 0;
-        StringBuilder sql = new StringBuilder(
-            "delete from " + name + " where " + primaryKeys[0] + " = ?");
-        for (int i = 1; i < primaryKeys.length; i++) {
-            sql.append(" and ").append(primaryKeys[i]).append(" = ?");
-        }
-        PreparedStatement deleteStmt = conn.prepareStatement(sql.toString());
-        for (int i = 0; i < objects.length; i++) {
-            for (int j = 0; j < primaryKeys.length; j++) {
-                fields[primaryKeyIndices[j]].bindVariable(deleteStmt, objects[i], j+1);
+        PreparedStatement deleteStmt = StatementCache.prepare(conn, deleteSQL, false);
+        boolean ok = false;
+        try {
+            for (int i = 0; i < objects.length; i++) {
+                for (int j = 0; j < primaryKeys.length; j++) {
+                    fields[primaryKeyIndices[j]].bindVariable(deleteStmt, objects[i], j+1);
+                }
+                deleteStmt.addBatch();
             }
-            deleteStmt.addBatch();
-        }
-        int rc[] = deleteStmt.executeBatch();
-        for (int k = 0; k < rc.length; k++) {
-            nDeleted += rc[k];
+            int rc[] = deleteStmt.executeBatch();
+            for (int k = 0; k < rc.length; k++) {
+                nDeleted += rc[k];
+            }
+            ok = true;
+        } finally {
+            finished(conn, deleteSQL, false, deleteStmt, ok);
         }
-        deleteStmt.close();
         return nDeleted;
     }
 
@@ -467,7 +594,21 @@ public class Table<T>
             setBypass.invoke(constructor, bypassFlag);
         } catch(Exception ex) {}
 
+        if (generateBinders) {
+            binder = RowBinder.create(constructor, fields);
+        }
+
+        StringBuilder sql = new StringBuilder(
+            "insert into " + name + " (" + listOfFields + ") values (?");
+        for (int i = 1; i < nColumns; i++) {
+            sql.append(",?");
+        }
+        insertSQL = sql.append(")").toString();
+        columnNames = listOfFields.split(",");
+
         if (keys != null && keys.length > 0) {
+            updateSQL = "update " + name + " set " + listOfAssignments + buildUpdateWhere();
+            deleteSQL = "delete from " + name + buildUpdateWhere();
             primaryKeyIndices = new int[keys.length];
             for (int j = keys.length; --j >= 0;) {
                 int i = nFields;
@@ -585,6 +726,121 @@ public class Table<T>
         return n;
     }
 
+    /**
+     * Returns the SQL used to update the fields marked as modified in the supplied mask, building
+     * and caching it the first time a particular combination of fields is seen.
+     */
+    protected final String getUpdateSQL (FieldMask mask)
+    {
+        BitSet modified = mask.getModifiedSet();
+        String sql = maskedUpdateSQL.get(modified);
+        if (sql == null) {
+            sql = "update " + name + " set " + buildListOfAssignments(mask) + buildUpdateWhere();
+            maskedUpdateSQL.putIfAbsent(modified, sql);
+        }
+        return sql;
+    }
+
+    /**
+     * Inserts the supplied objects using as few multi-row inserts as the supplied liaison's
+     * parameter limit allows.
+     *
+     * @param suffix an optional clause to append to each insert (i.e. an upsert clause).
+     */
+    protected final void insertRows (
+        Connection conn, DatabaseLiaison liaison, T[] objects, String suffix)
+        throws SQLException
+    {
+        int chunkSize = Math.max(1, Math.min(
+            MAX_ROWS_PER_INSERT, liaison.getMaxStatementParameters() / nColumns));
+        String chunkSQL = null;
+        for (int offset = 0; offset < objects.length; offset += chunkSize) {
+            int rows = Math.min(chunkSize, objects.length - offset);
+            String sql;
+            if (rows == chunkSize) {
+                if (chunkSQL == null) {
+                    chunkSQL = getMultiRowInsertSQL(rows, suffix);
+                }
+                sql = chunkSQL;
+            } else {
+                sql = getMultiRowInsertSQL(rows, suffix);
+            }
+
+            PreparedStatement stmt = StatementCache.prepare(conn, sql, false);
+            boolean ok = false;
+            try {
+                for (int ii = 0; ii < rows; ii++) {
+                    bindRow(stmt, objects[offset + ii], ii * nColumns);
+                }
+                stmt.executeUpdate();
+                ok = true;
+            } finally {
+                finished(conn, sql, false, stmt, ok);
+            }
+        }
+    }
+
+    /**
+     * Returns the SQL for an insert of the specified number of rows.
+     */
+    protected final String getMultiRowInsertSQL (int rows, String suffix)
+    {
+        StringBuilder row = new StringBuilder("(?");
+        for (int i = 1; i < nColumns; i++) {
+            row.append(",?");
+        }
+        row.append(")");
+
+        int suffixLength = (suffix == null) ? 0 : suffix.length();
+        StringBuilder sql = new StringBuilder(
+            insertSQL.length() + rows * (row.length() + 1) + suffixLength);
+        sql.append("insert into ").append(name).append(" (").append(listOfFields);
+        sql.append(") values ");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sql.append(",");
+            }
+            sql.append(row);
+        }
+        if (suffix != null) {
+            sql.append(suffix);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Binds all of the columns of the supplied object to the parameters following
+     * <code>offset</code>.
+     */
+    protected final void bindRow (PreparedStatement pstmt, T obj, int offset)
+        throws SQLException
+    {
+        if (binder != null) {
+            try {
+                binder.bind(pstmt, offset, obj);
+                return;
+            } catch (SQLException sqe) {
+                // fall back to the reflective code, as in bindUpdateVariables
+            }
+        }
+        bindUpdateVariables(pstmt, obj, 0, nFields, offset, null);
+    }
+
+    /**
+     * Called when we are done with a statement obtained from the {@link StatementCache}.
+     *
+     * @param ok false if the use of the statement failed, in which case it is discarded.
+     */
+    protected final void finished (Connection conn, String sql, boolean genKeys,
+                                   PreparedStatement stmt, boolean ok)
+    {
+        if (ok) {
+            StatementCache.release(stmt);
+        } else {
+            StatementCache.discard(conn, sql, genKeys, stmt);
+        }
+    }
+
     protected final String buildListOfAssignments (FieldMask mask)
     {
         StringBuilder sql = new StringBuilder();
@@ -606,6 +862,11 @@ public class Table<T>
 
     protected final T load (ResultSet result) throws SQLException
     {
+        if (binder != null) {
+            @SuppressWarnings("unchecked") T obj = (T)binder.load(result);
+            return obj;
+        }
+
         T obj;
         try {
             obj = constructor.newInstance(constructorArgs);
@@ -642,9 +903,61 @@ public class Table<T>
         return column;
     }
 
+    /**
+     * Returns a copy of the supplied object, with its own instances of any compound fields and of
+     * any byte array or date fields (which are mutable). Other field values are shared with the
+     * original. This allows an object that is shared (by a query cache, for example) to be handed
+     * out to callers that may modify it.
+     */
+    public T copy (T obj)
+    {
+        T copy;
+        try {
+            copy = constructor.newInstance(constructorArgs);
+            copy(obj, copy, 0, nFields);
+        }
+        catch(IllegalAccessException ex) { throw new IllegalAccessError(); }
+        catch(InstantiationException ex) { throw new InstantiationError(); }
+        catch(InvocationTargetException ex) {
+            throw new InstantiationError("Exception was thrown by constructor");
+        }
+        return copy;
+    }
+
+    protected final void copy (Object from, Object to, int i, int end)
+        throws IllegalAccessException, InstantiationException, InvocationTargetException
+    {
+        while (i < end) {
+            FieldDescriptor fd = fields[i++];
+            Object value = fd.field.get(from);
+            if (fd.isCompound()) {
+                int nComponents = fd.inType - FieldDescriptor.tCompound;
+                if (value != null) {
+                    Object component = fd.constructor.newInstance(constructorArgs);
+                    copy(value, component, i, i + nComponents);
+                    value = component;
+                }
+                i += nComponents;
+            } else if (value instanceof byte[]) {
+                value = ((byte[])value).clone();
+            } else if (value instanceof java.util.Date) {
+                value = ((java.util.Date)value).clone();
+            }
+            fd.field.set(to, value);
+        }
+    }
+
     protected final int bindUpdateVariables(PreparedStatement pstmt, T obj, FieldMask mask)
         throws SQLException
     {
+        if (binder != null && mask == null) {
+            try {
+                return binder.bind(pstmt, obj);
+            } catch (SQLException sqe) {
+                // fall back to the reflective code, which knows how to retry a failed binding by
+                // converting the value to a string
+            }
+        }
         return bindUpdateVariables(pstmt, obj, 0, nFields, 0, mask);
     }
 
@@ -887,12 +1200,30 @@ public class Table<T>
 
     protected int nFields;  // length of "fields" array
     protected int nColumns; // number of atomic fields in "fields" array
+    protected String[] columnNames; // the names of our atomic fields
+
+    /** SQL statements computed once at init time (the update and delete statements are null if
+     * the table has no primary key). */
+    protected String insertSQL, updateSQL, deleteSQL;
+
+    /** The update statements for field masks that have been seen, keyed on the modified fields. */
+    protected final ConcurrentHashMap<BitSet,String> maskedUpdateSQL =
+        new ConcurrentHashMap<BitSet,String>();
 
     protected String primaryKeys[];
     protected int primaryKeyIndices[];
 
     protected Constructor<T> constructor;
 
+    /** Loads and binds our rows, or null if we use reflection to do so. */
+    protected RowBinder binder;
+
+    /** The maximum number of rows inserted by a single multi-row insert. */
+    protected static final int MAX_ROWS_PER_INSERT = 1000;
+
+    /** Whether or not to generate {@link RowBinder}s for newly created tables. */
+    protected static volatile boolean generateBinders = true;
+
     protected static final Method setBypass = getSetBypass();
     protected static final Class<Serializable> serializableClass = Serializable.class;
     protected static final Object[] bypassFlag = { Boolean.TRUE };
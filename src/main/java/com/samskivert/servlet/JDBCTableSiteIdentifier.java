@@ -16,6 +16,12 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 import jakarta.servlet.http.HttpServletRequest;
 
@@ -40,12 +46,16 @@ import static com.samskivert.servlet.Log.log;
  * identifiers to site strings. These are both loaded at construct time and refreshed periodically
  * in the course of normal operation.
  *
- * <p> Note that any of the calls to identify, lookup or enumerate site information can result in
- * the sites table being refreshed from the database which will take relatively much longer than
- * the simple hashtable lookup that the operations normally require. However, this happens only
- * once every 15 minutes and the circumstances in which the site identifier are normally used can
- * generally accomodate the extra 100 milliseconds or so that it is likely to take to reload the
- * (tiny) sites and domains tables from the database.
+ * <p> Domains are indexed by suffix, so identifying a site takes a handful of hashtable lookups
+ * (one or two per label in the server name) regardless of the number of mapped domains. A mapped
+ * domain matches a server name that is equal to it or that ends with it at a label boundary (so
+ * <code>samskivert.com</code> matches <code>www.samskivert.com</code>), and the longest matching
+ * domain wins.
+ *
+ * <p> The site data is refreshed every 15 minutes. The refresh is triggered by any of the calls to
+ * identify, lookup or enumerate site information, but is performed on a background thread
+ * (shared by all identifiers); the old data continues to be used until the new data has been
+ * loaded and indexed.
  */
 public class JDBCTableSiteIdentifier implements SiteIdentifier
 {
@@ -82,19 +92,7 @@ public class JDBCTableSiteIdentifier implements SiteIdentifier
     public int identifySite (HttpServletRequest req)
     {
         checkReloadSites();
-        String serverName = req.getServerName();
-
-        // scan for the mapping that matches the specified domain
-        int msize = _mappings.size();
-        for (int i = 0; i < msize; i++) {
-            SiteMapping mapping = _mappings.get(i);
-            if (serverName.endsWith(mapping.domain)) {
-                return mapping.siteId;
-            }
-        }
-
-        // if we matched nothing, return the default id
-        return _defaultSiteId;
+        return _index.identify(req.getServerName(), _defaultSiteId);
     }
 
     // documentation inherited
@@ -155,21 +153,20 @@ public class JDBCTableSiteIdentifier implements SiteIdentifier
      */
     protected void checkReloadSites ()
     {
-        long now = System.currentTimeMillis();
-        boolean reload = false;
-        synchronized (this) {
-            reload = (now - _lastReload > RELOAD_INTERVAL);
-            if (reload) {
-                _lastReload = now;
-            }
+        long now = System.currentTimeMillis(), last = _lastReload.get();
+        if (now - last <= RELOAD_INTERVAL || !_lastReload.compareAndSet(last, now)) {
+            return;
         }
-        if (reload) {
-            try {
-                _repo.refreshSiteData();
-            } catch (PersistenceException pe) {
-                log.warning("Error refreshing site data.", pe);
+        // only the caller that won the race above gets here, and it just kicks off the reload
+        _reloader.execute(new Runnable() {
+            public void run () {
+                try {
+                    _repo.refreshSiteData();
+                } catch (Throwable t) {
+                    log.warning("Error refreshing site data.", t);
+                }
             }
-        }
+        });
     }
 
     /**
@@ -227,6 +224,7 @@ public class JDBCTableSiteIdentifier implements SiteIdentifier
                 // sort the mappings in order of specificity
                 Collections.sort(mappings, SiteMapping.BY_SPECIFICITY);
                 _mappings = mappings;
+                _index = new DomainIndex(mappings);
 //                 Log.info("Loaded site mappings " + StringUtil.toString(_mappings) + ".");
 
                 // nothing to return
@@ -302,6 +300,60 @@ public class JDBCTableSiteIdentifier implements SiteIdentifier
         protected String _rdomain;
     }
 
+    /**
+     * An immutable index of domain to site id mappings, keyed on domain suffix. A new index is
+     * built and published whenever the site data is reloaded.
+     */
+    protected static class DomainIndex
+    {
+        public DomainIndex (List<SiteMapping> mappings) {
+            for (SiteMapping mapping : mappings) {
+                // the mappings are sorted, so if a domain is mapped twice, the first mapping wins
+                if (!_domains.containsKey(mapping.domain)) {
+                    _domains.put(mapping.domain, mapping.siteId);
+                }
+            }
+        }
+
+        /**
+         * Returns the site id of the longest mapped domain that matches the supplied server name,
+         * or the supplied default if no domain matches.
+         */
+        public int identify (String serverName, int defaultSiteId) {
+            Integer siteId = _cache.get(serverName);
+            if (siteId == null) {
+                siteId = lookup(serverName);
+                if (_cache.size() >= MAX_CACHED_NAMES) {
+                    _cache.clear();
+                }
+                _cache.put(serverName, siteId);
+            }
+            return (siteId == NO_MATCH) ? defaultSiteId : siteId.intValue();
+        }
+
+        protected int lookup (String serverName) {
+            Integer siteId = _domains.get(serverName);
+            // try each suffix of the name that starts at a label boundary, longest first; we try
+            // the suffix both with and without its leading dot, since domains may be mapped either
+            // way (e.g. ".samskivert.com" or "samskivert.com")
+            for (int dot = serverName.indexOf('.'); siteId == null && dot >= 0;
+                 dot = serverName.indexOf('.', dot + 1)) {
+                siteId = _domains.get(serverName.substring(dot));
+                if (siteId == null) {
+                    siteId = _domains.get(serverName.substring(dot + 1));
+                }
+            }
+            return (siteId == null) ? NO_MATCH : siteId;
+        }
+
+        /** Maps each mapped domain to its site id. */
+        protected final HashMap<String,Integer> _domains = new HashMap<String,Integer>();
+
+        /** Caches the result of looking up recently seen server names. */
+        protected final ConcurrentHashMap<String,Integer> _cache =
+            new ConcurrentHashMap<String,Integer>();
+    }
+
     /** The repository through which we load up site identifier information. */
     protected SiteIdentifierRepository _repo;
 
@@ -312,15 +364,34 @@ public class JDBCTableSiteIdentifier implements SiteIdentifier
      * specific. */
     protected volatile ArrayList<SiteMapping> _mappings = new ArrayList<SiteMapping>();
 
+    /** The index used to identify sites from server names, built from {@link #_mappings}. */
+    protected volatile DomainIndex _index = new DomainIndex(_mappings);
+
     /** The mapping from integer site identifiers to string site identifiers. */
     protected volatile HashIntMap<Site> _sitesById = new HashIntMap<Site>();
 
     /** The mapping from string site identifiers to integer site identifiers. */
     protected volatile HashMap<String,Site> _sitesByString = new HashMap<String,Site>();
 
-    /** Used to periodically reload our site data. */
-    protected long _lastReload;
+    /** The time at which we last reloaded our site data (we load it at construct time). */
+    protected AtomicLong _lastReload = new AtomicLong(System.currentTimeMillis());
 
     /** Reload our site data every 15 minutes. */
     protected static final long RELOAD_INTERVAL = 15 * 60 * 1000L;
+
+    /** The maximum number of server names for which we cache lookup results. */
+    protected static final int MAX_CACHED_NAMES = 4096;
+
+    /** Cached for server names that match no mapped domain. */
+    protected static final int NO_MATCH = Integer.MIN_VALUE;
+
+    /** The daemon thread on which all identifiers reload their site data. */
+    protected static final ExecutorService _reloader = Executors.newSingleThreadExecutor(
+        new ThreadFactory() {
+            public Thread newThread (Runnable r) {
+                Thread thread = new Thread(r, "JDBCTableSiteIdentifier reloader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
 }
@@ -8,6 +8,7 @@ package com.samskivert.servlet;
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import jakarta.servlet.http.HttpServletRequest;
 
@@ -20,6 +21,12 @@ import static com.samskivert.servlet.Log.log;
  * The message manager handles the translation messages for a web application. The webapp should
  * construct the message manager with the name of its message properties file and it can then make
  * use of the message manager to generate locale specific messages for a request.
+ *
+ * <p> Messages are cached (with their embedded message references resolved) for each set of
+ * resource bundles from which they are looked up, as are the message formats used to substitute
+ * arguments into them, so repeated lookups of the same message need not consult the bundles or
+ * parse the message again. The caches for site-specific messages are flushed when a site's jar
+ * file is modified.
  */
 public class MessageManager
 {
@@ -57,6 +64,15 @@ public class MessageManager
         _siteLoader = siteLoader;
     }
 
+    /**
+     * Configures how often (at most) we check whether a site's jar file has been modified, which
+     * causes its cached messages to be flushed. Defaults to {@link #DEFAULT_SITE_CHECK_INTERVAL}.
+     */
+    public void setSiteCheckInterval (long millis)
+    {
+        _siteCheckInterval = millis;
+    }
+
     /**
      * Return true if the specifed path exists in the resource bundle.
      */
@@ -83,9 +99,14 @@ public class MessageManager
      */
     public String getMessage (HttpServletRequest req, String path, Object[] args)
     {
+        // if this is a simple key, use the cached format for its message
+        if (path != null && !MessageUtil.isTainted(path) && path.indexOf('|') == -1) {
+            CachedMessage cached = getCachedMessage(req, path);
+            if (cached != null) {
+                return cached.format(args);
+            }
+        }
         String msg = getMessage(req, path, true);
-        // we may cache message formatters later, but for now just use the static convenience
-        // function
         return MessageFormat.format(MessageUtil.escape(msg), args);
     }
 
@@ -125,10 +146,67 @@ public class MessageManager
             return getMessage(req, key, args);
         }
 
+        CachedMessage cached = getCachedMessage(req, path);
+        if (cached != null) {
+            return cached.message;
+        }
+
+        if (reportMissing) {
+            // if there's no translation for this path, complain about it
+            log.warning("Missing translation message", "path", path, "url", getURL(req));
+            return path;
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the cached message for the specified (simple) path from the resource bundles most
+     * appropriate for the supplied request, looking it up and caching it if necessary. Returns
+     * null if no such message exists.
+     */
+    protected CachedMessage getCachedMessage (HttpServletRequest req, String path)
+    {
         // load up the matching resource bundles (the array will contain the site-specific
         // resources first and the application resources second); use the locale preferred by the
         // client if possible
         ResourceBundle[] bundles = resolveBundles(req);
+        BundleKey key = null;
+        if (req != null) {
+            key = (BundleKey)req.getAttribute(getBundleKeyCacheName());
+        }
+        if (key == null) {
+            key = new BundleKey(null, bundles);
+        }
+        ConcurrentHashMap<String,CachedMessage> messages = _messages.get(key);
+        if (messages == null) {
+            ConcurrentHashMap<String,CachedMessage> nmessages =
+                new ConcurrentHashMap<String,CachedMessage>();
+            messages = _messages.putIfAbsent(key, nmessages);
+            if (messages == null) {
+                messages = nmessages;
+            }
+        }
+
+        CachedMessage cached = messages.get(path);
+        if (cached == null) {
+            String message = lookupMessage(req, path, bundles);
+            // we don't cache misses, as the paths requested may be arbitrary
+            if (message == null) {
+                return null;
+            }
+            cached = new CachedMessage(message);
+            messages.put(path, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * Looks up the message with the specified path in the supplied bundles and resolves any
+     * message references embedded in it. Returns null if the message does not exist.
+     */
+    protected String lookupMessage (HttpServletRequest req, String path, ResourceBundle[] bundles)
+    {
         String message = null;
         if (bundles != null) {
             int blength = bundles.length;
@@ -144,36 +222,33 @@ public class MessageManager
         }
 
         // if we found a message, check it for embedded message links
-        if (message != null) {
-            int oidx = -1;
-            while ((oidx = message.indexOf("{", oidx+1)) != -1) {
-                int cidx = message.indexOf("}", oidx+1);
-                if (cidx == -1) {
-                    // something's funny, just stop fiddling
-                    break;
-                }
-                String ref = message.substring(oidx+1, cidx);
-                // avoid trivial infinite recursion
-                if (ref.equals(path)) {
-                    throw new IllegalStateException(
-                        "Illegal self-referential message " + path + " = " + message + ".");
-                }
-                if (ref.length() > 0 && !Character.isDigit(ref.charAt(0))) {
-                    String refmsg = getMessage(req, ref, true);
-                    message = message.substring(0, oidx) + refmsg + message.substring(cidx+1);
-                    oidx += refmsg.length();
+        if (message == null) {
+            return null;
+        }
+        StringBuilder buf = null;
+        int oidx = -1, copied = 0;
+        while ((oidx = message.indexOf('{', oidx+1)) != -1) {
+            int cidx = message.indexOf('}', oidx+1);
+            if (cidx == -1) {
+                // something's funny, just stop fiddling
+                break;
+            }
+            String ref = message.substring(oidx+1, cidx);
+            // avoid trivial infinite recursion
+            if (ref.equals(path)) {
+                throw new IllegalStateException(
+                    "Illegal self-referential message " + path + " = " + message + ".");
+            }
+            if (ref.length() > 0 && !Character.isDigit(ref.charAt(0))) {
+                if (buf == null) {
+                    buf = new StringBuilder(message.length() + 32);
                 }
+                buf.append(message, copied, oidx).append(getMessage(req, ref, true));
+                copied = cidx+1;
+                oidx = cidx;
             }
-            return message;
-        }
-
-        if (reportMissing) {
-            // if there's no translation for this path, complain about it
-            log.warning("Missing translation message", "path", path, "url", getURL(req));
-            return path;
         }
-
-        return null;
+        return (buf == null) ? message : buf.append(message, copied, message.length()).toString();
     }
 
     /**
@@ -193,6 +268,7 @@ public class MessageManager
 
         ClassLoader siteLoader = null;
         String siteString = null;
+        Integer siteKey = null;
         if (_siteIdent != null) {
             int siteId = _siteIdent.identifySite(req);
             siteString = _siteIdent.getSiteString(siteId);
@@ -201,6 +277,11 @@ public class MessageManager
             if (_siteLoader != null) {
                 try {
                     siteLoader = _siteLoader.getSiteClassLoader(siteId);
+                    if (siteLoader != null) {
+                        checkSiteModified(siteId, siteLoader);
+                        // every site's bundles have the same name, so note the site as well
+                        siteKey = siteId;
+                    }
                 } catch (IOException ioe) {
                     log.warning("Unable to fetch site-specific classloader", "siteId", siteId,
                                 "error", ioe);
@@ -225,8 +306,9 @@ public class MessageManager
         bundles[1] = resolveBundle(req, _bundlePath, getClass().getClassLoader(), false);
 
         // if we found either or both bundles, cache 'em
-        if (bundles[0] != null || bundles[1] != null && req != null) {
+        if ((bundles[0] != null || bundles[1] != null) && req != null) {
             req.setAttribute(getBundleCacheName(), bundles);
+            req.setAttribute(getBundleKeyCacheName(), new BundleKey(siteKey, bundles));
         }
 
         return bundles;
@@ -287,6 +369,30 @@ public class MessageManager
         return bundle;
     }
 
+    /**
+     * Flushes our cached bundles and messages if the jar file of the specified site has been
+     * modified since we last checked. This checks each site at most once per {@link
+     * #setSiteCheckInterval interval}.
+     */
+    protected void checkSiteModified (int siteId, ClassLoader siteLoader)
+        throws IOException
+    {
+        long now = System.currentTimeMillis();
+        Long nextCheck = _siteChecks.get(siteId);
+        if (nextCheck != null && now < nextCheck) {
+            return;
+        }
+        _siteChecks.put(siteId, now + _siteCheckInterval);
+
+        long lastModified = _siteLoader.getLastModified(siteId);
+        Long olastModified = _siteModified.put(siteId, lastModified);
+        if (olastModified != null && olastModified != lastModified) {
+            ResourceBundle.clearCache(siteLoader);
+            // site changes are rare, so we just flush everything
+            _messages.clear();
+        }
+    }
+
     /** Helper function. */
     protected String getURL (HttpServletRequest req)
     {
@@ -299,6 +405,77 @@ public class MessageManager
         return BUNDLE_CACHE_PREFIX + _bundlePath;
     }
 
+    /** Used to cache the key of the resolved bundles in a request. */
+    protected String getBundleKeyCacheName ()
+    {
+        return BUNDLE_KEY_CACHE_PREFIX + _bundlePath;
+    }
+
+    /** Identifies the set of resource bundles from which a message was looked up by their names
+     * and locales (and site, for site-specific bundles). */
+    protected static class BundleKey
+    {
+        public BundleKey (Integer siteId, ResourceBundle[] bundles) {
+            _siteId = siteId;
+            _names = new String[bundles.length];
+            for (int ii = 0; ii < bundles.length; ii++) {
+                _names[ii] = (bundles[ii] == null) ? null : getName(bundles[ii]);
+            }
+            _hash = 31 * Objects.hashCode(siteId) + Arrays.hashCode(_names);
+        }
+
+        @Override public int hashCode () {
+            return _hash;
+        }
+
+        @Override public boolean equals (Object other) {
+            if (!(other instanceof BundleKey)) {
+                return false;
+            }
+            BundleKey okey = (BundleKey)other;
+            return Objects.equals(_siteId, okey._siteId) && Arrays.equals(_names, okey._names);
+        }
+
+        protected static String getName (ResourceBundle bundle) {
+            String name = bundle.getBaseBundleName();
+            if (name == null) {
+                name = bundle.getClass().getName();
+            }
+            return name + "_" + bundle.getLocale();
+        }
+
+        protected Integer _siteId;
+        protected String[] _names;
+        protected int _hash;
+    }
+
+    /** A message with its message references resolved. */
+    protected static class CachedMessage
+    {
+        /** The resolved message. */
+        public final String message;
+
+        public CachedMessage (String message) {
+            this.message = message;
+        }
+
+        /**
+         * Substitutes the supplied arguments into this message.
+         */
+        public String format (Object[] args) {
+            MessageFormat format = _format;
+            if (format == null) {
+                _format = format = new MessageFormat(MessageUtil.escape(message));
+            }
+            // message formats are not thread safe, but formatting is quick
+            synchronized (format) {
+                return format.format(args);
+            }
+        }
+
+        protected volatile MessageFormat _format;
+    }
+
     /** The path, relative to the classpath, to our resource bundles. */
     protected String _bundlePath;
 
@@ -315,7 +492,27 @@ public class MessageManager
     /** The locale to use if we are accessed without an HTTP request. */
     protected Locale _deflocale;
 
+    /** Our cached messages, grouped by the bundles from which they were looked up. */
+    protected ConcurrentHashMap<BundleKey,ConcurrentHashMap<String,CachedMessage>> _messages =
+        new ConcurrentHashMap<BundleKey,ConcurrentHashMap<String,CachedMessage>>();
+
+    /** The last modified time of each site's jar file when we last checked it. */
+    protected ConcurrentHashMap<Integer,Long> _siteModified = new ConcurrentHashMap<Integer,Long>();
+
+    /** The time after which we next check each site's jar file for modifications. */
+    protected ConcurrentHashMap<Integer,Long> _siteChecks = new ConcurrentHashMap<Integer,Long>();
+
+    /** The minimum interval between checks of a site's jar file, in milliseconds. */
+    protected long _siteCheckInterval = DEFAULT_SITE_CHECK_INTERVAL;
+
+    /** The default minimum interval between checks of a site's jar file, in milliseconds. */
+    public static final long DEFAULT_SITE_CHECK_INTERVAL = 5000L;
+
     /** The attribute name that we use for caching resource bundles in request objects. */
     protected static final String BUNDLE_CACHE_PREFIX =
         "com.samskivert.servlet.MessageManager:CachedResourceBundle:";
+
+    /** The attribute name that we use for caching resource bundle keys in request objects. */
+    protected static final String BUNDLE_KEY_CACHE_PREFIX =
+        "com.samskivert.servlet.MessageManager:CachedBundleKey:";
 }
@@ -20,6 +20,7 @@ import com.samskivert.util.StringUtil;
  * that field.
  */
 public class User
+    implements Cloneable
 {
     /** The user's assigned integer userid. */
     public int userId;
@@ -128,6 +129,21 @@ public class User
         return false;
     }
 
+    @Override // from Object
+    public User clone ()
+    {
+        try {
+            User user = (User)super.clone();
+            if (created != null) {
+                user.created = (Date)created.clone();
+            }
+            user._dirty = null;
+            return user;
+        } catch (CloneNotSupportedException cnse) {
+            throw new AssertionError(cnse);
+        }
+    }
+
     @Override // from Object
     public String toString ()
     {
@@ -317,6 +317,9 @@ public class UserManager
             return;
         }
 
+        // make sure the session is not served from the repository's cache
+        _repository.invalidateSession(authcode);
+
         // set them up the bomb
         Cookie c = new Cookie(_userAuthCookie, "x");
         c.setPath("/");
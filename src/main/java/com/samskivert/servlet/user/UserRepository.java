@@ -14,6 +14,13 @@ import java.sql.Statement;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
 
 import com.samskivert.io.PersistenceException;
 import com.samskivert.jdbc.ConnectionProvider;
@@ -23,6 +30,7 @@ import com.samskivert.jdbc.JORARepository;
 import com.samskivert.jdbc.jora.FieldMask;
 import com.samskivert.jdbc.jora.Table;
 import com.samskivert.util.HashIntMap;
+import com.samskivert.util.IntListUtil;
 import com.samskivert.util.StringUtil;
 
 import com.samskivert.servlet.SiteIdentifier;
@@ -110,15 +118,60 @@ public class UserRepository extends JORARepository
     public User loadUserBySession (String sessionKey)
         throws PersistenceException
     {
-        User user = loadParams(_utable, "sessions",
-                               "where authcode = ? AND sessions.userId = users.userId",
-                               sessionKey);
-        if (user != null) {
-            user.setDirtyMask(_utable.getFieldMask());
+        // check our session cache first
+        CachedSession cached = _sessions.get(sessionKey);
+        User user;
+        if (cached != null && System.currentTimeMillis() <= cached.expires) {
+            user = cached.user.clone();
+        } else {
+            long generation = _sessionGeneration.get();
+            user = loadParams(_utable, "sessions",
+                              "where authcode = ? AND sessions.userId = users.userId",
+                              sessionKey);
+            if (user == null) {
+                if (cached != null) {
+                    uncacheSession(sessionKey, cached);
+                }
+                return null;
+            }
+            // carry over the expiry to which we last refreshed the session, so that an active
+            // session isn't refreshed anew each time its cache entry expires
+            cacheSession(sessionKey, user, (cached == null) ? null : cached.refreshed, generation);
         }
+        user.setDirtyMask(_utable.getFieldMask());
         return user;
     }
 
+    /**
+     * Configures the cache of recently loaded sessions maintained by this repository, which
+     * allows {@link #loadUserBySession} to avoid going to the database for active sessions. The
+     * cache is disabled by default. It is invalidated by changes made through this repository
+     * (but not changes made to the database by other means, such as a logout handled by another
+     * server sharing the database), so the TTL bounds how stale a cached session can be.
+     *
+     * @param maxSessions the maximum number of sessions to cache, or zero to disable caching.
+     * @param ttlMillis the number of milliseconds for which a loaded session is cached.
+     */
+    public void setSessionCacheParams (int maxSessions, long ttlMillis)
+    {
+        _maxCachedSessions = maxSessions;
+        _sessionTTL = ttlMillis;
+        clearSessionCache();
+    }
+
+    /**
+     * Removes the specified session from our session cache, e.g. because the user logged out.
+     */
+    public void invalidateSession (String sessionKey)
+    {
+        // prevent any load that is in progress from caching the session anew
+        _sessionGeneration.incrementAndGet();
+        CachedSession cached = _sessions.get(sessionKey);
+        if (cached != null) {
+            uncacheSession(sessionKey, cached);
+        }
+    }
+
     /**
      * Looks up users by userid
      *
@@ -127,14 +180,30 @@ public class UserRepository extends JORARepository
     public HashIntMap<User> loadUsersFromId (int[] userIds)
         throws PersistenceException
     {
-        HashIntMap<User> data = new HashIntMap<User>();
-        if (userIds.length > 0) {
-            String query = "where userId in (" + genIdString(userIds) + ")";
-            for (User user : loadAll(_utable, query)) {
-                user.setDirtyMask(_utable.getFieldMask());
-                data.put(user.userId, user);
-            }
+        final HashIntMap<User> data = new HashIntMap<User>();
+        if (userIds.length == 0) {
+            return data;
         }
+
+        // load the users in batches using a small set of distinct (prepared) queries
+        final List<Integer> keys = IntListUtil.asList(userIds);
+        execute(new Operation<Void>() {
+            public Void invoke (Connection conn, DatabaseLiaison liaison)
+                throws PersistenceException, SQLException
+            {
+                for (int offset = 0; offset < keys.size(); offset += JDBCUtil.MAX_BATCH_KEYS) {
+                    int count = Math.min(JDBCUtil.MAX_BATCH_KEYS, keys.size() - offset);
+                    Object[] params = JDBCUtil.padBatch(keys, offset, count);
+                    String query = "where userId in (" +
+                        JDBCUtil.getPlaceholders(params.length) + ")";
+                    for (User user : _utable.selectParams(conn, query, params).toArrayList()) {
+                        user.setDirtyMask(_utable.getFieldMask());
+                        data.put(user.userId, user);
+                    }
+                }
+                return null;
+            }
+        });
         return data;
     }
 
@@ -184,6 +253,7 @@ public class UserRepository extends JORARepository
             return false;
         }
         update(_utable, user, user.getDirtyMask());
+        invalidateSessions(user.userId);
         return true;
     }
 
@@ -206,6 +276,7 @@ public class UserRepository extends JORARepository
             return;
         }
 
+        invalidateSessions(user.userId);
         executeUpdate(new Operation<Object>() {
             public Object invoke (Connection conn, DatabaseLiaison liaison)
                 throws PersistenceException, SQLException
@@ -253,6 +324,7 @@ public class UserRepository extends JORARepository
         throws PersistenceException
     {
         // look for an existing session for this user
+        long generation = _sessionGeneration.get();
         final int userId = user.userId;
         String authcode = execute(new Operation<String>() {
             public String invoke (Connection conn, DatabaseLiaison liaison)
@@ -274,9 +346,7 @@ public class UserRepository extends JORARepository
         });
 
         // figure out when to expire the session
-        Calendar cal = Calendar.getInstance();
-        cal.add(Calendar.DATE, expireDays);
-        Date expires = new Date(cal.getTime().getTime());
+        Date expires = computeExpires(expireDays);
 
         // if we found one, update its expires time and reuse it
         if (authcode != null) {
@@ -288,6 +358,7 @@ public class UserRepository extends JORARepository
                          authcode, user.userId, expires);
         }
 
+        cacheSession(authcode, user, expires, generation);
         return authcode;
     }
 
@@ -300,13 +371,55 @@ public class UserRepository extends JORARepository
     public boolean refreshSession (String sessionKey, int expireDays)
         throws PersistenceException
     {
-        Calendar cal = Calendar.getInstance();
-        cal.add(Calendar.DATE, expireDays);
-        Date expires = new Date(cal.getTime().getTime());
+        Date expires = computeExpires(expireDays);
+
+        // session expiry is tracked to the day, so if we know that this session already expires
+        // on this day, we can skip the update entirely
+        CachedSession cached = _sessions.get(sessionKey);
+        if (cached != null && expires.equals(cached.refreshed)) {
+            return true;
+        }
 
         // attempt to update an existing session row, returning true if we found and updated it
-        return (updateParams("update sessions set expires = ? where authcode = ?",
-                             expires, sessionKey) == 1);
+        boolean updated = (updateParams("update sessions set expires = ? where authcode = ?",
+                                        expires, sessionKey) == 1);
+        if (!updated) {
+            invalidateSession(sessionKey);
+        } else if (cached != null) {
+            cached.refreshed = expires;
+        }
+        return updated;
+    }
+
+    /**
+     * Refreshes the expiration of all of the supplied sessions in a single batch update. This is
+     * intended for use by an {@link com.samskivert.util.Invoker.BatchUnit} that coalesces the
+     * session refreshes queued for a busy site.
+     *
+     * @return for each session key, true if the session was found and updated.
+     */
+    public boolean[] refreshSessions (List<String> sessionKeys, int expireDays)
+        throws PersistenceException
+    {
+        Date expires = computeExpires(expireDays);
+
+        List<Object[]> params = new ArrayList<Object[]>(sessionKeys.size());
+        for (String sessionKey : sessionKeys) {
+            params.add(new Object[] { expires, sessionKey });
+        }
+        int[] counts = batchUpdateParams(
+            "update sessions set expires = ? where authcode = ?", params);
+
+        boolean[] updated = new boolean[counts.length];
+        for (int ii = 0; ii < counts.length; ii++) {
+            // drivers may report SUCCESS_NO_INFO rather than an actual count
+            updated[ii] = (counts[ii] == 1 || counts[ii] == Statement.SUCCESS_NO_INFO);
+            CachedSession cached = updated[ii] ? _sessions.get(sessionKeys.get(ii)) : null;
+            if (cached != null) {
+                cached.refreshed = expires;
+            }
+        }
+        return updated;
     }
 
     /**
@@ -316,6 +429,8 @@ public class UserRepository extends JORARepository
         throws PersistenceException
     {
         update("delete from sessions where expires <= CURRENT_DATE()");
+        // we don't know which sessions were pruned, so start afresh
+        clearSessionCache();
     }
 
     /**
@@ -458,29 +573,22 @@ public class UserRepository extends JORARepository
         }
 
         // do the query
-        final String ids = genIdString(userIds);
+        final List<Integer> keys = IntListUtil.asList(userIds);
         final HashIntMap<String> map = new HashIntMap<String>();
         execute(new Operation<Object>() {
             public Object invoke (Connection conn, DatabaseLiaison liaison)
                 throws PersistenceException, SQLException
             {
-                Statement stmt = conn.createStatement();
-                try {
-                    String query = "select userId, " + column + " from users " +
-                        "where userId in (" + ids + ")";
-                    ResultSet rs = stmt.executeQuery(query);
-                    while (rs.next()) {
-                        int userId = rs.getInt(1);
-                        String name = rs.getString(2);
-                        map.put(userId, name);
+                String query = "select userId, " + column + " from users " +
+                    "where userId in (#KEYS#)";
+                JDBCUtil.batchQueryParams(conn, query, keys, new JDBCUtil.BatchProcessor() {
+                    public void process (ResultSet row) throws SQLException {
+                        map.put(row.getInt(1), row.getString(2));
                     }
+                });
 
-                    // nothing to return
-                    return null;
-
-                } finally {
-                    JDBCUtil.close(stmt);
-                }
+                // nothing to return
+                return null;
             }
         });
 
@@ -510,6 +618,151 @@ public class UserRepository extends JORARepository
         return ids.toString();
     }
 
+    /**
+     * Returns the date on which a session refreshed now for the specified number of days will
+     * expire. Expiry is tracked to the day, so the date has no time component.
+     */
+    protected static Date computeExpires (int expireDays)
+    {
+        Calendar cal = Calendar.getInstance();
+        cal.add(Calendar.DATE, expireDays);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        return new Date(cal.getTimeInMillis());
+    }
+
+    /**
+     * Caches a copy of the supplied user as the owner of the specified session, unless a session
+     * has been invalidated since the supplied generation was obtained (in which case the user may
+     * be stale).
+     *
+     * @param refreshed the expiry to which the session is known to have been refreshed, or null.
+     */
+    protected CachedSession cacheSession (
+        final String sessionKey, User user, Date refreshed, long generation)
+    {
+        CachedSession cached = new CachedSession(
+            user.clone(), System.currentTimeMillis() + _sessionTTL, refreshed);
+        if (_maxCachedSessions <= 0) {
+            return cached; // caching is disabled
+        }
+        if (_sessions.size() >= _maxCachedSessions) {
+            pruneSessionCache();
+        }
+        _userSessions.compute(user.userId, new BiFunction<Integer,Set<String>,Set<String>>() {
+            public Set<String> apply (Integer userId, Set<String> keys) {
+                if (keys == null) {
+                    keys = new HashSet<String>();
+                }
+                keys.add(sessionKey);
+                return keys;
+            }
+        });
+        CachedSession old = _sessions.put(sessionKey, cached);
+        if (old != null && old.user.userId != user.userId) {
+            unindexSession(sessionKey, old.user.userId);
+        }
+        // we check the generation after adding the session, so that an invalidation cannot slip
+        // in between the check and the add
+        if (_sessionGeneration.get() != generation) {
+            uncacheSession(sessionKey, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * Removes the specified session from our cache, if it is still mapped to the supplied entry.
+     */
+    protected void uncacheSession (String sessionKey, CachedSession cached)
+    {
+        if (_sessions.remove(sessionKey, cached)) {
+            unindexSession(sessionKey, cached.user.userId);
+        }
+    }
+
+    /**
+     * Removes the specified session from the index of the supplied user's cached sessions.
+     */
+    protected void unindexSession (final String sessionKey, int userId)
+    {
+        _userSessions.computeIfPresent(userId, new BiFunction<Integer,Set<String>,Set<String>>() {
+            public Set<String> apply (Integer id, Set<String> keys) {
+                keys.remove(sessionKey);
+                return keys.isEmpty() ? null : keys;
+            }
+        });
+    }
+
+    /**
+     * Removes all cached sessions belonging to the specified user.
+     */
+    protected void invalidateSessions (int userId)
+    {
+        // prevent any load that is in progress from caching a session anew
+        _sessionGeneration.incrementAndGet();
+        Set<String> keys = _userSessions.remove(userId);
+        if (keys != null) {
+            for (String key : keys) {
+                CachedSession cached = _sessions.get(key);
+                if (cached != null && cached.user.userId == userId) {
+                    _sessions.remove(key, cached);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all sessions from our cache.
+     */
+    protected void clearSessionCache ()
+    {
+        _sessionGeneration.incrementAndGet();
+        _sessions.clear();
+        _userSessions.clear();
+    }
+
+    /**
+     * Makes room in our session cache by removing expired entries and, if that doesn't free up
+     * enough space, arbitrary entries until the cache is three quarters full.
+     */
+    protected void pruneSessionCache ()
+    {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String,CachedSession> entry : _sessions.entrySet()) {
+            if (now > entry.getValue().expires) {
+                uncacheSession(entry.getKey(), entry.getValue());
+            }
+        }
+        int target = _maxCachedSessions * 3 / 4;
+        for (Map.Entry<String,CachedSession> entry : _sessions.entrySet()) {
+            if (_sessions.size() <= target) {
+                break;
+            }
+            uncacheSession(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /** A session in our session cache. */
+    protected static class CachedSession
+    {
+        /** The user that owns the session. This is never handed out, only copies of it. */
+        public final User user;
+
+        /** The time at which this cache entry expires. */
+        public final long expires;
+
+        /** The expiration date to which the session was last refreshed by us, or null. */
+        public volatile Date refreshed;
+
+        public CachedSession (User user, long expires, Date refreshed) {
+            this.user = user;
+            this.expires = expires;
+            this.refreshed = refreshed;
+        }
+    }
+
     @Override
     protected void createTables ()
     {
@@ -519,4 +772,28 @@ public class UserRepository extends JORARepository
 
     /** A wrapper that provides access to the userstable. */
     protected Table<User> _utable;
+
+    /** Recently loaded sessions, mapped by session key. */
+    protected ConcurrentHashMap<String,CachedSession> _sessions =
+        new ConcurrentHashMap<String,CachedSession>();
+
+    /** The keys of the cached sessions of each user. */
+    protected ConcurrentHashMap<Integer,Set<String>> _userSessions =
+        new ConcurrentHashMap<Integer,Set<String>>();
+
+    /** Incremented whenever a session is invalidated, so that a session loaded from the database
+     * before the invalidation is not cached after it. */
+    protected AtomicLong _sessionGeneration = new AtomicLong();
+
+    /** The maximum number of sessions in our session cache. */
+    protected volatile int _maxCachedSessions = DEFAULT_MAX_CACHED_SESSIONS;
+
+    /** The number of milliseconds for which we cache a loaded session. */
+    protected volatile long _sessionTTL = DEFAULT_SESSION_TTL;
+
+    /** The default maximum number of cached sessions (caching is disabled by default). */
+    protected static final int DEFAULT_MAX_CACHED_SESSIONS = 0;
+
+    /** The default number of milliseconds for which a loaded session is cached. */
+    protected static final long DEFAULT_SESSION_TTL = 60 * 1000L;
 }
@@ -0,0 +1,520 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.util;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe {@link LRUHashMap}, suitable for caches shared by many threads. Reads do not
+ * lock: entries are stored in a {@link ConcurrentHashMap} and each read merely records the
+ * accessed entry in one of a set of striped, lossy buffers. Those buffers are drained under the
+ * map's lock (when one fills up, or whenever the map is modified) and the recorded entries are
+ * moved to the most recently used end of the LRU list. Writes and removals are serialized by that
+ * same lock, which keeps the map, the LRU list and the total size consistent.
+ *
+ * <p> Because reads are recorded lossily, an entry read only once while its buffer is overwritten
+ * under heavy contention may not be promoted. This makes the eviction order an approximation of
+ * least-recently-used, which in practice retains frequently read entries just as well.
+ *
+ * <p> Item sizing, removal observers, admission policies, {@link #setCanFlush} and hit/miss
+ * tracking all behave as they do for {@link LRUHashMap}, except that an admission policy is only
+ * informed of the reads recorded in the read buffers. Admission policies are only called, and
+ * removal observers only notified, while the map's lock is held. The collection views are
+ * read-only and weakly consistent, and iterating over them does not affect the LRU order. Unlike
+ * {@link LRUHashMap}, null keys and values are not permitted.
+ */
+public class ConcurrentLRUHashMap<K,V> extends LRUHashMap<K,V>
+{
+    /**
+     * Constructs a map with the specified maximum size. All items will be considered to have a
+     * size of one.
+     */
+    public ConcurrentLRUHashMap (int maxSize)
+    {
+        this(maxSize, null);
+    }
+
+    /**
+     * Constructs a map with the specified maximum total size and the supplied item sizer which
+     * will be used to compute the size of each item.
+     */
+    public ConcurrentLRUHashMap (int maxSize, ItemSizer<V> sizer)
+    {
+        super(maxSize, sizer, null);
+        _data = new ConcurrentHashMap<K,Node<K,V>>(Math.min(1024, Math.max(16, maxSize)));
+        _head.prev = _head.next = _head;
+
+        int buffers = 1, wanted = Math.min(MAX_READ_BUFFERS,
+                                           4 * Runtime.getRuntime().availableProcessors());
+        while (buffers < wanted) {
+            buffers <<= 1;
+        }
+        @SuppressWarnings("unchecked") ReadBuffer<K,V>[] rbufs =
+            (ReadBuffer<K,V>[])new ReadBuffer<?,?>[buffers];
+        for (int ii = 0; ii < buffers; ii++) {
+            rbufs[ii] = new ReadBuffer<K,V>();
+        }
+        _readBuffers = rbufs;
+    }
+
+    @Override // from LRUHashMap
+    public void setMaxSize (int maxSize)
+    {
+        _lock.lock();
+        try {
+            super.setMaxSize(maxSize);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override // from LRUHashMap
+    public void setRemovalObserver (RemovalObserver<K,V> obs)
+    {
+        _lock.lock();
+        try {
+            super.setRemovalObserver(obs);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override // from LRUHashMap
+    public void setCanFlush (boolean canFlush)
+    {
+        _lock.lock();
+        try {
+            super.setCanFlush(canFlush);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override // from LRUHashMap
+    public void setTracking (boolean track)
+    {
+        _lock.lock();
+        try {
+            if (track != _tracking) {
+                if (track) {
+                    _trackedKeys = ConcurrentHashMap.newKeySet();
+                    _hitCount.reset();
+                    _missCount.reset();
+                    // as with our parent, we must clear the map to properly track
+                    clear();
+                } else {
+                    _trackedKeys = null;
+                }
+                _tracking = track;
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override // from LRUHashMap
+    public int[] getTrackedEffectiveness ()
+    {
+        return new int[] { _hitCount.intValue(), _missCount.intValue() };
+    }
+
+    @Override // from LRUHashMap
+    public int size ()
+    {
+        return _data.size();
+    }
+
+    @Override // from LRUHashMap
+    public void adjustSize (int sizeDifference)
+    {
+        _lock.lock();
+        try {
+            super.adjustSize(sizeDifference);
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override // from LRUHashMap
+    public boolean isEmpty ()
+    {
+        return _data.isEmpty();
+    }
+
+    @Override // from LRUHashMap
+    public boolean containsKey (Object key)
+    {
+        return _data.containsKey(key);
+    }
+
+    @Override // from LRUHashMap
+    public boolean containsValue (Object value)
+    {
+        for (Node<K,V> node : _data.values()) {
+            if (node.value.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override // from LRUHashMap
+    public V get (Object key)
+    {
+        Node<K,V> node = _data.get(key);
+        if (node == null) {
+            Set<K> tracked = _trackedKeys;
+            if (tracked != null && tracked.contains(key)) {
+                // only count a miss if we've seen the key before
+                _missCount.increment();
+            }
+            return null;
+        }
+
+        V value = node.value;
+        recordRead(node);
+        if (_tracking) {
+            _hitCount.increment();
+        }
+        return value;
+    }
+
+    @Override // from LRUHashMap
+    public V put (K key, V value)
+    {
+        return put(key, value, false);
+    }
+
+    @Override // from Map
+    public V putIfAbsent (K key, V value)
+    {
+        return put(key, value, true);
+    }
+
+    @Override // from LRUHashMap
+    public V remove (Object key)
+    {
+        _lock.lock();
+        try {
+            Node<K,V> node = _data.remove(key);
+            if (node == null) {
+                return null;
+            }
+            unlink(node);
+            entryRemoved(node.value);
+            return node.value;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override // from LRUHashMap
+    public void clear ()
+    {
+        _lock.lock();
+        try {
+            drainReads();
+            for (Node<K,V> node = _head.next; node != _head; node = node.next) {
+                node.linked = false;
+                if (_remobs != null) {
+                    _remobs.removedFromMap(this, node.value);
+                }
+            }
+            _head.prev = _head.next = _head;
+            _data.clear();
+            _size = 0;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override // from LRUHashMap
+    public Set<K> keySet ()
+    {
+        return Collections.unmodifiableSet(_data.keySet());
+    }
+
+    @Override // from LRUHashMap
+    public Collection<V> values ()
+    {
+        return new AbstractCollection<V>() {
+            @Override public Iterator<V> iterator () {
+                final Iterator<Node<K,V>> iter = _data.values().iterator();
+                return new Iterator<V>() {
+                    public boolean hasNext () {
+                        return iter.hasNext();
+                    }
+                    public V next () {
+                        return iter.next().value;
+                    }
+                };
+            }
+            @Override public int size () {
+                return _data.size();
+            }
+        };
+    }
+
+    @Override // from LRUHashMap
+    public Set<Map.Entry<K,V>> entrySet ()
+    {
+        return new AbstractSet<Map.Entry<K,V>>() {
+            @Override public Iterator<Map.Entry<K,V>> iterator () {
+                final Iterator<Node<K,V>> iter = _data.values().iterator();
+                return new Iterator<Map.Entry<K,V>>() {
+                    public boolean hasNext () {
+                        return iter.hasNext();
+                    }
+                    public Map.Entry<K,V> next () {
+                        Node<K,V> node = iter.next();
+                        return new AbstractMap.SimpleImmutableEntry<K,V>(node.key, node.value);
+                    }
+                };
+            }
+            @Override public int size () {
+                return _data.size();
+            }
+        };
+    }
+
+    @Override // from LRUHashMap
+    public boolean equals (Object o)
+    {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof Map<?,?>) || ((Map<?,?>)o).size() != size()) {
+            return false;
+        }
+        Map<?,?> other = (Map<?,?>)o;
+        for (Node<K,V> node : _data.values()) {
+            if (!node.value.equals(other.get(node.key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override // from LRUHashMap
+    public int hashCode ()
+    {
+        int hashCode = 0;
+        for (Node<K,V> node : _data.values()) {
+            hashCode += node.key.hashCode() ^ node.value.hashCode();
+        }
+        return hashCode;
+    }
+
+    /**
+     * Adds or replaces (unless <code>onlyIfAbsent</code>) the mapping for the specified key.
+     */
+    protected V put (K key, V value, boolean onlyIfAbsent)
+    {
+        if (key == null || value == null) {
+            throw new NullPointerException();
+        }
+
+        _lock.lock();
+        try {
+            drainReads();
+            if (_tracking) {
+                _trackedKeys.add(key);
+            }
+            if (_admission != null) {
+                _admission.recordAccess(key);
+            }
+
+            Node<K,V> node = _data.get(key);
+            if (node == null) {
+                node = new Node<K,V>(key, value);
+                _data.put(key, node);
+                linkLast(node);
+                _size += _sizer.computeSize(value);
+                flush((_admission == null) ? null : key);
+                return null;
+            }
+
+            V ovalue = node.value;
+            if (!onlyIfAbsent) {
+                moveToLast(node);
+                // avoid fruitless NOOPs
+                if (ovalue != value) {
+                    node.value = value;
+                    _size += _sizer.computeSize(value);
+                    entryRemoved(ovalue);
+                    flush();
+                }
+            }
+            return ovalue;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    @Override // from LRUHashMap
+    protected void flush (K candidate)
+    {
+        // our lock is held by all of our callers
+        if (!_canFlush || _size <= _maxSize) {
+            return;
+        }
+        drainReads();
+        // don't remove the last entry, even if it's too big, because a cache with nothing in it
+        // sucks (as our parent so eloquently puts it)
+        while (_size > _maxSize && _head.next.next != _head) {
+            Node<K,V> eldest = _head.next;
+            if (candidate != null && !candidate.equals(eldest.key) &&
+                !_admission.admit(candidate, eldest.key)) {
+                // the newcomer is less valuable than the entry it would displace
+                eldest = _data.get(candidate);
+                candidate = null;
+            }
+            unlink(eldest);
+            _data.remove(eldest.key, eldest);
+            entryRemoved(eldest.value);
+        }
+    }
+
+    /**
+     * Records a read of the supplied node, draining the read buffers if this read filled one.
+     */
+    protected void recordRead (Node<K,V> node)
+    {
+        ReadBuffer<K,V> rbuf = _readBuffers[
+            readBufferIndex(Thread.currentThread().getId()) & (_readBuffers.length - 1)];
+        int index = rbuf.writes.getAndIncrement() & READ_BUFFER_MASK;
+        // if another thread overwrites this slot before it is drained, one read goes unrecorded
+        rbuf.nodes.lazySet(index, node);
+        if (index == READ_BUFFER_MASK && _lock.tryLock()) {
+            try {
+                drainReads();
+            } finally {
+                _lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Moves all nodes recorded in our read buffers to the most recently used end of our LRU list.
+     * Must be called with our lock held.
+     */
+    protected void drainReads ()
+    {
+        for (ReadBuffer<K,V> rbuf : _readBuffers) {
+            // only visit the slots written since we last drained this buffer
+            int writes = rbuf.writes.get();
+            int pending = Math.min(writes - rbuf.drained, READ_BUFFER_SIZE);
+            for (int ii = writes - pending; ii != writes; ii++) {
+                Node<K,V> node = rbuf.nodes.getAndSet(ii & READ_BUFFER_MASK, null);
+                // the node may have been removed since it was read
+                if (node != null && node.linked) {
+                    moveToLast(node);
+                    if (_admission != null) {
+                        _admission.recordAccess(node.key);
+                    }
+                }
+            }
+            rbuf.drained = writes;
+        }
+    }
+
+    protected void linkLast (Node<K,V> node)
+    {
+        node.prev = _head.prev;
+        node.next = _head;
+        _head.prev.next = node;
+        _head.prev = node;
+        node.linked = true;
+    }
+
+    protected void unlink (Node<K,V> node)
+    {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = node.next = null;
+        node.linked = false;
+    }
+
+    protected void moveToLast (Node<K,V> node)
+    {
+        if (_head.prev != node) {
+            unlink(node);
+            linkLast(node);
+        }
+    }
+
+    /**
+     * Spreads thread ids over our read buffers.
+     */
+    protected static int readBufferIndex (long threadId)
+    {
+        int hash = (int)(threadId ^ (threadId >>> 32)) * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /** An entry in the map and in its LRU list. */
+    protected static class Node<K,V>
+    {
+        public final K key;
+        public volatile V value;
+
+        /** Our neighbors in the LRU list and whether we're in the list, guarded by the lock. */
+        public Node<K,V> prev, next;
+        public boolean linked;
+
+        public Node (K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /** A lossy ring buffer of recently read nodes. */
+    protected static class ReadBuffer<K,V>
+    {
+        public final AtomicInteger writes = new AtomicInteger();
+        /** The value of {@link #writes} when this buffer was last drained, guarded by the lock. */
+        public int drained;
+        public final AtomicReferenceArray<Node<K,V>> nodes =
+            new AtomicReferenceArray<Node<K,V>>(READ_BUFFER_SIZE);
+    }
+
+    /** Our entries, mapped by key. Only modified while holding our lock. */
+    protected ConcurrentHashMap<K,Node<K,V>> _data;
+
+    /** The sentinel of our LRU list: its next node is the least recently used. */
+    protected Node<K,V> _head = new Node<K,V>(null, null);
+
+    /** Records reads for later promotion in the LRU list. */
+    protected ReadBuffer<K,V>[] _readBuffers;
+
+    /** Guards our LRU list, our size and all modifications of our data. */
+    protected ReentrantLock _lock = new ReentrantLock();
+
+    /** The keys we've seen, if tracking. */
+    protected volatile Set<K> _trackedKeys;
+
+    /** Our tracked hits and misses. */
+    protected LongAdder _hitCount = new LongAdder(), _missCount = new LongAdder();
+
+    /** The number of nodes recorded per read buffer, a power of two. */
+    protected static final int READ_BUFFER_SIZE = 32;
+    protected static final int READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+
+    /** The maximum number of read buffers, a power of two. */
+    protected static final int MAX_READ_BUFFERS = 64;
+}
@@ -11,6 +11,7 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
@@ -20,6 +21,11 @@ import java.util.Set;
  * An int int map is like an int map, but with integers as values as well as keys. Be careful:
  * {@link #get} and {@link #remove} return -1 to indicate that no previous mapping existed. Use
  * {@link #getOrElse} and {@link #removeOrElse} to use a different "default" value.
+ *
+ * <p> The mappings are stored densely in parallel {@code int} arrays, which are indexed by an
+ * open addressing hash table of {@code int} slots, so no objects are created when adding,
+ * updating or removing mappings (other than when the map is resized), and {@link #getKeys},
+ * {@link #getValues} and {@link #forEach} operate directly on the arrays.
  */
 public class IntIntMap
     implements Serializable
@@ -34,17 +40,36 @@ public class IntIntMap
         public int setIntValue (int value);
     }
 
+    /**
+     * Receives the mappings of an {@link IntIntMap} without boxing them.
+     */
+    public interface IntIntConsumer
+    {
+        public void accept (int key, int value);
+    }
+
     public final static int DEFAULT_BUCKETS = 16;
 
     /**
-     * The default load factor.
+     * The default load factor: the maximum fraction of our hash slots that may be in use.
      */
-    public final static float DEFAULT_LOAD_FACTOR = 1.75f;
+    public final static float DEFAULT_LOAD_FACTOR = 0.5f;
 
+    /**
+     * Creates a map with the specified number of hash slots (rounded up to a power of two).
+     *
+     * @param loadFactor the maximum fraction of the hash slots that may be used before the map
+     * is expanded. Values of one or more (which were sensible when this map used hash chains) are
+     * replaced with {@link #DEFAULT_LOAD_FACTOR}.
+     */
     public IntIntMap (int buckets, float loadFactor)
     {
-        _buckets = new Record[buckets];
-        _loadFactor = loadFactor;
+        _loadFactor = sanitizeLoadFactor(loadFactor);
+        int capacity = DEFAULT_BUCKETS;
+        while (capacity < buckets) {
+            capacity <<= 1;
+        }
+        allocate(capacity, 0);
     }
 
     public IntIntMap (int buckets)
@@ -76,33 +101,31 @@ public class IntIntMap
     public void put (int key, int value)
     {
         _modCount++;
-
-        // check to see if we've passed our load factor, if so: resize
-        ensureCapacity(_size + 1);
-
-        int index = Math.abs(key)%_buckets.length;
-        Record rec = _buckets[index];
-
-        // either we start a new chain
-        if (rec == null) {
-            _buckets[index] = new Record(key, value);
-            _size++; // we're bigger
-            return;
+        int slot = probe(key), index = _slots[slot];
+        if (index != EMPTY) {
+            _values[index-1] = value;
+        } else {
+            add(slot, key, value);
         }
+    }
 
-        // or we replace an element in an existing chain
-        Record prev = rec;
-        for (; rec != null; rec = rec.next) {
-            if (rec.key == key) {
-                rec.value = value; // we're not bigger
-                return;
-            }
-            prev = rec;
+    /**
+     * Adds all of the supplied key/value mappings. Any previous mappings for those keys will be
+     * overwritten.
+     *
+     * @exception IllegalArgumentException thrown if the arrays are not the same length.
+     */
+    public void putAll (int[] keys, int[] values)
+    {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException(
+                "Key and value arrays differ in length [keys=" + keys.length +
+                ", values=" + values.length + "]");
+        }
+        ensureCapacity(_size + keys.length);
+        for (int ii = 0; ii < keys.length; ii++) {
+            put(keys[ii], values[ii]);
         }
-
-        // or we append it to this chain
-        prev.next = new Record(key, value);
-        _size++; // we're bigger
     }
 
     /**
@@ -119,8 +142,8 @@ public class IntIntMap
      */
     public int getOrElse (int key, int defval)
     {
-        Record rec = locateRecord(key);
-        return (rec == null) ? defval : rec.value;
+        int index = _slots[probe(key)];
+        return (index == EMPTY) ? defval : _values[index-1];
     }
 
     /**
@@ -132,12 +155,13 @@ public class IntIntMap
      */
     public int increment (int key, int amount)
     {
-        Record rec = locateRecord(key);
-        if (rec == null) {
-            put(key, amount);
+        int slot = probe(key), index = _slots[slot];
+        if (index == EMPTY) {
+            _modCount++;
+            add(slot, key, amount);
             return amount;
         } else {
-            return (rec.value += amount);
+            return (_values[index-1] += amount);
         }
     }
 
@@ -149,7 +173,7 @@ public class IntIntMap
     @Deprecated
     public boolean contains (int key)
     {
-        return (null != locateRecord(key));
+        return containsKey(key);
     }
 
     /**
@@ -157,7 +181,7 @@ public class IntIntMap
      */
     public boolean containsKey (int key)
     {
-        return (null != locateRecord(key));
+        return (_slots[probe(key)] != EMPTY);
     }
 
     /**
@@ -190,12 +214,7 @@ public class IntIntMap
     public void clear ()
     {
         _modCount++;
-
-        // abandon all of our hash chains (the joy of garbage collection)
-        for (int i = 0; i < _buckets.length; i++) {
-            _buckets[i] = null;
-        }
-        // zero out our size
+        Arrays.fill(_slots, EMPTY);
         _size = 0;
     }
 
@@ -205,52 +224,95 @@ public class IntIntMap
      */
     public void ensureCapacity (int minCapacity)
     {
-        int size = _buckets.length;
-        while (minCapacity > (int) (size * _loadFactor)) {
-            size *= 2;
+        int size = _slots.length;
+        while (minCapacity > capacityFor(size)) {
+            size <<= 1;
         }
-        if (size != _buckets.length) {
-            resizeBuckets(size);
+        if (size != _slots.length) {
+            resize(size);
         }
     }
 
     /**
-     * Internal method to locate the record for the specified key.
+     * Supplies every mapping in this map to the specified consumer.
      */
-    protected Record locateRecord (int key)
+    public void forEach (IntIntConsumer consumer)
     {
-        int index = Math.abs(key)%_buckets.length;
-        for (Record rec = _buckets[index]; rec != null; rec = rec.next) {
-            if (rec.key == key) {
-                return rec;
+        for (int ii = 0, ll = _size; ii < ll; ii++) {
+            consumer.accept(_keys[ii], _values[ii]);
+        }
+    }
+
+    /**
+     * Returns the hash slot that contains the specified key, or the empty slot at which the key
+     * would be added if it is not mapped.
+     */
+    protected int probe (int key)
+    {
+        int mask = _slots.length - 1;
+        int slot = OpenHashIntMap.keyToIndex(key, mask);
+        for (int index; (index = _slots[slot]) != EMPTY; slot = (slot + 1) & mask) {
+            if (_keys[index-1] == key) {
+                break;
             }
         }
-        return null;
+        return slot;
     }
 
     /**
-     * Internal method for removing a mapping.
+     * Adds a new mapping at the end of our arrays and points the supplied (empty) slot at it.
+     */
+    protected void add (int slot, int key, int value)
+    {
+        if (_size == _keys.length) {
+            resize(_slots.length << 1);
+            slot = probe(key);
+        }
+        _keys[_size] = key;
+        _values[_size] = value;
+        _slots[slot] = ++_size;
+    }
+
+    /**
+     * Internal method for removing a mapping. The last mapping in our arrays is moved into the
+     * space vacated by the removed mapping.
      */
     protected int removeImpl (int key, int defval)
     {
-        int index = Math.abs(key)%_buckets.length;
-        Record prev = null;
+        int slot = probe(key), index = _slots[slot];
+        if (index == EMPTY) {
+            return defval; // not found
+        }
 
-        // go through the chain looking for a match
-        for (Record rec = _buckets[index]; rec != null; rec = rec.next) {
-            if (rec.key == key) {
-                if (prev == null) {
-                    _buckets[index] = rec.next;
-                } else {
-                    prev.next = rec.next;
-                }
-                _size--;
-                return rec.value;
-            }
-            prev = rec;
+        int dex = index-1, value = _values[dex];
+        clearSlot(slot);
+        int last = --_size;
+        if (dex != last) {
+            int lkey = _keys[last];
+            _keys[dex] = lkey;
+            _values[dex] = _values[last];
+            _slots[probe(lkey)] = index;
         }
+        return value;
+    }
 
-        return defval; // not found
+    /**
+     * Empties the specified hash slot, shifting back any subsequent slots in its probe sequence
+     * that would otherwise become unreachable.
+     */
+    protected void clearSlot (int slot)
+    {
+        int mask = _slots.length - 1, hole = slot;
+        for (int ii = (hole + 1) & mask, index; (index = _slots[ii]) != EMPTY;
+             ii = (ii + 1) & mask) {
+            // the slot at ii can fill the hole unless its home slot lies cyclically in (hole, ii]
+            int home = OpenHashIntMap.keyToIndex(_keys[index-1], mask);
+            if (((ii - home) & mask) >= ((ii - hole) & mask)) {
+                _slots[hole] = index;
+                hole = ii;
+            }
+        }
+        _slots[hole] = EMPTY;
     }
 
     /**
@@ -258,38 +320,49 @@ public class IntIntMap
      */
     protected void checkShrink ()
     {
-        if ((_buckets.length > DEFAULT_BUCKETS) &&
-                (_size < (int) (_buckets.length * _loadFactor * .125))) {
-            resizeBuckets(Math.max(DEFAULT_BUCKETS, _buckets.length >> 1));
+        if ((_slots.length > DEFAULT_BUCKETS) && (_size < (int) (_keys.length * .125))) {
+            resize(Math.max(DEFAULT_BUCKETS, _slots.length >> 1));
         }
     }
 
     /**
      * Resize the hashtable.
      *
-     * @param newsize The new number of buckets to allocate.
+     * @param newsize The new number of slots to allocate, which must be a power of two.
      */
-    protected void resizeBuckets (int newsize)
-    {
-        Record[] oldbuckets = _buckets;
-        _buckets = new Record[newsize];
-
-        // we shuffle the records around without allocating new ones
-        int index = oldbuckets.length;
-        while (index-- > 0) {
-            Record oldrec = oldbuckets[index];
-            while (oldrec != null) {
-                Record newrec = oldrec;
-                oldrec = oldrec.next;
-
-                // always put the newrec at the start of a chain
-                int newdex = Math.abs(newrec.key)%_buckets.length;
-                newrec.next = _buckets[newdex];
-                _buckets[newdex] = newrec;
+    protected void resize (int newsize)
+    {
+        int[] okeys = _keys, ovalues = _values;
+        allocate(newsize, _size);
+        System.arraycopy(okeys, 0, _keys, 0, _size);
+        System.arraycopy(ovalues, 0, _values, 0, _size);
+
+        int mask = newsize - 1;
+        for (int ii = 0; ii < _size; ii++) {
+            int slot = OpenHashIntMap.keyToIndex(_keys[ii], mask);
+            while (_slots[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
             }
+            _slots[slot] = ii+1;
         }
     }
 
+    protected void allocate (int slots, int minCapacity)
+    {
+        int capacity = Math.max(capacityFor(slots), minCapacity);
+        _slots = new int[slots];
+        _keys = new int[capacity];
+        _values = new int[capacity];
+    }
+
+    /**
+     * Returns the number of mappings we can hold with the specified number of hash slots.
+     */
+    protected int capacityFor (int slots)
+    {
+        return Math.min(slots - 1, (int) (slots * _loadFactor));
+    }
+
     public Interator keys ()
     {
         return new KeyValueInterator(true, new IntEntryIterator());
@@ -332,7 +405,7 @@ public class IntIntMap
      */
     public int[] getKeys ()
     {
-        return toIntArray(true);
+        return Arrays.copyOf(_keys, _size);
     }
 
     /**
@@ -341,37 +414,22 @@ public class IntIntMap
      */
     public int[] getValues ()
     {
-        return toIntArray(false);
+        return Arrays.copyOf(_values, _size);
     }
 
     @Override
     public String toString ()
     {
         StringBuilder buf = new StringBuilder("[");
-        int[] keys = getKeys();
-        for (int ii = 0; ii < keys.length; ii++) {
+        for (int ii = 0; ii < _size; ii++) {
             if (ii > 0) {
                 buf.append(", ");
             }
-            buf.append(keys[ii]).append("->").append(get(keys[ii]));
+            buf.append(_keys[ii]).append("->").append(_values[ii]);
         }
         return buf.append("]").toString();
     }
 
-    protected int[] toIntArray (boolean keys)
-    {
-        int[] ret = new int[_size];
-
-        int dex = 0;
-        for (Record r : _buckets) {
-            while (r != null) {
-                ret[dex++] = keys ? r.key : r.value;
-                r = r.next;
-            }
-        }
-        return ret;
-    }
-
     /**
      * Get a set of all the entries in this map.
      */
@@ -395,16 +453,16 @@ public class IntIntMap
         throws IOException
     {
         // write out number of buckets
-        s.writeInt(_buckets.length);
+        s.writeInt(_slots.length);
         s.writeFloat(_loadFactor);
 
         // write out size (number of mappings)
         s.writeInt(_size);
 
         // write out keys and values
-        for (IntIntEntry entry : entrySet()) {
-            s.writeInt(entry.getIntKey());
-            s.writeInt(entry.getIntValue());
+        for (int ii = 0; ii < _size; ii++) {
+            s.writeInt(_keys[ii]);
+            s.writeInt(_values[ii]);
         }
     }
 
@@ -415,12 +473,15 @@ public class IntIntMap
     private void readObject (ObjectInputStream s)
          throws IOException, ClassNotFoundException
     {
-        // read in number of buckets and allocate the bucket array
-        _buckets = new Record[s.readInt()];
-        _loadFactor = s.readFloat();
+        // skip the number of buckets; we size our table based on the number of mappings (and
+        // older versions of this class did not use power of two bucket counts)
+        s.readInt();
+        _loadFactor = sanitizeLoadFactor(s.readFloat());
 
         // read in size (number of mappings)
         int size = s.readInt();
+        allocate(DEFAULT_BUCKETS, 0);
+        ensureCapacity(size);
 
         // read the keys and values
         for (int i=0; i<size; i++) {
@@ -428,13 +489,17 @@ public class IntIntMap
         }
     }
 
-    protected static class Record implements IntIntEntry
+    protected static float sanitizeLoadFactor (float loadFactor)
     {
-        public Record next;
-        public int key;
-        public int value;
+        return (loadFactor > 0 && loadFactor < 1) ? loadFactor : DEFAULT_LOAD_FACTOR;
+    }
 
-        public Record (int key, int value) {
+    /**
+     * An entry returned by our iterator. Changes to its value are written through to the map.
+     */
+    protected class Entry implements IntIntEntry
+    {
+        public Entry (int key, int value) {
             this.key = key;
             this.value = value;
         }
@@ -461,6 +526,10 @@ public class IntIntMap
 
         public int setIntValue (int v) {
             int oldVal = value;
+            int index = _slots[probe(key)];
+            if (index != EMPTY) {
+                _values[index-1] = v;
+            }
             value = v;
             return oldVal;
         }
@@ -477,36 +546,31 @@ public class IntIntMap
         @Override public int hashCode () {
             return key;
         }
+
+        protected final int key;
+        protected int value;
     }
 
+    /**
+     * Iterates backwards over our mappings, so that the mapping moved into the place of a removed
+     * mapping is always one that we've already visited.
+     */
     class IntEntryIterator implements Iterator<IntIntEntry>
     {
         public IntEntryIterator () {
             this._modCount = IntIntMap.this._modCount;
-            _index = _buckets.length;
+            _index = _size;
         }
 
         public boolean hasNext () {
             checkMods();
-            // if we're pointing to an entry, we've got more entries
-            if (_next != null) {
-                return true;
-            }
-            // search backward through the buckets looking for the next non-empty hash chain
-            while (_index-- > 0) {
-                if ((_next = _buckets[_index]) != null) {
-                    return true;
-                }
-            }
-            // found no non-empty hash chains, we're done
-            return false;
+            return (_index > 0);
         }
 
         public IntIntEntry next () {
-            // if we're not pointing to an entry, search for the next non-empty hash chain
             if (hasNext()) {
-                _prev = _next;
-                _next = _next.next;
+                _index--;
+                _prev = new Entry(_keys[_index], _values[_index]);
                 return _prev;
             } else {
                 throw new NoSuchElementException("IntIntMapIterator");
@@ -530,7 +594,7 @@ public class IntIntMap
         }
 
         private int _index;
-        private Record _next, _prev;
+        private Entry _prev;
         private int _modCount;
     }
 
@@ -582,11 +646,19 @@ public class IntIntMap
 //         System.out.println("");
 //     }
 
-    private Record[] _buckets;
-    private int _size;
+    /** Our mappings, stored densely in the first {@link #_size} elements. */
+    private transient int[] _keys, _values;
+
+    /** Our hash table, containing one plus the index of a mapping, or {@link #EMPTY}. */
+    private transient int[] _slots;
+
+    private transient int _size;
     protected float _loadFactor;
     protected int _modCount = 0;
 
+    /** Marks an unused hash slot. */
+    protected static final int EMPTY = 0;
+
     /** Change this if the fields or inheritance hierarchy ever changes. */
     private static final long serialVersionUID = 1;
 }
@@ -32,4 +32,14 @@ public class IntMaps
     {
         return new HashIntMap<V>();
     }
+
+    /**
+     * Creates an {@code OpenHashIntMap} instance.
+     *
+     * @return a newly-created, initially-empty {@code OpenHashIntMap}
+     */
+    public static <V> OpenHashIntMap<V> newOpenHashIntMap()
+    {
+        return new OpenHashIntMap<V>();
+    }
 }
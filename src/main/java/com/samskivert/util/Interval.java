@@ -15,6 +15,10 @@ import static com.samskivert.util.UtilLog.log;
  * An interface for doing operations after some delay. Allows expiration to occur on a specific
  * thread, and guarantees that any queued expiration will not run if the Interval has since been
  * cancelled or rescheduled.
+ *
+ * <p> By default intervals are scheduled with a {@link Timer}. An application with very many
+ * intervals may instead use a {@link TimingWheel}, which schedules and cancels in constant time
+ * and immediately releases cancelled intervals, by calling {@link #setBackend} at startup.
  */
 public abstract class Interval
 {
@@ -37,6 +41,9 @@ public abstract class Interval
         }
     };
 
+    /** The mechanisms with which intervals may be scheduled. See {@link #setBackend}. */
+    public enum Backend { TIMER, TIMING_WHEEL }
+
     /**
      * An interface for entities that create, and keep track of, intervals. The intended use case
      * is for repeating intervals to be created via a factory that tracks all such intervals, and
@@ -92,6 +99,16 @@ public abstract class Interval
         };
     }
 
+    /**
+     * Configures the mechanism with which all intervals are subsequently scheduled. Intervals
+     * that are already scheduled remain with the mechanism that scheduled them until they are
+     * rescheduled.
+     */
+    public static void setBackend (Backend backend)
+    {
+        _backend = backend;
+    }
+
     /** @deprecated If direct-running is desired, pass {@link #RUN_DIRECT} explicitly. */
     @Deprecated public Interval () {
         this(RUN_DIRECT);
@@ -222,13 +239,16 @@ public abstract class Interval
 
     protected final void scheduleTask (long initialDelay, long repeatDelay, boolean fixedRate)
     {
-        if (repeatDelay == 0L) {
+        if (repeatDelay != 0L && !fixedRate && _runQueue != RUN_DIRECT) {
+            throw new IllegalArgumentException(
+                "Cannot schedule at a fixed delay when using a RunQueue.");
+        }
+        if (_backend == Backend.TIMING_WHEEL) {
+            _task.setTimeout(getWheel().schedule(_task, initialDelay, repeatDelay, fixedRate));
+        } else if (repeatDelay == 0L) {
             _timer.schedule(_task, initialDelay);
         } else if (fixedRate) {
             _timer.scheduleAtFixedRate(_task, initialDelay, repeatDelay);
-        } else if (_runQueue != RUN_DIRECT) {
-            throw new IllegalArgumentException(
-                "Cannot schedule at a fixed delay when using a RunQueue.");
         } else {
             _timer.schedule(_task, initialDelay, repeatDelay);
         }
@@ -272,6 +292,14 @@ public abstract class Interval
         return new Timer("samskivert Interval Timer", true);
     }
 
+    protected static synchronized TimingWheel getWheel ()
+    {
+        if (_wheel == null) {
+            _wheel = new TimingWheel("samskivert Interval Wheel");
+        }
+        return _wheel;
+    }
+
     /**
      * The task that schedules actually runs the interval.
      */
@@ -288,9 +316,26 @@ public abstract class Interval
             // remove the reference back to the interval, allowing the Interval itself
             // to be gc'd even as this Task potentially sits on the Timer queue.
             _interval = null;
+            _cancelled = true;
+            TimingWheel.Timeout timeout = _timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
             return super.cancel();
         }
 
+        /**
+         * Notes the timing wheel timeout that will run this task.
+         */
+        public void setTimeout (TimingWheel.Timeout timeout)
+        {
+            _timeout = timeout;
+            // if we were cancelled while being scheduled, make sure the timeout is cancelled
+            if (_cancelled) {
+                timeout.cancel();
+            }
+        }
+
         @Override public void run () {
             Interval ival = _interval;
             if (ival == null) {
@@ -351,6 +396,12 @@ public abstract class Interval
         /** The class name of the interval (so that we can identify it after cancellation). */
         protected String _intervalClassName;
 
+        /** The timing wheel timeout that runs this task, if it's scheduled on the wheel. */
+        protected volatile TimingWheel.Timeout _timeout;
+
+        /** Set when this task is cancelled. */
+        protected volatile boolean _cancelled;
+
     } // end: static class IntervalTask
 
     /** The RunQueue used to run the expired() method for this Interval, or {@link #RUN_DIRECT} to
@@ -360,6 +411,13 @@ public abstract class Interval
     /** The task that actually schedules our execution with the static Timer. */
     protected volatile IntervalTask _task;
 
-    /** The daemon timer used to schedule all intervals. */
+    /** The daemon timer used to schedule intervals with the {@link Backend#TIMER} backend. */
     protected static Timer _timer = createTimer();
+
+    /** The timing wheel used to schedule intervals with the {@link Backend#TIMING_WHEEL} backend,
+     * created on demand. */
+    protected static TimingWheel _wheel;
+
+    /** The mechanism with which intervals are scheduled. */
+    protected static volatile Backend _backend = Backend.TIMER;
 }
@@ -5,9 +5,18 @@
 
 package com.samskivert.util;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 import static com.samskivert.util.UtilLog.log;
 
@@ -25,6 +34,12 @@ import static com.samskivert.util.UtilLog.log;
  * to ensure that code running on separate invokers properly synchronizes access to shared
  * information. Where possible, complete isolation of the services provided by a particular invoker
  * is desirable.
+ *
+ * <p> By default units are queued on a synchronized {@link Queue}. An invoker created with
+ * {@code lockFree} set instead uses a lock-free, multi-producer single-consumer queue, which
+ * spares posting threads from contending on the queue's monitor. In that mode a unit must not be
+ * posted again (to any lock-free invoker) until it has been removed from the queue for invocation;
+ * attempting to do so results in an {@link IllegalStateException}.
  */
 public class Invoker extends LoopingThread
     implements Executor, RunQueue
@@ -36,9 +51,14 @@ public class Invoker extends LoopingThread
      */
     public static abstract class Unit implements Runnable
     {
-        /** The time at which this unit was placed on the queue. */
+        /** The time at which this unit was placed on the queue, as reported by {@link
+         * System#currentTimeMillis}. */
         public long queueStamp;
 
+        /** The time at which this unit was placed on the queue, as reported by {@link
+         * System#nanoTime}. This is used to profile the time units spend on the queue. */
+        public long queueNanos;
+
         /** The default constructor. */
         public Unit ()
         {
@@ -107,6 +127,78 @@ public class Invoker extends LoopingThread
         }
 
         protected String _name;
+
+        /** The next unit in the {@link UnitQueue} on which this unit is queued, if any. */
+        protected volatile Unit _qnext;
+
+        /** 1 while this unit is on a {@link UnitQueue}, 0 otherwise. */
+        protected volatile int _queued;
+    }
+
+    /**
+     * A unit that may be invoked together with other units that share its batch key, for example
+     * to perform many single row updates in a single database transaction. When an invoker
+     * reaches a batch unit on its queue, it gathers up the batch units with an equal key that
+     * immediately follow it on the queue (waiting up to {@link #getMaxBatchDelay} for more to
+     * arrive), up to {@link #getMaxBatchSize} units in all, and passes them to the {@link
+     * #invokeBatch} method of the first unit. Units are never reordered: the first unit with a
+     * different key ends the batch.
+     *
+     * <p> Each unit in the batch has its {@link #handleResult} method called on the result
+     * receiver if {@link #invokeBatch} returns true, so units can record their individual
+     * outcomes during the batch invocation and report them as normal. For profiling purposes the
+     * batch is treated as a single invocation of its first unit.
+     */
+    public static abstract class BatchUnit extends Unit
+    {
+        /** Creates a batch unit which will report the supplied name in {@link #toString}. */
+        public BatchUnit (String name)
+        {
+            super(name);
+        }
+
+        /**
+         * Invokes all of the units in the supplied batch, which starts with this unit, on the
+         * invoker thread. All of the units in the batch have a batch key equal to this unit's.
+         *
+         * @return true if the {@link #handleResult} method of every unit in the batch should be
+         * called on the main thread, false if not.
+         */
+        public abstract boolean invokeBatch (List<Unit> batch);
+
+        /**
+         * Returns the key that identifies the units with which this unit may be batched. By
+         * default, units are batched with other units of the same class.
+         */
+        public Object getBatchKey ()
+        {
+            return getClass();
+        }
+
+        /**
+         * Returns the maximum number of units (including this one) to invoke in a batch started
+         * by this unit.
+         */
+        public int getMaxBatchSize ()
+        {
+            return 100;
+        }
+
+        /**
+         * Returns the maximum number of milliseconds to wait for further units to be queued
+         * before invoking a batch started by this unit that is smaller than the maximum batch
+         * size. By default we only batch units that are already queued.
+         */
+        public long getMaxBatchDelay ()
+        {
+            return 0L;
+        }
+
+        @Override // from Unit
+        public boolean invoke ()
+        {
+            return invokeBatch(Collections.<Unit>singletonList(this));
+        }
     }
 
     /**
@@ -123,9 +215,23 @@ public class Invoker extends LoopingThread
      * Creates an invoker that will post results to the supplied result receiver.
      */
     public Invoker (String name, Executor resultReceiver)
+    {
+        this(name, resultReceiver, false);
+    }
+
+    /**
+     * Creates an invoker that will post results to the supplied result receiver.
+     *
+     * @param lockFree if true, units will be queued on a lock-free queue rather than a
+     * synchronized {@link Queue}. See the class documentation for the caveat that applies.
+     */
+    public Invoker (String name, Executor resultReceiver, boolean lockFree)
     {
         super(name);
         _receiver = resultReceiver;
+        if (lockFree) {
+            _units = new UnitQueue();
+        }
     }
 
     /**
@@ -139,6 +245,9 @@ public class Invoker extends LoopingThread
 
     /**
      * Posts a unit to this invoker for subsequent invocation on the invoker's thread.
+     *
+     * @exception IllegalStateException thrown if the invoker has been shutdown, or if it is
+     * lock-free and the unit is already queued on a lock-free invoker.
      */
     public void postUnit (Unit unit)
     {
@@ -147,8 +256,9 @@ public class Invoker extends LoopingThread
         }
         // note the time
         unit.queueStamp = System.currentTimeMillis();
+        unit.queueNanos = System.nanoTime();
         // and append it to the queue
-        _queue.append(unit);
+        appendUnit(unit);
     }
 
     /**
@@ -159,7 +269,7 @@ public class Invoker extends LoopingThread
      */
     public int getPendingUnits ()
     {
-        return _queue.size();
+        return ((_units == null) ? _queue.size() : _units.size()) + ((_carry == null) ? 0 : 1);
     }
 
     // from Executor
@@ -193,14 +303,27 @@ public class Invoker extends LoopingThread
     public void iterate ()
     {
         // pop the next item off of the queue
-        Unit unit = _queue.get();
+        Unit unit = _carry;
+        if (unit != null) {
+            _carry = null;
+        } else {
+            unit = (_units == null) ? _queue.get() : _units.get();
+        }
+
+        // if it's a batch unit, try to gather up a batch
+        if (unit instanceof BatchUnit) {
+            List<Unit> batch = gatherBatch((BatchUnit)unit);
+            if (batch.size() > 1) {
+                invokeBatch(batch);
+                return;
+            }
+        }
 
         long start;
         if (PERF_TRACK) {
-            // record the time spent on the queue as a special unit
-            start = System.currentTimeMillis();
-            // record the time spent on the queue as a special unit
-            recordMetrics("queue_wait_time", start - unit.queueStamp);
+            start = System.nanoTime();
+            // record the time spent on the queue (by all units) as a special unit
+            noteQueueWait(start - unit.queueNanos);
         } else {
             start = 0L;
         }
@@ -218,6 +341,82 @@ public class Invoker extends LoopingThread
         }
     }
 
+    /**
+     * Gathers up the batch units that share the batch key of the supplied unit from the head of
+     * our queue. If an incompatible unit is encountered it is held aside and invoked next.
+     */
+    protected List<Unit> gatherBatch (BatchUnit first)
+    {
+        List<Unit> batch = null;
+        Object key = first.getBatchKey();
+        int maxSize = first.getMaxBatchSize();
+        long deadline = System.nanoTime() + first.getMaxBatchDelay() * 1000000L;
+        for (int size = 1; size < maxSize; size++) {
+            Unit next = pollUnit(deadline - System.nanoTime());
+            if (next == null) {
+                break;
+            }
+            if (!(next instanceof BatchUnit) || !key.equals(((BatchUnit)next).getBatchKey())) {
+                _carry = next;
+                break;
+            }
+            if (batch == null) {
+                batch = new ArrayList<Unit>();
+                batch.add(first);
+            }
+            batch.add(next);
+        }
+        return (batch == null) ? Collections.<Unit>singletonList(first) : batch;
+    }
+
+    /**
+     * Invokes a batch of units gathered by {@link #gatherBatch}.
+     */
+    protected void invokeBatch (List<Unit> batch)
+    {
+        BatchUnit first = (BatchUnit)batch.get(0);
+        long start;
+        if (PERF_TRACK) {
+            start = System.nanoTime();
+            for (Unit unit : batch) {
+                noteQueueWait(start - unit.queueNanos);
+            }
+        } else {
+            start = 0L;
+        }
+
+        try {
+            willInvokeUnit(first, start);
+            if (first.invokeBatch(batch)) {
+                for (Unit unit : batch) {
+                    _receiver.execute(unit);
+                }
+            }
+            didInvokeUnit(first, start);
+
+        } catch (Throwable t) {
+            log.warning("Invocation batch failed", "unit", first, "size", batch.size(), t);
+        }
+    }
+
+    /**
+     * Removes the next unit from our queue, waiting no longer than the specified number of
+     * nanoseconds for one to be added if the queue is empty.
+     *
+     * @return the next unit or null if none was added within the specified time.
+     */
+    protected Unit pollUnit (long timeoutNanos)
+    {
+        if (_units != null) {
+            return _units.poll(timeoutNanos);
+        } else if (timeoutNanos <= 0) {
+            return _queue.getNonBlocking();
+        } else {
+            // Queue waits in milliseconds, and a wait of zero would wait forever
+            return _queue.get(Math.max(1L, timeoutNanos / 1000000L));
+        }
+    }
+
     /**
      * Shuts down the invoker thread by queueing up a unit that will cause the thread to exit after
      * all currently queued units are processed.
@@ -226,7 +425,7 @@ public class Invoker extends LoopingThread
     public void shutdown ()
     {
         _shutdownRequested = true;
-        _queue.append(new Unit() {
+        appendUnit(new Unit() {
             @Override public boolean invoke () {
                 _running = false;
                 return false;
@@ -235,15 +434,39 @@ public class Invoker extends LoopingThread
     }
 
     /**
-     * Sets the parameters of the unit profiling histogram. This only affects unit lasses that have
-     * not yet been run, so should be called early on in program initialization.
-     * @param bucketWidthMs size of time buckets, in milliseconds
-     * @param bucketCount number of time buckets
+     * Deprecated, non-functional method that previously configured the fixed width buckets of the
+     * unit profiling histograms. Units are now profiled with {@link LogHistogram}s, which need no
+     * configuration.
      */
+    @Deprecated
     public void setProfilingParameters (int bucketWidthMs, int bucketCount)
     {
-        _profileBucketWidth = bucketWidthMs;
-        _profileBucketCount = bucketCount;
+        // no op
+    }
+
+    /**
+     * Returns a snapshot of the profiling information for all units invoked since the profiles
+     * were last cleared, mapped by unit class (and {@link #QUEUE_WAIT_KEY}, whose wait histogram
+     * records the time spent on the queue by all units). All times are in nanoseconds. This may
+     * safely be called from any thread and does not block the invoker.
+     */
+    public Map<Object,UnitStats> getProfileSnapshot ()
+    {
+        Map<Object,UnitStats> stats = new HashMap<Object,UnitStats>();
+        for (Map.Entry<Object,UnitProfile> entry : _tracker.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return stats;
+    }
+
+    /**
+     * Clears all of the unit profiling information recorded thus far.
+     */
+    public void clearProfiles ()
+    {
+        for (UnitProfile prof : _tracker.values()) {
+            prof.clear();
+        }
     }
 
     /**
@@ -255,12 +478,24 @@ public class Invoker extends LoopingThread
         return _shutdownRequested;
     }
 
+    /**
+     * Appends the supplied unit to whichever queue this invoker is using.
+     */
+    protected void appendUnit (Unit unit)
+    {
+        if (_units == null) {
+            _queue.append(unit);
+        } else {
+            _units.append(unit);
+        }
+    }
+
     /**
      * Called before we process an invoker unit.
      *
      * @param unit the unit about to be invoked.
-     * @param start a timestamp recorded immediately before invocation if {@link #PERF_TRACK} is
-     * enabled, 0L otherwise.
+     * @param start a {@link System#nanoTime} timestamp recorded immediately before invocation if
+     * {@link #PERF_TRACK} is enabled, 0L otherwise.
      */
     protected void willInvokeUnit (Unit unit, long start)
     {
@@ -270,15 +505,17 @@ public class Invoker extends LoopingThread
      * Called before we process an invoker unit.
      *
      * @param unit the unit about to be invoked.
-     * @param start a timestamp recorded immediately before invocation if {@link #PERF_TRACK} is
-     * enabled, 0L otherwise.
+     * @param start a {@link System#nanoTime} timestamp recorded immediately before invocation if
+     * {@link #PERF_TRACK} is enabled, 0L otherwise.
      */
     protected void didInvokeUnit (Unit unit, long start)
     {
         // track some performance metrics
         if (PERF_TRACK) {
-            long duration = System.currentTimeMillis() - start;
+            long runNanos = System.nanoTime() - start;
             Object key = unit.getClass();
+            recordMetrics(key, start - unit.queueNanos, runNanos);
+            long duration = runNanos / 1000000L;
             recordMetrics(key, duration);
 
             // report long runners
@@ -299,56 +536,283 @@ public class Invoker extends LoopingThread
         }
     }
 
+    /**
+     * Records the time a unit spent waiting on the queue and being invoked in the profile for its
+     * class. Called on the invoker thread.
+     */
+    protected void recordMetrics (Object key, long waitNanos, long runNanos)
+    {
+        getProfile(key).record(waitNanos, runNanos);
+    }
+
+    /**
+     * Records the time a unit spent waiting on the queue in the {@link #QUEUE_WAIT_KEY} profile.
+     * Called on the invoker thread.
+     */
+    protected void recordQueueWait (long waitNanos)
+    {
+        getProfile(QUEUE_WAIT_KEY).wait.record(waitNanos);
+    }
+
+    /**
+     * Called on the invoker thread with the time in milliseconds that each unit spent being
+     * invoked (keyed by the unit's class) and waiting on the queue (keyed by {@link
+     * #QUEUE_WAIT_KEY}). This does nothing by default; the invoker's own profiles are recorded by
+     * {@link #recordMetrics(Object,long,long)} and {@link #recordQueueWait}, but derived classes
+     * may override it to collect their own metrics.
+     */
     protected void recordMetrics (Object key, long duration)
+    {
+    }
+
+    /**
+     * Records the time a unit spent waiting on the queue via {@link #recordQueueWait} and {@link
+     * #recordMetrics(Object,long)}.
+     */
+    protected void noteQueueWait (long waitNanos)
+    {
+        recordQueueWait(waitNanos);
+        recordMetrics(QUEUE_WAIT_KEY, waitNanos / 1000000L);
+    }
+
+    protected UnitProfile getProfile (Object key)
     {
         UnitProfile prof = _tracker.get(key);
         if (prof == null) {
-            _tracker.put(key, prof = new UnitProfile(_profileBucketWidth, _profileBucketCount));
+            UnitProfile nprof = new UnitProfile();
+            prof = _tracker.putIfAbsent(key, nprof);
+            if (prof == null) {
+                prof = nprof;
+            }
+        }
+        return prof;
+    }
+
+    /**
+     * A summary of the profile of a class of unit, at some point in time.
+     */
+    public static class UnitStats
+    {
+        /** The time units spent waiting on the queue, in nanoseconds. */
+        public final LogHistogram.Snapshot wait;
+
+        /** The time units spent being invoked, in nanoseconds. */
+        public final LogHistogram.Snapshot run;
+
+        public UnitStats (LogHistogram.Snapshot wait, LogHistogram.Snapshot run) {
+            this.wait = wait;
+            this.run = run;
+        }
+
+        @Override public String toString () {
+            return "[wait=" + wait + ", run=" + run + "]";
         }
-        prof.record(duration);
     }
 
     /** Used to track profile information on invoked units. */
     protected static class UnitProfile
     {
-        public UnitProfile (int bucketWidth, int bucketCount) {
-            _histo = new Histogram(0, bucketWidth, bucketCount);
-        }
+        public final LogHistogram wait = new LogHistogram(), run = new LogHistogram();
 
-        public void record (long duration) {
-            _totalElapsed += duration;
-            _histo.addValue((int)duration);
+        public void record (long waitNanos, long runNanos) {
+            wait.record(waitNanos);
+            run.record(runNanos);
         }
 
         public void clear () {
-            _totalElapsed = 0L;
-            _histo.clear();
+            wait.clear();
+            run.clear();
+        }
+
+        public UnitStats snapshot () {
+            return new UnitStats(wait.snapshot(), run.snapshot());
         }
 
         @Override public String toString () {
-            int count = _histo.size();
-            return _totalElapsed + "ms/" + count + " = " + (_totalElapsed/count) + "ms avg " +
-                StringUtil.toString(_histo.getBuckets());
+            return snapshot().toString();
+        }
+    }
+
+    /**
+     * A lock-free, intrusive, multi-producer single-consumer queue of units (after Dmitry Vyukov's
+     * design). Producers link units onto the head with a single atomic swap and the consumer
+     * parks when the queue is empty rather than waiting on a monitor. Queueing a unit allocates
+     * nothing as the units themselves are the queue nodes.
+     */
+    protected static class UnitQueue
+    {
+        public UnitQueue ()
+        {
+            _head = new AtomicReference<Unit>(_stub);
+            _tail = _stub;
+        }
+
+        /**
+         * Appends the supplied unit to the queue. May be called from any thread.
+         */
+        public void append (Unit unit)
+        {
+            // a unit is its own queue node, so queueing it twice would corrupt the queue
+            if (!QUEUED.compareAndSet(unit, 0, 1)) {
+                throw new IllegalStateException("Unit is already queued: " + unit);
+            }
+            _count.increment();
+            push(unit);
+            // if the consumer is (or is about to be) parked, wake it up
+            if (_parked) {
+                LockSupport.unpark(_consumer);
+            }
+        }
+
+        /**
+         * Returns the number of units on the queue.
+         */
+        public int size ()
+        {
+            return (int)Math.max(0, _count.sum());
+        }
+
+        /**
+         * Returns the next unit on the queue or null if the queue is empty. Must only be called
+         * from the consuming thread.
+         */
+        public Unit poll ()
+        {
+            Unit tail = _tail, next = tail._qnext;
+            if (tail == _stub) {
+                if (next == null) {
+                    return null;
+                }
+                _tail = tail = next;
+                next = next._qnext;
+            }
+            if (next == null) {
+                // the tail is the last unit, unless a producer is midway through appending
+                if (tail != _head.get()) {
+                    return null;
+                }
+                // put the stub back on the queue so that we can remove the tail
+                push(_stub);
+                next = tail._qnext;
+                if (next == null) {
+                    return null;
+                }
+            }
+            _tail = next;
+            tail._qnext = null;
+            tail._queued = 0;
+            _count.decrement();
+            return tail;
         }
 
-        protected Histogram _histo;
-        protected long _totalElapsed;
+        /**
+         * Returns the next unit on the queue, parking the calling thread for no longer than the
+         * specified number of nanoseconds waiting for one to be appended if the queue is empty.
+         * Must only be called from the consuming thread.
+         *
+         * @return the next unit or null if none was appended within the specified time.
+         */
+        public Unit poll (long timeoutNanos)
+        {
+            long deadline = System.nanoTime() + timeoutNanos;
+            Unit unit;
+            while ((unit = poll()) == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+                _consumer = Thread.currentThread();
+                _parked = true;
+                if ((unit = poll()) != null) {
+                    _parked = false;
+                    return unit;
+                }
+                LockSupport.parkNanos(this, remaining);
+                _parked = false;
+            }
+            return unit;
+        }
+
+        /**
+         * Returns the next unit on the queue, parking the calling thread until one is appended
+         * if the queue is empty. Must only be called from the consuming thread.
+         */
+        public Unit get ()
+        {
+            Unit unit;
+            while ((unit = poll()) == null) {
+                // spin briefly before parking, as a busy invoker will usually get another unit
+                // sooner than it takes to park and be unparked
+                for (int ii = 0; ii < SPINS && (unit = poll()) == null; ii++) {
+                    Thread.onSpinWait();
+                }
+                if (unit != null) {
+                    return unit;
+                }
+                _consumer = Thread.currentThread();
+                _parked = true;
+                // check again now that producers will see that we're parked (a producer that is
+                // midway through appending will unpark us once it has linked its unit)
+                if ((unit = poll()) != null) {
+                    _parked = false;
+                    return unit;
+                }
+                LockSupport.park(this);
+                _parked = false;
+            }
+            return unit;
+        }
+
+        protected void push (Unit unit)
+        {
+            unit._qnext = null;
+            Unit prev = _head.getAndSet(unit);
+            prev._qnext = unit;
+        }
+
+        /** The most recently appended unit. */
+        protected final AtomicReference<Unit> _head;
+
+        /** The next unit to be removed (or the stub), only accessed by the consumer. */
+        protected Unit _tail;
+
+        /** A placeholder that keeps the queue non-empty, so producers never touch the tail. */
+        protected final Unit _stub = new Unit("stub") {
+            @Override public boolean invoke () {
+                return false;
+            }
+        };
+
+        /** The number of units appended but not yet removed. */
+        protected final LongAdder _count = new LongAdder();
+
+        /** The consuming thread and whether it is (about to be) parked waiting for a unit. */
+        protected volatile Thread _consumer;
+        protected volatile boolean _parked;
+
+        /** The number of times the consumer polls an empty queue before parking. */
+        protected static final int SPINS = 256;
+
+        /** Used to atomically mark units as queued. */
+        protected static final AtomicIntegerFieldUpdater<Unit> QUEUED =
+            AtomicIntegerFieldUpdater.newUpdater(Unit.class, "_queued");
     }
 
     /** The invoker's queue of units to be executed. */
     protected Queue<Unit> _queue = new Queue<Unit>();
 
-    /** The result receiver with which we're working. */
-    protected Executor _receiver;
+    /** The lock-free queue of units to be executed, if we are in lock-free mode. */
+    protected UnitQueue _units;
 
-    /** Tracks the counts of invocations by unit's class. */
-    protected HashMap<Object,UnitProfile> _tracker = new HashMap<Object,UnitProfile>();
+    /** A unit removed from the queue while gathering a batch, which is to be invoked next. Only
+     * accessed by the invoker thread (other than for reporting pending units). */
+    protected volatile Unit _carry;
 
-    /** Default size of buckets to use when profiling unit times. */
-    protected int _profileBucketWidth = 50;
+    /** The result receiver with which we're working. */
+    protected Executor _receiver;
 
-    /** Default number of buckets to use when profiling unit times. */
-    protected int _profileBucketCount = 10;
+    /** Tracks the profiles of invocations by unit's class. */
+    protected Map<Object,UnitProfile> _tracker = new ConcurrentHashMap<Object,UnitProfile>();
 
     /** The long threshold for this particular invoker. */
     protected long _longThreshold = 500L;
@@ -357,6 +821,9 @@ public class Invoker extends LoopingThread
      * any remaining queued units. */
     protected volatile boolean _shutdownRequested;
 
+    /** The key under which the time spent on the queue by all units is profiled. */
+    public static final String QUEUE_WAIT_KEY = "queue_wait_time";
+
     /** Whether or not to track invoker unit performance. */
     protected static final boolean PERF_TRACK = true;
 }
@@ -44,6 +44,24 @@ public class LRUHashMap<K,V> implements Map<K,V>
         public void removedFromMap (LRUHashMap<K,V> map, V item);
     }
 
+    /**
+     * An admission policy may be registered with a LRU hash map to decide whether a newly added
+     * entry is worth keeping at the expense of the least recently used entries it would
+     * otherwise displace. Without one, new entries are always kept. See {@link TinyLFUPolicy}.
+     */
+    public static interface AdmissionPolicy
+    {
+        /** Informs the policy that the specified key was requested (read or written). */
+        public void recordAccess (Object key);
+
+        /**
+         * Returns true if the newly added <code>candidate</code> should be kept and the least
+         * recently used <code>victim</code> evicted to make room for it, false if the candidate
+         * should be evicted instead.
+         */
+        public boolean admit (Object candidate, Object victim);
+    }
+
     /**
      * Construct a LRUHashMap with the specified maximum size. All items
      * in the cache will be considered to have a size of one.
@@ -60,8 +78,17 @@ public class LRUHashMap<K,V> implements Map<K,V>
      */
     public LRUHashMap (int maxSize, ItemSizer<V> sizer)
     {
-        _delegate = new LinkedHashMap<K,V>(
-            Math.min(1024, Math.max(16, maxSize)), .75f, true);
+        this(maxSize, sizer, new LinkedHashMap<K,V>(
+                 Math.min(1024, Math.max(16, maxSize)), .75f, true));
+    }
+
+    /**
+     * Used by derived classes that provide their own storage (and therefore override all of the
+     * methods that use the delegate) to avoid creating an unused delegate.
+     */
+    protected LRUHashMap (int maxSize, ItemSizer<V> sizer, LinkedHashMap<K,V> delegate)
+    {
+        _delegate = delegate;
         _maxSize = maxSize;
         _sizer = (sizer == null) ? new ItemSizer<V>() {
             public int computeSize (V item) {
@@ -99,6 +126,14 @@ public class LRUHashMap<K,V> implements Map<K,V>
         _remobs = obs;
     }
 
+    /**
+     * Configures this hash map with an admission policy, or clears it if null is supplied.
+     */
+    public void setAdmissionPolicy (AdmissionPolicy policy)
+    {
+        _admission = policy;
+    }
+
     /**
      * Used to temporarily disable flushing elements from the
      * cache. Generally this is only used to avoid undesired garbage
@@ -183,6 +218,9 @@ public class LRUHashMap<K,V> implements Map<K,V>
     public V get (Object key)
     {
         V result = _delegate.get(key);
+        if (_admission != null) {
+            _admission.recordAccess(key);
+        }
 
         if (_tracking) {
             if (result == null) {
@@ -201,7 +239,11 @@ public class LRUHashMap<K,V> implements Map<K,V>
     // documentation inherited from interface
     public V put (K key, V value)
     {
+        boolean added = (_admission != null) && !_delegate.containsKey(key);
         V result = _delegate.put(key, value);
+        if (_admission != null) {
+            _admission.recordAccess(key);
+        }
 
         if (_tracking) {
             _seenKeys.add(key);
@@ -216,7 +258,7 @@ public class LRUHashMap<K,V> implements Map<K,V>
         }
 
         // flush if needed
-        flush();
+        flush(added ? key : null);
 
         return result;
     }
@@ -226,6 +268,16 @@ public class LRUHashMap<K,V> implements Map<K,V>
      * cache size.
      */
     protected void flush ()
+    {
+        flush(null);
+    }
+
+    /**
+     * Flushes entries from the cache until we're back under our desired cache size, consulting
+     * our admission policy (if any) as to whether the supplied newly added key, if non-null,
+     * should be evicted in place of the least recently used entries.
+     */
+    protected void flush (K candidate)
     {
         if (!_canFlush) {
             return;
@@ -241,6 +293,12 @@ public class LRUHashMap<K,V> implements Map<K,V>
             // a cache with nothing in it sucks
             for (int ii = size(); (ii > 1) && (_size > _maxSize); ii--) {
                 Map.Entry<K,V> entry = iter.next();
+                if (candidate != null && !_admission.admit(candidate, entry.getKey())) {
+                    // the newcomer is less valuable than the entry it would displace
+                    entryRemoved(_delegate.remove(candidate));
+                    flush(null);
+                    return;
+                }
                 entryRemoved(entry.getValue());
                 iter.remove();
             }
@@ -344,6 +402,9 @@ public class LRUHashMap<K,V> implements Map<K,V>
     /** Notified when items are removed from the map, if non-null. */
     protected RemovalObserver<K,V> _remobs;
 
+    /** Decides whether new entries are kept, if non-null. */
+    protected AdmissionPolicy _admission;
+
     /** Used to compute the size of items in this cache. */
     protected ItemSizer<V> _sizer;
 
@@ -0,0 +1,175 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * A histogram of non-negative {@code long} values with logarithmically sized buckets, in the
+ * style of HdrHistogram. Each power of two range is split into {@link #SUB_BUCKETS} linear
+ * buckets, so any value is tracked with a relative error of at most about three percent, from
+ * single nanoseconds up to centuries, in a fixed amount of memory.
+ *
+ * <p> Values may be recorded concurrently from any number of threads without locking, and a
+ * {@link Snapshot} may be taken from another thread at any time without stalling the recorders.
+ * A snapshot taken during recording may be very slightly inconsistent (a value may be reflected
+ * in the count but not yet in its bucket, for example), which is fine for monitoring purposes.
+ */
+public class LogHistogram
+{
+    /** The number of linear buckets into which each power of two range is divided. */
+    public static final int SUB_BUCKETS = 32;
+
+    /**
+     * An immutable copy of the state of a histogram at some point in time.
+     */
+    public static class Snapshot
+    {
+        /** The number of values recorded. */
+        public final long count;
+
+        /** The sum of all values recorded. */
+        public final long total;
+
+        /** The largest value recorded. */
+        public final long max;
+
+        public Snapshot (long count, long total, long max, long[] buckets)
+        {
+            this.count = count;
+            this.total = total;
+            this.max = max;
+            _buckets = buckets;
+        }
+
+        /**
+         * Returns the mean of the recorded values, or zero if there are none.
+         */
+        public long getMean ()
+        {
+            return (count == 0) ? 0 : total / count;
+        }
+
+        /**
+         * Returns the value below which the specified percentage of the recorded values fall (to
+         * within the precision of the histogram), or zero if there are no values.
+         *
+         * @param percentile a percentage from 0 to 100, e.g. 99.9.
+         */
+        public long getPercentile (double percentile)
+        {
+            long seen = 0, recorded = 0;
+            for (long bucket : _buckets) {
+                recorded += bucket;
+            }
+            if (recorded == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long)Math.ceil(recorded * percentile / 100));
+            for (int ii = 0; ii < _buckets.length; ii++) {
+                seen += _buckets[ii];
+                if (seen >= target) {
+                    return Math.min(highestValue(ii), max);
+                }
+            }
+            return max;
+        }
+
+        @Override public String toString ()
+        {
+            return "[count=" + count + ", mean=" + getMean() + ", p50=" + getPercentile(50) +
+                ", p99=" + getPercentile(99) + ", p999=" + getPercentile(99.9) +
+                ", max=" + max + "]";
+        }
+
+        protected final long[] _buckets;
+    }
+
+    /**
+     * Records a value in this histogram. Negative values are recorded as zero.
+     */
+    public void record (long value)
+    {
+        value = Math.max(value, 0L);
+        _buckets.incrementAndGet(bucketIndex(value));
+        _count.increment();
+        _total.add(value);
+        _max.accumulate(value);
+    }
+
+    /**
+     * Returns a snapshot of the current contents of this histogram.
+     */
+    public Snapshot snapshot ()
+    {
+        long[] buckets = new long[_buckets.length()];
+        for (int ii = 0; ii < buckets.length; ii++) {
+            buckets[ii] = _buckets.get(ii);
+        }
+        return new Snapshot(_count.sum(), _total.sum(), _max.get(), buckets);
+    }
+
+    /**
+     * Clears the values from this histogram. Values recorded concurrently with the clear may or
+     * may not be retained.
+     */
+    public void clear ()
+    {
+        for (int ii = 0, ll = _buckets.length(); ii < ll; ii++) {
+            _buckets.set(ii, 0L);
+        }
+        _count.reset();
+        _total.reset();
+        _max.reset();
+    }
+
+    @Override
+    public String toString ()
+    {
+        return snapshot().toString();
+    }
+
+    /**
+     * Returns the index of the bucket into which the supplied (non-negative) value falls.
+     */
+    protected static int bucketIndex (long value)
+    {
+        if (value < SUB_BUCKETS) {
+            return (int)value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int)(value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exp - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the largest value that falls into the specified bucket.
+     */
+    protected static long highestValue (int index)
+    {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1, sub = index % SUB_BUCKETS;
+        long low = (long)(SUB_BUCKETS + sub) << shift;
+        return low + (1L << shift) - 1;
+    }
+
+    protected final AtomicLongArray _buckets =
+        new AtomicLongArray((64 - SUB_BITS + 1) * SUB_BUCKETS);
+    protected final LongAdder _count = new LongAdder(), _total = new LongAdder();
+    protected final LongAccumulator _max = new LongAccumulator(new LongBinaryOperator() {
+        public long applyAsLong (long left, long right) {
+            return Math.max(left, right);
+        }
+    }, 0L);
+
+    /** log2 of {@link #SUB_BUCKETS}. */
+    protected static final int SUB_BITS = 5;
+}
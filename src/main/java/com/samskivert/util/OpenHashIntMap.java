@@ -0,0 +1,618 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An {@link IntMap} that stores its mappings in parallel {@code int} and {@code Object} arrays
+ * using open addressing with linear probing. Unlike {@link HashIntMap}, no per-entry record is
+ * created, so {@link #get(int)}, {@link #put(int,Object)} and {@link #remove(int)} perform no
+ * allocation (other than when the table is resized). Removal uses backward-shift deletion, so
+ * there are no tombstones to accumulate and probe sequences stay short.
+ *
+ * <p> The entries returned by iterating over {@link #intEntrySet} are a cursor: the same object
+ * is returned by every call to {@code next()} and is only valid until the next call. Use
+ * {@link #entrySet} if you need to retain entries.
+ */
+public class OpenHashIntMap<V> extends AbstractMap<Integer,V>
+    implements IntMap<V>, Cloneable, Serializable
+{
+    /** The default initial capacity of the table. */
+    public final static int DEFAULT_CAPACITY = 16;
+
+    /** The default load factor. */
+    public final static float DEFAULT_LOAD_FACTOR = 0.6f;
+
+    /**
+     * Constructs an empty map that can hold the specified number of mappings without resizing.
+     *
+     * @param loadFactor the maximum fraction of slots that may be occupied, which must be
+     * greater than zero and less than one.
+     */
+    public OpenHashIntMap (int expectedSize, float loadFactor)
+    {
+        if (loadFactor <= 0 || loadFactor >= 1) {
+            throw new IllegalArgumentException("Load factor must be in (0, 1): " + loadFactor);
+        }
+        _loadFactor = loadFactor;
+        allocate(tableSizeFor(Math.max(expectedSize, 1)));
+    }
+
+    /**
+     * Constructs an empty map with the default capacity and load factor.
+     */
+    public OpenHashIntMap ()
+    {
+        this(DEFAULT_CAPACITY, DEFAULT_LOAD_FACTOR);
+    }
+
+    @Override
+    public int size ()
+    {
+        return _size;
+    }
+
+    @Override
+    public boolean containsKey (Object key)
+    {
+        return (key instanceof Integer) && containsKey(((Integer)key).intValue());
+    }
+
+    // from interface IntMap
+    public boolean containsKey (int key)
+    {
+        return (findSlot(key) >= 0);
+    }
+
+    @Override
+    public boolean containsValue (Object o)
+    {
+        Object value = (o == null) ? NULL_VALUE : o;
+        for (Object v : _values) {
+            if (v != null && v.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public V get (Object key)
+    {
+        return (key instanceof Integer) ? get(((Integer)key).intValue()) : null;
+    }
+
+    // from interface IntMap
+    public V get (int key)
+    {
+        int slot = findSlot(key);
+        return (slot < 0) ? null : valueAt(slot);
+    }
+
+    @Override
+    public V put (Integer key, V value)
+    {
+        return put(key.intValue(), value);
+    }
+
+    // from interface IntMap
+    public V put (int key, V value)
+    {
+        Object stored = (value == null) ? NULL_VALUE : value;
+        int mask = _keys.length - 1;
+        int slot = keyToIndex(key, mask);
+        for (Object cur; (cur = _values[slot]) != null; slot = (slot + 1) & mask) {
+            if (_keys[slot] == key) {
+                _values[slot] = stored;
+                @SuppressWarnings("unchecked") V ovalue = (V)unmask(cur);
+                return ovalue;
+            }
+        }
+
+        // we didn't find it; claim the empty slot we landed on and grow if we're now too full
+        _keys[slot] = key;
+        _values[slot] = stored;
+        if (++_size > _threshold) {
+            rehash(_keys.length << 1);
+        }
+        return null;
+    }
+
+    @Override
+    public V remove (Object key)
+    {
+        return (key instanceof Integer) ? remove(((Integer)key).intValue()) : null;
+    }
+
+    // from interface IntMap
+    public V remove (int key)
+    {
+        int slot = findSlot(key);
+        if (slot < 0) {
+            return null;
+        }
+        V ovalue = valueAt(slot);
+        removeSlot(slot, null);
+        return ovalue;
+    }
+
+    /**
+     * Copies all of the mappings from the supplied map into this map.
+     */
+    public void putAll (IntMap<V> t)
+    {
+        ensureCapacity(_size + t.size());
+        for (IntEntry<V> entry : t.intEntrySet()) {
+            put(entry.getIntKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void clear ()
+    {
+        Arrays.fill(_values, null);
+        _size = 0;
+    }
+
+    /**
+     * Ensure that the map can hold the specified number of mappings without resizing. Calling this
+     * method is not necessary, but can improve performance if done prior to adding many elements.
+     */
+    public void ensureCapacity (int minCapacity)
+    {
+        if (minCapacity > _threshold) {
+            rehash(tableSizeFor(minCapacity));
+        }
+    }
+
+    // from interface IntMap
+    public Set<IntEntry<V>> intEntrySet ()
+    {
+        return new AbstractSet<IntEntry<V>>() {
+            @Override public int size () {
+                return _size;
+            }
+            @Override public Iterator<IntEntry<V>> iterator () {
+                return new Cursor();
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<Integer,V>> entrySet ()
+    {
+        return new AbstractSet<Entry<Integer,V>>() {
+            @Override public int size () {
+                return _size;
+            }
+            @Override public Iterator<Entry<Integer,V>> iterator () {
+                final Cursor cursor = new Cursor();
+                return new Iterator<Entry<Integer,V>>() {
+                    public boolean hasNext () {
+                        return cursor.hasNext();
+                    }
+                    public Entry<Integer,V> next () {
+                        cursor.next();
+                        return new MapEntry(cursor.getIntKey(), cursor.getValue());
+                    }
+                    public void remove () {
+                        cursor.remove();
+                    }
+                };
+            }
+        };
+    }
+
+    // from interface IntMap
+    public IntSet intKeySet ()
+    {
+        if (_keySet == null) {
+            _keySet = new AbstractIntSet() {
+                public Interator interator () {
+                    return new AbstractInterator () {
+                        public boolean hasNext () {
+                            return _cursor.hasNext();
+                        }
+                        public int nextInt () {
+                            return _cursor.next().getIntKey();
+                        }
+                        @Override public void remove () {
+                            _cursor.remove();
+                        }
+                        protected Cursor _cursor = new Cursor();
+                    };
+                }
+
+                @Override public int size () {
+                    return OpenHashIntMap.this.size();
+                }
+
+                @Override public boolean contains (int t) {
+                    return OpenHashIntMap.this.containsKey(t);
+                }
+
+                @Override public boolean remove (int value) {
+                    int slot = findSlot(value);
+                    if (slot < 0) {
+                        return false;
+                    }
+                    removeSlot(slot, null);
+                    return true;
+                }
+            };
+        }
+        return _keySet;
+    }
+
+    @Override
+    public Set<Integer> keySet ()
+    {
+        return intKeySet();
+    }
+
+    @Override
+    public OpenHashIntMap<V> clone ()
+    {
+        try {
+            @SuppressWarnings("unchecked")
+            OpenHashIntMap<V> result = (OpenHashIntMap<V>) super.clone();
+            result._keySet = null;
+            result._keys = _keys.clone();
+            result._values = _values.clone();
+            return result;
+
+        } catch (CloneNotSupportedException cnse) {
+            throw new AssertionError(cnse); // won't happen; we're Cloneable
+        }
+    }
+
+    /**
+     * Iterates over our slots from the end of the table to the start, returning itself as the
+     * entry for each mapping. Iterating backwards means that the entries shifted by a removal
+     * have already been visited, with the exception of those that wrap around the end of the
+     * table, which we record and visit at the end.
+     */
+    protected class Cursor
+        implements Iterator<IntEntry<V>>, IntEntry<V>
+    {
+        public boolean hasNext ()
+        {
+            if (_next >= 0) {
+                return true;
+            }
+            while (--_index >= 0) {
+                if (_values[_index] != null) {
+                    _next = _index;
+                    return true;
+                }
+            }
+            return (_wrapCount > _wrapIndex);
+        }
+
+        public IntEntry<V> next ()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (_next >= 0) {
+                _slot = _next;
+                _next = -1;
+                _key = _keys[_slot];
+            } else {
+                _slot = -1;
+                _key = _wrapKeys[_wrapIndex++];
+            }
+            _valid = true;
+            return this;
+        }
+
+        public void remove ()
+        {
+            if (!_valid) {
+                throw new IllegalStateException();
+            }
+            if (_slot >= 0) {
+                removeSlot(_slot, this);
+            } else {
+                OpenHashIntMap.this.remove(_key);
+            }
+            _valid = false;
+        }
+
+        public Integer getKey ()
+        {
+            return Integer.valueOf(getIntKey());
+        }
+
+        public int getIntKey ()
+        {
+            checkValid();
+            return _key;
+        }
+
+        public V getValue ()
+        {
+            checkValid();
+            return (_slot >= 0) ? valueAt(_slot) : get(_key);
+        }
+
+        public V setValue (V value)
+        {
+            checkValid();
+            if (_slot < 0) {
+                return put(_key, value);
+            }
+            V ovalue = valueAt(_slot);
+            _values[_slot] = (value == null) ? NULL_VALUE : value;
+            return ovalue;
+        }
+
+        @Override public boolean equals (Object o)
+        {
+            if (!(o instanceof Entry<?,?>)) {
+                return false;
+            }
+            Entry<?,?> that = (Entry<?,?>)o;
+            return getKey().equals(that.getKey()) && ObjectUtil.equals(getValue(), that.getValue());
+        }
+
+        @Override public int hashCode ()
+        {
+            V value = getValue();
+            return getIntKey() ^ ((value == null) ? 0 : value.hashCode());
+        }
+
+        @Override public String toString ()
+        {
+            return getIntKey() + "=" + StringUtil.toString(getValue());
+        }
+
+        /**
+         * Called when removing a mapping moves the mapping at {@code slot} from the start of the
+         * table (which we have yet to visit) into a slot that we have already visited.
+         */
+        protected void wrapped (int slot)
+        {
+            if (_wrapKeys == null) {
+                _wrapKeys = new int[4];
+            } else if (_wrapCount == _wrapKeys.length) {
+                _wrapKeys = Arrays.copyOf(_wrapKeys, _wrapCount * 2);
+            }
+            _wrapKeys[_wrapCount++] = _keys[slot];
+        }
+
+        protected void checkValid ()
+        {
+            if (!_valid) {
+                throw new IllegalStateException();
+            }
+        }
+
+        protected int _index = _keys.length, _next = -1, _slot = -1, _key;
+        protected boolean _valid;
+        protected int[] _wrapKeys;
+        protected int _wrapCount, _wrapIndex;
+    }
+
+    /**
+     * A standalone entry, returned by {@link #entrySet}, which writes through to the map.
+     */
+    protected class MapEntry
+        implements IntEntry<V>
+    {
+        public MapEntry (int key, V value)
+        {
+            _key = key;
+            _value = value;
+        }
+
+        public Integer getKey ()
+        {
+            return Integer.valueOf(_key);
+        }
+
+        public int getIntKey ()
+        {
+            return _key;
+        }
+
+        public V getValue ()
+        {
+            return _value;
+        }
+
+        public V setValue (V value)
+        {
+            V ovalue = _value;
+            put(_key, _value = value);
+            return ovalue;
+        }
+
+        @Override public boolean equals (Object o)
+        {
+            if (!(o instanceof Entry<?,?>)) {
+                return false;
+            }
+            Entry<?,?> that = (Entry<?,?>)o;
+            return getKey().equals(that.getKey()) && ObjectUtil.equals(_value, that.getValue());
+        }
+
+        @Override public int hashCode ()
+        {
+            return _key ^ ((_value == null) ? 0 : _value.hashCode());
+        }
+
+        @Override public String toString ()
+        {
+            return _key + "=" + StringUtil.toString(_value);
+        }
+
+        protected int _key;
+        protected V _value;
+    }
+
+    /**
+     * Returns the slot that contains the specified key, or -1 if the key is not mapped.
+     */
+    protected int findSlot (int key)
+    {
+        int mask = _keys.length - 1;
+        for (int slot = keyToIndex(key, mask); _values[slot] != null; slot = (slot + 1) & mask) {
+            if (_keys[slot] == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Clears the specified slot, shifting back any subsequent entries in its probe sequence
+     * that would otherwise become unreachable.
+     *
+     * @param cursor if non-null, the cursor that is removing the slot, which will be notified of
+     * any entries that are moved from the slots it has yet to visit into those it has visited.
+     */
+    protected void removeSlot (int slot, Cursor cursor)
+    {
+        int mask = _keys.length - 1, hole = slot;
+        for (int ii = (hole + 1) & mask; _values[ii] != null; ii = (ii + 1) & mask) {
+            // the entry at ii can fill the hole unless its home slot lies cyclically in (hole, ii]
+            int home = keyToIndex(_keys[ii], mask);
+            if (((ii - home) & mask) >= ((ii - hole) & mask)) {
+                if (cursor != null && ii < hole) {
+                    cursor.wrapped(ii);
+                }
+                _keys[hole] = _keys[ii];
+                _values[hole] = _values[ii];
+                hole = ii;
+            }
+        }
+        _values[hole] = null;
+        _size--;
+    }
+
+    /**
+     * Reallocates the table at the specified size and reinserts all of our mappings.
+     */
+    protected void rehash (int newsize)
+    {
+        int[] okeys = _keys;
+        Object[] ovalues = _values;
+        allocate(newsize);
+        int mask = newsize - 1;
+        for (int ii = 0, ll = okeys.length; ii < ll; ii++) {
+            Object value = ovalues[ii];
+            if (value != null) {
+                int slot = keyToIndex(okeys[ii], mask);
+                while (_values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                _keys[slot] = okeys[ii];
+                _values[slot] = value;
+            }
+        }
+    }
+
+    /**
+     * Returns the power of two table size needed to hold the specified number of mappings.
+     */
+    protected int tableSizeFor (int count)
+    {
+        int size = DEFAULT_CAPACITY;
+        while (count > (int)(size * _loadFactor)) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    protected void allocate (int size)
+    {
+        _keys = new int[size];
+        _values = new Object[size];
+        _threshold = Math.min(size - 1, (int)(size * _loadFactor));
+    }
+
+    protected V valueAt (int slot)
+    {
+        @SuppressWarnings("unchecked") V value = (V)unmask(_values[slot]);
+        return value;
+    }
+
+    /**
+     * Save the state of this instance to a stream (i.e., serialize it).
+     */
+    private void writeObject (ObjectOutputStream s)
+        throws IOException
+    {
+        s.writeFloat(_loadFactor);
+        s.writeInt(_size);
+        for (int ii = 0, ll = _keys.length; ii < ll; ii++) {
+            if (_values[ii] != null) {
+                s.writeInt(_keys[ii]);
+                s.writeObject(unmask(_values[ii]));
+            }
+        }
+    }
+
+    /**
+     * Reconstitute the {@code OpenHashIntMap} instance from a stream (i.e., deserialize it).
+     */
+    private void readObject (ObjectInputStream s)
+         throws IOException, ClassNotFoundException
+    {
+        _loadFactor = s.readFloat();
+        int size = s.readInt();
+        allocate(tableSizeFor(size));
+        for (int ii = 0; ii < size; ii++) {
+            int key = s.readInt();
+            @SuppressWarnings("unchecked") V value = (V)s.readObject();
+            put(key, value);
+        }
+    }
+
+    /**
+     * Mixes the bits of the key (using the golden ratio multiplier) so that sequential keys are
+     * spread out and don't form long runs of occupied slots.
+     */
+    protected static int keyToIndex (int key, int mask)
+    {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    protected static Object unmask (Object value)
+    {
+        return (value == NULL_VALUE) ? null : value;
+    }
+
+    /** Our keys, valid only for slots with a non-null value. */
+    protected transient int[] _keys;
+
+    /** Our values, {@code null} for empty slots and {@link #NULL_VALUE} for null mappings. */
+    protected transient Object[] _values;
+
+    protected transient int _size, _threshold;
+    protected float _loadFactor;
+
+    /** A stateless view of our keys, so we re-use it. */
+    protected transient volatile IntSet _keySet = null;
+
+    /** Stored in place of null values so that null can mark an empty slot. */
+    protected static final Object NULL_VALUE = new Object();
+
+    private static final long serialVersionUID = 1;
+}
@@ -5,18 +5,30 @@
 
 package com.samskivert.util;
 
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.samskivert.util.UtilLog.log;
 
 /**
- * Executes tasks serially, but each one on a separate thread. If a task times
+ * Executes tasks serially, each one on a worker thread. If a task times
  * out, the executor will attempt to interrupt the thread and abort the task,
  * but will abandon the thread in any case after the abort attempt so that
- * subsequent tasks can be processed. The threads created are daemon threads so
- * that they will not block the eventual termination of the virtual machine.
+ * subsequent tasks can be processed. The worker threads are daemon threads,
+ * shared by all serial executors and reused from task to task, so that they
+ * will not block the eventual termination of the virtual machine. A new worker
+ * is only created when none is idle, as when an abandoned task is still
+ * hanging on to its thread. Task timeouts are all tracked by a single shared
+ * {@link TimingWheel}.
  */
 public class SerialExecutor
     implements Executor
@@ -35,6 +47,18 @@ public class SerialExecutor
          */
         public boolean merge (ExecutorTask other);
 
+        /**
+         * Returns a key identifying the queued tasks with which this task may
+         * be merged, or null. A task with a key is only offered for merging to
+         * the most recently queued task with an equal key (and vice versa),
+         * which is done in constant time. A task without a key is offered to
+         * every queued task without a key, in turn.
+         */
+        public default Object getMergeKey ()
+        {
+            return null;
+        }
+
         /**
          * Returns the number of milliseconds after which this task should be
          * considered a lost cause. If the task times out, {@link #timedOut}
@@ -83,13 +107,7 @@ public class SerialExecutor
     // from Executor
     public void execute (final Runnable command)
     {
-        addTask(new ExecutorTask() {
-            public boolean merge (ExecutorTask other) { return false; }
-            public long getTimeout () { return _runnableTimeout; }
-            public void executeTask () { command.run(); }
-            public void resultReceived () { /* nada */ }
-            public void timedOut () { /* nada */ }
-        });
+        addTask(new RunnableTask(command));
     }
 
     /**
@@ -98,11 +116,22 @@ public class SerialExecutor
      */
     public void addTask (ExecutorTask task)
     {
-        for (int ii=0, nn=_queue.size(); ii < nn; ii++) {
-            ExecutorTask taskOnQueue = _queue.get(ii);
-            if (taskOnQueue.merge(task)) {
+        Object key = task.getMergeKey();
+        if (key != null) {
+            ExecutorTask taskOnQueue = _keyed.get(key);
+            if (taskOnQueue != null && taskOnQueue.merge(task)) {
                 return;
             }
+            _keyed.put(key, task);
+
+        } else if (!(task instanceof RunnableTask)) {
+            // runnable tasks never merge, so we needn't check them
+            for (ExecutorTask taskOnQueue : _unkeyed) {
+                if (taskOnQueue.merge(task)) {
+                    return;
+                }
+            }
+            _unkeyed.add(task);
         }
 
         // otherwise, add it on
@@ -130,29 +159,40 @@ public class SerialExecutor
     {
         _executingNow = !_queue.isEmpty();
         if (_executingNow) {
-            // start up a thread to execute the task in question
-            ExecutorTask task = _queue.remove(0);
-            final ExecutorThread thread = new ExecutorThread(task);
-            thread.start();
-
-            // start up a timer that will abort this thread after the specified timeout
-            new Interval(Interval.RUN_DIRECT) {
-                @Override public void expired () {
-                    // this will NOOP if the task has already completed
-                    thread.abort();
-                }
-            }.schedule(task.getTimeout());
+            ExecutorTask task = _queue.poll();
+            // the task is no longer queued, so nothing more can be merged into it
+            Object key = task.getMergeKey();
+            if (key != null) {
+                _keyed.remove(key, task);
+            } else if (_unkeyed.peekFirst() == task) {
+                _unkeyed.pollFirst();
+            }
+
+            // hand the task to a worker, and abort it after the specified timeout
+            ExecutorRunner runner = new ExecutorRunner(task);
+            runner.timeout = _timeouts.schedule(runner.aborter, task.getTimeout());
+            _workers.execute(runner);
         }
     }
 
     /**
      * The basic processing unit of the Executor.
      */
-    protected class ExecutorThread extends Thread
+    protected class ExecutorRunner implements Runnable
     {
-        public ExecutorThread (ExecutorTask task)
+        /** Aborts our task when it times out. */
+        public final Runnable aborter = new Runnable() {
+            public void run () {
+                // this will NOOP if the task has already completed
+                abort();
+            }
+        };
+
+        /** The timeout that will abort our task, cancelled if the task completes. */
+        public volatile TimingWheel.Timeout timeout;
+
+        public ExecutorRunner (ExecutorTask task)
         {
-            setDaemon(true);
             _task = task;
         }
 
@@ -177,27 +217,42 @@ public class SerialExecutor
                 });
 
                 // finally interrupt the thread in hopes of waking it up from
-                // it's hangitude
-                interrupt();
+                // it's hangitude (the thread may not have started the task yet)
+                if (_thread != null) {
+                    _thread.interrupt();
+                }
             }
         }
 
-        @Override public void run ()
+        public void run ()
         {
-            final ExecutorTask task = _task;
-            try {
-                _task.executeTask();
-                synchronized (this) {
-                    if (_task == null) {
-                        // we were aborted, abandon ship
-                        System.err.println("Aborted!");
-                        return;
-                    }
-                    _task = null;
+            final ExecutorTask task;
+            synchronized (this) {
+                task = _task;
+                if (task == null) {
+                    return; // we timed out before we even started
                 }
+                _thread = Thread.currentThread();
+            }
+            try {
+                task.executeTask();
             } catch (Throwable t) {
                 log.warning("Unit failed", t);
             }
+            synchronized (this) {
+                _thread = null;
+                if (_task == null) {
+                    // we were aborted, abandon ship (and don't leave our worker
+                    // thread interrupted)
+                    Thread.interrupted();
+                    return;
+                }
+                _task = null;
+            }
+            TimingWheel.Timeout timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel();
+            }
 
             _receiver.execute(new Runnable() {
                 public void run () {
@@ -212,6 +267,24 @@ public class SerialExecutor
         }
 
         protected ExecutorTask _task;
+
+        /** The worker thread executing our task, while it's executing. */
+        protected Thread _thread;
+    }
+
+    /** Wraps a runnable posted via {@link #execute}. */
+    protected class RunnableTask implements ExecutorTask
+    {
+        public RunnableTask (Runnable command) {
+            _command = command;
+        }
+        public boolean merge (ExecutorTask other) { return false; }
+        public long getTimeout () { return _runnableTimeout; }
+        public void executeTask () { _command.run(); }
+        public void resultReceived () { /* nada */ }
+        public void timedOut () { /* nada */ }
+
+        protected Runnable _command;
     }
 
     /** The receiver to which we post a unit to process results. */
@@ -224,5 +297,29 @@ public class SerialExecutor
     protected long _runnableTimeout;
 
     /** The queue of tasks to execute. */
-    protected ArrayList<ExecutorTask> _queue = new ArrayList<ExecutorTask>();
+    protected ArrayDeque<ExecutorTask> _queue = new ArrayDeque<ExecutorTask>();
+
+    /** The most recently queued task for each merge key. */
+    protected Map<Object,ExecutorTask> _keyed = new HashMap<Object,ExecutorTask>();
+
+    /** The queued tasks that have no merge key (other than runnables), in queue order. */
+    protected ArrayDeque<ExecutorTask> _unkeyed = new ArrayDeque<ExecutorTask>();
+
+    /** Used to name our worker threads. */
+    protected static final AtomicInteger _workerId = new AtomicInteger();
+
+    /** The worker threads shared by all serial executors. Idle workers are retired after a
+     * minute. */
+    protected static final ExecutorService _workers = new ThreadPoolExecutor(
+        0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        new ThreadFactory() {
+            public Thread newThread (Runnable runner) {
+                Thread thread = new Thread(runner, "SerialExecutor-" + _workerId.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+    /** Tracks the timeouts of the tasks of all serial executors. */
+    protected static final TimingWheel _timeouts = new TimingWheel("SerialExecutor Timeouts");
 }
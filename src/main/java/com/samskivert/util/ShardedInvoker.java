@@ -0,0 +1,314 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.util;
+
+import java.util.Map;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads {@link Invoker.Unit}s over a fixed number of invoker threads (shards). Units are invoked
+ * off-thread and their results handled on the result receiver exactly as with an {@link
+ * Invoker}, but unrelated units may be invoked in parallel.
+ *
+ * <p> Units that implement {@link Keyed} are always invoked on the shard selected by their key,
+ * so units with the same key (for example, those that operate on the same user's records) are
+ * invoked one at a time in the order in which they were posted. Units without a key are given to
+ * the shard with the fewest pending units, so no ordering is guaranteed between them.
+ */
+public class ShardedInvoker
+    implements Executor, RunQueue
+{
+    /**
+     * Implemented by units that must be invoked in order relative to other units with an equal
+     * shard key.
+     */
+    public interface Keyed
+    {
+        /**
+         * Returns the key that selects the shard on which this unit is invoked, or null if the unit
+         * may run on any shard.
+         */
+        public Object getShardKey ();
+    }
+
+    /**
+     * Creates a sharded invoker that will post results to the supplied result receiver.
+     *
+     * @param shards the number of invoker threads to create.
+     * @param lockFree whether the shards should use lock-free queues, see {@link Invoker}.
+     */
+    public ShardedInvoker (String name, Executor resultReceiver, int shards, boolean lockFree)
+    {
+        if (shards < 1) {
+            throw new IllegalArgumentException("Must have at least one shard: " + shards);
+        }
+        _shards = new Shard[shards];
+        for (int ii = 0; ii < shards; ii++) {
+            _shards[ii] = new Shard(name + "-" + ii, resultReceiver, ii, lockFree);
+        }
+    }
+
+    /**
+     * Starts all of our shard threads.
+     */
+    public void start ()
+    {
+        for (Shard shard : _shards) {
+            shard.start();
+        }
+    }
+
+    /**
+     * Returns the number of shards over which units are spread.
+     */
+    public int getShardCount ()
+    {
+        return _shards.length;
+    }
+
+    /**
+     * Sets the long threshold for all of our shards. See {@link Invoker#setLongThreshold}.
+     */
+    public void setLongThreshold (long millis)
+    {
+        for (Shard shard : _shards) {
+            shard.setLongThreshold(millis);
+        }
+    }
+
+    /**
+     * Posts a unit for subsequent invocation on one of our shards.
+     */
+    public void postUnit (Invoker.Unit unit)
+    {
+        Object key = (unit instanceof Keyed) ? ((Keyed)unit).getShardKey() : null;
+        getShard(key).postUnit(unit);
+    }
+
+    /**
+     * Posts a unit for invocation on the shard selected by the supplied key, which takes
+     * precedence over any key provided by the unit itself.
+     */
+    public void postUnit (Object key, Invoker.Unit unit)
+    {
+        getShard(key).postUnit(unit);
+    }
+
+    /**
+     * Returns the total number of units waiting to be processed by all shards.
+     */
+    public int getPendingUnits ()
+    {
+        int pending = 0;
+        for (Shard shard : _shards) {
+            pending += shard.getPendingUnits();
+        }
+        return pending;
+    }
+
+    /**
+     * Returns the number of units waiting to be processed by the specified shard.
+     */
+    public int getPendingUnits (int shard)
+    {
+        return _shards[shard].getPendingUnits();
+    }
+
+    /**
+     * Shuts down all of our shards once they have processed their currently queued units.
+     */
+    public void shutdown ()
+    {
+        for (Shard shard : _shards) {
+            shard.shutdown();
+        }
+    }
+
+    /**
+     * Waits for all of our shard threads to exit.
+     */
+    public void join ()
+        throws InterruptedException
+    {
+        for (Shard shard : _shards) {
+            shard.join();
+        }
+    }
+
+    // from Executor
+    public void execute (Runnable command)
+    {
+        postRunnable(command);
+    }
+
+    // from RunQueue
+    public void postRunnable (Runnable r)
+    {
+        getShard(null).postRunnable(r);
+    }
+
+    // from RunQueue
+    public boolean isDispatchThread ()
+    {
+        Thread current = Thread.currentThread();
+        for (Shard shard : _shards) {
+            if (shard == current) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // from RunQueue
+    public boolean isRunning ()
+    {
+        for (Shard shard : _shards) {
+            if (shard.isRunning()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the shard on which a unit with the supplied key should be invoked.
+     */
+    protected Shard getShard (Object key)
+    {
+        if (key != null) {
+            int hash = key.hashCode() * 0x9E3779B9;
+            return _shards[((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % _shards.length];
+        }
+
+        // start from a rotating shard so that ties don't all go to the first shard
+        int start = (_next.getAndIncrement() & Integer.MAX_VALUE) % _shards.length;
+        Shard best = _shards[start];
+        int bestPending = best.getPendingUnits();
+        for (int ii = 1; ii < _shards.length && bestPending > 0; ii++) {
+            Shard shard = _shards[(start + ii) % _shards.length];
+            int pending = shard.getPendingUnits();
+            if (pending < bestPending) {
+                best = shard;
+                bestPending = pending;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns a snapshot of the unit profiles of the specified shard. See {@link
+     * Invoker#getProfileSnapshot}.
+     */
+    public Map<Object,Invoker.UnitStats> getProfileSnapshot (int shard)
+    {
+        return _shards[shard].getProfileSnapshot();
+    }
+
+    /**
+     * Returns a snapshot of the depths of the specified shard's queue, sampled before each unit
+     * was invoked (counting that unit) since the shard's profiles were last cleared.
+     */
+    public LogHistogram.Snapshot getQueueDepthSnapshot (int shard)
+    {
+        return _shards[shard].depths.snapshot();
+    }
+
+    /**
+     * Called on a shard's thread to record the queue wait and invocation time of a unit invoked
+     * by that shard. By default the metrics are recorded in the shard's own profile.
+     *
+     * @param shard the index of the shard that invoked the unit.
+     */
+    protected void recordMetrics (int shard, Object key, long waitNanos, long runNanos)
+    {
+        _shards[shard].recordShardMetrics(key, waitNanos, runNanos);
+    }
+
+    /**
+     * Called on a shard's thread to record the time a unit spent waiting on that shard's queue.
+     * By default this is recorded in the shard's own {@link Invoker#QUEUE_WAIT_KEY} profile.
+     *
+     * @param shard the index of the shard that invoked the unit.
+     */
+    protected void recordQueueWait (int shard, long waitNanos)
+    {
+        _shards[shard].recordShardQueueWait(waitNanos);
+    }
+
+    /**
+     * Called on a shard's thread before each unit is invoked with the number of units on that
+     * shard's queue (including the unit about to be invoked). By default this is recorded in the
+     * histogram reported by {@link #getQueueDepthSnapshot}.
+     *
+     * @param shard the index of the shard that invoked the unit.
+     */
+    protected void recordQueueDepth (int shard, int depth)
+    {
+        _shards[shard].depths.record(depth);
+    }
+
+    /** An invoker that routes its metrics through {@link ShardedInvoker#recordMetrics}. */
+    protected class Shard extends Invoker
+    {
+        public Shard (String name, Executor resultReceiver, int index, boolean lockFree)
+        {
+            super(name, resultReceiver, lockFree);
+            _index = index;
+        }
+
+        @Override
+        protected void willInvokeUnit (Unit unit, long start)
+        {
+            super.willInvokeUnit(unit, start);
+            if (PERF_TRACK) {
+                // this unit has already been removed from the queue, so count it as well
+                recordQueueDepth(_index, getPendingUnits() + 1);
+            }
+        }
+
+        @Override
+        protected void recordMetrics (Object key, long waitNanos, long runNanos)
+        {
+            ShardedInvoker.this.recordMetrics(_index, key, waitNanos, runNanos);
+        }
+
+        @Override
+        protected void recordQueueWait (long waitNanos)
+        {
+            ShardedInvoker.this.recordQueueWait(_index, waitNanos);
+        }
+
+        @Override
+        public void clearProfiles ()
+        {
+            super.clearProfiles();
+            depths.clear();
+        }
+
+        protected void recordShardMetrics (Object key, long waitNanos, long runNanos)
+        {
+            super.recordMetrics(key, waitNanos, runNanos);
+        }
+
+        protected void recordShardQueueWait (long waitNanos)
+        {
+            super.recordQueueWait(waitNanos);
+        }
+
+        /** The depths of our queue, sampled before each unit is invoked. */
+        public final LogHistogram depths = new LogHistogram();
+
+        protected int _index;
+    }
+
+    /** The invokers on which our units are run. */
+    protected Shard[] _shards;
+
+    /** Used to rotate the starting point when choosing a shard for unkeyed units. */
+    protected final AtomicInteger _next = new AtomicInteger();
+}
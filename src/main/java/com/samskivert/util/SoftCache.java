@@ -5,36 +5,117 @@
 
 package com.samskivert.util;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.samskivert.util.UtilLog.log;
 
 /**
  * Implements a {@link SoftReference} cache wherein the values in the hashmap are not prevented
- * from being garbage collected.
+ * from being garbage collected. The cache may safely be used by multiple threads, but does not
+ * permit null keys.
+ *
+ * <p> References cleared by the garbage collector are registered with a {@link ReferenceQueue},
+ * which is drained whenever the cache is accessed, so the entries of collected values do not
+ * linger in the map. The cache may instead hold its values via weak references (see {@link
+ * #setWeakValues}), and its values may also be made to expire a fixed time after they are added
+ * (see {@link #setExpireMillis}), in the manner of an {@link ExpiringReference}.
+ *
+ * <p> Note that this cache was once backed by a {@code HashMap<K,SoftReference<V>>}, exposed to
+ * subclasses via the protected {@code _map} field and to callers via {@link #getMap}. The field now
+ * holds the cache's own {@link CacheRef}s in a {@link ConcurrentHashMap}, so subclasses that used
+ * it directly must be updated to use the cache's accessors (or the new field type).
  */
 public class SoftCache<K,V>
 {
     public SoftCache (int initialCapacity, float loadFactor)
     {
-        _map = new HashMap<K,SoftReference<V>>(initialCapacity, loadFactor);
+        _map = new ConcurrentHashMap<K,CacheRef<K,V>>(initialCapacity, loadFactor);
+        _legacyRefs = overridesLegacyCreateReference();
     }
 
     public SoftCache (int initialCapacity)
     {
-        _map = new HashMap<K,SoftReference<V>>(initialCapacity);
+        _map = new ConcurrentHashMap<K,CacheRef<K,V>>(initialCapacity);
+        _legacyRefs = overridesLegacyCreateReference();
     }
 
     public SoftCache ()
     {
-        _map = new HashMap<K,SoftReference<V>>();
+        _map = new ConcurrentHashMap<K,CacheRef<K,V>>();
+        _legacyRefs = overridesLegacyCreateReference();
     }
 
     /**
-     * Returns a reference to the underlying map.
+     * Returns a snapshot of the active mappings in this cache. Changes to the returned map are
+     * not reflected in the cache (nor vice versa).
+     *
+     * @deprecated the cache is no longer backed by a {@link HashMap}; use the cache's own
+     * accessors. In particular, entries removed from (or added to) the returned map, or clearing
+     * it, no longer affects the cache: use {@link #remove} and {@link #clear} instead.
      */
+    @Deprecated
     public HashMap<K,SoftReference<V>> getMap ()
     {
-        return _map;
+        HashMap<K,SoftReference<V>> map = new HashMap<K,SoftReference<V>>();
+        for (Map.Entry<K,CacheRef<K,V>> entry : _map.entrySet()) {
+            CacheRef<K,V> ref = entry.getValue();
+            V value = ref.get();
+            if (value == null || ref.getExpires() <= System.currentTimeMillis()) {
+                continue;
+            }
+            @SuppressWarnings("unchecked") SoftReference<V> sref = (ref instanceof SoftReference) ?
+                (SoftReference<V>)ref : new SoftReference<V>(value);
+            map.put(entry.getKey(), sref);
+        }
+        return map;
+    }
+
+    /**
+     * Configures this cache to hold its values via weak references (which are cleared as soon as
+     * a value is no longer strongly referenced elsewhere) rather than soft references (which are
+     * cleared only when memory is needed). This only affects values added after the call.
+     *
+     * <p> This has no effect on a subclass that overrides the deprecated {@link
+     * #createReference(Object)}, whose references are always used as is (and a warning is logged).
+     */
+    public void setWeakValues (boolean weakValues)
+    {
+        if (weakValues && _legacyRefs) {
+            log.warning("Weak values are not supported by caches that override the deprecated " +
+                        "createReference(V); values will be held by the subclass's references.",
+                        "cache", getClass().getName());
+        }
+        _weakValues = weakValues;
+    }
+
+    /**
+     * Configures this cache to expire values the specified number of milliseconds after they are
+     * added, or not at all if zero is supplied (the default). An expired value is no longer
+     * returned by the cache and its entry is removed the next time it is looked up (or sooner, as
+     * the cache periodically sweeps out expired entries). This only affects values added after
+     * the call.
+     */
+    public void setExpireMillis (long expireMillis)
+    {
+        _expireMillis = expireMillis;
+    }
+
+    /**
+     * Returns the number of entries in this cache. This may include entries whose values have
+     * been collected or have expired but which have not yet been removed.
+     */
+    public int size ()
+    {
+        drainQueue();
+        return _map.size();
     }
 
     /**
@@ -42,7 +123,9 @@ public class SoftCache<K,V>
      */
     public boolean containsKey (K key)
     {
-        return (get(key) != null);
+        // probe the map directly, so as not to count a hit or miss
+        drainQueue();
+        return (getValue(key, _map.get(key), System.currentTimeMillis()) != null);
     }
 
     /**
@@ -50,24 +133,33 @@ public class SoftCache<K,V>
      */
     public V get (K key)
     {
-        V value = null;
-        SoftReference<V> ref = _map.get(key);
-        if (ref != null) {
-            value = ref.get();
-            if (value == null) {
-                _map.remove(key);
-            }
+        drainQueue();
+        V value = getValue(key, _map.get(key), System.currentTimeMillis());
+        if (value == null) {
+            _misses.increment();
+        } else {
+            _hits.increment();
         }
         return value;
     }
 
     /**
      * Maps the specified key to the specified value.
+     *
+     * @return the value previously mapped to the key, if it was still active, or null.
      */
     public V put (K key, V value)
     {
-        SoftReference<V> old = _map.put(key, createReference(value));
-        return (old == null) ? null : old.get();
+        drainQueue();
+        long now = System.currentTimeMillis();
+        long expireMillis = _expireMillis;
+        long expires = (expireMillis > 0) ? now + expireMillis : Long.MAX_VALUE;
+        CacheRef<K,V> old = _map.put(key, createReference(key, value, expires));
+        if (expireMillis > 0 && _putsSinceSweep.incrementAndGet() > Math.max(64, _map.size())) {
+            _putsSinceSweep.set(0);
+            sweepExpired(now);
+        }
+        return (old == null || old.getExpires() <= now) ? null : old.get();
     }
 
     /**
@@ -76,8 +168,9 @@ public class SoftCache<K,V>
      */
     public V remove (K key)
     {
-        SoftReference<V> ref = _map.remove(key);
-        return (ref == null) ? null : ref.get();
+        drainQueue();
+        CacheRef<K,V> ref = _map.remove(key);
+        return (ref == null || ref.getExpires() <= System.currentTimeMillis()) ? null : ref.get();
     }
 
     /**
@@ -86,16 +179,212 @@ public class SoftCache<K,V>
     public void clear ()
     {
         _map.clear();
+        // we've already dropped any entries whose values were collected
+        while (_queue.poll() != null) {}
+    }
+
+    /**
+     * Returns a snapshot of this cache's statistics: {hits, misses, values cleared by the garbage
+     * collector, values expired}. Cleared and expired values are counted when their entries are
+     * removed from the cache.
+     */
+    public long[] getStats ()
+    {
+        return new long[] { _hits.sum(), _misses.sum(), _cleared.sum(), _expired.sum() };
+    }
+
+    /**
+     * Returns the active value referenced by the supplied entry (which may be null), removing the
+     * entry and returning null if its value has been collected or has expired.
+     */
+    protected V getValue (K key, CacheRef<K,V> ref, long now)
+    {
+        if (ref == null) {
+            return null;
+        }
+        V value = ref.get();
+        if (value == null) {
+            if (_map.remove(key, ref)) {
+                _cleared.increment();
+            }
+        } else if (ref.getExpires() <= now) {
+            if (_map.remove(key, ref)) {
+                _expired.increment();
+            }
+            value = null;
+        }
+        return value;
+    }
+
+    /**
+     * Removes the entries of any values that have been collected since we last checked.
+     */
+    protected void drainQueue ()
+    {
+        Reference<? extends V> ref;
+        while ((ref = _queue.poll()) != null) {
+            @SuppressWarnings("unchecked") CacheRef<K,V> cref = (CacheRef<K,V>)ref;
+            // the entry may already have been removed or replaced
+            if (_map.remove(cref.getKey(), cref)) {
+                _cleared.increment();
+            }
+        }
+    }
+
+    /**
+     * Removes all expired entries.
+     */
+    protected void sweepExpired (long now)
+    {
+        for (Map.Entry<K,CacheRef<K,V>> entry : _map.entrySet()) {
+            getValue(entry.getKey(), entry.getValue(), now);
+        }
+    }
+
+    /**
+     * Creates and returns a reference to the supplied value, registered with our reference queue.
+     * Subclasses can override to return custom references.
+     *
+     * @param expires the time at which the value expires, or {@link Long#MAX_VALUE}.
+     */
+    protected CacheRef<K,V> createReference (K key, V value, long expires)
+    {
+        if (_legacyRefs) {
+            return new LegacyCacheRef<K,V>(key, createReference(value), expires);
+        }
+        return _weakValues ? new WeakCacheRef<K,V>(key, value, expires, _queue) :
+            new SoftCacheRef<K,V>(key, value, expires, _queue);
     }
 
     /**
-     * Creates and returns a {@link SoftReference} to the supplied value.  Subclasses can override
-     * to return custom subclasses.
+     * Creates and returns a {@link SoftReference} to the supplied value. If a subclass overrides
+     * this method, its references are used (in place of those that would otherwise be created by
+     * {@link #createReference(Object,Object,long)}), but they are not registered with our reference
+     * queue, so the entries of their collected values are only removed when looked up.
+     *
+     * @deprecated override {@link #createReference(Object,Object,long)}.
      */
+    @Deprecated
     protected SoftReference<V> createReference (V value)
     {
         return new SoftReference<V>(value);
     }
 
-    protected HashMap<K,SoftReference<V>> _map;
+    /**
+     * Returns true if our class overrides the deprecated {@link #createReference(Object)}.
+     */
+    protected boolean overridesLegacyCreateReference ()
+    {
+        for (Class<?> clazz = getClass(); clazz != SoftCache.class; clazz = clazz.getSuperclass()) {
+            try {
+                clazz.getDeclaredMethod("createReference", Object.class);
+                return true;
+            } catch (NoSuchMethodException nsme) {
+                // keep looking
+            }
+        }
+        return false;
+    }
+
+    /** A reference to a cached value, which knows its key so that its entry can be removed. */
+    protected static interface CacheRef<K,V>
+    {
+        /** Returns the key to which this reference's value is mapped. */
+        public K getKey ();
+
+        /** Returns the referenced value, or null if it has been collected. */
+        public V get ();
+
+        /** Returns the time at which the referenced value expires. */
+        public long getExpires ();
+    }
+
+    protected static class SoftCacheRef<K,V> extends SoftReference<V> implements CacheRef<K,V>
+    {
+        public SoftCacheRef (K key, V value, long expires, ReferenceQueue<? super V> queue) {
+            super(value, queue);
+            _key = key;
+            _expires = expires;
+        }
+
+        public K getKey () {
+            return _key;
+        }
+
+        public long getExpires () {
+            return _expires;
+        }
+
+        protected final K _key;
+        protected final long _expires;
+    }
+
+    protected static class WeakCacheRef<K,V> extends WeakReference<V> implements CacheRef<K,V>
+    {
+        public WeakCacheRef (K key, V value, long expires, ReferenceQueue<? super V> queue) {
+            super(value, queue);
+            _key = key;
+            _expires = expires;
+        }
+
+        public K getKey () {
+            return _key;
+        }
+
+        public long getExpires () {
+            return _expires;
+        }
+
+        protected final K _key;
+        protected final long _expires;
+    }
+
+    /** Adapts a reference created by the deprecated {@link #createReference(Object)}. */
+    protected static class LegacyCacheRef<K,V> implements CacheRef<K,V>
+    {
+        public LegacyCacheRef (K key, SoftReference<V> ref, long expires) {
+            _key = key;
+            _ref = ref;
+            _expires = expires;
+        }
+
+        public K getKey () {
+            return _key;
+        }
+
+        public V get () {
+            return _ref.get();
+        }
+
+        public long getExpires () {
+            return _expires;
+        }
+
+        protected final K _key;
+        protected final SoftReference<V> _ref;
+        protected final long _expires;
+    }
+
+    /** Our cached values, mapped by key. Prior to the introduction of {@link CacheRef}, this was a
+     * {@code HashMap<K,SoftReference<V>>}. */
+    protected ConcurrentHashMap<K,CacheRef<K,V>> _map;
+
+    /** Receives our references when their values are collected. */
+    protected ReferenceQueue<V> _queue = new ReferenceQueue<V>();
+
+    /** Whether a subclass creates its own references via the deprecated {@link
+     * #createReference(Object)}. */
+    protected final boolean _legacyRefs;
+
+    /** Whether values added to the cache are held weakly rather than softly. */
+    protected volatile boolean _weakValues;
+
+    /** The lifetime of values added to the cache, or zero. */
+    protected volatile long _expireMillis;
+
+    /** Counts puts so that we can periodically sweep out expired entries. */
+    protected AtomicInteger _putsSinceSweep = new AtomicInteger();
+
+    protected LongAdder _hits = new LongAdder(), _misses = new LongAdder();
+    protected LongAdder _cleared = new LongAdder(), _expired = new LongAdder();
 }
@@ -0,0 +1,423 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.util;
+
+import static com.samskivert.util.UtilLog.log;
+
+/**
+ * A hierarchical hashed timing wheel: schedules actions to run on a single daemon thread after a
+ * delay (and optionally repeatedly), like {@link java.util.Timer}, but with constant time
+ * scheduling and cancellation regardless of how many actions are pending. A cancelled action is
+ * unlinked from the wheel immediately, so neither it nor anything it references lingers until its
+ * scheduled time.
+ *
+ * <p> Time is divided into one millisecond ticks. The wheel has {@link #LEVELS} levels of 256
+ * slots: the first level holds the actions due in the next 256 ticks, one slot per tick; each
+ * subsequent level holds actions due further in the future, each slot spanning 256 times as many
+ * ticks as a slot in the level below. When time reaches the start of a higher level slot, its
+ * actions are redistributed to the lower levels (which happens at most once per level per
+ * action). The wheel's thread sleeps until the next non-empty tick or the next redistribution.
+ *
+ * <p> Actions are run on the wheel's thread, so they must complete quickly. An action that
+ * throws an exception is logged, but does not stop the wheel (or the action, if it repeats).
+ */
+public class TimingWheel
+{
+    /** A handle on a scheduled action, which can be used to cancel it. */
+    public class Timeout
+    {
+        /**
+         * Cancels this timeout. It will not run again, though it may currently be running.
+         *
+         * @return true if this timeout was pending (or repeating) and has been cancelled.
+         */
+        public boolean cancel ()
+        {
+            synchronized (_lock) {
+                if (_cancelled) {
+                    return false;
+                }
+                _cancelled = true;
+                if (_prev != null) {
+                    unlink(this);
+                }
+                _pending--;
+                // a one-shot action is released when it starts running, so we were either
+                // pending or repeating
+                return true;
+            }
+        }
+
+        /**
+         * Returns true if this timeout has been cancelled.
+         */
+        public boolean isCancelled ()
+        {
+            synchronized (_lock) {
+                return _cancelled;
+            }
+        }
+
+        protected Timeout (Runnable action, long period, boolean fixedRate)
+        {
+            _action = action;
+            _period = period;
+            _fixedRate = fixedRate;
+        }
+
+        protected final Runnable _action;
+        protected final long _period;
+        protected final boolean _fixedRate;
+
+        /** The remaining fields are guarded by the wheel's lock. */
+        protected long _deadline;
+        protected int _level;
+        protected boolean _cancelled, _running;
+        protected Timeout _prev, _next;
+    }
+
+    /**
+     * Creates a timing wheel whose thread will have the supplied name. The thread is started
+     * when the first action is scheduled.
+     */
+    public TimingWheel (String threadName)
+    {
+        _threadName = threadName;
+        for (int ll = 0; ll < LEVELS; ll++) {
+            for (int ss = 0; ss < SLOTS; ss++) {
+                Timeout head = new Timeout(null, 0, false);
+                head._prev = head._next = head;
+                _slots[ll][ss] = head;
+            }
+        }
+    }
+
+    /**
+     * Schedules the supplied action to run once, after the specified delay in milliseconds.
+     */
+    public Timeout schedule (Runnable action, long delay)
+    {
+        return schedule(action, delay, 0L, true);
+    }
+
+    /**
+     * Schedules the supplied action to run after the specified delay, and then every
+     * <code>period</code> milliseconds thereafter (if the period is non-zero).
+     *
+     * @param fixedRate if true, each repeat is scheduled relative to the scheduled time of the
+     * previous run, so that the number of runs keeps pace with the time elapsed. If false, each
+     * repeat is scheduled relative to the time that the previous run completed.
+     */
+    public Timeout schedule (Runnable action, long delay, long period, boolean fixedRate)
+    {
+        if (period < 0) {
+            throw new IllegalArgumentException("Negative period: " + period);
+        }
+        Timeout timeout = new Timeout(action, period, fixedRate);
+        synchronized (_lock) {
+            if (_shutdown) {
+                throw new IllegalStateException("Timing wheel has been shut down.");
+            }
+            if (_thread == null) {
+                _thread = new Thread(_threadName) {
+                    @Override public void run () {
+                        runWheel();
+                    }
+                };
+                _thread.setDaemon(true);
+                _thread.start();
+            }
+            // guard against overflow when adding enormous delays
+            timeout._deadline = now() + Math.min(Math.max(delay, 0L), Long.MAX_VALUE / 4);
+            insert(timeout);
+            _pending++;
+            // wake the wheel thread if it intends to sleep past this deadline
+            if (timeout._deadline < _wakeTick) {
+                _lock.notify();
+            }
+        }
+        return timeout;
+    }
+
+    /**
+     * Returns the number of actions that are currently scheduled.
+     */
+    public int getPendingCount ()
+    {
+        synchronized (_lock) {
+            return _pending;
+        }
+    }
+
+    /**
+     * Cancels all pending actions and stops the wheel's thread.
+     */
+    public void shutdown ()
+    {
+        synchronized (_lock) {
+            _shutdown = true;
+            _lock.notify();
+        }
+    }
+
+    /**
+     * The main loop of the wheel's thread.
+     */
+    protected void runWheel ()
+    {
+        Timeout[] expired = new Timeout[16];
+        while (true) {
+            int count = 0;
+            synchronized (_lock) {
+                while (!_shutdown && count == 0) {
+                    // process every tick up to the present, stopping at the first tick that has
+                    // expired actions, and sleep if there are none
+                    long now = now();
+                    while (_nextTick <= now && count == 0) {
+                        count = advance(expired, now);
+                        expired = _expired;
+                    }
+                    if (count == 0) {
+                        _wakeTick = computeWakeTick();
+                        try {
+                            if (_wakeTick == Long.MAX_VALUE) {
+                                _lock.wait();
+                            } else if (_wakeTick > now) {
+                                _lock.wait(_wakeTick - now);
+                            }
+                        } catch (InterruptedException ie) {
+                            // loop around and check the time
+                        }
+                        _wakeTick = Long.MAX_VALUE;
+                    }
+                }
+                if (_shutdown) {
+                    _pending = 0;
+                    return;
+                }
+            }
+
+            // run the expired actions outside of our lock
+            for (int ii = 0; ii < count; ii++) {
+                Timeout timeout = expired[ii];
+                expired[ii] = null;
+                synchronized (_lock) {
+                    if (timeout._cancelled) {
+                        continue;
+                    }
+                    timeout._running = true;
+                    if (timeout._period == 0) {
+                        // a one-shot action can no longer be cancelled, so release it now
+                        timeout._cancelled = true;
+                        _pending--;
+                    }
+                }
+                try {
+                    timeout._action.run();
+                } catch (Throwable t) {
+                    log.warning("Timing wheel action failed", "action", timeout._action, t);
+                }
+                synchronized (_lock) {
+                    timeout._running = false;
+                    // a cancelled (or one-shot) action has already been released
+                    if (!timeout._cancelled) {
+                        timeout._deadline = timeout._fixedRate ?
+                            timeout._deadline + timeout._period : now() + timeout._period;
+                        insert(timeout);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Processes the next tick: redistributes any higher level slots that begin at this tick and
+     * removes the actions due at this tick, storing them in the supplied array (or a larger
+     * replacement, which is left in {@link #_expired}). Ticks at which there is nothing to do are
+     * skipped, up to the supplied current tick. Must be called with the lock held.
+     *
+     * @return the number of expired actions.
+     */
+    protected int advance (Timeout[] expired, long now)
+    {
+        long tick = skipTo(_nextTick, now + 1);
+        _expired = expired;
+        // redistributed actions are inserted relative to this tick
+        _nextTick = tick;
+        if (tick > now) {
+            return 0;
+        }
+
+        // redistribute higher levels first, so that their actions can cascade all the way down
+        int top = 0;
+        while (top < LEVELS - 1 && (tick & ((1L << (SLOT_BITS * (top + 1))) - 1)) == 0) {
+            top++;
+        }
+        for (int ll = top; ll > 0; ll--) {
+            Timeout head = _slots[ll][slotIndex(tick, ll)];
+            Timeout timeout = head._next;
+            head._prev = head._next = head;
+            while (timeout != head) {
+                Timeout next = timeout._next;
+                _counts[ll]--;
+                insert(timeout);
+                timeout = next;
+            }
+        }
+
+        // collect the actions due now
+        int count = 0;
+        Timeout head = _slots[0][slotIndex(tick, 0)];
+        for (Timeout timeout = head._next; timeout != head; ) {
+            Timeout next = timeout._next;
+            timeout._prev = timeout._next = null;
+            _counts[0]--;
+            if (count == expired.length) {
+                Timeout[] nexpired = new Timeout[count * 2];
+                System.arraycopy(expired, 0, nexpired, 0, count);
+                expired = nexpired;
+            }
+            expired[count++] = timeout;
+            timeout = next;
+        }
+        head._prev = head._next = head;
+        _expired = expired;
+        _nextTick = tick + 1;
+        return count;
+    }
+
+    /**
+     * Returns the first tick at or after <code>tick</code> (but no later than <code>limit</code>)
+     * at which there may be something to do. Must be called with the lock held.
+     */
+    protected long skipTo (long tick, long limit)
+    {
+        // if the first level is empty we need only stop at the start of the next slot of the
+        // lowest non-empty level, to redistribute it
+        int level = 0;
+        while (level < LEVELS && _counts[level] == 0) {
+            level++;
+        }
+        if (level == LEVELS) {
+            return limit;
+        }
+        if (level > 0) {
+            long span = 1L << (SLOT_BITS * level);
+            return Math.min(limit, (tick + span - 1) & -span);
+        }
+        // otherwise, look for the next non-empty slot in this revolution of the first level (the
+        // start of the next revolution is when we redistribute the next slot of the second level)
+        for (; tick < limit; tick++) {
+            Timeout head = _slots[0][slotIndex(tick, 0)];
+            if ((tick & SLOT_MASK) == 0 || head._next != head) {
+                break;
+            }
+        }
+        return tick;
+    }
+
+    /**
+     * Returns the tick at which the wheel thread should next wake up, or MAX_VALUE if there is
+     * nothing scheduled. Must be called with the lock held.
+     */
+    protected long computeWakeTick ()
+    {
+        return skipTo(_nextTick, Long.MAX_VALUE);
+    }
+
+    /**
+     * Adds the supplied timeout to the slot appropriate for its deadline. Must be called with the
+     * lock held.
+     */
+    protected void insert (Timeout timeout)
+    {
+        long tick = _nextTick;
+        // an overdue action is run at the next tick
+        long deadline = Math.max(timeout._deadline, tick);
+        int level = 0;
+        // find the lowest level in which the deadline falls within the coming revolution
+        while (level < LEVELS - 1 &&
+               (deadline >>> (SLOT_BITS * level)) - (tick >>> (SLOT_BITS * level)) >= SLOTS) {
+            level++;
+        }
+        long slotTick = deadline >>> (SLOT_BITS * level);
+        if (slotTick - (tick >>> (SLOT_BITS * level)) >= SLOTS) {
+            // beyond the reach of the wheel: park in the farthest slot and reconsider from there
+            slotTick = (tick >>> (SLOT_BITS * level)) + SLOTS - 1;
+        }
+        Timeout head = _slots[level][(int)(slotTick & SLOT_MASK)];
+        timeout._level = level;
+        _counts[level]++;
+        timeout._prev = head._prev;
+        timeout._next = head;
+        head._prev._next = timeout;
+        head._prev = timeout;
+    }
+
+    protected void unlink (Timeout timeout)
+    {
+        _counts[timeout._level]--;
+        timeout._prev._next = timeout._next;
+        timeout._next._prev = timeout._prev;
+        timeout._prev = timeout._next = null;
+    }
+
+    protected static int slotIndex (long tick, int level)
+    {
+        return (int)((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+    }
+
+    /**
+     * Returns the current tick: the number of milliseconds since the wheel was created.
+     */
+    protected long now ()
+    {
+        return (System.nanoTime() - _epoch) / 1000000L;
+    }
+
+    /** The name of our thread. */
+    protected String _threadName;
+
+    /** Guards all of our state, and is used to wake our thread. */
+    protected Object _lock = new Object();
+
+    /** The slots of each level of the wheel, each the sentinel of a list of timeouts. */
+    protected Timeout[][] _slots = new Timeout[LEVELS][SLOTS];
+
+    /** The number of timeouts in each level of the wheel. */
+    protected int[] _counts = new int[LEVELS];
+
+    /** The next tick to be processed. */
+    protected long _nextTick;
+
+    /** The tick at which our sleeping thread will wake, or MAX_VALUE if it's not sleeping. */
+    protected long _wakeTick = Long.MAX_VALUE;
+
+    /** The number of scheduled actions. */
+    protected int _pending;
+
+    /** The array in which our thread most recently collected expired actions. */
+    protected Timeout[] _expired;
+
+    /** Our thread, started on demand. */
+    protected Thread _thread;
+
+    /** Set when we are shut down. */
+    protected boolean _shutdown;
+
+    /** The time (in nanoseconds) from which our ticks are counted. */
+    protected final long _epoch = System.nanoTime();
+
+    /** The number of bits of the tick used to index the slots of each level. */
+    protected static final int SLOT_BITS = 8;
+
+    /** The number of slots in each level. */
+    protected static final int SLOTS = 1 << SLOT_BITS;
+    protected static final int SLOT_MASK = SLOTS - 1;
+
+    /** The number of levels in the wheel, which together span 2^40 milliseconds (34 years). */
+    protected static final int LEVELS = 5;
+}
@@ -0,0 +1,146 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.util;
+
+/**
+ * A TinyLFU admission policy for {@link LRUHashMap}: a new entry is only admitted in place of the
+ * least recently used entry if its key has been requested more often, recently, than the victim's.
+ * This keeps a one-off pass over many cold keys (a scan) from flushing a cache's frequently used
+ * entries, at the cost of sometimes taking a little longer to admit newly popular keys.
+ *
+ * <p> Request frequencies are estimated with a Count-Min sketch of four-bit counters, sized for the
+ * number of entries the cache is expected to hold. The counters are periodically halved so that
+ * the estimates favor recent history. This class is not thread-safe, but {@link
+ * ConcurrentLRUHashMap} only calls its policy while holding its lock.
+ *
+ * <p> Note that this is plain TinyLFU, not W-TinyLFU: there is no small LRU "window" in which new
+ * entries are held before they must compete with the main region's victims, since the maps keep a
+ * single LRU ordering and merely consult their policy when they evict. A newly popular key is thus
+ * turned away until its estimated frequency exceeds that of the entry it would replace, so a
+ * workload dominated by bursts of new keys (rather than scans) is better off without this policy.
+ */
+public class TinyLFUPolicy implements LRUHashMap.AdmissionPolicy
+{
+    /**
+     * Creates a policy for a cache that will hold around <code>expectedEntries</code> entries.
+     */
+    public TinyLFUPolicy (int expectedEntries)
+    {
+        // use four counters per expected entry in each row, to keep collisions rare
+        int width = 16;
+        while (width < 4L * expectedEntries && width < (1 << 26)) {
+            width <<= 1;
+        }
+        _widthMask = width - 1;
+        // each long holds sixteen counters, and we have one row of counters per hash function
+        _table = new long[width * DEPTH / 16];
+        _sampleSize = 10 * Math.max(expectedEntries, 16);
+    }
+
+    /**
+     * Returns the estimated number of recent requests for the specified key (at most 15).
+     */
+    public int frequency (Object key)
+    {
+        int hash = spread(key), freq = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            freq = Math.min(freq, counter(index(hash, row)));
+        }
+        return freq;
+    }
+
+    // from interface LRUHashMap.AdmissionPolicy
+    public void recordAccess (Object key)
+    {
+        int hash = spread(key);
+        int[] indices = _indices;
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            indices[row] = index(hash, row);
+            min = Math.min(min, counter(indices[row]));
+        }
+        if (min == MAX_COUNT) {
+            return;
+        }
+        // conservative update: only increment the counters that determine the estimate
+        for (int row = 0; row < DEPTH; row++) {
+            if (counter(indices[row]) == min) {
+                _table[indices[row] >>> 4] += 1L << ((indices[row] & 15) << 2);
+            }
+        }
+        if (++_additions >= _sampleSize) {
+            age();
+        }
+    }
+
+    // from interface LRUHashMap.AdmissionPolicy
+    public boolean admit (Object candidate, Object victim)
+    {
+        return frequency(candidate) > frequency(victim);
+    }
+
+    /**
+     * Halves every counter, so that old requests gradually cease to count.
+     */
+    protected void age ()
+    {
+        for (int ii = 0; ii < _table.length; ii++) {
+            _table[ii] = (_table[ii] >>> 1) & 0x7777777777777777L;
+        }
+        _additions /= 2;
+    }
+
+    /**
+     * Returns the value of the specified counter.
+     */
+    protected int counter (int index)
+    {
+        return (int)(_table[index >>> 4] >>> ((index & 15) << 2)) & MAX_COUNT;
+    }
+
+    /**
+     * Returns the index of the counter for the supplied key hash in the specified row.
+     */
+    protected int index (int hash, int row)
+    {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += (h >>> 32);
+        return row * (_widthMask + 1) + ((int)h & _widthMask);
+    }
+
+    protected static int spread (Object key)
+    {
+        int hash = (key == null) ? 0 : key.hashCode();
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+
+    /** Our counters, four bits each. */
+    protected long[] _table;
+
+    /** The number of counters in a row, minus one. */
+    protected int _widthMask;
+
+    /** The number of additions after which we age our counters. */
+    protected int _sampleSize;
+
+    /** The number of additions since we last aged our counters (sort of). */
+    protected int _additions;
+
+    /** Scratch space for {@link #recordAccess}. */
+    protected int[] _indices = new int[DEPTH];
+
+    /** The number of hash functions (rows of counters) in our sketch. */
+    protected static final int DEPTH = 4;
+
+    /** The maximum value of a counter. */
+    protected static final int MAX_COUNT = 15;
+
+    /** Multipliers for our hash functions. */
+    protected static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+}
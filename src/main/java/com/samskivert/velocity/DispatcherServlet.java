@@ -6,14 +6,17 @@
 package com.samskivert.velocity;
 
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 import jakarta.servlet.ServletConfig;
 import jakarta.servlet.ServletException;
-import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
@@ -23,7 +26,6 @@ import org.apache.velocity.context.Context;
 import org.apache.velocity.exception.MethodInvocationException;
 import org.apache.velocity.exception.ParseErrorException;
 import org.apache.velocity.exception.ResourceNotFoundException;
-import org.apache.velocity.io.VelocityWriter;
 import org.apache.velocity.runtime.RuntimeConstants;
 import org.apache.velocity.runtime.RuntimeSingleton;
 import org.apache.velocity.util.SimplePool;
@@ -39,6 +41,7 @@ import com.samskivert.servlet.SiteIdentifier;
 import com.samskivert.servlet.SiteResourceLoader;
 import com.samskivert.servlet.util.FriendlyException;
 
+import com.samskivert.util.ConcurrentLRUHashMap;
 import com.samskivert.util.ConfigUtil;
 import com.samskivert.util.StringUtil;
 
@@ -112,6 +115,22 @@ import static com.samskivert.servlet.Log.log;
  * where more sophisticated cobranding support could be inserted in the future (ie. if I ever want
  * to use this to develop a cobranded web site).
  *
+ * <p> Logic instances are created once per logic class and cached. The logic class for recently
+ * requested servlet paths is also cached so that it need not be regenerated. If the
+ * <code>prewarm_extensions</code> init parameter is set to a comma separated list of template
+ * extensions (e.g. <code>wm</code>), the servlet context is scanned at init time for templates with
+ * those extensions and their logic resolved up front. If <code>precompile_templates</code> is also
+ * set to <code>true</code>, those templates are loaded and parsed as well.
+ *
+ * <p> Responses are written through pooled {@link ResponseWriter}s. The
+ * <code>response_buffer_size</code> init parameter configures their buffer size (in characters) and
+ * setting <code>gzip_responses</code> to <code>true</code> gzips responses for clients that accept
+ * gzipped content. The <code>response_writer_pool_size</code> init parameter configures the
+ * maximum number of idle writers retained for reuse (200 by default, the default size of most
+ * containers' request thread pools). It should be at least the number of request threads that the
+ * container runs, as a request that finds the pool empty must allocate a new writer and its buffer
+ * (see {@link #getWriterPoolMisses}).
+ *
  * @see Logic
  */
 public class DispatcherServlet extends HttpServlet
@@ -147,6 +166,32 @@ public class DispatcherServlet extends HttpServlet
         if (_charset == null) {
             _charset = "UTF-8";
         }
+
+        // configure our response writers
+        String bufferSize = config.getInitParameter(BUFFER_SIZE_KEY);
+        if (!StringUtil.isBlank(bufferSize)) {
+            try {
+                _bufferSize = Integer.parseInt(bufferSize.trim());
+            } catch (NumberFormatException nfe) {
+                log.warning("Invalid response buffer size", "size", bufferSize);
+            }
+        }
+        String poolSize = config.getInitParameter(WRITER_POOL_SIZE_KEY);
+        if (!StringUtil.isBlank(poolSize)) {
+            try {
+                _writerPool = new SimplePool(Math.max(1, Integer.parseInt(poolSize.trim())));
+            } catch (NumberFormatException nfe) {
+                log.warning("Invalid response writer pool size", "size", poolSize);
+            }
+        }
+        _gzipResponses = Boolean.parseBoolean(config.getInitParameter(GZIP_KEY));
+
+        // resolve the logic for (and optionally compile) our templates up front if requested
+        String prewarm = config.getInitParameter(PREWARM_KEY);
+        if (!StringUtil.isBlank(prewarm)) {
+            prewarm(StringUtil.parseStringArray(prewarm),
+                    Boolean.parseBoolean(config.getInitParameter(PRECOMPILE_KEY)));
+        }
     }
 
     /**
@@ -527,41 +572,130 @@ public class DispatcherServlet extends HttpServlet
                UnsupportedEncodingException, IOException, Exception
     {
         HttpServletResponse response = context.getResponse();
-        ServletOutputStream output = response.getOutputStream();
+        boolean gzip = false;
+        if (_gzipResponses) {
+            response.addHeader("Vary", "Accept-Encoding");
+            gzip = acceptsGzip(context.getRequest().getHeader("Accept-Encoding"));
+        }
         // ASSUMPTION: response.setContentType() has been called.
         String encoding = response.getCharacterEncoding();
 
-        VelocityWriter vw = null;
+        ResponseWriter writer = acquireWriter();
         try {
-            vw = (VelocityWriter)_writerPool.get();
-            if (vw == null) {
-                vw = new VelocityWriter(new OutputStreamWriter(output, encoding), 4 * 1024, true);
-            } else {
-                vw.recycle(new OutputStreamWriter(output, encoding));
-            }
-            template.merge(context, vw);
+            // the writer sets the content encoding once it starts writing the response
+            writer.init(response, encoding, gzip);
+            template.merge(context, writer);
+            // finish the response, but don't close the stream to allow us to play nicely with
+            // others
+            writer.finish();
 
         } catch (IOException ioe) {
             // the client probably crashed or aborted the connection ungracefully, so use log.info
             log.info("Failed to write response", "uri", context.getRequest().getRequestURI(),
                      "error", ioe);
 
+        } catch (Exception e) {
+            // discard the response if we've not yet started writing it, so that our caller can
+            // report the failure
+            try {
+                writer.abort();
+            } catch (IOException ioe) {
+                // do nothing
+            }
+            throw e;
+
         } finally {
-            if (vw != null) {
-                try {
-                    // flush and put back into the pool don't close to allow us to play nicely with
-                    // others.
-                    vw.flush();
-                } catch (IOException e) {
-                    // do nothing
-                }
+            try {
+                writer.finish(); // in case we failed before finishing
+            } catch (IOException e) {
+                // do nothing
+            }
+            _bytesWritten.addAndGet(writer.getBytesWritten());
+            _bytesEncoded.addAndGet(writer.getBytesEncoded());
+            releaseWriter(writer);
+        }
+    }
 
-                // Clear the VelocityWriter's reference to its internal OutputStreamWriter to allow
-                // the latter to be GC'd while vw is pooled.
-                vw.recycle(null);
-                _writerPool.put(vw);
+    /**
+     * Returns true if the supplied <code>Accept-Encoding</code> header value allows a gzipped
+     * response.
+     */
+    protected static boolean acceptsGzip (String accept)
+    {
+        if (accept == null) {
+            return false;
+        }
+        float gzipq = -1, anyq = -1;
+        for (String coding : accept.split(",")) {
+            String[] params = coding.split(";");
+            String name = params[0].trim();
+            float q = 1;
+            for (int ii = 1; ii < params.length; ii++) {
+                String param = params[ii].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        q = Float.parseFloat(param.substring(2).trim());
+                    } catch (NumberFormatException nfe) {
+                        q = 0;
+                    }
+                }
+            }
+            if (name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip")) {
+                gzipq = Math.max(gzipq, q);
+            } else if (name.equals("*")) {
+                anyq = q;
             }
         }
+        // an explicit gzip coding takes precedence over the wildcard
+        return (gzipq >= 0) ? (gzipq > 0) : (anyq > 0);
+    }
+
+    /**
+     * Returns the number of bytes written to responses by {@link #mergeTemplate}. If responses
+     * are being gzipped, this is the compressed size.
+     */
+    public long getBytesWritten ()
+    {
+        return _bytesWritten.get();
+    }
+
+    /**
+     * Returns the number of bytes of encoded text generated by {@link #mergeTemplate}, prior to
+     * any compression.
+     */
+    public long getBytesEncoded ()
+    {
+        return _bytesEncoded.get();
+    }
+
+    /**
+     * Returns the number of times {@link #mergeTemplate} had to create a new response writer
+     * rather than reusing a pooled writer.
+     */
+    public long getWriterPoolMisses ()
+    {
+        return _writerMisses.get();
+    }
+
+    /**
+     * Obtains a response writer from our pool, creating one if necessary.
+     */
+    protected ResponseWriter acquireWriter ()
+    {
+        ResponseWriter writer = (ResponseWriter)_writerPool.get();
+        if (writer != null) {
+            return writer;
+        }
+        _writerMisses.incrementAndGet();
+        return new ResponseWriter(_bufferSize);
+    }
+
+    /**
+     * Returns a writer obtained via {@link #acquireWriter} to our pool for reuse.
+     */
+    protected void releaseWriter (ResponseWriter writer)
+    {
+        _writerPool.put(writer);
     }
 
     /**
@@ -570,26 +704,91 @@ public class DispatcherServlet extends HttpServlet
      * @return The logic to be used in generating the response or null if no logic could be
      * matched.
      */
-    protected Logic resolveLogic (String path)
+    protected Logic resolveLogic (final String path)
     {
-        // look for a cached logic instance
-        String lclass = _app.generateClass(path);
-        Logic logic = _logic.get(lclass);
+        // map the path to its logic class, consulting our cache of recently resolved paths
+        String lclass = _logicClasses.get(path);
+        if (lclass == null) {
+            lclass = _app.generateClass(path);
+            _logicClasses.put(path, lclass);
+        }
 
-        if (logic == null) {
-            logic = instantiateLogic(path, lclass);
+        // look for a cached logic instance; the common case needs no locking
+        Logic logic = _logic.get(lclass);
+        if (logic != null) {
+            return logic;
+        }
 
-            // if something failed, use a dummy in it's place so that we don't sit around all day
-            // freaking out about our inability to instantiate the proper logic class
-            if (logic == null) {
-                logic = new DummyLogic();
+        // otherwise create and cache it, making sure only one instance is ever created per class
+        return _logic.computeIfAbsent(lclass, new Function<String,Logic>() {
+            public Logic apply (String lc) {
+                Logic nlogic = instantiateLogic(path, lc);
+                // if something failed, use a dummy in it's place so that we don't sit around all
+                // day freaking out about our inability to instantiate the proper logic class
+                return (nlogic == null) ? new DummyLogic() : nlogic;
             }
+        });
+    }
 
-            // cache the resolved logic instance
-            _logic.put(lclass, logic);
+    /**
+     * Scans the servlet context for templates with any of the supplied extensions and resolves
+     * the logic for each of them, so that the first request for each page does not pay to load
+     * and instantiate its logic class. If <code>precompile</code> is true, the templates are also
+     * loaded and parsed. This is called at init time if the <code>prewarm_extensions</code> init
+     * parameter is set (and <code>precompile_templates</code> is true).
+     */
+    protected void prewarm (String[] extensions, boolean precompile)
+    {
+        if (precompile && _usingSiteLoading) {
+            // site-specific templates are only resolved with a site id in hand
+            log.info("Not precompiling templates as they are loaded via the site loader.");
+            precompile = false;
         }
 
-        return logic;
+        long start = System.currentTimeMillis();
+        ArrayList<String> paths = new ArrayList<String>();
+        findTemplates("/", extensions, paths);
+        int compiled = 0;
+        for (String path : paths) {
+            resolveLogic(path);
+            if (precompile) {
+                try {
+                    RuntimeSingleton.getTemplate(path);
+                    compiled++;
+                } catch (Exception e) {
+                    log.warning("Failed to precompile template", "path", path, "error", e);
+                }
+            }
+        }
+        log.info("Prewarmed dispatcher", "templates", paths.size(), "compiled", compiled,
+                 "time", (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Adds the paths of all resources in (or below) the specified servlet context directory that
+     * have one of the supplied extensions to <code>paths</code>.
+     */
+    protected void findTemplates (String dir, String[] extensions, List<String> paths)
+    {
+        Set<String> entries = getServletContext().getResourcePaths(dir);
+        if (entries == null) {
+            return;
+        }
+        for (String entry : entries) {
+            if (entry.endsWith("/")) {
+                // skip the directories that the container won't serve anyway
+                if (!entry.equals("/WEB-INF/") && !entry.equals("/META-INF/")) {
+                    findTemplates(entry, extensions, paths);
+                }
+                continue;
+            }
+            for (String ext : extensions) {
+                if (entry.endsWith("." + ext)) {
+                    paths.add(entry);
+                    break;
+                }
+            }
+        }
     }
 
     /**
@@ -613,8 +812,12 @@ public class DispatcherServlet extends HttpServlet
     /** The application being served by this dispatcher servlet. */
     protected Application _app;
 
-    /** A table of resolved logic instances. */
-    protected HashMap<String,Logic> _logic = new HashMap<String,Logic>();
+    /** A table of resolved logic instances, keyed by logic class name. */
+    protected ConcurrentHashMap<String,Logic> _logic = new ConcurrentHashMap<String,Logic>();
+
+    /** The logic class names for recently requested servlet paths. */
+    protected ConcurrentLRUHashMap<String,String> _logicClasses =
+        new ConcurrentLRUHashMap<String,String>(LOGIC_CLASS_CACHE_SIZE);
 
     /** The character set in which serve our responses. */
     protected String _charset;
@@ -625,8 +828,23 @@ public class DispatcherServlet extends HttpServlet
     /** Our default content type. */
     protected String _defaultContentType;
 
-    /** A pool of VelocityWriter instances. */
-    protected static SimplePool _writerPool = new SimplePool(40);
+    /** The size (in characters) of the buffer used by our response writers. */
+    protected int _bufferSize = DEFAULT_BUFFER_SIZE;
+
+    /** Whether or not we gzip responses for clients that accept gzipped content. */
+    protected boolean _gzipResponses;
+
+    /** Response writers available for reuse. */
+    protected SimplePool _writerPool = new SimplePool(DEFAULT_WRITER_POOL_SIZE);
+
+    /** The number of bytes written to our responses. */
+    protected AtomicLong _bytesWritten = new AtomicLong();
+
+    /** The number of bytes of encoded text in our responses, prior to compression. */
+    protected AtomicLong _bytesEncoded = new AtomicLong();
+
+    /** The number of times we had to create a response writer. */
+    protected AtomicLong _writerMisses = new AtomicLong();
 
     /** Describes the location of our properties. */
     protected static final String INIT_PROPS_KEY = "org.apache.velocity.properties";
@@ -659,9 +877,37 @@ public class DispatcherServlet extends HttpServlet
     /** The servlet parameter key specifying the base logic package. */
     protected static final String LOGIC_PKG_KEY = "logic_package";
 
+    /** The servlet parameter key specifying a comma separated list of template extensions (e.g.
+     * <code>wm</code>) for which the logic is resolved at init time. */
+    protected static final String PREWARM_KEY = "prewarm_extensions";
+
+    /** The servlet parameter key specifying whether the templates found when prewarming are also
+     * compiled at init time. */
+    protected static final String PRECOMPILE_KEY = "precompile_templates";
+
+    /** The servlet parameter key specifying the size (in characters) of the response buffer. */
+    protected static final String BUFFER_SIZE_KEY = "response_buffer_size";
+
+    /** The servlet parameter key specifying the maximum number of idle response writers that we
+     * keep for reuse. */
+    protected static final String WRITER_POOL_SIZE_KEY = "response_writer_pool_size";
+
+    /** The servlet parameter key specifying whether responses are gzipped for clients that
+     * accept gzipped content. */
+    protected static final String GZIP_KEY = "gzip_responses";
+
     /** The servlet parameter key specifying the default character set. */
     protected static final String CHARSET_KEY = "charset";
 
+    /** The default size (in characters) of the response buffer. */
+    protected static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    /** The default maximum number of idle response writers that we keep for reuse. */
+    protected static final int DEFAULT_WRITER_POOL_SIZE = 200;
+
+    /** The maximum number of servlet paths for which we cache the logic class name. */
+    protected static final int LOGIC_CLASS_CACHE_SIZE = 1024;
+
     /** The default content type for responses. */
     protected static final String DEFAULT_CONTENT_TYPE = "text/html";
 
@@ -0,0 +1,380 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.velocity;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * A reusable writer that encodes characters directly into an output stream, optionally gzipping
+ * the encoded bytes along the way. A response writer is {@link #init}ialized for each response,
+ * written to and then {@link #finish}ed, after which it may be initialized for another response.
+ * Its character and byte buffers, its charset encoder (as long as the character encoding doesn't
+ * change) and its deflater are all reused from response to response.
+ *
+ * <p> A response writer must only be used by one thread at a time.
+ */
+public class ResponseWriter extends Writer
+{
+    /**
+     * Creates a response writer that buffers up to <code>bufferSize</code> characters before
+     * encoding them and writing them to its output stream.
+     */
+    public ResponseWriter (int bufferSize)
+    {
+        _chars = CharBuffer.allocate(bufferSize);
+        _bytes = ByteBuffer.allocate(bufferSize * 2);
+        _zbuf = new byte[bufferSize];
+    }
+
+    /**
+     * Prepares this writer to write a response to the supplied stream.
+     *
+     * @param encoding the character encoding with which to encode the response.
+     * @param gzip if true, the response will be written in gzip format.
+     */
+    public void init (OutputStream out, String encoding, boolean gzip)
+        throws IOException
+    {
+        init(out, encoding, gzip, null);
+    }
+
+    /**
+     * Prepares this writer to write the supplied servlet response. If the response is gzipped,
+     * its <code>Content-Encoding</code> header is set when output first reaches its stream, so
+     * that a response {@link #abort}ed before then may be replaced by an uncompressed one.
+     *
+     * @param encoding the character encoding with which to encode the response.
+     * @param gzip if true, the response will be written in gzip format.
+     */
+    public void init (HttpServletResponse response, String encoding, boolean gzip)
+        throws IOException
+    {
+        init(response.getOutputStream(), encoding, gzip, response);
+    }
+
+    protected void init (OutputStream out, String encoding, boolean gzip,
+                         HttpServletResponse response)
+        throws IOException
+    {
+        if (_encoder == null || !encoding.equals(_encoding)) {
+            try {
+                _encoder = Charset.forName(encoding).newEncoder().
+                    onMalformedInput(CodingErrorAction.REPLACE).
+                    onUnmappableCharacter(CodingErrorAction.REPLACE);
+            } catch (IllegalArgumentException iae) {
+                throw new UnsupportedEncodingException(encoding);
+            }
+            _encoding = encoding;
+        } else {
+            _encoder.reset();
+        }
+        _chars.clear();
+        _bytes.clear();
+        _out = out;
+        _response = response;
+        _started = false;
+        _bytesWritten = _bytesEncoded = 0;
+
+        if (gzip) {
+            if (_deflater == null) {
+                _deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+                _crc = new CRC32();
+            }
+            _gzip = true;
+        } else {
+            _gzip = false;
+        }
+    }
+
+    /**
+     * Returns the number of bytes written to the output stream since this writer was last
+     * initialized.
+     */
+    public long getBytesWritten ()
+    {
+        return _bytesWritten;
+    }
+
+    /**
+     * Returns the number of bytes of encoded text written since this writer was last initialized.
+     * This differs from {@link #getBytesWritten} only if the response is being gzipped.
+     */
+    public long getBytesEncoded ()
+    {
+        return _bytesEncoded;
+    }
+
+    /**
+     * Encodes and writes any buffered characters, completes the gzip stream if we are gzipping,
+     * and flushes the output stream. The writer must be reinitialized before it can be used again.
+     */
+    public void finish ()
+        throws IOException
+    {
+        if (_out == null) {
+            return;
+        }
+        try {
+            encode(true);
+            if (_gzip) {
+                _deflater.finish();
+                while (!_deflater.finished()) {
+                    write(_zbuf, _deflater.deflate(_zbuf));
+                }
+                byte[] trailer = new byte[8];
+                putInt(trailer, 0, (int)_crc.getValue());
+                putInt(trailer, 4, (int)_bytesEncoded);
+                write(trailer, trailer.length);
+            }
+            _out.flush();
+        } finally {
+            reset();
+        }
+    }
+
+    /**
+     * Ends the current response without writing it if none of it has yet reached the output
+     * stream, so that the response may be replaced (with an error page, say). Otherwise the
+     * response is {@link #finish}ed. The writer must be reinitialized before it can be used again.
+     */
+    public void abort ()
+        throws IOException
+    {
+        if (_started) {
+            finish();
+        } else if (_out != null) {
+            reset();
+        }
+    }
+
+    @Override
+    public void write (int c)
+        throws IOException
+    {
+        if (!_chars.hasRemaining()) {
+            encode(false);
+        }
+        _chars.put((char)c);
+    }
+
+    @Override
+    public void write (char[] cbuf, int off, int len)
+        throws IOException
+    {
+        while (len > 0) {
+            if (!_chars.hasRemaining()) {
+                encode(false);
+            }
+            int count = Math.min(len, _chars.remaining());
+            _chars.put(cbuf, off, count);
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void write (String str, int off, int len)
+        throws IOException
+    {
+        while (len > 0) {
+            if (!_chars.hasRemaining()) {
+                encode(false);
+            }
+            int count = Math.min(len, _chars.remaining());
+            _chars.put(str, off, off + count);
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void flush ()
+        throws IOException
+    {
+        if (_out == null) {
+            return;
+        }
+        encode(false);
+        if (_gzip) {
+            int count;
+            do {
+                count = _deflater.deflate(_zbuf, 0, _zbuf.length, Deflater.SYNC_FLUSH);
+                write(_zbuf, count);
+            } while (count == _zbuf.length);
+        }
+        _out.flush();
+    }
+
+    /**
+     * Finishes the current response, but does not close the underlying output stream.
+     */
+    @Override
+    public void close ()
+        throws IOException
+    {
+        finish();
+    }
+
+    /**
+     * Encodes our buffered characters and writes the resulting bytes.
+     *
+     * @param endOfInput true if no more characters will be written to this response.
+     */
+    protected void encode (boolean endOfInput)
+        throws IOException
+    {
+        _chars.flip();
+        CoderResult result;
+        do {
+            result = _encoder.encode(_chars, _bytes, endOfInput);
+            if (result.isError()) {
+                result.throwException();
+            }
+            writeBytes();
+        } while (result.isOverflow());
+        // retain any trailing high surrogate until its partner arrives
+        _chars.compact();
+
+        if (endOfInput) {
+            do {
+                result = _encoder.flush(_bytes);
+                writeBytes();
+            } while (result.isOverflow());
+        }
+    }
+
+    /**
+     * Writes (or deflates) the encoded bytes in our byte buffer and clears it.
+     */
+    protected void writeBytes ()
+        throws IOException
+    {
+        int count = _bytes.position();
+        if (count == 0) {
+            return;
+        }
+        byte[] bytes = _bytes.array();
+        _bytesEncoded += count;
+        if (_gzip) {
+            _crc.update(bytes, 0, count);
+            _deflater.setInput(bytes, 0, count);
+            while (!_deflater.needsInput()) {
+                write(_zbuf, _deflater.deflate(_zbuf));
+            }
+        } else {
+            write(bytes, count);
+        }
+        _bytes.clear();
+    }
+
+    /**
+     * Writes the specified bytes to our output stream.
+     */
+    protected void write (byte[] bytes, int count)
+        throws IOException
+    {
+        if (count > 0) {
+            if (!_started) {
+                start();
+            }
+            _out.write(bytes, 0, count);
+            _bytesWritten += count;
+        }
+    }
+
+    /**
+     * Called when the current response first writes to its output stream.
+     */
+    protected void start ()
+        throws IOException
+    {
+        _started = true;
+        if (_gzip) {
+            if (_response != null) {
+                _response.setHeader("Content-Encoding", "gzip");
+            }
+            _out.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+            _bytesWritten += GZIP_HEADER.length;
+        }
+    }
+
+    /**
+     * Clears out our per-response state.
+     */
+    protected void reset ()
+    {
+        if (_gzip) {
+            _deflater.reset();
+            _crc.reset();
+        }
+        _out = null;
+        _response = null;
+    }
+
+    protected static void putInt (byte[] bytes, int offset, int value)
+    {
+        bytes[offset] = (byte)value;
+        bytes[offset+1] = (byte)(value >> 8);
+        bytes[offset+2] = (byte)(value >> 16);
+        bytes[offset+3] = (byte)(value >> 24);
+    }
+
+    /** The stream to which we're writing the current response, or null. */
+    protected OutputStream _out;
+
+    /** The servlet response we're writing, if any. */
+    protected HttpServletResponse _response;
+
+    /** Whether any of the current response has been written to its output stream. */
+    protected boolean _started;
+
+    /** The encoding of the current response. */
+    protected String _encoding;
+
+    /** Encodes the current response. */
+    protected CharsetEncoder _encoder;
+
+    /** Buffers characters to be encoded. */
+    protected CharBuffer _chars;
+
+    /** Buffers encoded bytes to be written (or deflated). */
+    protected ByteBuffer _bytes;
+
+    /** Whether or not the current response is being gzipped. */
+    protected boolean _gzip;
+
+    /** Used to compress gzipped responses, created on demand. */
+    protected Deflater _deflater;
+
+    /** Used to checksum gzipped responses, created on demand. */
+    protected CRC32 _crc;
+
+    /** Buffers compressed bytes. */
+    protected byte[] _zbuf;
+
+    /** The number of bytes written to the current response's output stream. */
+    protected long _bytesWritten;
+
+    /** The number of encoded bytes in the current response. */
+    protected long _bytesEncoded;
+
+    /** The header that starts a gzip stream: magic, deflate, no flags, no time, unknown OS. */
+    protected static final byte[] GZIP_HEADER = {
+        0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte)0xff };
+}
@@ -0,0 +1,121 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.samskivert.io.PersistenceException;
+
+/**
+ * Tests the {@link JDBCUtil} batch query support.
+ */
+public class JDBCUtilTest
+{
+    @BeforeClass
+    public static void setUpJDBCDriver ()
+        throws Exception
+    {
+        Class.forName("org.hsqldb.jdbcDriver");
+    }
+
+    @Test
+    public void testBatchSizes ()
+    {
+        assertEquals(1, JDBCUtil.getBatchSize(1));
+        assertEquals(8, JDBCUtil.getBatchSize(2));
+        assertEquals(64, JDBCUtil.getBatchSize(9));
+        assertEquals(256, JDBCUtil.getBatchSize(JDBCUtil.MAX_BATCH_KEYS));
+        assertEquals("?,?,?", JDBCUtil.getPlaceholders(3));
+
+        List<Integer> keys = new ArrayList<Integer>();
+        for (int ii = 0; ii < 10; ii++) {
+            keys.add(ii);
+        }
+        Object[] batch = JDBCUtil.padBatch(keys, 7, 3);
+        assertEquals(8, batch.length);
+        assertEquals(7, batch[0]);
+        assertEquals(9, batch[2]);
+        assertEquals(9, batch[7]);
+    }
+
+    @Test
+    public void testBatchQuery ()
+        throws Exception
+    {
+        ConnectionProvider provider = StaticConnectionProvider.forTest("batchtest");
+        TestRepository repo = new TestRepository(provider);
+        List<Integer> keys = new ArrayList<Integer>();
+        for (int ii = 0; ii < 1000; ii += 2) {
+            keys.add(ii);
+        }
+
+        // query sequentially and then in parallel
+        assertEquals(expected(keys), repo.loadValues(keys, null));
+        ExecutorService exec = Executors.newFixedThreadPool(3);
+        try {
+            assertEquals(expected(keys), repo.loadValues(keys, exec));
+        } finally {
+            exec.shutdown();
+        }
+        provider.shutdown();
+    }
+
+    protected static Set<Integer> expected (List<Integer> keys)
+    {
+        Set<Integer> values = new HashSet<Integer>();
+        for (int key : keys) {
+            if (key < 600) {
+                values.add(key * 3);
+            }
+        }
+        return values;
+    }
+
+    protected static class TestRepository extends SimpleRepository
+    {
+        public TestRepository (ConnectionProvider provider) {
+            super(provider, "test");
+        }
+
+        public Set<Integer> loadValues (List<Integer> keys, ExecutorService exec)
+            throws PersistenceException {
+            final Set<Integer> values = new HashSet<Integer>();
+            batchQueryParams("select VALUE from BATCH where KEY_ID in (#KEYS#)", keys, exec, 4,
+                             new JDBCUtil.BatchProcessor() {
+                public void process (ResultSet row) throws SQLException {
+                    assertTrue(values.add(row.getInt(1)));
+                }
+            });
+            return values;
+        }
+
+        @Override
+        protected void migrateSchema (Connection conn, DatabaseLiaison liaison)
+            throws SQLException {
+            Statement stmt = conn.createStatement();
+            try {
+                stmt.executeUpdate("create table BATCH (KEY_ID integer primary key, VALUE integer)");
+                for (int ii = 0; ii < 600; ii++) {
+                    stmt.executeUpdate("insert into BATCH values (" + ii + ", " + ii * 3 + ")");
+                }
+            } finally {
+                JDBCUtil.close(stmt);
+            }
+        }
+    }
+}
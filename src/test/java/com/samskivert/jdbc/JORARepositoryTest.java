@@ -0,0 +1,111 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.jdbc;
+
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.samskivert.io.PersistenceException;
+import com.samskivert.jdbc.jora.Table;
+
+/**
+ * Tests the query caching of the {@link JORARepository}.
+ */
+public class JORARepositoryTest
+{
+    public static class Item
+    {
+        public int itemId;
+        public String name;
+    }
+
+    @BeforeClass
+    public static void setUpJDBCDriver ()
+        throws Exception
+    {
+        Class.forName("org.hsqldb.jdbcDriver");
+    }
+
+    @Before
+    public void createRepository ()
+        throws Exception
+    {
+        _provider = StaticConnectionProvider.forTest("jorarepotest");
+        _repo = new TestRepository(_provider);
+    }
+
+    @After
+    public void shutdownProvider ()
+    {
+        _provider.shutdown();
+    }
+
+    @Test
+    public void testCachedCopies ()
+        throws Exception
+    {
+        // callers may modify the objects they load without affecting the cache
+        Item item = _repo.loadItem(1);
+        assertEquals("one", item.name);
+        item.name = "unsaved";
+        assertNotSame(item, _repo.loadItem(1));
+        assertEquals("one", _repo.loadItem(1).name);
+
+        List<Item> items = _repo.loadItems();
+        assertEquals(2, items.size());
+        items.get(0).name = "unsaved";
+        items.clear();
+        assertEquals(2, _repo.loadItems().size());
+        assertEquals("one", _repo.loadItems().get(0).name);
+
+        // but writes invalidate the cache
+        item.name = "uno";
+        _repo.updateItem(item);
+        assertEquals("uno", _repo.loadItem(1).name);
+        assertEquals("uno", _repo.loadItems().get(0).name);
+
+        QueryCache.Stats stats = _repo.getQueryCacheStats(_repo.items);
+        assertEquals(2, stats.entries);
+        assertEquals(4, stats.hits);
+        assertEquals(4, stats.misses);
+        assertEquals(1, stats.invalidations);
+    }
+
+    protected static class TestRepository extends JORARepository
+    {
+        public Table<Item> items;
+
+        public TestRepository (ConnectionProvider provider) throws PersistenceException {
+            super(provider, "test");
+            update("drop table ITEMS if exists");
+            update("create table ITEMS (ITEM_ID integer not null primary key, NAME varchar(64))");
+            update("insert into ITEMS values (1, 'one')");
+            update("insert into ITEMS values (2, 'two')");
+            enableQueryCache(items, 10, 100);
+        }
+
+        public Item loadItem (int itemId) throws PersistenceException {
+            return loadParams(items, "where ITEM_ID = ?", itemId);
+        }
+
+        public List<Item> loadItems () throws PersistenceException {
+            return loadAll(items, "order by ITEM_ID");
+        }
+
+        public void updateItem (Item item) throws PersistenceException {
+            update(items, item);
+        }
+
+        @Override protected void createTables () {
+            items = new Table<Item>(Item.class, "ITEMS", "ITEM_ID", true);
+        }
+    }
+
+    protected ConnectionProvider _provider;
+    protected TestRepository _repo;
+}
@@ -0,0 +1,78 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.jdbc;
+
+import java.util.Arrays;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link QueryCache} class.
+ */
+public class QueryCacheTest
+{
+    @Test
+    public void testKeys ()
+    {
+        QueryCache.Key key = new QueryCache.Key("list", "ID = ?", new Object[] { 1 });
+        assertEquals(key, new QueryCache.Key("list", "ID = ?", new Object[] { 1 }));
+        assertFalse(key.equals(new QueryCache.Key("list", "ID = ?", new Object[] { 2 })));
+        assertFalse(key.equals(new QueryCache.Key("object", "ID = ?", new Object[] { 1 })));
+        assertEquals(new QueryCache.Key("list", "DATA = ?", new Object[] { new byte[] { 1, 2 } }),
+                     new QueryCache.Key("list", "DATA = ?", new Object[] { new byte[] { 1, 2 } }));
+        assertEquals(new QueryCache.Key("list", "", null), new QueryCache.Key("list", "", null));
+    }
+
+    @Test
+    public void testBounds ()
+    {
+        QueryCache cache = new QueryCache(3, 10);
+        for (int ii = 0; ii < 4; ii++) {
+            cache.put(key(ii), cache.getGeneration(), "result" + ii);
+        }
+        // the least recently used entry was evicted to respect the entry bound
+        assertNull(cache.get(key(0)));
+        assertEquals("result3", cache.get(key(3)));
+
+        // a large result evicts older ones to respect the row bound
+        cache.put(key(4), cache.getGeneration(), Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8));
+        assertNotNull(cache.get(key(4)));
+        assertEquals("result3", cache.get(key(3)));
+        assertNull(cache.get(key(1)));
+
+        // a result that could never fit is not cached
+        cache.put(key(5), cache.getGeneration(), Arrays.asList(new Integer[11]));
+        assertNull(cache.get(key(5)));
+        assertNotNull(cache.get(key(4)));
+    }
+
+    @Test
+    public void testInvalidation ()
+    {
+        QueryCache cache = new QueryCache(10, 10);
+        cache.put(key(0), cache.getGeneration(), "result");
+        assertEquals("result", cache.get(key(0)));
+
+        // a result obtained before an invalidation must not be cached after it
+        long generation = cache.getGeneration();
+        cache.invalidate();
+        assertNull(cache.get(key(0)));
+        cache.put(key(0), generation, "stale");
+        assertNull(cache.get(key(0)));
+
+        QueryCache.Stats stats = cache.getStats();
+        assertEquals(0, stats.entries);
+        assertEquals(1, stats.hits);
+        assertEquals(2, stats.misses);
+        assertEquals(1, stats.invalidations);
+    }
+
+    protected static QueryCache.Key key (int id)
+    {
+        return new QueryCache.Key("object", "ID = ?", new Object[] { id });
+    }
+}
@@ -0,0 +1,159 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.util.Properties;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the read replica routing done by the {@link ReplicatedConnectionProvider}.
+ */
+public class ReplicatedConnectionProviderTest
+{
+    @BeforeClass
+    public static void setUpJDBCDriver ()
+        throws Exception
+    {
+        Class.forName("org.hsqldb.jdbcDriver");
+    }
+
+    @Test
+    public void testRouting ()
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("default.username", "sa");
+        props.setProperty("default.password", "");
+        props.setProperty("default.url", "jdbc:hsqldb:mem:primary");
+        props.setProperty("default.read_urls", "jdbc:hsqldb:mem:replica1,jdbc:hsqldb:mem:replica2");
+        props.setProperty("default.replica_eject_millis", "60000");
+        ReplicatedConnectionProvider provider = new ReplicatedConnectionProvider(props);
+
+        // writes go to the primary
+        Connection wconn = provider.getConnection("test", false);
+        assertEquals("jdbc:hsqldb:mem:primary", url(wconn));
+        provider.releaseConnection("test", false, wconn);
+
+        // concurrent reads are spread over the replicas (reads on the same thread would share a
+        // connection, so we make the second on another thread)
+        Connection r1 = provider.getConnection("test", true);
+        Connection r2 = getConnectionOnThread(provider, "test");
+        assertTrue(url(r1).contains("replica"));
+        assertTrue(url(r2).contains("replica"));
+        assertFalse(url(r1).equals(url(r2)));
+
+        // a query error doesn't eject a replica, but a connection error does
+        provider.connectionFailed("test", true, r1, new SQLException("bad query", "42000"));
+        provider.releaseConnection("test", true, r2);
+        Connection r3 = provider.getConnection("test", true);
+        String ejectedURL = url(r3);
+        provider.connectionFailed("test", true, r3, new SQLNonTransientConnectionException());
+        for (int ii = 0; ii < 4; ii++) {
+            Connection conn = provider.getConnection("test", true);
+            assertFalse(ejectedURL.equals(url(conn)));
+            provider.releaseConnection("test", true, conn);
+        }
+
+        // nor does a failure reported without an error
+        Connection r4 = provider.getConnection("test", true);
+        String healthyURL = url(r4);
+        provider.connectionFailed("test", true, r4, null);
+        r4 = provider.getConnection("test", true);
+        assertEquals(healthyURL, url(r4));
+
+        // once all replicas are ejected, reads fall back to the primary
+        provider.connectionFailed("test", true, r4, new SQLException("link failure", "08S01"));
+        Connection r5 = provider.getConnection("test", true);
+        assertEquals("jdbc:hsqldb:mem:primary", url(r5));
+        assertTrue(r5.isReadOnly());
+        provider.releaseConnection("test", true, r5);
+
+        int ejected = 0;
+        for (ReplicatedConnectionProvider.ReplicaStats stats :
+                 provider.getReplicaStats().values()) {
+            assertEquals(0, stats.outstanding);
+            ejected += stats.ejected ? 1 : 0;
+        }
+        assertEquals(2, ejected);
+        provider.shutdown();
+    }
+
+    @Test
+    public void testBusyReplicas ()
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("default.username", "sa");
+        props.setProperty("default.password", "");
+        props.setProperty("default.url", "jdbc:hsqldb:mem:bprimary");
+        props.setProperty("default.read_urls",
+                          "jdbc:hsqldb:mem:breplica1,jdbc:hsqldb:mem:breplica2");
+        props.setProperty("default.pool_max_size", "1");
+        props.setProperty("default.pool_max_wait_millis", "50");
+        ReplicatedConnectionProvider provider = new ReplicatedConnectionProvider(props);
+
+        // a nested read shares the outer connection, even via another ident
+        Connection r1 = provider.getConnection("one", true);
+        assertSame(r1, provider.getConnection("one", true));
+        provider.releaseConnection("one", true, r1);
+        assertSame(r1, provider.getConnection("two", true));
+        provider.releaseConnection("two", true, r1);
+
+        // another thread gets the other replica, since the first one's pool is busy
+        Connection r2 = getConnectionOnThread(provider, "two");
+        assertTrue(url(r2).contains("breplica"));
+        assertFalse(url(r1).equals(url(r2)));
+
+        // with both replica pools busy, reads fall back to the primary, but nothing is ejected
+        Connection r3 = getConnectionOnThread(provider, "three");
+        assertEquals("jdbc:hsqldb:mem:bprimary", url(r3));
+        for (ReplicatedConnectionProvider.ReplicaStats stats :
+                 provider.getReplicaStats().values()) {
+            assertFalse(stats.ejected);
+            assertEquals(0, stats.ejections);
+        }
+
+        provider.releaseConnection("three", true, r3);
+        provider.releaseConnection("two", true, r2);
+        provider.releaseConnection("one", true, r1);
+        for (ReplicatedConnectionProvider.ReplicaStats stats :
+                 provider.getReplicaStats().values()) {
+            assertEquals(0, stats.outstanding);
+        }
+        assertTrue(provider._owners.isEmpty());
+        provider.shutdown();
+    }
+
+    protected static Connection getConnectionOnThread (
+        final ReplicatedConnectionProvider provider, final String ident)
+        throws Exception
+    {
+        final Connection[] conn = new Connection[1];
+        Thread thread = new Thread() {
+            @Override public void run () {
+                try {
+                    conn[0] = provider.getConnection(ident, true);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+        return conn[0];
+    }
+
+    protected static String url (Connection conn)
+        throws SQLException
+    {
+        return conn.getMetaData().getURL();
+    }
+}
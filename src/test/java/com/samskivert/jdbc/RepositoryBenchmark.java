@@ -0,0 +1,99 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import com.samskivert.io.PersistenceException;
+
+/**
+ * Measures the overhead of {@link SimpleRepository#execute} by running trivial single-row reads
+ * against an in-memory HSQLDB database. Run by hand: {@code RepositoryBenchmark [ops] [rounds]}.
+ */
+public class RepositoryBenchmark
+{
+    public static void main (String[] args)
+        throws Exception
+    {
+        int ops = (args.length > 0) ? Integer.parseInt(args[0]) : 500000;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 6;
+
+        Class.forName("org.hsqldb.jdbcDriver");
+        for (boolean autoCommit : new boolean[] { true, false }) {
+            run(autoCommit, ops, rounds);
+        }
+    }
+
+    protected static void run (boolean autoCommit, int ops, int rounds)
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("default.username", "sa");
+        props.setProperty("default.password", "");
+        props.setProperty("default.url", "jdbc:hsqldb:mem:repobench" + autoCommit);
+        props.setProperty("default.autocommit", String.valueOf(autoCommit));
+        ConnectionProvider provider = new StaticConnectionProvider(props);
+        BenchRepository repo = new BenchRepository(provider);
+
+        // the first few rounds are just to warm up the JIT
+        for (int rr = 0; rr < rounds; rr++) {
+            long start = System.nanoTime(), sum = 0;
+            for (int ii = 0; ii < ops; ii++) {
+                sum += repo.loadValue(ii % 100);
+            }
+            long elapsed = System.nanoTime() - start;
+            if (rr >= rounds/2) {
+                System.out.println(String.format("autocommit=%-5s %,d ops in %,dms (%,.0f ops/s) [%d]",
+                                                 autoCommit, ops, elapsed / 1000000,
+                                                 ops * 1e9 / elapsed, sum));
+            }
+        }
+        provider.shutdown();
+    }
+
+    protected static class BenchRepository extends SimpleRepository
+    {
+        public BenchRepository (ConnectionProvider provider) {
+            super(provider, "bench");
+        }
+
+        public int loadValue (final int key) throws PersistenceException {
+            return execute(new Operation<Integer>() {
+                public Integer invoke (Connection conn, DatabaseLiaison liaison)
+                    throws SQLException {
+                    PreparedStatement stmt = conn.prepareStatement(
+                        "select VALUE from BENCH where KEY_ID = ?");
+                    try {
+                        stmt.setInt(1, key);
+                        ResultSet rs = stmt.executeQuery();
+                        return rs.next() ? rs.getInt(1) : 0;
+                    } finally {
+                        JDBCUtil.close(stmt);
+                    }
+                }
+            });
+        }
+
+        @Override
+        protected void migrateSchema (Connection conn, DatabaseLiaison liaison)
+            throws SQLException {
+            Statement stmt = conn.createStatement();
+            try {
+                stmt.executeUpdate("create table BENCH (KEY_ID integer primary key, VALUE integer)");
+                for (int ii = 0; ii < 100; ii++) {
+                    stmt.executeUpdate("insert into BENCH values (" + ii + ", " + ii * 2 + ")");
+                }
+            } finally {
+                JDBCUtil.close(stmt);
+            }
+        }
+    }
+}
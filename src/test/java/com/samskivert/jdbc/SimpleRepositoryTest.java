@@ -0,0 +1,196 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.samskivert.io.PersistenceException;
+
+/**
+ * Tests the transaction handling of the {@link SimpleRepository}.
+ */
+public class SimpleRepositoryTest
+{
+    @BeforeClass
+    public static void setUpJDBCDriver ()
+        throws Exception
+    {
+        Class.forName("org.hsqldb.jdbcDriver");
+    }
+
+    @Before
+    public void createRepository ()
+        throws Exception
+    {
+        _provider = StaticConnectionProvider.forTest(DB_NAME);
+        _repo = new TestRepository(_provider);
+        _repo.update("create table if not exists ROWS (ID integer not null)");
+        _repo.update("delete from ROWS");
+    }
+
+    @After
+    public void shutdownProvider ()
+    {
+        _provider.shutdown();
+    }
+
+    @Test
+    public void testCommit ()
+        throws Exception
+    {
+        final Connection[] used = new Connection[1];
+        _repo.run(new Repository.Operation<Void>() {
+            public Void invoke (Connection conn, DatabaseLiaison liaison)
+                throws SQLException {
+                // the operation runs in a transaction
+                assertFalse(conn.getAutoCommit());
+                used[0] = conn;
+                insertRow(conn, 1);
+                return null;
+            }
+        });
+
+        // auto-commit is restored, which committed the transaction
+        assertTrue(used[0].getAutoCommit());
+        assertEquals(1, countRowsInNewSession());
+    }
+
+    @Test
+    public void testRollback ()
+        throws Exception
+    {
+        final Connection[] used = new Connection[1];
+        try {
+            _repo.run(new Repository.Operation<Void>() {
+                public Void invoke (Connection conn, DatabaseLiaison liaison)
+                    throws SQLException, PersistenceException {
+                    used[0] = conn;
+                    insertRow(conn, 1);
+                    throw new PersistenceException("Failed");
+                }
+            });
+            fail("Operation should have failed");
+        } catch (PersistenceException pe) {
+            assertEquals("Failed", pe.getMessage());
+        }
+
+        // the insert was rolled back and the connection returned with auto-commit restored
+        assertFalse(used[0].isClosed());
+        assertTrue(used[0].getAutoCommit());
+        assertEquals(0, countRowsInNewSession());
+
+        // likewise for a runtime failure
+        try {
+            _repo.run(new Repository.Operation<Void>() {
+                public Void invoke (Connection conn, DatabaseLiaison liaison)
+                    throws SQLException {
+                    insertRow(conn, 2);
+                    throw new IllegalStateException("Failed");
+                }
+            });
+            fail("Operation should have failed");
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+        assertTrue(used[0].getAutoCommit());
+        assertEquals(0, countRowsInNewSession());
+    }
+
+    @Test
+    public void testConnectionFailed ()
+        throws Exception
+    {
+        final Connection[] used = new Connection[1];
+        try {
+            _repo.run(new Repository.Operation<Void>() {
+                public Void invoke (Connection conn, DatabaseLiaison liaison)
+                    throws SQLException {
+                    used[0] = conn;
+                    insertRow(conn, 1);
+                    // we cache the connection's info while it is in use
+                    assertTrue(_repo.hasConnectionInfo(conn));
+                    throw new SQLException("Failed");
+                }
+            });
+            fail("Operation should have failed");
+        } catch (PersistenceException pe) {
+            assertTrue(pe.getCause() instanceof SQLException);
+        }
+
+        // the failed connection was rolled back and closed, and we forgot its info
+        assertEquals(0, countRowsInNewSession());
+        assertTrue(used[0].isClosed());
+        assertFalse(_repo.hasConnectionInfo(used[0]));
+        assertSame(used[0], _repo.failed);
+
+        // and subsequent operations get a fresh connection
+        assertEquals(1, _repo.update("insert into ROWS (ID) values (2)"));
+        assertEquals(1, countRowsInNewSession());
+    }
+
+    protected static void insertRow (Connection conn, int id)
+        throws SQLException
+    {
+        Statement stmt = conn.createStatement();
+        try {
+            assertEquals(1, stmt.executeUpdate("insert into ROWS (ID) values (" + id + ")"));
+        } finally {
+            JDBCUtil.close(stmt);
+        }
+    }
+
+    /** Counts the rows in our table from a separate session, which sees only committed data. */
+    protected static int countRowsInNewSession ()
+        throws SQLException
+    {
+        Connection conn = DriverManager.getConnection("jdbc:hsqldb:mem:" + DB_NAME, "sa", "none");
+        try {
+            Statement stmt = conn.createStatement();
+            ResultSet rs = stmt.executeQuery("select count(*) from ROWS");
+            assertTrue(rs.next());
+            return rs.getInt(1);
+        } finally {
+            conn.close();
+        }
+    }
+
+    protected static class TestRepository extends SimpleRepository
+    {
+        public Connection failed;
+
+        public TestRepository (ConnectionProvider provider) {
+            super(provider, "test");
+        }
+
+        public <V> V run (Operation<V> op) throws PersistenceException {
+            return executeUpdate(op);
+        }
+
+        @Override public int update (String query) throws PersistenceException {
+            return super.update(query);
+        }
+
+        public boolean hasConnectionInfo (Connection conn) {
+            return _connInfo.containsKey(new ConnectionKey(conn, null));
+        }
+
+        @Override protected void connectionFailed (Connection conn, SQLException error) {
+            failed = conn;
+        }
+    }
+
+    protected ConnectionProvider _provider;
+    protected TestRepository _repo;
+
+    protected static final String DB_NAME = "simplerepotest";
+}
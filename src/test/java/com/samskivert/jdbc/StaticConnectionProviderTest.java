@@ -0,0 +1,161 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.jdbc;
+
+import java.sql.Connection;
+import java.util.Properties;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.samskivert.io.PersistenceException;
+
+/**
+ * Tests the connection pooling done by the {@link StaticConnectionProvider}.
+ */
+public class StaticConnectionProviderTest
+{
+    @BeforeClass
+    public static void setUpJDBCDriver ()
+        throws Exception
+    {
+        Class.forName("org.hsqldb.jdbcDriver");
+    }
+
+    @Test
+    public void testPooling ()
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("default.username", "sa");
+        props.setProperty("default.password", "");
+        props.setProperty("default.url", "jdbc:hsqldb:mem:pooltest");
+        props.setProperty("default.pool_max_size", "2");
+        props.setProperty("default.pool_max_wait_millis", "50");
+        StaticConnectionProvider provider = new StaticConnectionProvider(props);
+
+        // we borrow each connection on its own thread, as requests on the same thread would share
+        // a single connection
+        Connection c1 = getConnectionOnThread(provider, "one");
+        Connection c2 = getConnectionOnThread(provider, "two");
+        assertNotSame(c1, c2);
+
+        // the pool is exhausted, so a third request times out
+        assertNull(getConnectionOnThread(provider, "three"));
+
+        // a released connection is handed out again
+        provider.releaseConnection("one", false, c1);
+        assertSame(c1, getConnectionOnThread(provider, "three"));
+
+        // a failed connection is closed and replaced
+        provider.connectionFailed("two", false, c2, null);
+        assertTrue(c2.isClosed());
+        Connection c3 = getConnectionOnThread(provider, "one");
+        assertNotSame(c2, c3);
+
+        StaticConnectionProvider.PoolStats stats =
+            provider.getPoolStats().values().iterator().next();
+        assertEquals(2, stats.active);
+        assertEquals(0, stats.idle);
+        assertEquals(4, stats.borrows);
+        assertEquals(1, stats.timeouts);
+
+        provider.releaseConnection("three", false, c1);
+        provider.releaseConnection("one", false, c3);
+        provider.shutdown();
+        assertTrue(c1.isClosed());
+        assertTrue(c3.isClosed());
+    }
+
+    @Test
+    public void testNesting ()
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("default.username", "sa");
+        props.setProperty("default.password", "");
+        props.setProperty("default.url", "jdbc:hsqldb:mem:nesttest");
+        props.setProperty("default.pool_max_size", "1");
+        props.setProperty("default.pool_max_wait_millis", "50");
+        StaticConnectionProvider provider = new StaticConnectionProvider(props);
+
+        // a nested request on the same thread shares the outer connection
+        Connection outer = provider.getConnection("one", false);
+        Connection inner = provider.getConnection("one", false);
+        assertSame(outer, inner);
+        provider.releaseConnection("one", false, inner);
+        assertEquals(1, provider.getPoolStats().values().iterator().next().active);
+
+        // while another thread must wait for the outer operation to release it
+        assertNull(getConnectionOnThread(provider, "one"));
+        provider.releaseConnection("one", false, outer);
+        assertEquals(0, provider.getPoolStats().values().iterator().next().active);
+
+        // a nested failure closes the connection, which is discarded when the outer op releases it
+        outer = provider.getConnection("one", false);
+        provider.connectionFailed("one", false, provider.getConnection("one", false), null);
+        assertTrue(outer.isClosed());
+        provider.releaseConnection("one", false, outer);
+        Connection fresh = provider.getConnection("one", false);
+        assertNotSame(outer, fresh);
+        assertFalse(fresh.isClosed());
+        provider.releaseConnection("one", false, fresh);
+        provider.shutdown();
+    }
+
+    @Test
+    public void testNestedIdents ()
+        throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("default.username", "sa");
+        props.setProperty("default.password", "");
+        props.setProperty("default.url", "jdbc:hsqldb:mem:nestidenttest");
+        props.setProperty("default.pool_max_size", "1");
+        props.setProperty("default.pool_max_wait_millis", "50");
+        StaticConnectionProvider provider = new StaticConnectionProvider(props);
+
+        // a nested operation on another ident that maps to the same database shares the outer
+        // connection (and transaction) rather than waiting for a second place in the pool
+        Connection outer = provider.getConnection("one", false);
+        Connection inner = provider.getConnection("two", false);
+        assertSame(outer, inner);
+        provider.releaseConnection("two", false, inner);
+        StaticConnectionProvider.PoolStats stats =
+            provider.getPoolStats().values().iterator().next();
+        assertEquals(1, stats.active);
+        assertEquals(1, stats.borrows);
+        assertEquals(0, stats.timeouts);
+
+        // the connection remains held until the outer operation releases it
+        assertNull(getConnectionOnThread(provider, "two"));
+        provider.releaseConnection("one", false, outer);
+        assertEquals(0, provider.getPoolStats().values().iterator().next().active);
+        Connection other = getConnectionOnThread(provider, "two");
+        assertSame(outer, other);
+        provider.releaseConnection("two", false, other);
+        provider.shutdown();
+    }
+
+    protected static Connection getConnectionOnThread (
+        final StaticConnectionProvider provider, final String ident)
+        throws Exception
+    {
+        final Connection[] conn = new Connection[1];
+        Thread thread = new Thread() {
+            @Override public void run () {
+                try {
+                    conn[0] = provider.getConnection(ident, false);
+                } catch (PersistenceException pe) {
+                    // leave it null
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+        return conn[0];
+    }
+}
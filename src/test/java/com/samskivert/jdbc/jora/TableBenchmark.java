@@ -0,0 +1,113 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.jdbc.jora;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.sql.Timestamp;
+
+import com.samskivert.jdbc.DatabaseLiaison;
+import com.samskivert.jdbc.HsqldbLiaison;
+
+/**
+ * Compares loading rows from an in-memory HSQLDB table via generated {@link RowBinder}s with
+ * loading them via reflection, and batched single-row inserts with multi-row inserts. Run by
+ * hand: {@code TableBenchmark [rows] [rounds]}.
+ */
+public class TableBenchmark
+{
+    public static class Row
+    {
+        public int rowId;
+        public long created;
+        public String name;
+        public String email;
+        public Integer score;
+        public Long parentId;
+        public double weight;
+        public boolean active;
+        public Timestamp updated;
+        public short flags;
+    }
+
+    public static void main (String[] args)
+        throws Exception
+    {
+        int rows = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 6;
+
+        Class.forName("org.hsqldb.jdbcDriver");
+        Connection conn = DriverManager.getConnection("jdbc:hsqldb:mem:bench", "sa", "");
+        Statement stmt = conn.createStatement();
+        for (String table : new String[] { "ROWS", "BULK_ROWS" }) {
+            stmt.executeUpdate("create table " + table + " (ROW_ID integer not null primary key, " +
+                               "CREATED bigint, NAME varchar(64), EMAIL varchar(128), " +
+                               "SCORE integer, PARENT_ID bigint, WEIGHT double, ACTIVE boolean, " +
+                               "UPDATED timestamp, FLAGS smallint)");
+        }
+        stmt.close();
+
+        Table<Row> generated = new Table<Row>(Row.class, "ROWS", "ROW_ID", true);
+        Table<Row> bulk = new Table<Row>(Row.class, "BULK_ROWS", "ROW_ID", true);
+        DatabaseLiaison liaison = new HsqldbLiaison();
+        Table.setGenerateBinders(false);
+        Table<Row> reflective = new Table<Row>(Row.class, "ROWS", "ROW_ID", true);
+
+        // populate the tables in batches
+        Row[] batch = new Row[1000];
+        long batchNanos = 0, bulkNanos = 0;
+        for (int ii = 0; ii < rows; ii += batch.length) {
+            for (int bb = 0; bb < batch.length; bb++) {
+                Row row = new Row();
+                row.rowId = ii + bb;
+                row.created = System.currentTimeMillis();
+                row.name = "row" + row.rowId;
+                row.email = row.name + "@example.com";
+                row.score = (row.rowId % 3 == 0) ? null : row.rowId;
+                row.parentId = (long)(row.rowId / 10);
+                row.weight = row.rowId / 7.0;
+                row.active = (row.rowId % 2 == 0);
+                row.updated = new Timestamp(row.created);
+                row.flags = (short)row.rowId;
+                batch[bb] = row;
+            }
+            long start = System.nanoTime();
+            generated.insert(conn, batch);
+            batchNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            bulk.insert(conn, liaison, batch);
+            bulkNanos += System.nanoTime() - start;
+        }
+        System.out.println(String.format("Inserted %,d rows in %,dms batched, %,dms multi-row",
+                                         rows, batchNanos / 1000000, bulkNanos / 1000000));
+
+        // the first few rounds are just to warm up the JIT
+        for (int rr = 0; rr < rounds; rr++) {
+            boolean report = (rr >= rounds/2);
+            run("generated", generated, conn, report);
+            run("reflective", reflective, conn, report);
+        }
+        conn.close();
+    }
+
+    protected static void run (String name, Table<Row> table, Connection conn, boolean report)
+        throws Exception
+    {
+        long start = System.nanoTime(), sum = 0;
+        int count = 0;
+        Cursor<Row> cursor = table.select(conn, "");
+        for (Row row; (row = cursor.next()) != null; ) {
+            sum += row.rowId + row.flags;
+            count++;
+        }
+        long elapsed = System.nanoTime() - start;
+        if (report) {
+            System.out.println(String.format("%-10s %,d rows in %,dms (%,.0f rows/s) [%d]", name,
+                                             count, elapsed / 1000000, count * 1e9 / elapsed, sum));
+        }
+    }
+}
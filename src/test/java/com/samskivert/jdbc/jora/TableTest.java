@@ -0,0 +1,334 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.jdbc.jora;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.samskivert.jdbc.ConnectionProvider;
+import com.samskivert.jdbc.DatabaseLiaison;
+import com.samskivert.jdbc.HsqldbLiaison;
+import com.samskivert.jdbc.MySQLLiaison;
+import com.samskivert.jdbc.PostgreSQLLiaison;
+import com.samskivert.jdbc.StaticConnectionProvider;
+
+/**
+ * Tests the {@link Table} class against an in-memory HSQLDB database.
+ */
+public class TableTest
+{
+    public static class Widget
+    {
+        public int widgetId;
+        public String name;
+        public Integer quantity;
+
+        public Widget () {
+        }
+
+        public Widget (int widgetId, String name, Integer quantity) {
+            this.widgetId = widgetId;
+            this.name = name;
+            this.quantity = quantity;
+        }
+    }
+
+    @BeforeClass
+    public static void setUpJDBCDriver ()
+        throws Exception
+    {
+        Class.forName("org.hsqldb.jdbcDriver");
+    }
+
+    @Before
+    public void createTable ()
+        throws Exception
+    {
+        _conn = DriverManager.getConnection("jdbc:hsqldb:mem:tabletest", "sa", "");
+        Statement stmt = _conn.createStatement();
+        stmt.executeUpdate("drop table WIDGETS if exists");
+        stmt.executeUpdate("create table WIDGETS (WIDGET_ID integer not null primary key, " +
+                           "NAME varchar(64), QUANTITY integer)");
+        stmt.close();
+        _table = new Table<Widget>(Widget.class, "WIDGETS", "WIDGET_ID", true);
+    }
+
+    @After
+    public void closeConnection ()
+        throws Exception
+    {
+        StatementCache.invalidate(_conn);
+        _conn.close();
+    }
+
+    @Test
+    public void testWrites ()
+        throws Exception
+    {
+        assertNotNull(_table.binder);
+        checkWrites();
+    }
+
+    @Test
+    public void testReflectiveWrites ()
+        throws Exception
+    {
+        Table.setGenerateBinders(false);
+        try {
+            _table = new Table<Widget>(Widget.class, "WIDGETS", "WIDGET_ID", true);
+        } finally {
+            Table.setGenerateBinders(true);
+        }
+        assertNull(_table.binder);
+        checkWrites();
+    }
+
+    @Test
+    public void testStream ()
+        throws Exception
+    {
+        for (int ii = 0; ii < 25; ii++) {
+            _table.insert(_conn, new Widget(ii, "widget" + ii, ii));
+        }
+        final int[] sum = new int[1];
+        int count = _table.stream(_conn, "where QUANTITY >= ?", 4, 10).forEach(
+            new Cursor.Visitor<Widget>() {
+                public void visit (Widget widget) {
+                    sum[0] += widget.quantity;
+                }
+            });
+        assertEquals(15, count);
+        assertEquals((10 + 24) * 15 / 2, sum[0]);
+    }
+
+    @Test
+    public void testBulkWrites ()
+        throws Exception
+    {
+        // limit the parameters so that our inserts are split into chunks of three rows
+        DatabaseLiaison liaison = new HsqldbLiaison() {
+            @Override public int getMaxStatementParameters () {
+                return 10;
+            }
+        };
+        Widget[] widgets = new Widget[10];
+        for (int ii = 0; ii < widgets.length; ii++) {
+            widgets[ii] = new Widget(ii, "widget" + ii, (ii % 2 == 0) ? null : ii);
+        }
+        _table.insert(_conn, liaison, widgets);
+        List<Widget> loaded = _table.select(_conn, "order by WIDGET_ID").toArrayList();
+        assertEquals(10, loaded.size());
+        assertNull(loaded.get(4).quantity);
+        assertEquals(Integer.valueOf(7), loaded.get(7).quantity);
+
+        // store a mix of existing and new widgets
+        Widget[] stored = new Widget[6];
+        for (int ii = 0; ii < stored.length; ii++) {
+            stored[ii] = new Widget(ii * 3, "stored" + ii, 100 + ii);
+        }
+        _table.store(_conn, liaison, stored);
+        loaded = _table.select(_conn, "order by WIDGET_ID").toArrayList();
+        assertEquals(12, loaded.size());
+        assertEquals("stored1", loaded.get(3).name);
+        assertEquals("widget4", loaded.get(4).name);
+        assertEquals(Integer.valueOf(105), _table.select(_conn, "where WIDGET_ID = 15").get().quantity);
+    }
+
+    @Test
+    public void testStoreWithoutBatchCounts ()
+        throws Exception
+    {
+        _table.insert(_conn, new Widget(1, "one", 1));
+        _table.insert(_conn, new Widget(2, "two", 2));
+
+        // pretend to be a driver that reports no per-row counts for batched updates
+        Connection conn = (Connection)Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { Connection.class },
+            new Delegator(_conn) {
+                @Override protected Object invoke (Method method, Object result) {
+                    return (result instanceof PreparedStatement) ? Proxy.newProxyInstance(
+                        getClass().getClassLoader(), new Class<?>[] { PreparedStatement.class },
+                        new Delegator(result) {
+                            @Override protected Object invoke (Method method, Object result) {
+                                if (method.getName().equals("executeBatch")) {
+                                    Arrays.fill((int[])result, Statement.SUCCESS_NO_INFO);
+                                }
+                                return result;
+                            }
+                        }) : result;
+                }
+            });
+        try {
+            _table.store(_conn, new HsqldbLiaison(), new Widget[] {
+                new Widget(2, "stored2", 20), new Widget(3, "stored3", 30) });
+            _table.store(conn, new HsqldbLiaison(), new Widget[] {
+                new Widget(1, "stored1", 10), new Widget(4, "stored4", 40) });
+        } finally {
+            StatementCache.invalidate(conn);
+        }
+        List<Widget> loaded = _table.select(_conn, "order by WIDGET_ID").toArrayList();
+        assertEquals(4, loaded.size());
+        for (int ii = 0; ii < loaded.size(); ii++) {
+            assertEquals("stored" + (ii+1), loaded.get(ii).name);
+        }
+    }
+
+    @Test
+    public void testUpsertClauses ()
+    {
+        String[] columns = { "WIDGET_ID", "NAME", "QUANTITY" }, keys = { "WIDGET_ID" };
+        assertEquals(" on duplicate key update NAME=values(NAME),QUANTITY=values(QUANTITY)",
+                     new MySQLLiaison().getUpsertClause(columns, keys));
+        assertEquals(" on conflict (WIDGET_ID) do update set NAME=excluded.NAME," +
+                     "QUANTITY=excluded.QUANTITY",
+                     new PostgreSQLLiaison().getUpsertClause(columns, keys));
+        assertEquals(" on conflict (WIDGET_ID) do nothing",
+                     new PostgreSQLLiaison().getUpsertClause(keys, keys));
+    }
+
+    protected void checkWrites ()
+        throws Exception
+    {
+        for (int ii = 0; ii < 10; ii++) {
+            _table.insert(_conn, new Widget(ii, "widget" + ii, ii * 10));
+        }
+        assertEquals(10, _table.select(_conn, "").toArrayList().size());
+
+        // a masked update only writes the modified fields
+        Widget w = new Widget(3, "renamed", 999);
+        FieldMask mask = _table.getFieldMask();
+        mask.setModified("name");
+        assertEquals(1, _table.update(_conn, w, mask));
+        Widget rw = _table.select(_conn, "where WIDGET_ID = 3").get();
+        assertEquals("renamed", rw.name);
+        assertEquals(Integer.valueOf(30), rw.quantity);
+
+        // a full update writes everything, including nulls
+        w.quantity = null;
+        assertEquals(1, _table.update(_conn, w));
+        assertNull(_table.select(_conn, "where WIDGET_ID = 3").get().quantity);
+
+        assertEquals(1, _table.delete(_conn, w));
+        assertEquals(2, _table.delete(_conn, new Widget[] {
+            new Widget(4, null, null), new Widget(5, null, null) }));
+        List<Widget> rest = _table.select(_conn, "order by WIDGET_ID").toArrayList();
+        assertEquals(7, rest.size());
+        assertEquals(6, rest.get(3).widgetId);
+    }
+
+    @Test
+    public void testStatementReuse ()
+        throws Exception
+    {
+        _table.insert(_conn, new Widget(1, "one", 1));
+        PreparedStatement stmt = StatementCache.prepare(_conn, _table.insertSQL, false);
+        _table.insert(_conn, new Widget(2, "two", 2));
+        assertSame(stmt, StatementCache.prepare(_conn, _table.insertSQL, false));
+
+        // a failed insert discards the statement, but subsequent inserts work
+        try {
+            _table.insert(_conn, new Widget(2, "dup", 2));
+            fail("Expected duplicate key failure");
+        } catch (java.sql.SQLException sqe) {
+            // expected
+        }
+        assertTrue(stmt.isClosed());
+        _table.insert(_conn, new Widget(3, "three", 3));
+        assertEquals(3, _table.select(_conn, "").toArrayList().size());
+
+        // invalidating the connection closes its statements
+        stmt = StatementCache.prepare(_conn, _table.insertSQL, false);
+        StatementCache.invalidate(_conn);
+        assertTrue(stmt.isClosed());
+        assertFalse(StatementCache._caches.containsKey(_conn));
+
+        // the pool forgets the statements of the connections that it closes
+        ConnectionProvider provider = StaticConnectionProvider.forTest("tablepooltest");
+        Connection pconn = provider.getConnection("default", false);
+        Statement pstmt = pconn.createStatement();
+        pstmt.executeUpdate("create table WIDGETS (WIDGET_ID integer not null primary key, " +
+                            "NAME varchar(64), QUANTITY integer)");
+        pstmt.close();
+        _table.insert(pconn, new Widget(4, "four", 4));
+        assertTrue(StatementCache._caches.containsKey(pconn));
+        provider.releaseConnection("default", false, pconn);
+        provider.shutdown();
+        assertFalse(StatementCache._caches.containsKey(pconn));
+    }
+
+    @Test
+    public void testMaskedUpdateSQL ()
+    {
+        FieldMask mask = _table.getFieldMask();
+        mask.setModified("name");
+        String sql = _table.getUpdateSQL(mask);
+        assertSame(mask.getModifiedSet(), mask.getModifiedSet());
+        assertTrue(sql.contains("NAME") && !sql.contains("QUANTITY"));
+
+        // other masks with the same modified fields share the SQL
+        FieldMask other = mask.clone();
+        assertTrue(other.getModifiedSet().isEmpty());
+        other.setModified("name");
+        assertSame(sql, _table.getUpdateSQL(other));
+
+        // and modifying the mask updates its modified set
+        mask.setModified("quantity");
+        assertTrue(_table.getUpdateSQL(mask).contains("QUANTITY"));
+        mask.clear();
+        assertTrue(mask.getModifiedSet().isEmpty());
+    }
+
+    @Test
+    public void testCopy ()
+    {
+        Widget widget = new Widget(1, "one", 5);
+        Widget copy = _table.copy(widget);
+        assertNotSame(widget, copy);
+        assertEquals(1, copy.widgetId);
+        assertEquals("one", copy.name);
+        assertEquals(Integer.valueOf(5), copy.quantity);
+
+        widget.quantity = null;
+        copy = _table.copy(widget);
+        assertNull(copy.quantity);
+    }
+
+    /** Forwards calls to a delegate, allowing the results to be adjusted. */
+    protected static class Delegator implements InvocationHandler
+    {
+        public Delegator (Object delegate) {
+            _delegate = delegate;
+        }
+
+        public Object invoke (Object proxy, Method method, Object[] args) throws Throwable {
+            try {
+                return invoke(method, method.invoke(_delegate, args));
+            } catch (InvocationTargetException ite) {
+                throw ite.getCause();
+            }
+        }
+
+        protected Object invoke (Method method, Object result) {
+            return result;
+        }
+
+        protected final Object _delegate;
+    }
+
+    protected Connection _conn;
+    protected Table<Widget> _table;
+}
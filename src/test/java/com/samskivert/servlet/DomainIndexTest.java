@@ -0,0 +1,67 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.servlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.samskivert.servlet.JDBCTableSiteIdentifier.DomainIndex;
+import com.samskivert.servlet.JDBCTableSiteIdentifier.SiteMapping;
+
+/**
+ * Tests the domain matching of the {@link JDBCTableSiteIdentifier}.
+ */
+public class DomainIndexTest
+{
+    @Test
+    public void testLabelBoundary ()
+    {
+        DomainIndex index = createIndex("samskivert.com", 1, ".foo.com", 2);
+        assertEquals(1, index.identify("samskivert.com", DEFAULT));
+        assertEquals(1, index.identify("www.samskivert.com", DEFAULT));
+        assertEquals(1, index.identify("a.b.samskivert.com", DEFAULT));
+        assertEquals(2, index.identify("www.foo.com", DEFAULT));
+
+        // a domain only matches at a label boundary
+        assertEquals(DEFAULT, index.identify("notsamskivert.com", DEFAULT));
+        assertEquals(DEFAULT, index.identify("samskivert.com.au", DEFAULT));
+        assertEquals(DEFAULT, index.identify("barfoo.com", DEFAULT));
+        assertEquals(DEFAULT, index.identify("com", DEFAULT));
+
+        // and the lookups of unmatched names are cached as misses
+        assertEquals(DEFAULT, index.identify("notsamskivert.com", DEFAULT));
+        assertEquals(Integer.valueOf(JDBCTableSiteIdentifier.NO_MATCH),
+                     index._cache.get("notsamskivert.com"));
+    }
+
+    @Test
+    public void testLongestMatch ()
+    {
+        DomainIndex index = createIndex(
+            "samskivert.com", 1, "www.samskivert.com", 2, "a.www.samskivert.com", 3);
+        assertEquals(1, index.identify("mail.samskivert.com", DEFAULT));
+        assertEquals(2, index.identify("www.samskivert.com", DEFAULT));
+        assertEquals(2, index.identify("b.www.samskivert.com", DEFAULT));
+        assertEquals(3, index.identify("a.www.samskivert.com", DEFAULT));
+        assertEquals(3, index.identify("x.a.www.samskivert.com", DEFAULT));
+    }
+
+    protected static DomainIndex createIndex (Object... domainIds)
+    {
+        List<SiteMapping> mappings = new ArrayList<SiteMapping>();
+        for (int ii = 0; ii < domainIds.length; ii += 2) {
+            mappings.add(new SiteMapping((Integer)domainIds[ii+1], (String)domainIds[ii]));
+        }
+        Collections.sort(mappings, SiteMapping.BY_SPECIFICITY);
+        return new DomainIndex(mappings);
+    }
+
+    protected static final int DEFAULT = -1;
+}
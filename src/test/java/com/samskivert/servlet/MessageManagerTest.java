@@ -0,0 +1,83 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.servlet;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.ResourceBundle;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the message caching of the {@link MessageManager}.
+ */
+public class MessageManagerTest
+{
+    @Test
+    public void testBundleKeys ()
+    {
+        MessageManager msgmgr = new MessageManager("util.test", Locale.US, null);
+        ResourceBundle[] bundles = msgmgr.resolveBundles(null);
+        assertEquals("twenty five", msgmgr.getMessage(null, "prop2"));
+
+        // reloaded bundles are different objects but map to the same key
+        ResourceBundle.clearCache();
+        ResourceBundle[] rbundles = msgmgr.resolveBundles(null);
+        assertNotSame(bundles[1], rbundles[1]);
+        assertEquals(new MessageManager.BundleKey(null, bundles),
+                     new MessageManager.BundleKey(null, rbundles));
+        assertEquals(new MessageManager.BundleKey(null, bundles).hashCode(),
+                     new MessageManager.BundleKey(null, rbundles).hashCode());
+        assertEquals("twenty five", msgmgr.getMessage(null, "prop2"));
+        assertEquals(1, msgmgr._messages.size());
+
+        // but the same bundles loaded for different sites do not
+        assertNotEquals(new MessageManager.BundleKey(1, bundles),
+                        new MessageManager.BundleKey(2, bundles));
+        assertNotEquals(new MessageManager.BundleKey(null, bundles),
+                        new MessageManager.BundleKey(null, new ResourceBundle[2]));
+    }
+
+    @Test
+    public void testSiteCheckInterval ()
+        throws IOException
+    {
+        final int[] checks = new int[1];
+        final long[] modified = new long[] { 1L };
+        MessageManager msgmgr = new MessageManager("util.test", Locale.US, null);
+        msgmgr.activateSiteSpecificMessages("site", new SiteResourceLoader(null, "/nonexistent") {
+            @Override public long getLastModified (int siteId) {
+                checks[0]++;
+                return modified[0];
+            }
+        });
+        ClassLoader loader = getClass().getClassLoader();
+
+        // repeated checks within the interval don't consult the site loader
+        msgmgr.setSiteCheckInterval(60 * 1000L);
+        msgmgr.getMessage(null, "prop1");
+        msgmgr.checkSiteModified(1, loader);
+        msgmgr.checkSiteModified(1, loader);
+        msgmgr.checkSiteModified(1, loader);
+        assertEquals(1, checks[0]);
+
+        // but each site is checked separately
+        msgmgr.checkSiteModified(2, loader);
+        assertEquals(2, checks[0]);
+
+        // once the interval expires we check again and flush our messages if they changed
+        msgmgr.setSiteCheckInterval(0L);
+        msgmgr._siteChecks.clear();
+        msgmgr.checkSiteModified(1, loader);
+        assertEquals(3, checks[0]);
+        assertEquals(1, msgmgr._messages.size());
+        modified[0] = 2L;
+        msgmgr.checkSiteModified(1, loader);
+        assertEquals(4, checks[0]);
+        assertEquals(0, msgmgr._messages.size());
+    }
+}
@@ -0,0 +1,186 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.servlet.user;
+
+import java.sql.Connection;
+import java.sql.Statement;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.samskivert.io.PersistenceException;
+import com.samskivert.jdbc.ConnectionProvider;
+import com.samskivert.jdbc.StaticConnectionProvider;
+import com.samskivert.jdbc.jora.Table;
+
+/**
+ * Tests the session caching done by the {@link UserRepository}.
+ */
+public class UserRepositoryTest
+{
+    @BeforeClass
+    public static void setUpJDBCDriver ()
+        throws Exception
+    {
+        Class.forName("org.hsqldb.jdbcDriver");
+    }
+
+    @Before
+    public void createTables ()
+        throws Exception
+    {
+        _provider = StaticConnectionProvider.forTest("usertest");
+        Connection conn = _provider.getConnection(UserRepository.USER_REPOSITORY_IDENT, false);
+        Statement stmt = conn.createStatement();
+        stmt.executeUpdate("drop table users if exists");
+        stmt.executeUpdate("drop table sessions if exists");
+        stmt.executeUpdate("create table users (userId integer not null primary key, " +
+                           "username varchar(64), created date, realname varchar(64), " +
+                           "password varchar(64), email varchar(64), siteId integer)");
+        stmt.executeUpdate("create table sessions (authcode varchar(64) not null primary key, " +
+                           "userId integer, expires date)");
+        stmt.executeUpdate("insert into users values (1, 'one', CURRENT_DATE, 'One', '', '', 0)");
+        stmt.executeUpdate("insert into users values (2, 'two', CURRENT_DATE, 'Two', '', '', 0)");
+        stmt.executeUpdate("insert into sessions values ('one-a', 1, CURRENT_DATE + 1 DAY)");
+        stmt.executeUpdate("insert into sessions values ('one-b', 1, CURRENT_DATE + 1 DAY)");
+        stmt.executeUpdate("insert into sessions values ('two-a', 2, CURRENT_DATE + 1 DAY)");
+        stmt.close();
+        _provider.releaseConnection(UserRepository.USER_REPOSITORY_IDENT, false, conn);
+        _repo = new TestRepository(_provider);
+    }
+
+    @After
+    public void shutdown ()
+    {
+        _provider.shutdown();
+    }
+
+    @Test
+    public void testDisabledByDefault ()
+        throws Exception
+    {
+        assertEquals(1, _repo.loadUserBySession("one-a").userId);
+        deleteSession("one-a");
+        assertNull(_repo.loadUserBySession("one-a"));
+    }
+
+    @Test
+    public void testInvalidation ()
+        throws Exception
+    {
+        _repo.setSessionCacheParams(100, 60 * 1000L);
+        assertEquals(1, _repo.loadUserBySession("one-a").userId);
+        assertEquals(1, _repo.loadUserBySession("one-b").userId);
+        assertEquals(2, _repo.loadUserBySession("two-a").userId);
+
+        // the sessions are now served from the cache
+        deleteSession("one-a");
+        deleteSession("one-b");
+        deleteSession("two-a");
+        assertEquals(1, _repo.loadUserBySession("one-a").userId);
+        assertEquals(2, _repo.loadUserBySession("two-a").userId);
+
+        // invalidating a user's sessions only affects that user
+        _repo.invalidateSessions(1);
+        assertNull(_repo.loadUserBySession("one-a"));
+        assertNull(_repo.loadUserBySession("one-b"));
+        assertEquals(2, _repo.loadUserBySession("two-a").userId);
+        assertNull(_repo._userSessions.get(1));
+
+        _repo.invalidateSession("two-a");
+        assertNull(_repo.loadUserBySession("two-a"));
+        assertTrue(_repo._sessions.isEmpty());
+        assertTrue(_repo._userSessions.isEmpty());
+    }
+
+    @Test
+    public void testInvalidationDuringLoad ()
+        throws Exception
+    {
+        _repo.setSessionCacheParams(100, 60 * 1000L);
+        // a session that is invalidated while it is being loaded must not be cached
+        _repo.duringLoad = new Runnable() {
+            public void run () {
+                _repo.invalidateSessions(1);
+            }
+        };
+        assertEquals(1, _repo.loadUserBySession("one-a").userId);
+        _repo.duringLoad = null;
+        assertNull(_repo._sessions.get("one-a"));
+        assertNull(_repo._userSessions.get(1));
+
+        // whereas one loaded undisturbed is
+        assertEquals(1, _repo.loadUserBySession("one-a").userId);
+        assertNotNull(_repo._sessions.get("one-a"));
+    }
+
+    @Test
+    public void testRefreshCoalescing ()
+        throws Exception
+    {
+        // use a tiny TTL so that the cached session expires and is reloaded
+        _repo.setSessionCacheParams(100, 1L);
+        assertEquals(1, _repo.loadUserBySession("one-a").userId);
+        assertTrue(_repo.refreshSession("one-a", 2));
+        assertEquals(1, _repo.refreshes);
+        assertTrue(_repo.refreshSession("one-a", 2));
+        assertEquals(1, _repo.refreshes);
+
+        // the session's refresh date survives its reloading
+        Thread.sleep(10);
+        assertEquals(1, _repo.loadUserBySession("one-a").userId);
+        assertTrue(_repo.refreshSession("one-a", 2));
+        assertEquals(1, _repo.refreshes);
+
+        // but a different expiry date is written through
+        assertTrue(_repo.refreshSession("one-a", 3));
+        assertEquals(2, _repo.refreshes);
+    }
+
+    protected void deleteSession (String authcode)
+        throws Exception
+    {
+        Connection conn = _provider.getConnection(UserRepository.USER_REPOSITORY_IDENT, false);
+        Statement stmt = conn.createStatement();
+        stmt.executeUpdate("delete from sessions where authcode = '" + authcode + "'");
+        stmt.close();
+        _provider.releaseConnection(UserRepository.USER_REPOSITORY_IDENT, false, conn);
+    }
+
+    protected static class TestRepository extends UserRepository
+    {
+        /** The number of session refresh updates issued. */
+        public int refreshes;
+
+        /** Run after a user is loaded, but before it is returned. */
+        public Runnable duringLoad;
+
+        public TestRepository (ConnectionProvider provider) {
+            super(provider);
+        }
+
+        @Override protected int updateParams (String query, Object... params)
+            throws PersistenceException {
+            if (query.startsWith("update sessions")) {
+                refreshes++;
+            }
+            return super.updateParams(query, params);
+        }
+
+        @Override protected <T> T loadParams (
+            Table<T> table, String auxtable, String query, Object... params)
+            throws PersistenceException {
+            T result = super.loadParams(table, auxtable, query, params);
+            if (duringLoad != null) {
+                duringLoad.run();
+            }
+            return result;
+        }
+    }
+
+    protected ConnectionProvider _provider;
+    protected TestRepository _repo;
+}
@@ -0,0 +1,116 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.util;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays key traces through {@link LRUHashMap}s with and without a {@link TinyLFUPolicy} and
+ * reports their hit rates side by side, to help choose a policy for a particular cache. Run by
+ * hand: {@code CacheSimulator size[,size...] [trace file...]}. A trace file lists one requested
+ * key per line (only the first whitespace-delimited token of each line is used). If no trace
+ * files are supplied, synthetic Zipfian traces (with and without a periodic scan) are used.
+ */
+public class CacheSimulator
+{
+    public static void main (String[] args)
+        throws Exception
+    {
+        String[] sizes = StringUtil.split((args.length > 0) ? args[0] : "1000,5000,20000", ",");
+        List<String> names = new ArrayList<String>();
+        List<Object[]> traces = new ArrayList<Object[]>();
+        if (args.length > 1) {
+            for (int ii = 1; ii < args.length; ii++) {
+                names.add(args[ii]);
+                traces.add(readTrace(args[ii]));
+            }
+        } else {
+            names.add("zipf");
+            traces.add(box(LRUHashMapBenchmark.zipfTrace(100000, 2000000, 0.9, 0)));
+            names.add("zipf+scan");
+            traces.add(withScans(LRUHashMapBenchmark.zipfTrace(100000, 2000000, 0.9, 0)));
+        }
+
+        System.out.println(String.format("%-20s %8s %8s %8s", "trace", "size", "lru", "tinylfu"));
+        for (int ii = 0; ii < traces.size(); ii++) {
+            for (String size : sizes) {
+                int max = Integer.parseInt(size.trim());
+                LRUHashMap<Object,Object> tlfu = new LRUHashMap<Object,Object>(max);
+                tlfu.setAdmissionPolicy(new TinyLFUPolicy(max));
+                System.out.println(String.format(
+                                       "%-20s %8d %7.2f%% %7.2f%%", names.get(ii), max,
+                                       hitRate(new LRUHashMap<Object,Object>(max), traces.get(ii)),
+                                       hitRate(tlfu, traces.get(ii))));
+            }
+        }
+    }
+
+    /**
+     * Replays the supplied trace through the supplied cache, returning its hit rate in percent.
+     */
+    public static double hitRate (LRUHashMap<Object,Object> cache, Object[] trace)
+    {
+        int hits = 0;
+        for (Object key : trace) {
+            if (cache.get(key) != null) {
+                hits++;
+            } else {
+                cache.put(key, key);
+            }
+        }
+        return 100.0 * hits / trace.length;
+    }
+
+    protected static Object[] readTrace (String path)
+        throws Exception
+    {
+        List<Object> keys = new ArrayList<Object>();
+        BufferedReader in = new BufferedReader(new FileReader(path));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0) {
+                    keys.add(line.split("\\s+", 2)[0]);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return keys.toArray();
+    }
+
+    protected static Object[] box (int[] trace)
+    {
+        Object[] keys = new Object[trace.length];
+        for (int ii = 0; ii < trace.length; ii++) {
+            keys[ii] = trace[ii];
+        }
+        return keys;
+    }
+
+    /**
+     * Returns the supplied trace with a scan of 50,000 never before seen keys inserted after
+     * every 250,000 requests, as a nightly batch job might do.
+     */
+    protected static Object[] withScans (int[] trace)
+    {
+        List<Object> keys = new ArrayList<Object>();
+        int next = -1;
+        for (int ii = 0; ii < trace.length; ii++) {
+            if (ii % 250000 == 0) {
+                for (int ss = 0; ss < 50000; ss++) {
+                    keys.add(next--);
+                }
+            }
+            keys.add(trace[ii]);
+        }
+        return keys.toArray();
+    }
+}
@@ -0,0 +1,130 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.util;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link ConcurrentLRUHashMap} class.
+ */
+public class ConcurrentLRUHashMapTest
+{
+    @Test
+    public void testSizing ()
+    {
+        ConcurrentLRUHashMap<String,Integer> map =
+            new ConcurrentLRUHashMap<String,Integer>(10, new LRUHashMap.ItemSizer<Integer>() {
+            public int computeSize (Integer item) {
+                return item.intValue();
+            }
+        });
+
+        for (int ii = 1; ii <= 5; ii++) {
+            map.put("one." + ii, 1);
+        }
+        map.put("three.1", 3);
+        assertEquals(6, map.size());
+        map.put("five.1", 5);
+        assertEquals(4, map.size());
+        map.put("three.2", 3);
+        assertEquals(2, map.size());
+        map.put("three.3", 3);
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void testLRUOrder ()
+    {
+        ConcurrentLRUHashMap<Integer,String> map = new ConcurrentLRUHashMap<Integer,String>(3);
+        final AtomicInteger removed = new AtomicInteger();
+        map.setRemovalObserver(new LRUHashMap.RemovalObserver<Integer,String>() {
+            public void removedFromMap (LRUHashMap<Integer,String> lmap, String item) {
+                removed.incrementAndGet();
+            }
+        });
+        map.setTracking(true);
+
+        map.put(1, "one");
+        map.put(2, "two");
+        map.put(3, "three");
+        // reading 1 makes 2 the least recently used
+        assertEquals("one", map.get(1));
+        map.put(4, "four");
+        assertNull(map.get(2));
+        assertEquals("one", map.get(1));
+        assertEquals(1, removed.get());
+
+        // replacing a value notifies the observer, putIfAbsent doesn't replace
+        map.put(4, "FOUR");
+        assertEquals("FOUR", map.putIfAbsent(4, "four"));
+        assertEquals(2, removed.get());
+
+        // no flushing while flushing is disabled
+        map.setCanFlush(false);
+        map.put(5, "five");
+        map.put(6, "six");
+        assertEquals(5, map.size());
+        map.setCanFlush(true);
+        assertEquals(3, map.size());
+        assertEquals(4, removed.get());
+
+        assertArrayEquals(new int[] { 2, 1 }, map.getTrackedEffectiveness());
+    }
+
+    @Test
+    public void testConcurrentAccess ()
+        throws Exception
+    {
+        final int maxSize = 100;
+        final ConcurrentLRUHashMap<Integer,Integer> map =
+            new ConcurrentLRUHashMap<Integer,Integer>(maxSize);
+        final AtomicInteger removed = new AtomicInteger();
+        map.setRemovalObserver(new LRUHashMap.RemovalObserver<Integer,Integer>() {
+            public void removedFromMap (LRUHashMap<Integer,Integer> lmap, Integer item) {
+                removed.incrementAndGet();
+            }
+        });
+
+        final AtomicInteger added = new AtomicInteger(), failures = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int tt = 0; tt < threads.length; tt++) {
+            final int seed = tt;
+            threads[tt] = new Thread() {
+                @Override public void run () {
+                    Random rando = new Random(seed);
+                    for (int ii = 0; ii < 100000; ii++) {
+                        Integer key = rando.nextInt(500);
+                        Integer value = map.get(key);
+                        if (value == null) {
+                            if (map.putIfAbsent(key, key) == null) {
+                                added.incrementAndGet();
+                            }
+                        } else if (!value.equals(key)) {
+                            failures.incrementAndGet();
+                        }
+                        if (ii % 1000 == 0) {
+                            map.remove(key);
+                        }
+                    }
+                }
+            };
+            threads[tt].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, failures.get());
+        assertEquals(maxSize, map.size());
+        assertEquals(maxSize, map.keySet().size());
+        // every added entry is either still in the map or was removed exactly once
+        assertEquals(added.get(), maxSize + removed.get());
+    }
+}
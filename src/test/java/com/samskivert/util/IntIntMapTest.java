@@ -0,0 +1,117 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.util;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link IntIntMap} class.
+ */
+public class IntIntMapTest
+{
+    @Test
+    public void testRandomOps ()
+    {
+        IntIntMap map = new IntIntMap();
+        HashMap<Integer,Integer> check = new HashMap<Integer,Integer>();
+        Random rando = new Random(42);
+        for (int ii = 0; ii < 100000; ii++) {
+            int key = rando.nextInt(5000) - 2500;
+            switch (rando.nextInt(4)) {
+            case 0:
+                Integer ovalue = check.remove(key);
+                assertEquals((ovalue == null) ? -2 : ovalue, map.removeOrElse(key, -2));
+                break;
+            case 1:
+                Integer cvalue = check.get(key);
+                check.put(key, ((cvalue == null) ? 0 : cvalue) + 3);
+                assertEquals((int)check.get(key), map.increment(key, 3));
+                break;
+            default:
+                check.put(key, ii);
+                map.put(key, ii);
+                break;
+            }
+        }
+        assertContents(check, map);
+    }
+
+    @Test
+    public void testBulkAndIteration ()
+    {
+        IntIntMap map = new IntIntMap();
+        int[] keys = new int[1000], values = new int[1000];
+        for (int ii = 0; ii < keys.length; ii++) {
+            keys[ii] = ii * 31;
+            values[ii] = ii;
+        }
+        map.putAll(keys, values);
+        assertEquals(keys.length, map.size());
+
+        final int[] sum = new int[1];
+        map.forEach(new IntIntMap.IntIntConsumer() {
+            public void accept (int key, int value) {
+                assertEquals(key, value * 31);
+                sum[0] += value;
+            }
+        });
+        assertEquals(999 * 1000 / 2, sum[0]);
+
+        // remove the odd values via the iterator
+        for (Iterator<IntIntMap.IntIntEntry> iter = map.entrySet().iterator(); iter.hasNext(); ) {
+            if (iter.next().getIntValue() % 2 == 1) {
+                iter.remove();
+            }
+        }
+        assertEquals(500, map.size());
+        int[] rvalues = map.getValues();
+        Arrays.sort(rvalues);
+        for (int ii = 0; ii < rvalues.length; ii++) {
+            assertEquals(ii * 2, rvalues[ii]);
+        }
+    }
+
+    @Test
+    public void testSerialization ()
+        throws Exception
+    {
+        IntIntMap map = new IntIntMap();
+        for (int ii = 0; ii < 100; ii++) {
+            map.put(ii, -ii);
+        }
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bout);
+        out.writeObject(map);
+        out.close();
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bout.toByteArray()));
+        IntIntMap read = (IntIntMap)in.readObject();
+        assertEquals(map.size(), read.size());
+        for (int ii = 0; ii < 100; ii++) {
+            assertEquals(-ii, read.get(ii));
+        }
+    }
+
+    protected void assertContents (HashMap<Integer,Integer> check, IntIntMap map)
+    {
+        assertEquals(check.size(), map.size());
+        for (HashMap.Entry<Integer,Integer> entry : check.entrySet()) {
+            assertEquals((int)entry.getValue(), map.getOrElse(entry.getKey(), -2));
+        }
+        int[] keys = map.getKeys(), values = map.getValues();
+        for (int ii = 0; ii < keys.length; ii++) {
+            assertEquals((int)check.get(keys[ii]), values[ii]);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.util;
+
+import java.util.Random;
+
+/**
+ * Compares the chained {@link HashIntMap} with the open addressing {@link OpenHashIntMap}. Run
+ * by hand: {@code IntMapBenchmark [entries] [rounds]}.
+ */
+public class IntMapBenchmark
+{
+    public static void main (String[] args)
+    {
+        int entries = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+
+        int[] keys = new int[entries];
+        Random rando = new Random(entries);
+        for (int ii = 0; ii < entries; ii++) {
+            keys[ii] = rando.nextInt();
+        }
+
+        // the first few rounds are just to warm up the JIT
+        for (int rr = 0; rr < rounds; rr++) {
+            boolean report = (rr >= rounds/2);
+            run("HashIntMap", new HashIntMap<Object>(), keys, report);
+            run("OpenHashIntMap", new OpenHashIntMap<Object>(), keys, report);
+        }
+    }
+
+    protected static void run (String name, IntMap<Object> map, int[] keys, boolean report)
+    {
+        long start = System.nanoTime();
+        for (int key : keys) {
+            map.put(key, VALUE);
+        }
+        long put = System.nanoTime();
+        for (int key : keys) {
+            if (map.get(key) != VALUE) {
+                throw new AssertionError("Missing " + key);
+            }
+        }
+        long get = System.nanoTime();
+        int count = 0;
+        for (IntMap.IntEntry<Object> entry : map.intEntrySet()) {
+            count += (entry.getValue() == VALUE) ? 1 : 0;
+        }
+        long iter = System.nanoTime();
+        for (int key : keys) {
+            map.remove(key);
+        }
+        long remove = System.nanoTime();
+
+        if (report) {
+            System.out.println(name + " [n=" + count + ", put=" + perOp(put-start, keys) +
+                               ", get=" + perOp(get-put, keys) + ", iter=" + perOp(iter-get, keys) +
+                               ", remove=" + perOp(remove-iter, keys) + "]");
+        }
+    }
+
+    protected static String perOp (long nanos, int[] keys)
+    {
+        return String.format("%.1fns", nanos / (double)keys.length);
+    }
+
+    protected static final Object VALUE = new Object();
+}
@@ -0,0 +1,65 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.util;
+
+/**
+ * Measures the cost of scheduling and cancelling many long-lived intervals (such as session
+ * timeouts) with each {@link Interval.Backend}. Run by hand: {@code IntervalBenchmark [count]}.
+ */
+public class IntervalBenchmark
+{
+    public static void main (String[] args)
+        throws Exception
+    {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        // the first round of each is just to warm up the JIT
+        for (int rr = 0; rr < 3; rr++) {
+            for (Interval.Backend backend : Interval.Backend.values()) {
+                run(backend, count, rr > 0);
+            }
+        }
+    }
+
+    protected static void run (Interval.Backend backend, int count, boolean report)
+    {
+        Interval.setBackend(backend);
+        Interval[] intervals = new Interval[count];
+        for (int ii = 0; ii < count; ii++) {
+            intervals[ii] = new Interval(Interval.RUN_DIRECT) {
+                @Override public void expired () {
+                    // noop
+                }
+            };
+        }
+
+        // schedule every interval between ten and twenty minutes out, then reschedule each once
+        // (as when a session is touched), then cancel them all
+        long start = System.nanoTime();
+        for (int ii = 0; ii < count; ii++) {
+            intervals[ii].schedule(600000L + ii % 600000);
+        }
+        long scheduled = System.nanoTime();
+        for (int ii = 0; ii < count; ii++) {
+            intervals[ii].schedule(600000L + (ii * 7) % 600000);
+        }
+        long rescheduled = System.nanoTime();
+        for (int ii = 0; ii < count; ii++) {
+            intervals[ii].cancel();
+        }
+        long cancelled = System.nanoTime();
+
+        // the timer keeps cancelled tasks in its queue until they're due (or it's purged)
+        int retained = (backend == Interval.Backend.TIMER) ? Interval._timer.purge() :
+            Interval.getWheel().getPendingCount();
+        if (report) {
+            System.out.println(String.format(
+                                   "%-13s schedule %5.0fns  reschedule %5.0fns  cancel %5.0fns  " +
+                                   "retained %,d", backend, (scheduled - start) / (double)count,
+                                   (rescheduled - scheduled) / (double)count,
+                                   (cancelled - rescheduled) / (double)count, retained));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * Compares the throughput of an {@link Invoker} using its synchronized {@link Queue} with one
+ * using its lock-free queue, with 1, 4 and 16 posting threads. Run by hand:
+ * {@code InvokerBenchmark [units per poster] [rounds]}.
+ */
+public class InvokerBenchmark
+{
+    public static void main (String[] args)
+        throws InterruptedException
+    {
+        int units = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 6;
+
+        // the first few rounds are just to warm up the JIT
+        for (int rr = 0; rr < rounds; rr++) {
+            boolean report = (rr >= rounds/2);
+            for (int posters : new int[] { 1, 4, 16 }) {
+                run("locking", false, posters, units, report);
+                run("lock-free", true, posters, units, report);
+            }
+        }
+    }
+
+    protected static void run (String name, boolean lockFree, int posters, final int units,
+                               boolean report)
+        throws InterruptedException
+    {
+        Invoker invoker = new Invoker("bench", DIRECT, lockFree);
+        invoker.start();
+
+        final CountDownLatch done = new CountDownLatch(posters);
+        final Invoker finvoker = invoker;
+        Thread[] threads = new Thread[posters];
+        for (int pp = 0; pp < posters; pp++) {
+            threads[pp] = new Thread() {
+                @Override public void run () {
+                    for (int ii = 1; ii < units; ii++) {
+                        finvoker.postUnit(new Invoker.Unit() {
+                            @Override public boolean invoke () {
+                                return false;
+                            }
+                        });
+                    }
+                    finvoker.postUnit(new Invoker.Unit() {
+                        @Override public boolean invoke () {
+                            done.countDown();
+                            return false;
+                        }
+                    });
+                }
+            };
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        invoker.shutdown();
+        invoker.join();
+
+        if (report) {
+            long total = (long)posters * units;
+            System.out.println(String.format("%-9s posters=%-2d %,12.0f units/s", name, posters,
+                                             total * 1e9 / elapsed));
+        }
+    }
+
+    protected static final Executor DIRECT = new Executor() {
+        public void execute (Runnable command) {
+            command.run();
+        }
+    };
+}
@@ -0,0 +1,197 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link Invoker} class.
+ */
+public class InvokerTest
+{
+    @Test
+    public void testLocking ()
+        throws InterruptedException
+    {
+        testOrdering(new Invoker("test", DIRECT));
+    }
+
+    @Test
+    public void testLockFree ()
+        throws InterruptedException
+    {
+        testOrdering(new Invoker("test", DIRECT, true));
+    }
+
+    @Test
+    public void testBatching ()
+        throws InterruptedException
+    {
+        for (boolean lockFree : new boolean[] { false, true }) {
+            Invoker invoker = new Invoker("test", DIRECT, lockFree);
+            final List<Integer> sizes = new ArrayList<Integer>();
+            final List<Integer> order = new ArrayList<Integer>();
+            final int[] results = new int[1];
+
+            // queue everything up before starting so that the units are queued together
+            for (int ii = 0; ii < 25; ii++) {
+                final int seq = ii;
+                if (ii == 12) {
+                    invoker.postUnit(new Invoker.Unit() {
+                        @Override public boolean invoke () {
+                            order.add(seq);
+                            return false;
+                        }
+                    });
+                    continue;
+                }
+                invoker.postUnit(new SeqUnit(seq) {
+                    @Override public boolean invokeBatch (List<Invoker.Unit> batch) {
+                        sizes.add(batch.size());
+                        for (Invoker.Unit unit : batch) {
+                            order.add(((SeqUnit)unit).seq);
+                        }
+                        return true;
+                    }
+                    @Override public void handleResult () {
+                        results[0]++;
+                    }
+                });
+            }
+            invoker.shutdown();
+            invoker.start();
+            invoker.join(5000L);
+
+            assertEquals("[5, 5, 2, 5, 5, 2]", sizes.toString());
+            assertEquals(24, results[0]);
+            for (int ii = 0; ii < order.size(); ii++) {
+                assertEquals(ii, (int)order.get(ii));
+            }
+        }
+    }
+
+    @Test
+    public void testDoublePost ()
+        throws InterruptedException
+    {
+        final CountDownLatch invoked = new CountDownLatch(2);
+        Invoker.Unit unit = new Invoker.Unit() {
+            @Override public boolean invoke () {
+                invoked.countDown();
+                return false;
+            }
+        };
+
+        // a unit may not be posted to a lock-free invoker while it is still queued
+        Invoker invoker = new Invoker("test", DIRECT, true);
+        invoker.postUnit(unit);
+        try {
+            invoker.postUnit(unit);
+            fail("Posted a queued unit twice");
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+        try {
+            new Invoker("other", DIRECT, true).postUnit(unit);
+            fail("Posted a queued unit to a second invoker");
+        } catch (IllegalStateException ise) {
+            // expected
+        }
+        assertEquals(1, invoker.getPendingUnits());
+
+        // but it may be posted again once it has been removed from the queue
+        invoker.start();
+        assertTrue(waitFor(invoker, 0));
+        invoker.postUnit(unit);
+        assertTrue(invoked.await(5, TimeUnit.SECONDS));
+        invoker.shutdown();
+        invoker.join(5000L);
+    }
+
+    protected boolean waitFor (Invoker invoker, int pending)
+        throws InterruptedException
+    {
+        for (int ii = 0; ii < 500 && invoker.getPendingUnits() != pending; ii++) {
+            Thread.sleep(10L);
+        }
+        return invoker.getPendingUnits() == pending;
+    }
+
+    protected void testOrdering (Invoker invoker)
+        throws InterruptedException
+    {
+        invoker.start();
+
+        final int posters = 8, units = 10000;
+        final int[] lastSeen = new int[posters];
+        final CountDownLatch done = new CountDownLatch(posters * units);
+        final boolean[] ordered = { true };
+        for (int pp = 0; pp < posters; pp++) {
+            final int poster = pp;
+            final Invoker finvoker = invoker;
+            new Thread() {
+                @Override public void run () {
+                    for (int ii = 1; ii <= units; ii++) {
+                        final int seq = ii;
+                        finvoker.postUnit(new Invoker.Unit() {
+                            @Override public boolean invoke () {
+                                // units from a single poster must be invoked in order
+                                ordered[0] &= (lastSeen[poster] == seq-1);
+                                lastSeen[poster] = seq;
+                                return true;
+                            }
+                            @Override public void handleResult () {
+                                done.countDown();
+                            }
+                        });
+                    }
+                }
+            }.start();
+        }
+
+        assertTrue("all units invoked", done.await(30, TimeUnit.SECONDS));
+        assertTrue("units invoked in order", ordered[0]);
+        assertEquals(0, invoker.getPendingUnits());
+        Invoker.UnitStats waits = invoker.getProfileSnapshot().get(Invoker.QUEUE_WAIT_KEY);
+        assertTrue(waits.wait.count >= posters * units - 1);
+        assertEquals(0, waits.run.count);
+        invoker.shutdown();
+        invoker.join(5000L);
+        assertFalse(invoker.isAlive());
+    }
+
+    protected static abstract class SeqUnit extends Invoker.BatchUnit
+    {
+        public final int seq;
+
+        public SeqUnit (int seq) {
+            super("seq" + seq);
+            this.seq = seq;
+        }
+
+        @Override public Object getBatchKey () {
+            return SeqUnit.class;
+        }
+
+        @Override public int getMaxBatchSize () {
+            return 5;
+        }
+    }
+
+    protected static final Executor DIRECT = new Executor() {
+        public void execute (Runnable command) {
+            command.run();
+        }
+    };
+}
@@ -0,0 +1,125 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.util;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Compares the multi-threaded throughput of a synchronized {@link LRUHashMap} with that of a
+ * {@link ConcurrentLRUHashMap}, used as a read-through cache of keys drawn from a Zipfian
+ * distribution. Run by hand: {@code LRUHashMapBenchmark [ops/thread] [keys] [cache size]}.
+ */
+public class LRUHashMapBenchmark
+{
+    public static void main (String[] args)
+        throws Exception
+    {
+        int ops = (args.length > 0) ? Integer.parseInt(args[0]) : 2000000;
+        int keys = (args.length > 1) ? Integer.parseInt(args[1]) : 100000;
+        int size = (args.length > 2) ? Integer.parseInt(args[2]) : 10000;
+
+        int maxThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            int[][] traces = new int[threads][];
+            for (int tt = 0; tt < threads; tt++) {
+                traces[tt] = zipfTrace(keys, ops, 0.99, tt);
+            }
+            // the first round of each is just to warm up the JIT
+            for (int rr = 0; rr < 3; rr++) {
+                run("synchronized", new LRUHashMap<Integer,Integer>(size), true, traces, rr > 0);
+                run("concurrent", new ConcurrentLRUHashMap<Integer,Integer>(size), false, traces,
+                    rr > 0);
+            }
+        }
+    }
+
+    /**
+     * Returns <code>count</code> keys in [0, keys) drawn from a Zipfian distribution with the
+     * specified exponent, with key zero being the most popular.
+     */
+    public static int[] zipfTrace (int keys, int count, double exponent, long seed)
+    {
+        double[] cdf = new double[keys];
+        double total = 0;
+        for (int ii = 0; ii < keys; ii++) {
+            total += 1 / Math.pow(ii + 1, exponent);
+            cdf[ii] = total;
+        }
+        Random rando = new Random(seed);
+        int[] trace = new int[count];
+        for (int ii = 0; ii < count; ii++) {
+            int idx = Arrays.binarySearch(cdf, rando.nextDouble() * total);
+            trace[ii] = Math.min(keys - 1, (idx < 0) ? -idx - 1 : idx);
+        }
+        return trace;
+    }
+
+    protected static void run (String name, final Map<Integer,Integer> cache, final boolean sync,
+                               int[][] traces, boolean report)
+        throws Exception
+    {
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] misses = new long[traces.length];
+        Thread[] threads = new Thread[traces.length];
+        for (int tt = 0; tt < threads.length; tt++) {
+            final int[] trace = traces[tt];
+            final int index = tt;
+            threads[tt] = new Thread() {
+                @Override public void run () {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                    long missed = 0;
+                    for (int key : trace) {
+                        Integer value;
+                        if (sync) {
+                            synchronized (cache) {
+                                value = cache.get(key);
+                            }
+                        } else {
+                            value = cache.get(key);
+                        }
+                        if (value == null) {
+                            missed++;
+                            if (sync) {
+                                synchronized (cache) {
+                                    cache.put(key, key);
+                                }
+                            } else {
+                                cache.put(key, key);
+                            }
+                        }
+                    }
+                    misses[index] = missed;
+                }
+            };
+            threads[tt].start();
+        }
+
+        long began = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - began;
+
+        if (report) {
+            long ops = 0, missed = 0;
+            for (int tt = 0; tt < traces.length; tt++) {
+                ops += traces[tt].length;
+                missed += misses[tt];
+            }
+            System.out.println(String.format("%-12s threads=%-2d %,.0f ops/s hit rate %.1f%%",
+                                             name, traces.length, ops * 1e9 / elapsed,
+                                             100.0 * (ops - missed) / ops));
+        }
+    }
+}
@@ -42,4 +42,50 @@ public class LRUHashMapTest
         map.put("three.3", 3);
         assertTrue("size == 2", map.size() == 2);
     }
+
+    @Test
+    public void testScanResistance ()
+    {
+        assertTrue(countHotSurvivors(new LRUHashMap<Integer,Integer>(100)) < 60);
+
+        LRUHashMap<Integer,Integer> map = new LRUHashMap<Integer,Integer>(100);
+        map.setAdmissionPolicy(new TinyLFUPolicy(100));
+        assertTrue(countHotSurvivors(map) >= 90);
+
+        ConcurrentLRUHashMap<Integer,Integer> cmap = new ConcurrentLRUHashMap<Integer,Integer>(100);
+        cmap.setAdmissionPolicy(new TinyLFUPolicy(100));
+        assertTrue(countHotSurvivors(cmap) >= 90);
+    }
+
+    /**
+     * Fills the supplied map with 100 frequently read entries, then scans 1000 other keys through
+     * it while continuing to read the frequent entries, returning the number of the frequently read
+     * entries that remain.
+     */
+    protected static int countHotSurvivors (LRUHashMap<Integer,Integer> map)
+    {
+        for (int round = 0; round < 5; round++) {
+            for (int ii = 0; ii < 100; ii++) {
+                readThrough(map, ii);
+            }
+        }
+        for (int ii = 0; ii < 1000; ii++) {
+            readThrough(map, 1000 + ii);
+            readThrough(map, ii % 100);
+        }
+        int survivors = 0;
+        for (int ii = 0; ii < 100; ii++) {
+            if (map.containsKey(ii)) {
+                survivors++;
+            }
+        }
+        return survivors;
+    }
+
+    protected static void readThrough (LRUHashMap<Integer,Integer> map, int key)
+    {
+        if (map.get(key) == null) {
+            map.put(key, key);
+        }
+    }
 }
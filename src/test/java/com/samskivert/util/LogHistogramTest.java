@@ -0,0 +1,54 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.util;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link LogHistogram} class.
+ */
+public class LogHistogramTest
+{
+    @Test
+    public void testPercentiles ()
+    {
+        LogHistogram histo = new LogHistogram();
+        for (long ii = 1; ii <= 100000; ii++) {
+            histo.record(ii * 1000);
+        }
+
+        LogHistogram.Snapshot snap = histo.snapshot();
+        assertEquals(100000, snap.count);
+        assertEquals(100000L * 1000, snap.max);
+        assertWithin(50000L * 1000, snap.getPercentile(50));
+        assertWithin(99000L * 1000, snap.getPercentile(99));
+        assertWithin(99900L * 1000, snap.getPercentile(99.9));
+        assertEquals(snap.max, snap.getPercentile(100));
+
+        histo.clear();
+        assertEquals(0, histo.snapshot().count);
+        assertEquals(0, histo.snapshot().getPercentile(50));
+    }
+
+    @Test
+    public void testBuckets ()
+    {
+        // every value must fall in a bucket whose range contains it
+        for (long value : new long[] { 0, 1, 31, 32, 33, 63, 64, 1000, 123456789L,
+                                       Long.MAX_VALUE }) {
+            int index = LogHistogram.bucketIndex(value);
+            assertTrue(value + " <= " + LogHistogram.highestValue(index),
+                       value <= LogHistogram.highestValue(index));
+            assertTrue(index == 0 || LogHistogram.highestValue(index-1) < value);
+        }
+    }
+
+    protected void assertWithin (long expected, long actual)
+    {
+        assertTrue(expected + " ~= " + actual, Math.abs(expected - actual) <= expected / 32);
+    }
+}
@@ -0,0 +1,119 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.util;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link OpenHashIntMap} class.
+ */
+public class OpenHashIntMapTest
+{
+    @Test
+    public void testBasics ()
+    {
+        OpenHashIntMap<Integer> map = new OpenHashIntMap<Integer>();
+        for (int ii = 10; ii < 20; ii++) {
+            assertNull(map.put(ii, Integer.valueOf(ii)));
+        }
+        assertEquals(10, map.size());
+        for (int ii = 10; ii < 20; ii++) {
+            assertEquals(Integer.valueOf(ii), map.get(ii));
+        }
+        assertNull(map.get(20));
+
+        // replace, remove and null values
+        assertEquals(Integer.valueOf(12), map.put(12, Integer.valueOf(120)));
+        assertEquals(Integer.valueOf(120), map.remove(12));
+        assertNull(map.remove(12));
+        assertNull(map.put(0, null));
+        assertTrue(map.containsKey(0));
+        assertTrue(map.containsValue(null));
+        assertNull(map.get(0));
+        assertEquals(10, map.size());
+
+        // make sure we're equal to a normal map with the same contents
+        Map<Integer,Integer> copy = new HashMap<Integer,Integer>(map);
+        assertEquals(copy, map);
+        assertEquals(map, copy);
+        assertEquals(copy.hashCode(), map.hashCode());
+    }
+
+    @Test
+    public void testRandomOps ()
+    {
+        OpenHashIntMap<Integer> map = new OpenHashIntMap<Integer>();
+        HashMap<Integer,Integer> check = new HashMap<Integer,Integer>();
+        Random rando = new Random(42);
+        for (int ii = 0; ii < 100000; ii++) {
+            int key = rando.nextInt(5000) - 2500;
+            if (rando.nextInt(3) == 0) {
+                assertEquals(check.remove(key), map.remove(key));
+            } else {
+                assertEquals(check.put(key, ii), map.put(key, Integer.valueOf(ii)));
+            }
+        }
+        assertEquals(check, map);
+    }
+
+    @Test
+    public void testIteratorRemove ()
+    {
+        // small, dense tables guarantee that removals shift entries around the end of the table
+        Random rando = new Random(42);
+        for (int tt = 0; tt < 500; tt++) {
+            OpenHashIntMap<Integer> map = new OpenHashIntMap<Integer>(4, 0.9f);
+            HashMap<Integer,Integer> check = new HashMap<Integer,Integer>();
+            for (int ii = 0; ii < 14; ii++) {
+                int key = rando.nextInt(100);
+                map.put(key, Integer.valueOf(ii));
+                check.put(key, ii);
+            }
+
+            int size = map.size(), seen = 0;
+            for (Iterator<IntMap.IntEntry<Integer>> iter = map.intEntrySet().iterator();
+                 iter.hasNext(); ) {
+                IntMap.IntEntry<Integer> entry = iter.next();
+                assertEquals(check.get(entry.getIntKey()), entry.getValue());
+                seen++;
+                if (rando.nextBoolean()) {
+                    check.remove(entry.getIntKey());
+                    iter.remove();
+                }
+            }
+            assertEquals(size, seen);
+            assertEquals(check, map);
+        }
+    }
+
+    @Test
+    public void testSerialization ()
+        throws Exception
+    {
+        OpenHashIntMap<Integer> map = new OpenHashIntMap<Integer>();
+        for (int ii = 0; ii < 100; ii++) {
+            map.put(ii, (ii % 10 == 0) ? null : Integer.valueOf(ii));
+        }
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bout);
+        out.writeObject(map);
+        out.close();
+
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bout.toByteArray()));
+        @SuppressWarnings("unchecked") OpenHashIntMap<Integer> read =
+            (OpenHashIntMap<Integer>)in.readObject();
+        assertEquals(map, read);
+        assertEquals(map, read.clone());
+    }
+}
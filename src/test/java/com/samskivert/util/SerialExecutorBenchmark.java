@@ -0,0 +1,62 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures the per-task overhead of {@link SerialExecutor} by running trivial tasks through it,
+ * with results received on a single thread. Run by hand: {@code SerialExecutorBenchmark [tasks]}.
+ */
+public class SerialExecutorBenchmark
+{
+    public static void main (String[] args)
+        throws Exception
+    {
+        int tasks = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+        ExecutorService receiver = Executors.newSingleThreadExecutor();
+        // the first rounds are just to warm up the JIT
+        for (int rr = 0; rr < 4; rr++) {
+            run(receiver, tasks, rr >= 2);
+        }
+        receiver.shutdown();
+    }
+
+    protected static void run (ExecutorService receiver, final int tasks, boolean report)
+        throws Exception
+    {
+        final SerialExecutor executor = new SerialExecutor(receiver);
+        final CountDownLatch done = new CountDownLatch(tasks);
+        final long[] latency = new long[1];
+        long start = System.nanoTime();
+        receiver.execute(new Runnable() {
+            public void run () {
+                for (int ii = 0; ii < tasks; ii++) {
+                    final long queued = System.nanoTime();
+                    executor.execute(new Runnable() {
+                        public void run () {
+                            // only the first task starts without waiting for its predecessors
+                            if (latency[0] == 0) {
+                                latency[0] = System.nanoTime() - queued;
+                            }
+                            done.countDown();
+                        }
+                    });
+                }
+            }
+        });
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        if (report) {
+            System.out.println(String.format("%,d tasks in %,dms: %,.1fus per task, " +
+                                             "first task started after %,.1fus", tasks,
+                                             elapsed / 1000000, elapsed / 1000.0 / tasks,
+                                             latency[0] / 1000.0));
+        }
+    }
+}
@@ -5,7 +5,11 @@
 
 package com.samskivert.util;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.*;
 import static org.junit.Assert.*;
@@ -64,6 +68,95 @@ public class SerialExecutorTest
         assertCount("_doubleints", _doubleints, 0);
     }
 
+    @Test
+    public void testMerge ()
+        throws InterruptedException
+    {
+        SerialExecutor executor = new SerialExecutor(this);
+        List<String> results = new ArrayList<String>();
+
+        // block the executor so that subsequent tasks remain queued
+        CountDownLatch release = new CountDownLatch(1);
+        executor.addTask(new Blocker(release));
+
+        // tasks with the same key merge, those with different keys do not
+        Counter a = new Counter("a", 1, results);
+        executor.addTask(a);
+        executor.addTask(new Counter("a", 2, results));
+        executor.addTask(new Counter("b", 1, results));
+        // unkeyed tasks merge with any queued unkeyed task
+        Counter u = new Counter(null, 1, results);
+        executor.addTask(u);
+        executor.addTask(new Counter(null, 2, results));
+        assertEquals(3, executor.getQueueSize());
+        assertEquals(3, a.count);
+        assertEquals(3, u.count);
+
+        // once a task is dequeued, nothing more merges into it
+        release.countDown();
+        _queue.get().run(); // blocker's result, "a" is dequeued
+        executor.addTask(new Counter("a", 5, results));
+        assertEquals(3, a.count);
+        assertEquals(3, executor.getQueueSize());
+        _queue.get().run(); // "a" result, "b" is dequeued
+        _queue.get().run(); // "b" result, unkeyed is dequeued
+        executor.addTask(new Counter(null, 4, results));
+        assertEquals(3, u.count);
+        assertEquals(2, executor.getQueueSize());
+
+        // run the remaining tasks and make sure everything ran as merged
+        for (int ii = 0; ii < 3; ii++) {
+            _queue.get().run();
+        }
+        assertEquals(0, executor.getQueueSize());
+        assertEquals("[a3, b1, null3, a5, null4]", results.toString());
+    }
+
+    @Test
+    public void testAbortedWorkerReuse ()
+        throws InterruptedException
+    {
+        SerialExecutor executor = new SerialExecutor(this);
+
+        // this task will be aborted and will leave its thread interrupted
+        final Thread[] threads = new Thread[2];
+        final CountDownLatch aborted = new CountDownLatch(1);
+        executor.addTask(new Blocker(new CountDownLatch(1)) {
+            @Override public long getTimeout () {
+                return 100L;
+            }
+            @Override public void executeTask () {
+                threads[0] = Thread.currentThread();
+                super.executeTask();
+                Thread.currentThread().interrupt();
+                aborted.countDown();
+            }
+        });
+        assertTrue(aborted.await(5, TimeUnit.SECONDS));
+
+        // wait for the aborted worker to go idle before we process the timeout (which starts the
+        // next task), so that it is the worker that picks up the next task
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (threads[0].getState() != Thread.State.TIMED_WAITING &&
+               System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+
+        final boolean[] interrupted = new boolean[1];
+        executor.addTask(new Blocker(null) {
+            @Override public void executeTask () {
+                threads[1] = Thread.currentThread();
+                interrupted[0] = Thread.currentThread().isInterrupted();
+            }
+        });
+        _queue.get().run(); // the first task's timeout, starts the second
+        _queue.get().run(); // the second task's result
+
+        assertTrue(_timedOut);
+        assertSame(threads[0], threads[1]);
+        assertFalse(interrupted[0]);
+    }
+
     protected void assertCount (String field, int value, int expected)
     {
         assertTrue(field + " != " + expected + " (" + value + ")",
@@ -140,9 +233,85 @@ public class SerialExecutorTest
         protected boolean _hang;
     }
 
+    /** Waits for a latch to be released (or for the task to be aborted). */
+    protected class Blocker implements SerialExecutor.ExecutorTask
+    {
+        public Blocker (CountDownLatch release) {
+            _release = release;
+        }
+
+        public boolean merge (SerialExecutor.ExecutorTask task) {
+            return false;
+        }
+
+        public long getTimeout () {
+            return 5000L;
+        }
+
+        public void executeTask () {
+            try {
+                _release.await();
+            } catch (InterruptedException ie) {
+                // aborted
+            }
+        }
+
+        public void resultReceived () {
+        }
+
+        public void timedOut () {
+            _timedOut = true;
+        }
+
+        protected CountDownLatch _release;
+    }
+
+    /** Merges with other counters with the same key by summing their counts. */
+    protected static class Counter implements SerialExecutor.ExecutorTask
+    {
+        public int count;
+
+        public Counter (String key, int count, List<String> results) {
+            this.count = count;
+            _key = key;
+            _results = results;
+        }
+
+        public boolean merge (SerialExecutor.ExecutorTask task) {
+            if (!(task instanceof Counter) || !ObjectUtil.equals(_key, task.getMergeKey())) {
+                return false;
+            }
+            count += ((Counter)task).count;
+            return true;
+        }
+
+        @Override public Object getMergeKey () {
+            return _key;
+        }
+
+        public long getTimeout () {
+            return 5000L;
+        }
+
+        public void executeTask () {
+        }
+
+        public void resultReceived () {
+            _results.add(_key + count);
+        }
+
+        public void timedOut () {
+            _results.add(_key + "timeout");
+        }
+
+        protected String _key;
+        protected List<String> _results;
+    }
+
     protected Thread _main;
     protected Queue<Runnable> _queue = new Queue<Runnable>();
 
     protected int _sleeps, _interrupts, _doubleints, _exits;
     protected int _results, _timeouts;
+    protected boolean _timedOut;
 }
@@ -0,0 +1,85 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link ShardedInvoker} class.
+ */
+public class ShardedInvokerTest
+{
+    @Test
+    public void testKeyedOrdering ()
+        throws InterruptedException
+    {
+        final int keys = 16, units = 2000;
+        final int[] lastSeen = new int[keys];
+        final AtomicInteger misordered = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(keys * units);
+
+        ShardedInvoker invoker = new ShardedInvoker("test", DIRECT, 4, true);
+        invoker.start();
+
+        for (int ii = 1; ii <= units; ii++) {
+            for (int kk = 0; kk < keys; kk++) {
+                invoker.postUnit(new KeyedUnit(kk, ii) {
+                    @Override public boolean invoke () {
+                        // each key's units are only ever touched by a single shard thread
+                        if (lastSeen[key] != seq-1) {
+                            misordered.incrementAndGet();
+                        }
+                        lastSeen[key] = seq;
+                        return true;
+                    }
+                    @Override public void handleResult () {
+                        done.countDown();
+                    }
+                });
+            }
+        }
+
+        assertTrue("all units invoked", done.await(30, TimeUnit.SECONDS));
+        assertEquals("keyed units invoked out of order", 0, misordered.get());
+        invoker.shutdown();
+        invoker.join();
+        assertFalse(invoker.isRunning());
+        long depthSamples = 0;
+        for (int ii = 0; ii < 4; ii++) {
+            LogHistogram.Snapshot depths = invoker.getQueueDepthSnapshot(ii);
+            assertTrue(depths.count == 0 || depths.max >= 1);
+            depthSamples += depths.count;
+        }
+        assertTrue(depthSamples >= keys * units);
+    }
+
+    protected static abstract class KeyedUnit extends Invoker.Unit
+        implements ShardedInvoker.Keyed
+    {
+        public final int key, seq;
+
+        public KeyedUnit (int key, int seq) {
+            this.key = key;
+            this.seq = seq;
+        }
+
+        public Object getShardKey () {
+            return key;
+        }
+    }
+
+    protected static final Executor DIRECT = new Executor() {
+        public void execute (Runnable command) {
+            command.run();
+        }
+    };
+}
@@ -0,0 +1,84 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.util;
+
+import java.lang.ref.SoftReference;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link SoftCache} class.
+ */
+public class SoftCacheTest
+{
+    @Test
+    public void testBasics ()
+    {
+        SoftCache<String,String> cache = new SoftCache<String,String>();
+        assertNull(cache.put("one", "1"));
+        assertEquals("1", cache.put("one", "uno"));
+        assertEquals("uno", cache.get("one"));
+        assertNull(cache.get("two"));
+        assertEquals("uno", cache.remove("one"));
+        assertFalse(cache.containsKey("one"));
+        assertEquals(0, cache.size());
+        // containsKey does not count as a hit or miss
+        assertArrayEquals(new long[] { 1, 1, 0, 0 }, cache.getStats());
+    }
+
+    @Test
+    public void testExpiration ()
+        throws Exception
+    {
+        SoftCache<String,String> cache = new SoftCache<String,String>();
+        cache.setExpireMillis(500);
+        cache.put("one", "1");
+        assertEquals("1", cache.get("one"));
+        Thread.sleep(600);
+        assertNull(cache.get("one"));
+        assertEquals(0, cache.size());
+        assertArrayEquals(new long[] { 1, 1, 0, 1 }, cache.getStats());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testLegacyReferences ()
+    {
+        final int[] created = new int[1];
+        SoftCache<String,String> cache = new SoftCache<String,String>() {
+            @Override protected SoftReference<String> createReference (String value) {
+                created[0]++;
+                return super.createReference(value);
+            }
+        };
+        cache.put("one", "1");
+        assertEquals(1, created[0]);
+        assertEquals("1", cache.get("one"));
+        assertEquals("1", cache.getMap().get("one").get());
+        assertEquals(1, cache.getMap().size());
+    }
+
+    @Test
+    public void testWeakValues ()
+        throws Exception
+    {
+        SoftCache<Integer,Object> cache = new SoftCache<Integer,Object>();
+        cache.setWeakValues(true);
+        Object held = new Object();
+        cache.put(1, held);
+        cache.put(2, new Object());
+
+        // the unreferenced value should be collected and its entry drained
+        for (int ii = 0; ii < 50 && cache.size() > 1; ii++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, cache.size());
+        assertSame(held, cache.get(1));
+        assertEquals(1, cache.getStats()[2]);
+    }
+}
@@ -0,0 +1,198 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link TimingWheel} class.
+ */
+public class TimingWheelTest
+{
+    @After
+    public void shutdownWheel ()
+    {
+        _wheel.shutdown();
+    }
+
+    @Test
+    public void testOrdering ()
+        throws Exception
+    {
+        // these delays span the first two levels of the wheel
+        final int[] delays = { 700, 5, 260, 0, 90, 512, 255, 256, 30 };
+        final List<Integer> fired = Collections.synchronizedList(new ArrayList<Integer>());
+        final long[] lateness = new long[delays.length];
+        final CountDownLatch latch = new CountDownLatch(delays.length);
+        final long start = System.nanoTime();
+        for (int ii = 0; ii < delays.length; ii++) {
+            final int index = ii;
+            _wheel.schedule(new Runnable() {
+                public void run () {
+                    long elapsed = (System.nanoTime() - start) / 1000000L;
+                    lateness[index] = elapsed - delays[index];
+                    fired.add(delays[index]);
+                    latch.countDown();
+                }
+            }, delays[ii]);
+        }
+        assertEquals(delays.length, _wheel.getPendingCount());
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+
+        List<Integer> expect = new ArrayList<Integer>();
+        for (int delay : delays) {
+            expect.add(delay);
+        }
+        Collections.sort(expect);
+        assertEquals(expect, fired);
+        for (long late : lateness) {
+            assertTrue("Fired early: " + late, late >= -1);
+        }
+        assertEquals(0, _wheel.getPendingCount());
+    }
+
+    @Test
+    public void testCancel ()
+        throws Exception
+    {
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable counter = new Runnable() {
+            public void run () {
+                runs.incrementAndGet();
+            }
+        };
+        TimingWheel.Timeout[] timeouts = new TimingWheel.Timeout[1000];
+        for (int ii = 0; ii < timeouts.length; ii++) {
+            timeouts[ii] = _wheel.schedule(counter, 20 + ii % 500);
+        }
+        for (int ii = 0; ii < timeouts.length; ii += 2) {
+            assertTrue(timeouts[ii].cancel());
+            assertFalse(timeouts[ii].cancel());
+        }
+        // cancelled timeouts are released immediately
+        assertEquals(500, _wheel.getPendingCount());
+
+        Thread.sleep(700);
+        assertEquals(500, runs.get());
+        assertEquals(0, _wheel.getPendingCount());
+    }
+
+    @Test
+    public void testRepeat ()
+        throws Exception
+    {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(5);
+        long start = System.nanoTime();
+        TimingWheel.Timeout timeout = _wheel.schedule(new Runnable() {
+            public void run () {
+                runs.incrementAndGet();
+                latch.countDown();
+            }
+        }, 10, 10, true);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(timeout.cancel());
+        // the runs may be late, but never early
+        long elapsed = (System.nanoTime() - start) / 1000000L;
+        int count = runs.get();
+        assertTrue("Ran " + count + " times in " + elapsed + "ms", count <= elapsed / 10 + 1);
+        Thread.sleep(50);
+        assertEquals(count, runs.get());
+        assertEquals(0, _wheel.getPendingCount());
+    }
+
+    @Test
+    public void testCascading ()
+    {
+        // drive the wheel's bookkeeping directly (without its thread) through deadlines that
+        // span three levels, checking that every timeout expires exactly at its deadline
+        Random rando = new Random(42);
+        int count = 20000;
+        for (int ii = 0; ii < count; ii++) {
+            TimingWheel.Timeout timeout = _wheel.new Timeout(null, 0L, true);
+            timeout._deadline = rando.nextInt(1 << 20);
+            _wheel.insert(timeout);
+        }
+
+        TimingWheel.Timeout[] expired = new TimingWheel.Timeout[16];
+        int seen = 0;
+        for (long now = 0; seen < count; now += 1 + rando.nextInt(5000)) {
+            while (_wheel._nextTick <= now) {
+                int expiredCount = _wheel.advance(expired, now);
+                expired = _wheel._expired;
+                long tick = _wheel._nextTick - 1;
+                for (int ii = 0; ii < expiredCount; ii++) {
+                    assertEquals(tick, expired[ii]._deadline);
+                }
+                seen += expiredCount;
+            }
+        }
+        assertEquals(count, seen);
+        assertArrayEquals(new int[5], _wheel._counts);
+    }
+
+    @Test
+    public void testRevolutionBoundary ()
+    {
+        // a timeout in the second level, which must be redistributed at tick 256
+        TimingWheel.Timeout later = _wheel.new Timeout(null, 0L, true);
+        later._deadline = 300;
+        _wheel.insert(later);
+
+        // process up to the boundary, but not the boundary itself
+        TimingWheel.Timeout[] expired = new TimingWheel.Timeout[16];
+        while (_wheel._nextTick <= 255) {
+            assertEquals(0, _wheel.advance(expired, 255));
+        }
+        assertEquals(256, _wheel._nextTick);
+
+        // now add a timeout to the first level and make sure we don't skip over the boundary
+        TimingWheel.Timeout sooner = _wheel.new Timeout(null, 0L, true);
+        sooner._deadline = 260;
+        _wheel.insert(sooner);
+        List<Long> deadlines = new ArrayList<Long>();
+        while (_wheel._nextTick <= 400) {
+            int count = _wheel.advance(expired, 400);
+            for (int ii = 0; ii < count; ii++) {
+                deadlines.add(_wheel._expired[ii]._deadline);
+            }
+        }
+        assertEquals(Arrays.asList(260L, 300L), deadlines);
+    }
+
+    @Test
+    public void testIntervalBackend ()
+        throws Exception
+    {
+        Interval.setBackend(Interval.Backend.TIMING_WHEEL);
+        try {
+            final CountDownLatch latch = new CountDownLatch(3);
+            Interval ival = new Interval(Interval.RUN_DIRECT) {
+                @Override public void expired () {
+                    latch.countDown();
+                }
+            };
+            ival.schedule(10, true);
+            assertTrue(latch.await(1, TimeUnit.SECONDS));
+            ival.cancel();
+            assertEquals(0, Interval.getWheel().getPendingCount());
+        } finally {
+            Interval.setBackend(Interval.Backend.TIMER);
+        }
+    }
+
+    protected TimingWheel _wheel = new TimingWheel("TimingWheelTest");
+}
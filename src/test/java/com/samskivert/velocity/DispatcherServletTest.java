@@ -0,0 +1,99 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.velocity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the logic resolution of the {@link DispatcherServlet}.
+ */
+public class DispatcherServletTest
+{
+    public static class TestLogic implements Logic
+    {
+        public void invoke (Application app, InvocationContext context) {
+        }
+    }
+
+    @Before
+    public void createServlet ()
+    {
+        _generated = new ArrayList<String>();
+        _instantiated = new ArrayList<String>();
+        _servlet = new DispatcherServlet() {
+            @Override protected Logic instantiateLogic (String path, String lclass) {
+                _instantiated.add(lclass);
+                return lclass.endsWith(".missing") ? null : new TestLogic();
+            }
+        };
+        _servlet._app = new Application() {
+            @Override protected String generateClass (String path) {
+                _generated.add(path);
+                return super.generateClass(path);
+            }
+        };
+        _servlet._app._logicPkg = "com.test.logic";
+    }
+
+    @Test
+    public void testSharedLogic ()
+    {
+        // paths that differ only in their extension share a single logic instance
+        Logic logic = _servlet.resolveLogic("/foo/bar.wm");
+        assertTrue(logic instanceof TestLogic);
+        assertSame(logic, _servlet.resolveLogic("/foo/bar.html"));
+        assertSame(logic, _servlet.resolveLogic("/foo/bar.wm"));
+        assertEquals(1, _instantiated.size());
+        assertEquals("com.test.logic.foo.bar", _instantiated.get(0));
+
+        // and a repeated path doesn't regenerate its class name
+        assertEquals(2, _generated.size());
+
+        // failures are cached as dummy logic
+        Logic missing = _servlet.resolveLogic("/missing.wm");
+        assertTrue(missing instanceof DummyLogic);
+        assertSame(missing, _servlet.resolveLogic("/missing.html"));
+        assertEquals(2, _instantiated.size());
+    }
+
+    @Test
+    public void testBoundedPathCache ()
+    {
+        int paths = DispatcherServlet.LOGIC_CLASS_CACHE_SIZE * 2;
+        for (int ii = 0; ii < paths; ii++) {
+            _servlet.resolveLogic("/page.wm?" + ii);
+        }
+        assertTrue(_servlet._logicClasses.size() <= DispatcherServlet.LOGIC_CLASS_CACHE_SIZE);
+
+        // the logic instances are still keyed on their class and so never need recreating
+        assertEquals(paths, _generated.size());
+        assertEquals(1, _servlet._logic.size());
+        assertEquals(1, _instantiated.size());
+    }
+
+    @Test
+    public void testAcceptsGzip ()
+    {
+        assertFalse(DispatcherServlet.acceptsGzip(null));
+        assertFalse(DispatcherServlet.acceptsGzip("identity"));
+        assertTrue(DispatcherServlet.acceptsGzip("gzip"));
+        assertTrue(DispatcherServlet.acceptsGzip("deflate, GZIP;q=0.5"));
+        assertTrue(DispatcherServlet.acceptsGzip("x-gzip"));
+        assertTrue(DispatcherServlet.acceptsGzip("*"));
+        assertFalse(DispatcherServlet.acceptsGzip("gzip;q=0"));
+        assertFalse(DispatcherServlet.acceptsGzip("deflate, gzip ; q=0.0"));
+        assertFalse(DispatcherServlet.acceptsGzip("*, gzip;q=0"));
+        assertFalse(DispatcherServlet.acceptsGzip("*;q=0"));
+        assertFalse(DispatcherServlet.acceptsGzip("gzipfoo"));
+    }
+
+    protected DispatcherServlet _servlet;
+    protected List<String> _generated, _instantiated;
+}
@@ -0,0 +1,129 @@
+//
+// samskivert library - useful routines for java programs
+// Copyright (C) 2001-2012 Michael Bayne, et al.
+// http://github.com/samskivert/samskivert/blob/master/COPYING
+
+package com.samskivert.velocity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+import com.samskivert.io.StreamUtil;
+
+/**
+ * Tests the {@link ResponseWriter}.
+ */
+public class ResponseWriterTest
+{
+    @Test
+    public void testEncoding ()
+        throws Exception
+    {
+        // use a tiny buffer so that we exercise buffer wrapping and split surrogate pairs
+        ResponseWriter writer = new ResponseWriter(7);
+        String text = makeText();
+        for (String encoding : new String[] { "UTF-8", "ISO-8859-1", "UTF-16" }) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writer.init(out, encoding, false);
+            writer.write(text);
+            writer.finish();
+            assertArrayEquals(text.getBytes(encoding), out.toByteArray());
+            assertEquals(out.size(), writer.getBytesWritten());
+        }
+    }
+
+    @Test
+    public void testGzip ()
+        throws Exception
+    {
+        ResponseWriter writer = new ResponseWriter(64);
+        String text = makeText();
+        // reuse the writer to make sure the deflater is properly reset
+        for (int ii = 0; ii < 3; ii++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writer.init(out, "UTF-8", true);
+            writer.write(text, 0, 100);
+            writer.flush();
+            writer.write(text, 100, text.length() - 100);
+            writer.finish();
+
+            byte[] data = StreamUtil.toByteArray(
+                new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())));
+            assertEquals(text, new String(data, "UTF-8"));
+            assertEquals(data.length, writer.getBytesEncoded());
+            assertEquals(out.size(), writer.getBytesWritten());
+        }
+    }
+
+    @Test
+    public void testDeferredEncoding ()
+        throws Exception
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final Map<String,String> headers = new HashMap<String,String>();
+        HttpServletResponse rsp = (HttpServletResponse)Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { HttpServletResponse.class },
+            new InvocationHandler() {
+                public Object invoke (Object proxy, Method method, Object[] args) {
+                    if (method.getName().equals("setHeader")) {
+                        headers.put((String)args[0], (String)args[1]);
+                    } else if (method.getName().equals("getOutputStream")) {
+                        return new ServletOutputStream() {
+                            @Override public void write (int b) {
+                                out.write(b);
+                            }
+                            @Override public boolean isReady () {
+                                return true;
+                            }
+                            @Override public void setWriteListener (WriteListener listener) {
+                            }
+                        };
+                    }
+                    return null;
+                }
+            });
+
+        // an aborted response that never reached the stream is neither written nor marked gzipped
+        ResponseWriter writer = new ResponseWriter(64);
+        writer.init(rsp, "UTF-8", true);
+        writer.write("oops");
+        writer.abort();
+        assertEquals(0, out.size());
+        assertTrue(headers.isEmpty());
+
+        // but one that does is marked as gzipped when it starts, and is finished when aborted
+        String text = makeText();
+        writer.init(rsp, "UTF-8", true);
+        writer.write(text, 0, 100);
+        assertTrue(headers.isEmpty());
+        writer.write(text, 100, text.length() - 100);
+        writer.flush();
+        assertEquals("gzip", headers.get("Content-Encoding"));
+        writer.abort();
+        byte[] data = StreamUtil.toByteArray(
+            new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())));
+        assertEquals(text, new String(data, "UTF-8"));
+    }
+
+    protected static String makeText ()
+    {
+        StringBuilder buf = new StringBuilder();
+        for (int ii = 0; ii < 500; ii++) {
+            buf.append("line ").append(ii).append(": café 😀 ");
+        }
+        return buf.toString();
+    }
+}